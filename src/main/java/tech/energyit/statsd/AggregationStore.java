@@ -0,0 +1,550 @@
+package tech.energyit.statsd;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Client-side aggregation of many series (aspect + tags) without per-series objects.
+ * Series are keyed by their encoded bytes in an open-addressing hash table: the keys live in an off-heap arena,
+ * the aggregates in primitive slots (sum, count, min, max) of one {@link AtomicLongArray} updated by atomic operations.
+ * Recording a known series does not allocate. The memory is allocated upfront and bounded -
+ * new series which do not fit are dropped and counted ({@link #droppedCount()}).
+ *
+ * {@link #flush()} iterates the slots, resets them and sends one line per aggregate, packed into datagrams:
+ * <ul>
+ * <li>counters (and meters) as the sum</li>
+ * <li>gauges as the last value</li>
+ * <li>timers and histograms as {@code name.count} counter and {@code name.sum}, {@code name.min}, {@code name.max} gauges</li>
+ * <li>sets as their unique members, or as {@code name.cardinality} gauge estimated by a HyperLogLog
+ * once there are more than the set threshold of them ({@link Builder#withSetThreshold(int)})</li>
+ * </ul>
+ * Updates racing with the flush may be split between two flushes. A value is written before it is counted
+ * and the flush takes the count before the values, so a counted series always has its values - except a timer or
+ * histogram whose values were taken by the previous flush, which then sends only its count.
+ * Gauges keep their last value, so a gauge is never sent without one.
+ * Sets are recorded under the lock of their sketch, which is allocated with the series.
+ * Series are never evicted, the store is meant for a bounded (even if big) set of series.
+ */
+public final class AggregationStore implements Flushable, Closeable {
+
+    private static final int SUM = 0;
+    private static final int COUNT = 1;
+    private static final int MIN = 2;
+    private static final int MAX = 3;
+    private static final int SLOTS_PER_SERIES = 4;
+    private static final int RECORD_HEADER = 4;
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final FastStatsDClient.MetricType[] TYPES = FastStatsDClient.MetricType.values();
+    private static final byte[] COUNT_SUFFIX = ".count".getBytes(FastStatsDClient.MESSAGE_CHARSET);
+    private static final byte[] SUM_SUFFIX = ".sum".getBytes(FastStatsDClient.MESSAGE_CHARSET);
+    private static final byte[] MIN_SUFFIX = ".min".getBytes(FastStatsDClient.MESSAGE_CHARSET);
+    private static final byte[] MAX_SUFFIX = ".max".getBytes(FastStatsDClient.MESSAGE_CHARSET);
+    private static final byte[] CARDINALITY_SUFFIX = ".cardinality".getBytes(FastStatsDClient.MESSAGE_CHARSET);
+
+    private final FastStatsDClient client;
+    private final MessagePacker packer;
+    private final StatsDClientErrorHandler errorHandler;
+    private final int mask;
+    private final int maxSeries;
+    private final AtomicLongArray hashes;
+    private final AtomicIntegerArray keyOffsets;
+    private final AtomicLongArray values;
+    private final AtomicReferenceArray<SetSketch> sketches;
+    private final int setThreshold;
+    private final int setPrecision;
+    private final ByteBuffer keyArena;
+    private final AtomicInteger arenaTail = new AtomicInteger();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicBoolean dropReported = new AtomicBoolean();
+    private final ThreadLocal<ByteBuffer> keyBuffer = ThreadLocal.withInitial(() -> ByteBuffer.allocate(FastStatsDClient.INITIAL_BUFFER_SIZE));
+    private ByteBuffer msgBuffer = IOUtils.allocateDirect(FastStatsDClient.INITIAL_BUFFER_SIZE);
+    private FlushScheduler.Registration registration;
+
+    private AggregationStore(FastStatsDClient client, int maxSeries, int keyArenaBytes, int maxPacketSize,
+                             int setThreshold, int setPrecision, StatsDClientErrorHandler errorHandler) {
+        if (maxSeries <= 0 || keyArenaBytes <= 0) {
+            throw new IllegalArgumentException("Max series and key arena size must be positive : " + maxSeries + ", " + keyArenaBytes);
+        }
+        if (setThreshold < 0 || setPrecision < SetSketch.MIN_PRECISION || setPrecision > SetSketch.MAX_PRECISION) {
+            throw new IllegalArgumentException("Invalid set threshold or precision : " + setThreshold + ", " + setPrecision);
+        }
+        final int capacity = Integer.highestOneBit(maxSeries * 2 - 1) << 1;
+        this.client = client;
+        this.packer = new MessagePacker(client.getSender(), maxPacketSize);
+        this.errorHandler = errorHandler;
+        this.mask = capacity - 1;
+        this.maxSeries = maxSeries;
+        this.hashes = new AtomicLongArray(capacity);
+        this.keyOffsets = new AtomicIntegerArray(capacity);
+        this.values = new AtomicLongArray(capacity * SLOTS_PER_SERIES);
+        this.sketches = new AtomicReferenceArray<>(capacity);
+        this.setThreshold = setThreshold;
+        this.setPrecision = setPrecision;
+        this.keyArena = IOUtils.allocateDirect(keyArenaBytes);
+    }
+
+    /**
+     * Adds the value to the aggregate of the series.
+     *
+     * @return false if the series is new and there is no space left for it
+     */
+    public boolean record(final FastStatsDClient.MetricType metricType, final byte[] aspect, final long value, final Tag... tags) {
+        if (!record(metricType, encodeKey(metricType, aspect, tags), value)) {
+            drop(aspect, 0, aspect.length);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Adds the value to the aggregate of the series given by already encoded name and tags (e.g. of a received line).
+     * The client's prefix and constant tags are not added.
+     *
+     * @param src        buffer with the name and tags, its position is not changed
+     * @param tagsLength length of the tags ({@code name:value,name:value}), 0 if there are none
+     * @return false if the series is new and there is no space left for it
+     */
+    public boolean record(final FastStatsDClient.MetricType metricType, final ByteBuffer src, final int nameOffset, final int nameLength,
+                          final int tagsOffset, final int tagsLength, final long value) {
+        final ByteBuffer key = encodeKey(metricType, src, nameOffset, nameLength, tagsOffset, tagsLength);
+        if (!record(metricType, key, value)) {
+            // the key buffer holds [name length][type][name]...
+            drop(key.array(), 3, nameLength);
+            return false;
+        }
+        return true;
+    }
+
+    private boolean record(FastStatsDClient.MetricType metricType, ByteBuffer key, long value) {
+        final int slot = slot(key);
+        if (slot < 0) {
+            return false;
+        }
+        final int base = slot * SLOTS_PER_SERIES;
+        if (metricType == FastStatsDClient.MetricType.SET) {
+            final SetSketch sketch = sketches.get(slot);
+            synchronized (sketch) {
+                sketch.add(value);
+            }
+        } else if (metricType == FastStatsDClient.MetricType.GAUGE) {
+            values.set(base + SUM, value);
+        } else {
+            values.getAndAdd(base + SUM, value);
+            updateMin(base + MIN, value);
+            updateMax(base + MAX, value);
+        }
+        // counted after the value is written, so a flush which takes the count sees the value too
+        values.getAndIncrement(base + COUNT);
+        return true;
+    }
+
+    /**
+     * Sends all aggregates recorded since the last flush and resets them.
+     */
+    @Override
+    public synchronized void flush() {
+        for (int slot = 0; slot <= mask; slot++) {
+            final int keyOffset = keyOffsets.get(slot) - 1;
+            if (keyOffset < 0) {
+                continue;
+            }
+            final int base = slot * SLOTS_PER_SERIES;
+            if (values.get(base + COUNT) == 0) {
+                continue;
+            }
+            // taken before the values - see record()
+            final long count = values.getAndSet(base + COUNT, 0);
+            try {
+                sendAggregates(slot, keyOffset, base, count);
+            } catch (RuntimeException e) {
+                errorHandler.handle(e);
+            }
+        }
+        packer.flush();
+    }
+
+    /**
+     * Flushes the aggregates and stops the timed flushes. The client's sender is not closed.
+     */
+    @Override
+    public synchronized void close() {
+        if (registration != null) {
+            registration.close();
+        }
+        flush();
+    }
+
+    /**
+     * @return number of values not recorded, because there was no space for their series
+     */
+    public long droppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * @return number of series in the store
+     */
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * @return bytes used by the keys of the series
+     */
+    public int usedKeyBytes() {
+        return arenaTail.get();
+    }
+
+    /**
+     * @return bytes allocated by the store (off-heap keys, on-heap slots and the members and registers of the sets)
+     */
+    public long memoryBytes() {
+        long setBytes = 0;
+        for (int slot = 0; slot < sketches.length(); slot++) {
+            final SetSketch sketch = sketches.get(slot);
+            if (sketch != null) {
+                synchronized (sketch) {
+                    setBytes += 16L * (setThreshold + 1) + sketch.registerBytes();
+                }
+            }
+        }
+        return keyArena.capacity() + 8L * hashes.length() + 4L * keyOffsets.length() + 8L * values.length()
+                + 4L * sketches.length() + setBytes;
+    }
+
+    private ByteBuffer encodeKey(FastStatsDClient.MetricType metricType, ByteBuffer src, int nameOffset, int nameLength,
+                                 int tagsOffset, int tagsLength) {
+        final int length = 3 + nameLength + (tagsLength > 0 ? 2 + tagsLength : 0);
+        ByteBuffer buffer = keyBuffer.get();
+        if (buffer.capacity() < length) {
+            buffer = ByteBuffer.allocate(Integer.highestOneBit(length) << 1);
+            keyBuffer.set(buffer);
+        }
+        buffer.clear();
+        buffer.putShort((short) nameLength);
+        buffer.put((byte) metricType.ordinal());
+        for (int i = 0; i < nameLength; i++) {
+            buffer.put(src.get(nameOffset + i));
+        }
+        if (tagsLength > 0) {
+            buffer.put((byte) '|');
+            buffer.put((byte) '#');
+            for (int i = 0; i < tagsLength; i++) {
+                buffer.put(src.get(tagsOffset + i));
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private ByteBuffer encodeKey(FastStatsDClient.MetricType metricType, byte[] aspect, Tag[] tags) {
+        ByteBuffer buffer = keyBuffer.get();
+        while (true) {
+            try {
+                buffer.clear();
+                buffer.putShort((short) 0);
+                buffer.put((byte) metricType.ordinal());
+                final int nameLength = client.putSeries(buffer, aspect, tags);
+                buffer.putShort(0, (short) nameLength);
+                buffer.flip();
+                return buffer;
+            } catch (BufferOverflowException e) {
+                buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+                keyBuffer.set(buffer);
+            }
+        }
+    }
+
+    /**
+     * @return slot of the series, -1 if it is new and there is no space for it
+     */
+    private int slot(ByteBuffer key) {
+        final long hash = hash(key);
+        for (int i = 0, slot = (int) (hash ^ (hash >>> 32)) & mask; i <= mask; i++, slot = (slot + 1) & mask) {
+            final long slotHash = hashes.get(slot);
+            if (slotHash == hash && keyEquals(awaitKeyOffset(slot), key)) {
+                return slot;
+            }
+            if (slotHash == 0) {
+                if (size.get() >= maxSeries) {
+                    return -1;
+                }
+                // the key space is reserved before the slot is claimed, so a series which does not fit leaves no slot behind
+                final int keyOffset = reserveKey(key.remaining());
+                if (keyOffset < 0) {
+                    return -1;
+                }
+                if (hashes.compareAndSet(slot, 0, hash)) {
+                    insert(slot, keyOffset, key);
+                    return slot;
+                }
+                releaseKey(keyOffset, key.remaining());
+                // lost the race for the slot - it may be the same series
+                if (hashes.get(slot) == hash && keyEquals(awaitKeyOffset(slot), key)) {
+                    return slot;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return offset of the reserved key record in the arena, -1 if it does not fit
+     */
+    private int reserveKey(int length) {
+        while (true) {
+            final int offset = arenaTail.get();
+            final int end = offset + RECORD_HEADER + length;
+            if (end > keyArena.capacity()) {
+                return -1;
+            }
+            if (arenaTail.compareAndSet(offset, end)) {
+                return offset;
+            }
+        }
+    }
+
+    /**
+     * gives the reserved record back, unless another one has been reserved after it (then the bytes stay unused).
+     */
+    private void releaseKey(int offset, int length) {
+        arenaTail.compareAndSet(offset + RECORD_HEADER + length, offset);
+    }
+
+    private void insert(int slot, int offset, ByteBuffer key) {
+        final int length = key.remaining();
+        size.incrementAndGet();
+        keyArena.putInt(offset, length);
+        for (int i = 0; i < length; i++) {
+            keyArena.put(offset + RECORD_HEADER + i, key.get(i));
+        }
+        final int base = slot * SLOTS_PER_SERIES;
+        values.set(base + MIN, Long.MAX_VALUE);
+        values.set(base + MAX, Long.MIN_VALUE);
+        if (key.get(2) == FastStatsDClient.MetricType.SET.ordinal()) {
+            sketches.set(slot, new SetSketch(setThreshold, setPrecision));
+        }
+        // publishes the key and the initialized slots
+        keyOffsets.set(slot, offset + 1);
+    }
+
+    private int awaitKeyOffset(int slot) {
+        int keyOffset;
+        while ((keyOffset = keyOffsets.get(slot)) == 0) {
+            // the key is being inserted by another thread right now
+            Thread.yield();
+        }
+        return keyOffset - 1;
+    }
+
+    private boolean keyEquals(int keyOffset, ByteBuffer key) {
+        final int length = key.remaining();
+        if (keyArena.getInt(keyOffset) != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (keyArena.get(keyOffset + RECORD_HEADER + i) != key.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void sendAggregates(int slot, int keyOffset, int base, long count) {
+        final int start = keyOffset + RECORD_HEADER;
+        final FastStatsDClient.MetricType metricType = TYPES[keyArena.get(start + 2)];
+        switch (metricType) {
+            case SET:
+                sendSet(sketches.get(slot), start);
+                break;
+            case GAUGE:
+                // the last value is not reset
+                writeLine(start, null, values.get(base + SUM), metricType);
+                break;
+            case COUNTER:
+            case METER:
+                writeLine(start, null, values.getAndSet(base + SUM, 0), metricType);
+                break;
+            default:
+                final long sum = values.getAndSet(base + SUM, 0);
+                final long min = values.getAndSet(base + MIN, Long.MAX_VALUE);
+                final long max = values.getAndSet(base + MAX, Long.MIN_VALUE);
+                writeLine(start, COUNT_SUFFIX, count, FastStatsDClient.MetricType.COUNTER);
+                if (min != Long.MAX_VALUE) {
+                    writeLine(start, SUM_SUFFIX, sum, FastStatsDClient.MetricType.GAUGE);
+                    writeLine(start, MIN_SUFFIX, min, FastStatsDClient.MetricType.GAUGE);
+                    writeLine(start, MAX_SUFFIX, max, FastStatsDClient.MetricType.GAUGE);
+                }
+        }
+    }
+
+    private void sendSet(SetSketch sketch, int start) {
+        synchronized (sketch) {
+            try {
+                if (sketch.isEstimating()) {
+                    writeLine(start, CARDINALITY_SUFFIX, sketch.estimate(), FastStatsDClient.MetricType.GAUGE);
+                } else {
+                    sketch.forEachMember(member -> writeLine(start, null, member, FastStatsDClient.MetricType.SET));
+                }
+            } finally {
+                sketch.reset();
+            }
+        }
+    }
+
+    /**
+     * Writes {@code name[suffix]:value|type[|#tags]} from the key at {@code start} ([name length][type][name][tags section]).
+     */
+    private void writeLine(int start, byte[] nameSuffix, long value, FastStatsDClient.MetricType metricType) {
+        final int nameLength = keyArena.getShort(start);
+        final int nameStart = start + 3;
+        final int tagsEnd = start + keyArena.getInt(start - RECORD_HEADER);
+        ByteBuffer buffer = msgBuffer;
+        while (true) {
+            try {
+                buffer.clear();
+                copy(nameStart, nameStart + nameLength, buffer);
+                if (nameSuffix != null) {
+                    buffer.put(nameSuffix);
+                }
+                buffer.put((byte) ':');
+                FastStatsDClient.putLong(buffer, value);
+                buffer.put((byte) '|');
+                buffer.put(metricType.key());
+                copy(nameStart + nameLength, tagsEnd, buffer);
+                buffer.flip();
+                break;
+            } catch (BufferOverflowException e) {
+                buffer = IOUtils.allocateDirect(buffer.capacity() * 2);
+                msgBuffer = buffer;
+            }
+        }
+        packer.append(buffer);
+    }
+
+    private void copy(int from, int to, ByteBuffer buffer) {
+        for (int i = from; i < to; i++) {
+            buffer.put(keyArena.get(i));
+        }
+    }
+
+    private void drop(byte[] aspect, int offset, int length) {
+        droppedCount.incrementAndGet();
+        if (dropReported.compareAndSet(false, true)) {
+            errorHandler.handle("Aggregation store is full, dropping series of metric %s",
+                    new String(aspect, offset, length, FastStatsDClient.MESSAGE_CHARSET));
+        }
+    }
+
+    private void updateMin(int index, long value) {
+        long current;
+        while (value < (current = values.get(index)) && !values.compareAndSet(index, current, value)) {
+            // retry
+        }
+    }
+
+    private void updateMax(int index, long value) {
+        long current;
+        while (value > (current = values.get(index)) && !values.compareAndSet(index, current, value)) {
+            // retry
+        }
+    }
+
+    private static long hash(ByteBuffer key) {
+        long h = FNV_OFFSET;
+        for (int i = 0, length = key.remaining(); i < length; i++) {
+            h = (h ^ (key.get(i) & 0xff)) * FNV_PRIME;
+        }
+        return h == 0 ? 1L : h;
+    }
+
+    public static Builder builder(FastStatsDClient client) {
+        return new Builder(client);
+    }
+
+    public static class Builder {
+
+        private final FastStatsDClient client;
+        private int maxSeries = 64 * 1024;
+        private int keyArenaBytes = 8 * 1024 * 1024;
+        private int maxPacketSize = MessagePacker.DEFAULT_MAX_PACKET_SIZE;
+        private int setThreshold = 64;
+        private int setPrecision = 12;
+        private StatsDClientErrorHandler errorHandler = StatsDClientErrorHandler.NO_OP_HANDLER;
+        private FlushScheduler scheduler;
+        private long flushIntervalNanos;
+
+        private Builder(FastStatsDClient client) {
+            this.client = client;
+        }
+
+        public Builder withMaxSeries(int maxSeries) {
+            this.maxSeries = maxSeries;
+            return this;
+        }
+
+        /**
+         * @param keyArenaBytes off-heap memory for the encoded series keys (name + tags + 7 bytes each)
+         */
+        public Builder withKeyArenaBytes(int keyArenaBytes) {
+            this.keyArenaBytes = keyArenaBytes;
+            return this;
+        }
+
+        public Builder withMaxPacketSize(int maxPacketSize) {
+            this.maxPacketSize = maxPacketSize;
+            return this;
+        }
+
+        /**
+         * @param setThreshold number of unique members of a set sent as they are, more are only counted by the estimate
+         */
+        public Builder withSetThreshold(int setThreshold) {
+            this.setThreshold = setThreshold;
+            return this;
+        }
+
+        /**
+         * @param setPrecision {@code 2^precision} bytes of HyperLogLog registers per set over the threshold (4 - 16),
+         *                     the standard error is {@code 1.04 / sqrt(2^precision)} - 1.6% for the default 12
+         */
+        public Builder withSetPrecision(int setPrecision) {
+            this.setPrecision = setPrecision;
+            return this;
+        }
+
+        public Builder withErrorHandler(StatsDClientErrorHandler errorHandler) {
+            this.errorHandler = errorHandler;
+            return this;
+        }
+
+        /**
+         * Aggregates are flushed by the scheduler every interval.
+         */
+        public Builder withFlushScheduler(FlushScheduler scheduler, long interval, TimeUnit unit) {
+            this.scheduler = scheduler;
+            this.flushIntervalNanos = unit.toNanos(interval);
+            return this;
+        }
+
+        public AggregationStore build() {
+            final AggregationStore store = new AggregationStore(client, maxSeries, keyArenaBytes, maxPacketSize,
+                    setThreshold, setPrecision, errorHandler);
+            if (scheduler != null) {
+                store.registration = scheduler.register(store, flushIntervalNanos, TimeUnit.NANOSECONDS);
+            }
+            return store;
+        }
+    }
+}
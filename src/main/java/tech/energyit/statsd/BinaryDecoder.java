@@ -0,0 +1,254 @@
+package tech.energyit.statsd;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Relay side of the binary protocol (see {@link FastStatsDClient.Builder#withBinaryProtocol()}):
+ * transcodes the binary messages of a packet back to statsd text lines, keeping the series definitions per client session.
+ * Text lines packed in the same packet (e.g. by {@link MessagePacker}) are passed through.
+ *
+ * Records of series whose definition has not arrived (yet) cannot be decoded - they are counted and dropped,
+ * until the client announces the definition again. Thread-safe.
+ */
+public final class BinaryDecoder {
+
+    private final boolean exactDoubles;
+    private final int maxSessions;
+    private final int maxSeriesPerSession;
+    private final ConcurrentHashMap<Integer, Session> sessions = new ConcurrentHashMap<>();
+    private final AtomicLong undecodableCount = new AtomicLong();
+    private volatile Session lastSession;
+
+    public BinaryDecoder() {
+        this(false, 1024, 64 * 1024);
+    }
+
+    /**
+     * @param exactDoubles        format doubles exactly (slower), see {@link FastStatsDClient.Builder#withExactDoubles(boolean)}
+     * @param maxSessions         number of clients to keep the definitions of - all are forgotten when exceeded
+     * @param maxSeriesPerSession number of definitions per client, records of the other series are dropped
+     */
+    public BinaryDecoder(boolean exactDoubles, int maxSessions, int maxSeriesPerSession) {
+        this.exactDoubles = exactDoubles;
+        this.maxSessions = maxSessions;
+        this.maxSeriesPerSession = maxSeriesPerSession;
+    }
+
+    /**
+     * @return true if the packet starts with a binary message
+     */
+    public static boolean isBinary(ByteBuffer packet) {
+        return packet.hasRemaining() && packet.get(packet.position()) == BinaryEncoder.MARKER;
+    }
+
+    /**
+     * Transcodes the packet between its position and limit. The lines are put to the text buffer, separated by new lines,
+     * which is passed to the sink (flipped) whenever it is full and at the end. The packet positions are not changed.
+     *
+     * @param text buffer for the lines, it must hold the longest line
+     * @return number of decoded lines
+     */
+    public int decode(ByteBuffer packet, ByteBuffer text, Sender sink) {
+        final ByteBuffer in = packet.duplicate();
+        int lines = 0;
+        text.clear();
+        try {
+            while (in.hasRemaining()) {
+                if (in.get(in.position()) == BinaryEncoder.MARKER) {
+                    in.get();
+                    lines += decodeMessage(in, session(in.getInt()), text, sink);
+                } else {
+                    lines += copyLine(in, text, sink);
+                }
+            }
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            // truncated or corrupted packet - the rest is dropped
+            undecodableCount.incrementAndGet();
+        }
+        flush(text, sink);
+        return lines;
+    }
+
+    /**
+     * @return number of records and packets which could not be decoded
+     */
+    public long undecodableCount() {
+        return undecodableCount.get();
+    }
+
+    private int decodeMessage(ByteBuffer in, Session session, ByteBuffer text, Sender sink) {
+        int lines = 0;
+        while (in.hasRemaining()) {
+            final byte kind = in.get();
+            if (kind == '\n') {
+                // end of message packed with others
+                return lines;
+            }
+            final int id = getVarint(in);
+            if (kind == BinaryEncoder.DEFINE) {
+                final byte[] head = getBytes(in);
+                final byte[] tail = getBytes(in);
+                if (id < maxSeriesPerSession) {
+                    session.define(id, new byte[][]{head, tail}, maxSeriesPerSession);
+                }
+                continue;
+            }
+            final long value;
+            if (kind == BinaryEncoder.DOUBLE) {
+                value = in.getLong();
+            } else if (kind == BinaryEncoder.LONG || kind == BinaryEncoder.NANOS) {
+                final long zigzag = getVarlong(in);
+                value = (zigzag >>> 1) ^ -(zigzag & 1);
+            } else {
+                throw new IllegalArgumentException("Unknown frame " + kind);
+            }
+            final byte[][] definition = session.definition(id);
+            if (definition == null) {
+                undecodableCount.incrementAndGet();
+                continue;
+            }
+            putLine(text, sink, definition[0], kind, value, definition[1]);
+            lines++;
+        }
+        return lines;
+    }
+
+    private void putLine(ByteBuffer text, Sender sink, byte[] head, byte kind, long value, byte[] tail) {
+        if (text.remaining() < head.length + 32 + tail.length + 1) {
+            flush(text, sink);
+        }
+        if (text.position() > 0) {
+            text.put((byte) '\n');
+        }
+        text.put(head);
+        if (kind == BinaryEncoder.DOUBLE) {
+            Numbers.putDoubleAsAsciiBytes(Double.longBitsToDouble(value), text, FastStatsDClient.MESSAGE_CHARSET, exactDoubles);
+        } else if (kind == BinaryEncoder.NANOS) {
+            Numbers.putNanosAsMillisAsciiBytes(value, text);
+        } else {
+            Numbers.putLongAsAsciiBytes(value, text);
+        }
+        text.put(tail);
+    }
+
+    private int copyLine(ByteBuffer in, ByteBuffer text, Sender sink) {
+        final int start = in.position();
+        int end = start;
+        while (end < in.limit() && in.get(end) != '\n') {
+            end++;
+        }
+        final int length = end - start;
+        in.position(Math.min(end + 1, in.limit()));
+        if (length == 0) {
+            return 0;
+        }
+        if (text.remaining() < length + 1) {
+            flush(text, sink);
+        }
+        if (text.position() > 0) {
+            text.put((byte) '\n');
+        }
+        for (int i = start; i < end; i++) {
+            text.put(in.get(i));
+        }
+        return 1;
+    }
+
+    private static void flush(ByteBuffer text, Sender sink) {
+        if (text.position() > 0) {
+            text.flip();
+            sink.send(text);
+        }
+        text.clear();
+    }
+
+    private Session session(int id) {
+        final Session last = lastSession;
+        if (last != null && last.id == id) {
+            return last;
+        }
+        Session session = sessions.get(id);
+        if (session == null) {
+            if (sessions.size() >= maxSessions) {
+                // restarted clients left their sessions behind, the live ones announce their series again
+                sessions.clear();
+            }
+            session = sessions.computeIfAbsent(id, Session::new);
+        }
+        lastSession = session;
+        return session;
+    }
+
+    private static byte[] getBytes(ByteBuffer in) {
+        final int length = getVarint(in);
+        if (length < 0 || length > in.remaining()) {
+            // checked before the allocation - the length comes from the network
+            throw new IllegalArgumentException("Invalid length " + length);
+        }
+        final byte[] bytes = new byte[length];
+        in.get(bytes);
+        return bytes;
+    }
+
+    private static int getVarint(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            final byte b = in.get();
+            value |= (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    private static long getVarlong(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final byte b = in.get();
+            value |= (long) (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    /**
+     * Definitions of one client. The array grows with the highest id defined, so sessions of unknown (or spoofed)
+     * clients take no memory until they define a series. Definitions are rare, they are serialized by the session lock.
+     */
+    private static final class Session {
+        private static final int MIN_DEFINITIONS = 16;
+
+        private final int id;
+        private volatile AtomicReferenceArray<byte[][]> definitions = new AtomicReferenceArray<>(0);
+
+        Session(int id) {
+            this.id = id;
+        }
+
+        byte[][] definition(int seriesId) {
+            final AtomicReferenceArray<byte[][]> current = definitions;
+            return seriesId < current.length() ? current.get(seriesId) : null;
+        }
+
+        synchronized void define(int seriesId, byte[][] definition, int maxSeries) {
+            AtomicReferenceArray<byte[][]> current = definitions;
+            if (seriesId >= current.length()) {
+                final int length = Math.min(maxSeries, Math.max(MIN_DEFINITIONS, Integer.highestOneBit(seriesId) << 1));
+                final AtomicReferenceArray<byte[][]> grown = new AtomicReferenceArray<>(length);
+                for (int i = 0; i < current.length(); i++) {
+                    grown.set(i, current.get(i));
+                }
+                definitions = grown;
+                current = grown;
+            }
+            current.set(seriesId, definition);
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package tech.energyit.statsd;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Compact binary encoding of the client's metrics for our own relay (decoded by {@link BinaryDecoder}).
+ * Each series (name, type, sample rate and tags) gets an id, announced once by a definition frame
+ * holding the text head and tail of its lines - the records then carry only the id and the value.
+ *
+ * Message: {@code [0x00][int session]} followed by frames:
+ * <ul>
+ * <li>{@code [1][varint id][varint head length][head][varint tail length][tail]} - definition</li>
+ * <li>{@code [2][varint id][zigzag varint value]} - long value</li>
+ * <li>{@code [3][varint id][8B double]} - double value</li>
+ * <li>{@code [4][varint id][zigzag varint nanos]} - nanoseconds as (fractional) milliseconds</li>
+ * </ul>
+ * The session is random per client, so the ids of a restarted client never mix with the old ones.
+ * Definitions are announced again after the re-announce interval, in case the datagram with them was lost.
+ * Series are identified by a 64-bit hash; when the dictionary is full, the client falls back to text lines.
+ */
+final class BinaryEncoder {
+
+    static final byte MARKER = 0;
+    static final byte DEFINE = 1;
+    static final byte LONG = 2;
+    static final byte DOUBLE = 3;
+    static final byte NANOS = 4;
+    static final int HEADER_SIZE = 5;
+    /**
+     * type + id + value
+     */
+    static final int MAX_RECORD_SIZE = 1 + 5 + 10;
+
+    private static final long EMPTY = 0L;
+    private static final int PENDING = 0;
+    private static final int FULL = -1;
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final int EPOCH_CHECK_MASK = 0xff;
+
+    private final int session;
+    private final long reannounceNanos;
+    private final AtomicLongArray hashes;
+    private final AtomicIntegerArray ids;
+    private final AtomicReferenceArray<Definition> definitions;
+    private final AtomicInteger nextId = new AtomicInteger();
+    private volatile int epoch = 1;
+    private volatile long epochStart = System.nanoTime();
+    private int calls;
+
+    BinaryEncoder(int maxSeries, long reannounceNanos) {
+        if (maxSeries <= 0 || reannounceNanos <= 0) {
+            throw new IllegalArgumentException("Max series and re-announce interval must be positive");
+        }
+        this.session = ThreadLocalRandom.current().nextInt();
+        this.reannounceNanos = reannounceNanos;
+        final int capacity = Integer.highestOneBit(Math.max(2, maxSeries) * 2 - 1) << 1;
+        this.hashes = new AtomicLongArray(capacity);
+        this.ids = new AtomicIntegerArray(capacity);
+        this.definitions = new AtomicReferenceArray<>(maxSeries);
+    }
+
+    /**
+     * @return id of the series with the hash, or -1 if it is not known yet
+     */
+    int find(long hash) {
+        final int mask = hashes.length() - 1;
+        for (int i = 0, index = (int) (hash ^ (hash >>> 32)) & mask; i <= mask; i++, index = (index + 1) & mask) {
+            final long key = hashes.get(index);
+            if (key == hash) {
+                return awaitId(index);
+            }
+            if (key == EMPTY) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return id of the series (a new one, unless another thread was first), or -1 if the dictionary is full
+     */
+    int intern(long hash, byte[] head, byte[] tail) {
+        final int mask = hashes.length() - 1;
+        for (int i = 0, index = (int) (hash ^ (hash >>> 32)) & mask; i <= mask; i++, index = (index + 1) & mask) {
+            final long key = hashes.get(index);
+            if (key == hash) {
+                return awaitId(index);
+            }
+            if (key == EMPTY) {
+                if (nextId.get() >= definitions.length()) {
+                    return -1;
+                }
+                if (hashes.compareAndSet(index, EMPTY, hash)) {
+                    final int id = nextId.getAndIncrement();
+                    if (id >= definitions.length()) {
+                        ids.set(index, FULL);
+                        return -1;
+                    }
+                    definitions.set(id, new Definition(head, tail));
+                    ids.set(index, id + 1);
+                    return id;
+                }
+                if (hashes.get(index) == hash) {
+                    return awaitId(index);
+                }
+            }
+        }
+        return -1;
+    }
+
+    private int awaitId(int index) {
+        int id;
+        while ((id = ids.get(index)) == PENDING) {
+            // the definition is being created by another thread right now
+            Thread.yield();
+        }
+        return id == FULL ? -1 : id - 1;
+    }
+
+    void putHeader(ByteBuffer buffer) {
+        buffer.put(MARKER);
+        buffer.putInt(session);
+    }
+
+    /**
+     * Puts the definition frame of the series, unless it was announced in the current epoch.
+     */
+    void putDefinition(ByteBuffer buffer, int id) {
+        final Definition definition = definitions.get(id);
+        final int current = currentEpoch();
+        if (definition.announcedEpoch != current) {
+            buffer.put(DEFINE);
+            putVarint(buffer, id);
+            putVarint(buffer, definition.head.length);
+            buffer.put(definition.head);
+            putVarint(buffer, definition.tail.length);
+            buffer.put(definition.tail);
+            definition.announcedEpoch = current;
+        }
+    }
+
+    /**
+     * @return size of the definition frame of the series
+     */
+    int definitionSize(int id) {
+        final Definition definition = definitions.get(id);
+        return 1 + 5 + 5 + definition.head.length + 5 + definition.tail.length;
+    }
+
+    /**
+     * @param kind  {@link #LONG}, {@link #DOUBLE} or {@link #NANOS}
+     * @param value the long value, or raw bits of the double value
+     */
+    static void putRecord(ByteBuffer buffer, byte kind, int id, long value) {
+        buffer.put(kind);
+        putVarint(buffer, id);
+        if (kind == DOUBLE) {
+            buffer.putLong(value);
+        } else {
+            putVarlong(buffer, (value << 1) ^ (value >> 63));
+        }
+    }
+
+    private int currentEpoch() {
+        if ((++calls & EPOCH_CHECK_MASK) == 0) {
+            final long now = System.nanoTime();
+            if (now - epochStart >= reannounceNanos) {
+                epochStart = now;
+                epoch++;
+            }
+        }
+        return epoch;
+    }
+
+    static long hash(byte[] name, char deltaSign, FastStatsDClient.MetricType type, double sampleRate, Tag[] tags) {
+        long h = FNV_OFFSET;
+        for (byte b : name) {
+            h = (h ^ (b & 0xff)) * FNV_PRIME;
+        }
+        return hashSuffix(h, deltaSign, type, sampleRate, tags);
+    }
+
+    /**
+     * Same as {@link #hash(byte[], char, FastStatsDClient.MetricType, double, Tag[])} of the UTF-8 encoded name.
+     */
+    static long hash(CharSequence name, char deltaSign, FastStatsDClient.MetricType type, double sampleRate, Tag[] tags) {
+        return hashSuffix(Utf8.hash(FNV_OFFSET, name, FNV_PRIME), deltaSign, type, sampleRate, tags);
+    }
+
+    private static long hashSuffix(long h, char deltaSign, FastStatsDClient.MetricType type, double sampleRate, Tag[] tags) {
+        h = (h ^ ':') * FNV_PRIME;
+        h = (h ^ deltaSign) * FNV_PRIME;
+        h = (h ^ type.ordinal()) * FNV_PRIME;
+        h = (h ^ Double.doubleToLongBits(sampleRate)) * FNV_PRIME;
+        if (tags != null) {
+            for (Tag tag : tags) {
+                for (byte b : tag.getName()) {
+                    h = (h ^ (b & 0xff)) * FNV_PRIME;
+                }
+                h = (h ^ ':') * FNV_PRIME;
+                for (byte b : tag.getValue()) {
+                    h = (h ^ (b & 0xff)) * FNV_PRIME;
+                }
+                h = (h ^ ',') * FNV_PRIME;
+            }
+        }
+        return h == EMPTY ? 1L : h;
+    }
+
+    /**
+     * Hash of a prepared metric - its head and tail identify the series.
+     */
+    static long hash(byte[] head, byte[] tail) {
+        long h = FNV_OFFSET;
+        for (byte b : head) {
+            h = (h ^ (b & 0xff)) * FNV_PRIME;
+        }
+        h = (h ^ '|') * FNV_PRIME;
+        for (byte b : tail) {
+            h = (h ^ (b & 0xff)) * FNV_PRIME;
+        }
+        return h == EMPTY ? 1L : h;
+    }
+
+    static void putVarint(ByteBuffer buffer, int value) {
+        while ((value & ~0x7f) != 0) {
+            buffer.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    static void putVarlong(ByteBuffer buffer, long value) {
+        while ((value & ~0x7fL) != 0) {
+            buffer.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private static final class Definition {
+        private final byte[] head;
+        private final byte[] tail;
+        private volatile int announcedEpoch;
+
+        Definition(byte[] head, byte[] tail) {
+            this.head = head;
+            this.tail = tail;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package tech.energyit.statsd;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Buffers messages into packets (new line separated, at most {@code maxPacketSize} bytes)
+ * and submits up to {@code packetsPerWrite} packets at once via a {@link PacketWriter},
+ * so the kernel is entered as rarely as the writer allows.
+ *
+ * Messages are sent when the last packet is full or on {@link #flush()} / {@link #close()},
+ * and at least every max latency if registered to a {@link FlushScheduler} (see {@link Builder#withFlushScheduler}).
+ * Thread-safe.
+ */
+public class BulkSender implements Sender, Flushable, Closeable {
+
+    private static final int PACKETS_PER_WRITE = 16;
+    private static final byte SEPARATOR = '\n';
+
+    private final PacketWriter writer;
+    private final ByteBuffer[] packets;
+    private final ByteBuffer[] single = new ByteBuffer[1];
+    private final int maxPacketSize;
+    private FlushScheduler.Registration registration;
+    private int current;
+
+    private BulkSender(PacketWriter writer, int packetsPerWrite, int maxPacketSize) {
+        if (packetsPerWrite <= 0 || maxPacketSize <= 0) {
+            throw new IllegalArgumentException("Packets per write and packet size must be positive : " + packetsPerWrite + ", " + maxPacketSize);
+        }
+        this.writer = writer;
+        this.maxPacketSize = maxPacketSize;
+        this.packets = new ByteBuffer[packetsPerWrite];
+        for (int i = 0; i < packetsPerWrite; i++) {
+            packets[i] = IOUtils.allocateDirect(maxPacketSize);
+        }
+    }
+
+    @Override
+    public synchronized void send(ByteBuffer msg) {
+        final int length = msg.remaining();
+        if (length > maxPacketSize) {
+            submit();
+            single[0] = msg;
+            writer.write(single, 1);
+            single[0] = null;
+            return;
+        }
+        ByteBuffer packet = packets[current];
+        if (packet.position() > 0) {
+            if (length + 1 > packet.remaining()) {
+                if (current + 1 == packets.length) {
+                    submit();
+                } else {
+                    current++;
+                }
+                packet = packets[current];
+            } else {
+                packet.put(SEPARATOR);
+            }
+        }
+        packet.put(msg);
+    }
+
+    /**
+     * Submits all buffered packets.
+     */
+    @Override
+    public synchronized void flush() {
+        submit();
+    }
+
+    /**
+     * Flushes buffered packets and closes the writer.
+     */
+    @Override
+    public synchronized void close() {
+        if (registration != null) {
+            registration.close();
+        }
+        submit();
+        writer.close();
+    }
+
+    private void submit() {
+        final int count = packets[current].position() > 0 ? current + 1 : current;
+        if (count == 0) {
+            return;
+        }
+        for (int i = 0; i < count; i++) {
+            packets[i].flip();
+        }
+        try {
+            writer.write(packets, count);
+        } finally {
+            for (int i = 0; i < count; i++) {
+                packets[i].clear();
+            }
+            current = 0;
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+
+        private PacketWriter writer;
+        private int packetsPerWrite = PACKETS_PER_WRITE;
+        private int maxPacketSize = MessagePacker.DEFAULT_MAX_PACKET_SIZE;
+        private FlushScheduler scheduler;
+        private long maxLatencyNanos;
+
+        /**
+         * Datagrams are sent one by one by the sender, e.g. {@link SynchronousSender} (default).
+         */
+        public Builder withSender(Sender sender) {
+            this.writer = PacketWriter.of(sender);
+            return this;
+        }
+
+        /**
+         * Custom (e.g. native) writer or {@link GatheringPacketWriter} for stream channels.
+         */
+        public Builder withPacketWriter(PacketWriter writer) {
+            this.writer = writer;
+            return this;
+        }
+
+        public Builder withPacketsPerWrite(int packetsPerWrite) {
+            this.packetsPerWrite = packetsPerWrite;
+            return this;
+        }
+
+        public Builder withMaxPacketSize(int maxPacketSize) {
+            this.maxPacketSize = maxPacketSize;
+            return this;
+        }
+
+        /**
+         * Buffered messages are flushed by the scheduler at least every {@code maxLatency}.
+         */
+        public Builder withFlushScheduler(FlushScheduler scheduler, long maxLatency, TimeUnit unit) {
+            this.scheduler = scheduler;
+            this.maxLatencyNanos = unit.toNanos(maxLatency);
+            return this;
+        }
+
+        public BulkSender build() {
+            final PacketWriter packetWriter = writer != null ? writer : PacketWriter.of(SynchronousSender.builder().build());
+            final BulkSender sender = new BulkSender(packetWriter, packetsPerWrite, maxPacketSize);
+            if (scheduler != null) {
+                sender.registration = scheduler.register(sender, maxLatencyNanos, TimeUnit.NANOSECONDS);
+            }
+            return sender;
+        }
+    }
+}
@@ -0,0 +1,318 @@
+package tech.energyit.statsd;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Client-side guard against exploding metric cardinality (e.g. request ids in tag values).
+ * It remembers hashes of the seen series (aspect + tags) per metric in bounded lock-free tables;
+ * series over the limit are either dropped or sent with replacement tags (e.g. {@code cardinality:overflow}).
+ *
+ * Known series are looked up without any allocation. The tables are evicted per metric in tumbling windows:
+ * when a new series arrives after the window elapsed, the metric's table is cleared and the series is admitted.
+ * The metrics themselves are evicted in the same windows: when a new metric arrives while the max metrics are tracked
+ * and the window elapsed, all metrics are forgotten (a burst of exploding names does not lock out later ones).
+ * Overflows are counted ({@link #overflowCount()}) and the error handler is notified on the first overflow of a metric in each window.
+ *
+ * Set it up with {@link FastStatsDClient.Builder#withCardinalityLimiter(CardinalityLimiter)}.
+ */
+public final class CardinalityLimiter {
+
+    /**
+     * Returned by {@link #limit(byte[], Tag[])} when the series should be dropped.
+     */
+    static final Tag[] DROP = new Tag[0];
+
+    private static final long EMPTY = 0L;
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final int maxMetrics;
+    private final int maxSeriesPerMetric;
+    private final long windowNanos;
+    private final Tag[] overflowTags;
+    private final StatsDClientErrorHandler errorHandler;
+    private final AtomicReference<MetricTable> metricTable;
+    private final AtomicLong overflowCount = new AtomicLong();
+
+    private CardinalityLimiter(int maxMetrics, int maxSeriesPerMetric, long windowNanos, Tag[] overflowTags,
+                               StatsDClientErrorHandler errorHandler) {
+        this.maxMetrics = maxMetrics;
+        this.maxSeriesPerMetric = maxSeriesPerMetric;
+        this.windowNanos = windowNanos;
+        this.overflowTags = overflowTags;
+        this.errorHandler = errorHandler;
+        this.metricTable = new AtomicReference<>(new MetricTable(tableCapacity(maxMetrics), System.nanoTime()));
+    }
+
+    /**
+     * @return the tags to be sent - the given ones if the series is admitted, the replacement tags if it is over the limit
+     * or {@link #DROP} if it should not be sent at all
+     */
+    Tag[] limit(byte[] aspect, Tag[] tags) {
+        return limit(hash(FNV_OFFSET, aspect), aspect, tags);
+    }
+
+    /**
+     * Same as {@link #limit(byte[], Tag[])} - the chars are hashed as their UTF-8 bytes, so both variants share the series.
+     */
+    Tag[] limit(CharSequence aspect, Tag[] tags) {
+        return limit(nonEmpty(Utf8.hash(FNV_OFFSET, aspect, FNV_PRIME)), aspect, tags);
+    }
+
+    private Tag[] limit(long metricHash, Object aspect, Tag[] tags) {
+        final SeriesTable table = table(metricHash);
+        // table is null if there are too many metrics - the unknown metric itself is the overflow then
+        if (table != null && table.admit(seriesHash(metricHash, tags), maxSeriesPerMetric, windowNanos)) {
+            return tags;
+        }
+        return overflow(aspect, table);
+    }
+
+    /**
+     * @return number of series dropped or rewritten so far
+     */
+    public long overflowCount() {
+        return overflowCount.get();
+    }
+
+    /**
+     * Forgets all seen metrics and series.
+     */
+    public void reset() {
+        metricTable.set(new MetricTable(tableCapacity(maxMetrics), System.nanoTime()));
+    }
+
+    private Tag[] overflow(Object aspect, SeriesTable table) {
+        final boolean firstOverflow = overflowCount.getAndIncrement() == 0;
+        if (table != null ? table.overflowReported.compareAndSet(false, true) : firstOverflow) {
+            errorHandler.handle("Cardinality limit exceeded by metric %s",
+                    aspect instanceof byte[] ? new String((byte[]) aspect, FastStatsDClient.MESSAGE_CHARSET) : aspect.toString());
+        }
+        return overflowTags;
+    }
+
+    private SeriesTable table(long metricHash) {
+        final MetricTable metrics = metricTable.get();
+        final SeriesTable table = metrics.table(metricHash, maxMetrics, maxSeriesPerMetric);
+        if (table != null) {
+            return table;
+        }
+        // too many metrics - the only place where time is checked, so known metrics stay cheap
+        final long now = System.nanoTime();
+        if (now - metrics.windowStart >= windowNanos) {
+            metricTable.compareAndSet(metrics, new MetricTable(tableCapacity(maxMetrics), now));
+            return metricTable.get().table(metricHash, maxMetrics, maxSeriesPerMetric);
+        }
+        return null;
+    }
+
+    private static long seriesHash(long metricHash, Tag[] tags) {
+        long h = metricHash;
+        if (tags != null) {
+            for (Tag tag : tags) {
+                h = hash(h, tag.getName());
+                h = (h ^ ':') * FNV_PRIME;
+                h = hash(h, tag.getValue());
+                h = (h ^ ',') * FNV_PRIME;
+            }
+        }
+        return nonEmpty(h);
+    }
+
+    /**
+     * FNV-1a over the bytes.
+     */
+    static long hash(long h, byte[] bytes) {
+        for (byte b : bytes) {
+            h = (h ^ (b & 0xff)) * FNV_PRIME;
+        }
+        return nonEmpty(h);
+    }
+
+    private static long nonEmpty(long h) {
+        return h == EMPTY ? 1L : h;
+    }
+
+    private static int tableCapacity(int entries) {
+        return Integer.highestOneBit(Math.max(2, entries) * 2 - 1) << 1;
+    }
+
+    /**
+     * Open-addressing map of metric hashes to their series, replaced as a whole when the metrics are evicted.
+     */
+    private static final class MetricTable {
+        private final AtomicLongArray keys;
+        private final AtomicReferenceArray<SeriesTable> tables;
+        private final AtomicInteger size = new AtomicInteger();
+        private final long windowStart;
+
+        MetricTable(int capacity, long now) {
+            this.keys = new AtomicLongArray(capacity);
+            this.tables = new AtomicReferenceArray<>(capacity);
+            this.windowStart = now;
+        }
+
+        /**
+         * @return series of the metric, null if it is new and there are max metrics already
+         */
+        SeriesTable table(long metricHash, int maxMetrics, int maxSeriesPerMetric) {
+            final int mask = keys.length() - 1;
+            for (int i = 0, index = (int) metricHash & mask; i <= mask; i++, index = (index + 1) & mask) {
+                final long key = keys.get(index);
+                if (key == metricHash) {
+                    return awaitTable(index);
+                }
+                if (key == EMPTY) {
+                    // the table is at most half full, so an unknown metric stops probing at the first empty slot
+                    if (size.get() >= maxMetrics) {
+                        return null;
+                    }
+                    if (keys.compareAndSet(index, EMPTY, metricHash)) {
+                        size.incrementAndGet();
+                        // first (and only) allocation for this metric in the window
+                        final SeriesTable table = new SeriesTable(tableCapacity(maxSeriesPerMetric), System.nanoTime());
+                        tables.set(index, table);
+                        return table;
+                    }
+                    if (keys.get(index) == metricHash) {
+                        return awaitTable(index);
+                    }
+                }
+            }
+            return null;
+        }
+
+        private SeriesTable awaitTable(int index) {
+            SeriesTable table;
+            while ((table = tables.get(index)) == null) {
+                // the table is being created by another thread right now
+                Thread.yield();
+            }
+            return table;
+        }
+    }
+
+    /**
+     * Open-addressing set of series hashes of one metric.
+     */
+    private static final class SeriesTable {
+        private final AtomicLongArray slots;
+        private final AtomicInteger size = new AtomicInteger();
+        private final AtomicLong windowStart;
+        private final AtomicBoolean overflowReported = new AtomicBoolean();
+
+        SeriesTable(int capacity, long now) {
+            this.slots = new AtomicLongArray(capacity);
+            this.windowStart = new AtomicLong(now);
+        }
+
+        boolean admit(long seriesHash, int maxSeries, long windowNanos) {
+            final int mask = slots.length() - 1;
+            for (int i = 0, index = (int) (seriesHash ^ (seriesHash >>> 32)) & mask; i <= mask; i++, index = (index + 1) & mask) {
+                final long key = slots.get(index);
+                if (key == seriesHash) {
+                    return true;
+                }
+                if (key == EMPTY) {
+                    return insert(seriesHash, index, maxSeries, windowNanos);
+                }
+            }
+            return insert(seriesHash, -1, maxSeries, windowNanos);
+        }
+
+        private boolean insert(long seriesHash, int index, int maxSeries, long windowNanos) {
+            // new series - the only place where time is checked, so hits stay cheap
+            final long now = System.nanoTime();
+            final long start = windowStart.get();
+            if (now - start >= windowNanos && windowStart.compareAndSet(start, now)) {
+                clear(now);
+                return admit(seriesHash, maxSeries, Long.MAX_VALUE);
+            }
+            if (index < 0 || size.get() >= maxSeries) {
+                return false;
+            }
+            if (slots.compareAndSet(index, EMPTY, seriesHash)) {
+                size.incrementAndGet();
+                return true;
+            }
+            // lost the race for the slot, probe again
+            return admit(seriesHash, maxSeries, windowNanos);
+        }
+
+        void clear(long now) {
+            for (int i = 0; i < slots.length(); i++) {
+                slots.set(i, EMPTY);
+            }
+            size.set(0);
+            windowStart.set(now);
+            overflowReported.set(false);
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+
+        private int maxMetrics = 1024;
+        private int maxSeriesPerMetric = 1000;
+        private long windowNanos = TimeUnit.MINUTES.toNanos(10);
+        private Tag[] overflowTags = {new TagImpl("cardinality".getBytes(FastStatsDClient.MESSAGE_CHARSET),
+                "overflow".getBytes(FastStatsDClient.MESSAGE_CHARSET))};
+        private StatsDClientErrorHandler errorHandler = StatsDClientErrorHandler.NO_OP_HANDLER;
+
+        /**
+         * @param maxMetrics number of distinct aspects to be tracked per window, the series of other aspects overflow
+         */
+        public Builder withMaxMetrics(int maxMetrics) {
+            this.maxMetrics = maxMetrics;
+            return this;
+        }
+
+        public Builder withMaxSeriesPerMetric(int maxSeriesPerMetric) {
+            this.maxSeriesPerMetric = maxSeriesPerMetric;
+            return this;
+        }
+
+        /**
+         * @param window how long seen series are remembered before the metric's table is cleared,
+         *               and how long seen metrics are remembered once there are max metrics
+         */
+        public Builder withWindow(long window, TimeUnit unit) {
+            this.windowNanos = unit.toNanos(window);
+            return this;
+        }
+
+        /**
+         * Series over the limit are sent with these tags instead of theirs (default {@code cardinality:overflow}).
+         */
+        public Builder rewriteOverLimitTo(Tag... overflowTags) {
+            this.overflowTags = overflowTags;
+            return this;
+        }
+
+        public Builder dropOverLimit() {
+            this.overflowTags = DROP;
+            return this;
+        }
+
+        public Builder withErrorHandler(StatsDClientErrorHandler errorHandler) {
+            this.errorHandler = errorHandler;
+            return this;
+        }
+
+        public CardinalityLimiter build() {
+            if (maxMetrics <= 0 || maxSeriesPerMetric <= 0 || windowNanos <= 0) {
+                throw new IllegalArgumentException("Limits and window must be positive");
+            }
+            return new CardinalityLimiter(maxMetrics, maxSeriesPerMetric, windowNanos, overflowTags, errorHandler);
+        }
+    }
+}
@@ -4,6 +4,11 @@ import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 /**
  * {@link StatsDClient} implementation
@@ -20,12 +25,20 @@ public final class FastStatsDClient implements StatsDClient {
 
     static final double NO_SAMPLE_RATE = 1.0;
     static final char NO_DELTA_SIGN = ' ';
+    private static final int MAX_VALUE_LENGTH = 32;
 
     private static final ThreadLocal<ByteBuffer> MSG_BUFFER = ThreadLocal.withInitial(() -> createByteBuffer(INITIAL_BUFFER_SIZE));
 
     private final byte[] prefix;
     private final Sender sender;
     private final boolean exactDoubles;
+    private final CardinalityLimiter cardinalityLimiter;
+    private final NameCache nameCache;
+    private final Sanitizer sanitizer;
+    private final byte[] constantTags;
+    private final int maxPacketSize;
+    private final boolean multiValueLines;
+    private final BinaryEncoder binaryEncoder;
 
     public FastStatsDClient(Sender sender) {
         this(null, sender);
@@ -36,13 +49,33 @@ public final class FastStatsDClient implements StatsDClient {
     }
 
     public FastStatsDClient(final String prefix, final Sender sender, boolean exactDoubles) {
+        this(prefix, sender, exactDoubles, null, null, null, null, MessagePacker.DEFAULT_MAX_PACKET_SIZE, false, null);
+    }
+
+    private FastStatsDClient(final String prefix, final Sender sender, boolean exactDoubles,
+                             final CardinalityLimiter cardinalityLimiter, final NameCache nameCache,
+                             final Sanitizer sanitizer, final Tag[] constantTags,
+                             final int maxPacketSize, final boolean multiValueLines,
+                             final BinaryEncoder binaryEncoder) {
         if ((prefix != null) && (!prefix.isEmpty())) {
-            this.prefix = (prefix + '.').getBytes(MESSAGE_CHARSET);
+            final byte[] encodedPrefix = (prefix + '.').getBytes(MESSAGE_CHARSET);
+            this.prefix = sanitizer != null ? sanitizer.name(encodedPrefix) : encodedPrefix;
         } else {
             this.prefix = new byte[0];
         }
         this.sender = sender;
         this.exactDoubles = exactDoubles;
+        this.cardinalityLimiter = cardinalityLimiter;
+        this.nameCache = nameCache;
+        this.sanitizer = sanitizer;
+        this.constantTags = encodeTags(constantTags);
+        this.maxPacketSize = maxPacketSize;
+        this.multiValueLines = multiValueLines;
+        this.binaryEncoder = binaryEncoder;
+    }
+
+    public static Builder builder() {
+        return new Builder();
     }
 
 
@@ -127,6 +160,19 @@ public final class FastStatsDClient implements StatsDClient {
         send(aspect, NO_DELTA_SIGN, timeInMs, MetricType.TIMER, sampleRate, tags);
     }
 
+    @Override
+    public void timeNanos(byte[] aspect, long timeInNanos, Tag... tags) {
+        sendNanos(aspect, timeInNanos, NO_SAMPLE_RATE, tags);
+    }
+
+    @Override
+    public void timeNanos(byte[] aspect, long timeInNanos, double sampleRate, Tag... tags) {
+        if (isInvalidSample(sampleRate)) {
+            return;
+        }
+        sendNanos(aspect, timeInNanos, sampleRate, tags);
+    }
+
     @Override
     public void histogram(byte[] aspect, long value, Tag... tags) {
         send(aspect, NO_DELTA_SIGN, value, MetricType.HISTOGRAM, NO_SAMPLE_RATE, tags);
@@ -189,24 +235,338 @@ public final class FastStatsDClient implements StatsDClient {
         send(aspect, NO_DELTA_SIGN, value, MetricType.METER, NO_SAMPLE_RATE, tags);
     }
 
+    /**
+     * Same as {@link #count(byte[], long, Tag...)} for dynamic names - see {@link Builder#withNameCache(NameCache)}.
+     */
+    @Override
+    public void count(final CharSequence aspect, final long delta, final Tag... tags) {
+        send(aspect, NO_DELTA_SIGN, delta, false, MetricType.COUNTER, NO_SAMPLE_RATE, tags);
+    }
+
+    /**
+     * Same as {@link #count(byte[], long, double, Tag...)} for dynamic names - see {@link Builder#withNameCache(NameCache)}.
+     */
+    @Override
+    public void count(final CharSequence aspect, final long delta, final double sampleRate, final Tag... tags) {
+        if (isInvalidSample(sampleRate)) {
+            return;
+        }
+        send(aspect, NO_DELTA_SIGN, delta, false, MetricType.COUNTER, sampleRate, tags);
+    }
+
+    /**
+     * Same as {@link #count(byte[], double, Tag...)} for dynamic names - see {@link Builder#withNameCache(NameCache)}.
+     */
+    @Override
+    public void count(final CharSequence aspect, final double delta, final Tag... tags) {
+        send(aspect, NO_DELTA_SIGN, delta, MetricType.COUNTER, NO_SAMPLE_RATE, tags);
+    }
+
+    /**
+     * Same as {@link #count(byte[], double, double, Tag...)} for dynamic names - see {@link Builder#withNameCache(NameCache)}.
+     */
+    @Override
+    public void count(final CharSequence aspect, final double delta, final double sampleRate, final Tag... tags) {
+        if (isInvalidSample(sampleRate)) {
+            return;
+        }
+        send(aspect, NO_DELTA_SIGN, delta, MetricType.COUNTER, sampleRate, tags);
+    }
+
+    /**
+     * Same as {@link #gauge(byte[], long, Tag...)} for dynamic names - see {@link Builder#withNameCache(NameCache)}.
+     */
+    @Override
+    public void gauge(final CharSequence aspect, final long value, final Tag... tags) {
+        send(aspect, NO_DELTA_SIGN, value, false, MetricType.GAUGE, NO_SAMPLE_RATE, tags);
+    }
+
+    /**
+     * Same as {@link #gauge(byte[], char, long, Tag...)} for dynamic names - see {@link Builder#withNameCache(NameCache)}.
+     */
+    @Override
+    public void gauge(final CharSequence aspect, final char deltaSign, final long value, final Tag... tags) {
+        send(aspect, deltaSign, value, false, MetricType.GAUGE, NO_SAMPLE_RATE, tags);
+    }
+
+    /**
+     * Same as {@link #gauge(byte[], long, double, Tag...)} for dynamic names - see {@link Builder#withNameCache(NameCache)}.
+     */
+    @Override
+    public void gauge(final CharSequence aspect, final long value, final double sampleRate, final Tag... tags) {
+        if (isInvalidSample(sampleRate)) {
+            return;
+        }
+        send(aspect, NO_DELTA_SIGN, value, false, MetricType.GAUGE, sampleRate, tags);
+    }
+
+    /**
+     * Same as {@link #gauge(byte[], double, Tag...)} for dynamic names - see {@link Builder#withNameCache(NameCache)}.
+     */
+    @Override
+    public void gauge(final CharSequence aspect, final double value, final Tag... tags) {
+        send(aspect, NO_DELTA_SIGN, value, MetricType.GAUGE, NO_SAMPLE_RATE, tags);
+    }
+
+    /**
+     * Same as {@link #gauge(byte[], char, double, Tag...)} for dynamic names - see {@link Builder#withNameCache(NameCache)}.
+     */
+    @Override
+    public void gauge(final CharSequence aspect, final char deltaSign, final double value, final Tag... tags) {
+        send(aspect, deltaSign, value, MetricType.GAUGE, NO_SAMPLE_RATE, tags);
+    }
+
+    /**
+     * Same as {@link #gauge(byte[], double, double, Tag...)} for dynamic names - see {@link Builder#withNameCache(NameCache)}.
+     */
+    @Override
+    public void gauge(final CharSequence aspect, final double value, final double sampleRate, final Tag... tags) {
+        if (isInvalidSample(sampleRate)) {
+            return;
+        }
+        send(aspect, NO_DELTA_SIGN, value, MetricType.GAUGE, sampleRate, tags);
+    }
+
+    /**
+     * Same as {@link #time(byte[], long, Tag...)} for dynamic names - see {@link Builder#withNameCache(NameCache)}.
+     */
+    @Override
+    public void time(final CharSequence aspect, final long timeInMs, final Tag... tags) {
+        send(aspect, NO_DELTA_SIGN, timeInMs, false, MetricType.TIMER, NO_SAMPLE_RATE, tags);
+    }
+
+    /**
+     * Same as {@link #time(byte[], long, double, Tag...)} for dynamic names - see {@link Builder#withNameCache(NameCache)}.
+     */
+    @Override
+    public void time(final CharSequence aspect, final long timeInMs, final double sampleRate, final Tag... tags) {
+        if (isInvalidSample(sampleRate)) {
+            return;
+        }
+        send(aspect, NO_DELTA_SIGN, timeInMs, false, MetricType.TIMER, sampleRate, tags);
+    }
+
+    /**
+     * Same as {@link #timeNanos(byte[], long, Tag...)} for dynamic names - see {@link Builder#withNameCache(NameCache)}.
+     */
+    @Override
+    public void timeNanos(final CharSequence aspect, final long timeInNanos, final Tag... tags) {
+        send(aspect, NO_DELTA_SIGN, timeInNanos, true, MetricType.TIMER, NO_SAMPLE_RATE, tags);
+    }
+
+    /**
+     * Same as {@link #timeNanos(byte[], long, double, Tag...)} for dynamic names - see {@link Builder#withNameCache(NameCache)}.
+     */
+    @Override
+    public void timeNanos(final CharSequence aspect, final long timeInNanos, final double sampleRate, final Tag... tags) {
+        if (isInvalidSample(sampleRate)) {
+            return;
+        }
+        send(aspect, NO_DELTA_SIGN, timeInNanos, true, MetricType.TIMER, sampleRate, tags);
+    }
+
+    /**
+     * Same as {@link #histogram(byte[], long, Tag...)} for dynamic names - see {@link Builder#withNameCache(NameCache)}.
+     */
+    @Override
+    public void histogram(final CharSequence aspect, final long value, final Tag... tags) {
+        send(aspect, NO_DELTA_SIGN, value, false, MetricType.HISTOGRAM, NO_SAMPLE_RATE, tags);
+    }
+
+    /**
+     * Same as {@link #histogram(byte[], long, double, Tag...)} for dynamic names - see {@link Builder#withNameCache(NameCache)}.
+     */
+    @Override
+    public void histogram(final CharSequence aspect, final long value, final double sampleRate, final Tag... tags) {
+        if (isInvalidSample(sampleRate)) {
+            return;
+        }
+        send(aspect, NO_DELTA_SIGN, value, false, MetricType.HISTOGRAM, sampleRate, tags);
+    }
+
+    /**
+     * Same as {@link #histogram(byte[], double, Tag...)} for dynamic names - see {@link Builder#withNameCache(NameCache)}.
+     */
+    @Override
+    public void histogram(final CharSequence aspect, final double value, final Tag... tags) {
+        send(aspect, NO_DELTA_SIGN, value, MetricType.HISTOGRAM, NO_SAMPLE_RATE, tags);
+    }
+
+    /**
+     * Same as {@link #histogram(byte[], double, double, Tag...)} for dynamic names - see {@link Builder#withNameCache(NameCache)}.
+     */
+    @Override
+    public void histogram(final CharSequence aspect, final double value, final double sampleRate, final Tag... tags) {
+        if (isInvalidSample(sampleRate)) {
+            return;
+        }
+        send(aspect, NO_DELTA_SIGN, value, MetricType.HISTOGRAM, sampleRate, tags);
+    }
+
+    /**
+     * Same as {@link #set(byte[], long, Tag...)} for dynamic names - see {@link Builder#withNameCache(NameCache)}.
+     */
+    @Override
+    public void set(final CharSequence aspect, final long value, final Tag... tags) {
+        send(aspect, NO_DELTA_SIGN, value, false, MetricType.SET, NO_SAMPLE_RATE, tags);
+    }
+
+    /**
+     * Same as {@link #set(byte[], long, double, Tag...)} for dynamic names - see {@link Builder#withNameCache(NameCache)}.
+     */
+    @Override
+    public void set(final CharSequence aspect, final long value, final double sampleRate, final Tag... tags) {
+        if (isInvalidSample(sampleRate)) {
+            return;
+        }
+        send(aspect, NO_DELTA_SIGN, value, false, MetricType.SET, sampleRate, tags);
+    }
+
+    /**
+     * Same as {@link #set(byte[], double, Tag...)} for dynamic names - see {@link Builder#withNameCache(NameCache)}.
+     */
+    @Override
+    public void set(final CharSequence aspect, final double value, final Tag... tags) {
+        send(aspect, NO_DELTA_SIGN, value, MetricType.SET, NO_SAMPLE_RATE, tags);
+    }
+
+    /**
+     * Same as {@link #set(byte[], double, double, Tag...)} for dynamic names - see {@link Builder#withNameCache(NameCache)}.
+     */
+    @Override
+    public void set(final CharSequence aspect, final double value, final double sampleRate, final Tag... tags) {
+        if (isInvalidSample(sampleRate)) {
+            return;
+        }
+        send(aspect, NO_DELTA_SIGN, value, MetricType.SET, sampleRate, tags);
+    }
+
+    /**
+     * Same as {@link #meter(byte[], long, Tag...)} for dynamic names - see {@link Builder#withNameCache(NameCache)}.
+     */
+    @Override
+    public void meter(final CharSequence aspect, final long value, final Tag... tags) {
+        send(aspect, NO_DELTA_SIGN, value, false, MetricType.METER, NO_SAMPLE_RATE, tags);
+    }
+
+    /**
+     * Same as {@link #meter(byte[], double, Tag...)} for dynamic names - see {@link Builder#withNameCache(NameCache)}.
+     */
+    @Override
+    public void meter(final CharSequence aspect, final double value, final Tag... tags) {
+        send(aspect, NO_DELTA_SIGN, value, MetricType.METER, NO_SAMPLE_RATE, tags);
+    }
+
+    /**
+     * Sends all the values at once - the name and tags are encoded once and the lines are packed into datagrams
+     * of at most {@link Builder#withMaxPacketSize(int) max packet size} (or multi-value lines, see {@link Builder#withMultiValueLines(boolean)}).
+     *
+     * @param aspect the name of the counter
+     * @param deltas array of the amounts to adjust the counter by
+     * @param offset index of the first value in the array
+     * @param length number of values
+     * @param tags   array of tags to be added to the data
+     */
+    public void count(final byte[] aspect, final long[] deltas, final int offset, final int length, final Tag... tags) {
+        sendAll(aspect, deltas, null, false, offset, length, MetricType.COUNTER, tags);
+    }
+
+    /**
+     * @see #count(byte[], long[], int, int, Tag...)
+     */
+    public void count(final byte[] aspect, final double[] deltas, final int offset, final int length, final Tag... tags) {
+        sendAll(aspect, null, deltas, false, offset, length, MetricType.COUNTER, tags);
+    }
+
+    /**
+     * @see #count(byte[], long[], int, int, Tag...)
+     */
+    public void histogram(final byte[] aspect, final long[] values, final int offset, final int length, final Tag... tags) {
+        sendAll(aspect, values, null, false, offset, length, MetricType.HISTOGRAM, tags);
+    }
+
+    /**
+     * @see #count(byte[], long[], int, int, Tag...)
+     */
+    public void histogram(final byte[] aspect, final double[] values, final int offset, final int length, final Tag... tags) {
+        sendAll(aspect, null, values, false, offset, length, MetricType.HISTOGRAM, tags);
+    }
+
+    /**
+     * @see #count(byte[], long[], int, int, Tag...)
+     */
+    public void time(final byte[] aspect, final long[] timesInMs, final int offset, final int length, final Tag... tags) {
+        sendAll(aspect, timesInMs, null, false, offset, length, MetricType.TIMER, tags);
+    }
+
+    /**
+     * Timings in nanoseconds are sent as (fractional) milliseconds.
+     *
+     * @see #count(byte[], long[], int, int, Tag...)
+     */
+    public void timeNanos(final byte[] aspect, final long[] timesInNanos, final int offset, final int length, final Tag... tags) {
+        sendAll(aspect, timesInNanos, null, true, offset, length, MetricType.TIMER, tags);
+    }
+
     public void clear() {
         MSG_BUFFER.remove();
     }
 
     /**
-     * format and send with long value.
+     * Pre-encodes the metric name, type and tags, so only the value is formatted when the metric is sent.
      *
+     * @param metricType type of the metric
+     * @param aspect     the name of the metric
+     * @param tags       array of tags to be added to the data
+     * @return handle to be reused for all values of the metric
+     */
+    public PreparedMetric prepare(final MetricType metricType, final byte[] aspect, final Tag... tags) {
+        ByteBuffer head = ByteBuffer.allocate(prefix.length + aspect.length + 1);
+        putPrefix(aspect, head, NO_DELTA_SIGN);
+        ByteBuffer tail = ByteBuffer.allocate(suffixLength(metricType, tags));
+        putSuffix(tail, metricType, NO_SAMPLE_RATE, tags);
+        final int seriesId = binaryEncoder != null
+                ? binaryEncoder.intern(BinaryEncoder.hash(head.array(), tail.array()), head.array(), tail.array()) : -1;
+        return new PreparedMetric(this, head.array(), tail.array(), seriesId);
+    }
+
+    /**
+     * @return the sender of the client, e.g. for reporters packing the lines of prepared metrics into datagrams
+     */
+    public Sender getSender() {
+        return sender;
+    }
+
+    boolean isExactDoubles() {
+        return exactDoubles;
+    }
+
+    /**
+     * format and send timer with nanoseconds value as fractional milliseconds.
      * @throws IllegalArgumentException if the message is too large
      */
-    private void send(byte[] metricName, char deltaSign, long value, MetricType metricType, double sampleRate, Tag[] tags) {
+    private void sendNanos(byte[] metricName, long nanos, double sampleRate, Tag[] tags) {
+        if (cardinalityLimiter != null) {
+            tags = cardinalityLimiter.limit(metricName, tags);
+            if (tags == CardinalityLimiter.DROP) {
+                return;
+            }
+        }
+        if (binaryEncoder != null) {
+            final int id = seriesId(metricName, NO_DELTA_SIGN, MetricType.TIMER, sampleRate, tags);
+            if (id >= 0) {
+                sendBinary(id, BinaryEncoder.NANOS, nanos);
+                return;
+            }
+        }
         ByteBuffer buffer = MSG_BUFFER.get();
         boolean formatted = false;
         while (!formatted) {
             try {
                 buffer.clear();
-                putPrefix(metricName, buffer, deltaSign);
-                putLong(buffer, value);
-                putSuffix(buffer, metricType, sampleRate, tags);
+                putPrefix(metricName, buffer, NO_DELTA_SIGN);
+                putNanos(buffer, nanos);
+                putSuffix(buffer, MetricType.TIMER, sampleRate, tags);
                 buffer.flip();
                 formatted = true;
             } catch (BufferOverflowException e) {
@@ -219,17 +579,44 @@ public final class FastStatsDClient implements StatsDClient {
     }
 
     /**
-     * format and send with double value.
+     * format and send with long value and dynamic name, encoded directly to the buffer if it is not cached.
      * @throws IllegalArgumentException if the message is too large
      */
-    private void send(byte[] metricName, char deltaSign, double value, MetricType metricType, double sampleRate, Tag[] tags) {
+    private void send(CharSequence metricName, char deltaSign, long value, boolean nanos, MetricType metricType,
+                      double sampleRate, Tag[] tags) {
+        if (nameCache != null && metricName instanceof String) {
+            final byte[] encodedName = nameCache.encode((String) metricName);
+            if (nanos) {
+                sendNanos(encodedName, value, sampleRate, tags);
+            } else {
+                send(encodedName, deltaSign, value, metricType, sampleRate, tags);
+            }
+            return;
+        }
+        if (cardinalityLimiter != null) {
+            tags = cardinalityLimiter.limit(metricName, tags);
+            if (tags == CardinalityLimiter.DROP) {
+                return;
+            }
+        }
+        if (binaryEncoder != null) {
+            final int id = seriesId(metricName, deltaSign, metricType, sampleRate, tags);
+            if (id >= 0) {
+                sendBinary(id, nanos ? BinaryEncoder.NANOS : BinaryEncoder.LONG, value);
+                return;
+            }
+        }
         ByteBuffer buffer = MSG_BUFFER.get();
         boolean formatted = false;
         while (!formatted) {
             try {
                 buffer.clear();
                 putPrefix(metricName, buffer, deltaSign);
-                putDouble(buffer, value, exactDoubles);
+                if (nanos) {
+                    putNanos(buffer, value);
+                } else {
+                    putLong(buffer, value);
+                }
                 putSuffix(buffer, metricType, sampleRate, tags);
                 buffer.flip();
                 formatted = true;
@@ -242,40 +629,530 @@ public final class FastStatsDClient implements StatsDClient {
         sender.send(buffer);
     }
 
-
-    private void putPrefix(byte[] metricName, ByteBuffer buffer, char deltaSign) {
-        buffer.put(prefix);
-        buffer.put(metricName);
-        buffer.put((byte) ':');
-        if (deltaSign != NO_DELTA_SIGN) {
-            buffer.put((byte) deltaSign);
+    /**
+     * format and send with double value and dynamic name, encoded directly to the buffer if it is not cached.
+     * @throws IllegalArgumentException if the message is too large
+     */
+    private void send(CharSequence metricName, char deltaSign, double value, MetricType metricType, double sampleRate, Tag[] tags) {
+        if (nameCache != null && metricName instanceof String) {
+            send(nameCache.encode((String) metricName), deltaSign, value, metricType, sampleRate, tags);
+            return;
         }
-    }
-
-    private void putSuffix(ByteBuffer buffer, MetricType metricType, double sampleRate, Tag[] tags) {
-        buffer.put((byte) '|');
-        buffer.put(metricType.key);
-        if (sampleRate != NO_SAMPLE_RATE) {
-            buffer.put((byte) '|');
-            buffer.put((byte) '@');
-            putDouble(buffer, sampleRate, exactDoubles);
+        if (cardinalityLimiter != null) {
+            tags = cardinalityLimiter.limit(metricName, tags);
+            if (tags == CardinalityLimiter.DROP) {
+                return;
+            }
         }
-        if (tags != null && tags.length > 0) {
-            buffer.put((byte) '|');
-            buffer.put((byte) '#');
-            for (int i = 0; i < tags.length; i++) {
-                Tag tag = tags[i];
-                buffer.put(tag.getName());
-                buffer.put((byte) ':');
-                buffer.put(tag.getValue());
-                if (i < tags.length - 1) {
-                    buffer.put((byte) ',');
-                }
+        if (binaryEncoder != null) {
+            final int id = seriesId(metricName, deltaSign, metricType, sampleRate, tags);
+            if (id >= 0) {
+                sendBinary(id, BinaryEncoder.DOUBLE, Double.doubleToRawLongBits(value));
+                return;
             }
+        }
+        ByteBuffer buffer = MSG_BUFFER.get();
+        boolean formatted = false;
+        while (!formatted) {
+            try {
+                buffer.clear();
+                putPrefix(metricName, buffer, deltaSign);
+                putDouble(buffer, value, exactDoubles);
+                putSuffix(buffer, metricType, sampleRate, tags);
+                buffer.flip();
+                formatted = true;
+            } catch (BufferOverflowException e) {
+                // bigger messages are exceptional so using Exceptions should be good enough
+                buffer = createByteBuffer(newCapacity(buffer.capacity()));
+                MSG_BUFFER.set(buffer);
+            }
+        }
+        sender.send(buffer);
+    }
+
+    /**
+     * format and send pre-encoded metric with long value.
+     */
+    void send(PreparedMetric metric, long value) {
+        if (metric.seriesId() >= 0) {
+            sendBinary(metric.seriesId(), BinaryEncoder.LONG, value);
+            return;
+        }
+        ByteBuffer buffer = MSG_BUFFER.get();
+        boolean formatted = false;
+        while (!formatted) {
+            try {
+                buffer.clear();
+                metric.writeTo(buffer, value);
+                buffer.flip();
+                formatted = true;
+            } catch (BufferOverflowException e) {
+                buffer = createByteBuffer(newCapacity(buffer.capacity()));
+                MSG_BUFFER.set(buffer);
+            }
+        }
+        sender.send(buffer);
+    }
+
+    /**
+     * format and send pre-encoded metric with nanoseconds value as fractional milliseconds.
+     */
+    void sendNanos(PreparedMetric metric, long nanos) {
+        if (metric.seriesId() >= 0) {
+            sendBinary(metric.seriesId(), BinaryEncoder.NANOS, nanos);
+            return;
+        }
+        ByteBuffer buffer = MSG_BUFFER.get();
+        boolean formatted = false;
+        while (!formatted) {
+            try {
+                buffer.clear();
+                metric.writeNanosTo(buffer, nanos);
+                buffer.flip();
+                formatted = true;
+            } catch (BufferOverflowException e) {
+                buffer = createByteBuffer(newCapacity(buffer.capacity()));
+                MSG_BUFFER.set(buffer);
+            }
+        }
+        sender.send(buffer);
+    }
+
+    /**
+     * format and send pre-encoded metric with double value.
+     */
+    void send(PreparedMetric metric, double value) {
+        if (metric.seriesId() >= 0) {
+            sendBinary(metric.seriesId(), BinaryEncoder.DOUBLE, Double.doubleToRawLongBits(value));
+            return;
+        }
+        ByteBuffer buffer = MSG_BUFFER.get();
+        boolean formatted = false;
+        while (!formatted) {
+            try {
+                buffer.clear();
+                metric.writeTo(buffer, value);
+                buffer.flip();
+                formatted = true;
+            } catch (BufferOverflowException e) {
+                buffer = createByteBuffer(newCapacity(buffer.capacity()));
+                MSG_BUFFER.set(buffer);
+            }
+        }
+        sender.send(buffer);
+    }
+
+    /**
+     * format and send with long value.
+     *
+     * @throws IllegalArgumentException if the message is too large
+     */
+    private void send(byte[] metricName, char deltaSign, long value, MetricType metricType, double sampleRate, Tag[] tags) {
+        if (cardinalityLimiter != null) {
+            tags = cardinalityLimiter.limit(metricName, tags);
+            if (tags == CardinalityLimiter.DROP) {
+                return;
+            }
+        }
+        if (binaryEncoder != null) {
+            final int id = seriesId(metricName, deltaSign, metricType, sampleRate, tags);
+            if (id >= 0) {
+                sendBinary(id, BinaryEncoder.LONG, value);
+                return;
+            }
+        }
+        ByteBuffer buffer = MSG_BUFFER.get();
+        boolean formatted = false;
+        while (!formatted) {
+            try {
+                buffer.clear();
+                putPrefix(metricName, buffer, deltaSign);
+                putLong(buffer, value);
+                putSuffix(buffer, metricType, sampleRate, tags);
+                buffer.flip();
+                formatted = true;
+            } catch (BufferOverflowException e) {
+                // bigger messages are exceptional so using Exceptions should be good enough
+                buffer = createByteBuffer(newCapacity(buffer.capacity()));
+                MSG_BUFFER.set(buffer);
+            }
+        }
+        sender.send(buffer);
+    }
+
+    /**
+     * format and send with double value.
+     * @throws IllegalArgumentException if the message is too large
+     */
+    private void send(byte[] metricName, char deltaSign, double value, MetricType metricType, double sampleRate, Tag[] tags) {
+        if (cardinalityLimiter != null) {
+            tags = cardinalityLimiter.limit(metricName, tags);
+            if (tags == CardinalityLimiter.DROP) {
+                return;
+            }
+        }
+        if (binaryEncoder != null) {
+            final int id = seriesId(metricName, deltaSign, metricType, sampleRate, tags);
+            if (id >= 0) {
+                sendBinary(id, BinaryEncoder.DOUBLE, Double.doubleToRawLongBits(value));
+                return;
+            }
+        }
+        ByteBuffer buffer = MSG_BUFFER.get();
+        boolean formatted = false;
+        while (!formatted) {
+            try {
+                buffer.clear();
+                putPrefix(metricName, buffer, deltaSign);
+                putDouble(buffer, value, exactDoubles);
+                putSuffix(buffer, metricType, sampleRate, tags);
+                buffer.flip();
+                formatted = true;
+            } catch (BufferOverflowException e) {
+                // bigger messages are exceptional so using Exceptions should be good enough
+                buffer = createByteBuffer(newCapacity(buffer.capacity()));
+                MSG_BUFFER.set(buffer);
+            }
+        }
+        sender.send(buffer);
+    }
 
+
+    /**
+     * format and send many values of one metric. The buffer holds the template (head and tail of the line) followed
+     * by the packet being filled, so the name and tags are encoded once and each line costs a copy and the value digits.
+     *
+     * @throws IllegalArgumentException if the message is too large
+     */
+    private void sendAll(byte[] metricName, long[] longs, double[] doubles, boolean nanos, int offset, int length,
+                         MetricType metricType, Tag[] tags) {
+        if (offset < 0 || length < 0 || offset + length > (longs != null ? longs.length : doubles.length)) {
+            throw new IndexOutOfBoundsException("Invalid range : offset " + offset + ", length " + length);
+        }
+        if (length == 0) {
+            return;
+        }
+        if (cardinalityLimiter != null) {
+            tags = cardinalityLimiter.limit(metricName, tags);
+            if (tags == CardinalityLimiter.DROP) {
+                return;
+            }
+        }
+        if (binaryEncoder != null) {
+            final int id = seriesId(metricName, NO_DELTA_SIGN, metricType, NO_SAMPLE_RATE, tags);
+            if (id >= 0) {
+                sendAllBinary(id, longs, doubles, nanos, offset, length);
+                return;
+            }
+        }
+        ByteBuffer buffer = MSG_BUFFER.get();
+        int headLength;
+        int templateLength;
+        while (true) {
+            try {
+                buffer.clear();
+                putPrefix(metricName, buffer, NO_DELTA_SIGN);
+                headLength = buffer.position();
+                putSuffix(buffer, metricType, NO_SAMPLE_RATE, tags);
+                templateLength = buffer.position();
+                // the packet (or one oversized line) and one more line must fit after the template
+                if (buffer.remaining() >= maxPacketSize + 2 * (templateLength + MAX_VALUE_LENGTH) + 1) {
+                    break;
+                }
+                throw new BufferOverflowException();
+            } catch (BufferOverflowException e) {
+                buffer = createByteBuffer(newCapacity(buffer.capacity()));
+                MSG_BUFFER.set(buffer);
+            }
+        }
+        if (multiValueLines) {
+            putMultiValueLines(buffer, headLength, templateLength, longs, doubles, nanos, offset, length);
+        } else {
+            putLines(buffer, headLength, templateLength, longs, doubles, nanos, offset, length);
         }
     }
 
+    private void putLines(ByteBuffer buffer, int headLength, int templateLength,
+                          long[] longs, double[] doubles, boolean nanos, int offset, int length) {
+        final int packetStart = templateLength;
+        for (int i = offset, end = offset + length; i < end; i++) {
+            final int lineStart = buffer.position();
+            final boolean first = lineStart == packetStart;
+            if (!first) {
+                buffer.put((byte) '\n');
+            }
+            copy(buffer, 0, headLength);
+            putValue(buffer, longs, doubles, nanos, i);
+            copy(buffer, headLength, templateLength);
+            if (!first && buffer.position() - packetStart > maxPacketSize) {
+                // the line does not fit - send the packet without it and move the line to the packet start
+                final int lineEnd = buffer.position();
+                sendRegion(buffer, packetStart, lineStart);
+                for (int j = lineStart + 1; j < lineEnd; j++) {
+                    buffer.put(packetStart + j - lineStart - 1, buffer.get(j));
+                }
+                buffer.position(packetStart + lineEnd - lineStart - 1);
+            }
+        }
+        sendRegion(buffer, packetStart, buffer.position());
+    }
+
+    private void putMultiValueLines(ByteBuffer buffer, int headLength, int templateLength,
+                                    long[] longs, double[] doubles, boolean nanos, int offset, int length) {
+        final int packetStart = templateLength;
+        final int tailLength = templateLength - headLength;
+        for (int i = offset, end = offset + length; i < end; i++) {
+            final int valueStart = buffer.position();
+            final boolean first = valueStart == packetStart;
+            if (first) {
+                copy(buffer, 0, headLength);
+            } else {
+                buffer.put((byte) ':');
+            }
+            putValue(buffer, longs, doubles, nanos, i);
+            if (!first && buffer.position() + tailLength - packetStart > maxPacketSize) {
+                // the value does not fit - close the line without it and start a new one
+                buffer.position(valueStart);
+                copy(buffer, headLength, templateLength);
+                sendRegion(buffer, packetStart, buffer.position());
+                i--;
+            }
+        }
+        copy(buffer, headLength, templateLength);
+        sendRegion(buffer, packetStart, buffer.position());
+    }
+
+    /**
+     * send one binary record, preceded by the series definition when it is due.
+     */
+    private void sendBinary(int id, byte kind, long value) {
+        final ByteBuffer buffer = binaryBuffer(BinaryEncoder.HEADER_SIZE + binaryEncoder.definitionSize(id) + BinaryEncoder.MAX_RECORD_SIZE);
+        buffer.clear();
+        binaryEncoder.putHeader(buffer);
+        binaryEncoder.putDefinition(buffer, id);
+        BinaryEncoder.putRecord(buffer, kind, id, value);
+        buffer.flip();
+        sender.send(buffer);
+    }
+
+    /**
+     * send binary records of many values of one series, in messages of at most {@code maxPacketSize} bytes.
+     */
+    private void sendAllBinary(int id, long[] longs, double[] doubles, boolean nanos, int offset, int length) {
+        final int headerSize = BinaryEncoder.HEADER_SIZE + binaryEncoder.definitionSize(id);
+        final ByteBuffer buffer = binaryBuffer(Math.max(maxPacketSize, headerSize + BinaryEncoder.MAX_RECORD_SIZE));
+        final int limit = Math.max(maxPacketSize, headerSize + BinaryEncoder.MAX_RECORD_SIZE) - BinaryEncoder.MAX_RECORD_SIZE;
+        final byte kind = longs == null ? BinaryEncoder.DOUBLE : nanos ? BinaryEncoder.NANOS : BinaryEncoder.LONG;
+        buffer.clear();
+        binaryEncoder.putHeader(buffer);
+        binaryEncoder.putDefinition(buffer, id);
+        for (int i = offset, end = offset + length; i < end; i++) {
+            BinaryEncoder.putRecord(buffer, kind, id, longs == null ? Double.doubleToRawLongBits(doubles[i]) : longs[i]);
+            if (buffer.position() > limit && i < end - 1) {
+                buffer.flip();
+                sender.send(buffer);
+                buffer.clear();
+                binaryEncoder.putHeader(buffer);
+            }
+        }
+        buffer.flip();
+        sender.send(buffer);
+    }
+
+    private static ByteBuffer binaryBuffer(int size) {
+        ByteBuffer buffer = MSG_BUFFER.get();
+        while (buffer.capacity() < size) {
+            buffer = createByteBuffer(newCapacity(buffer.capacity()));
+            MSG_BUFFER.set(buffer);
+        }
+        return buffer;
+    }
+
+    /**
+     * @return id of the series in the binary dictionary, or -1 if the dictionary is full
+     */
+    private int seriesId(byte[] metricName, char deltaSign, MetricType metricType, double sampleRate, Tag[] tags) {
+        final long hash = BinaryEncoder.hash(metricName, deltaSign, metricType, sampleRate, tags);
+        final int id = binaryEncoder.find(hash);
+        if (id >= 0) {
+            return id;
+        }
+        final ByteBuffer head = ByteBuffer.allocate(prefix.length + metricName.length + 2);
+        putPrefix(metricName, head, deltaSign);
+        return binaryEncoder.intern(hash, Arrays.copyOf(head.array(), head.position()), encodeSuffix(metricType, sampleRate, tags));
+    }
+
+    /**
+     * @return id of the series in the binary dictionary, or -1 if the dictionary is full
+     */
+    private int seriesId(CharSequence metricName, char deltaSign, MetricType metricType, double sampleRate, Tag[] tags) {
+        final long hash = BinaryEncoder.hash(metricName, deltaSign, metricType, sampleRate, tags);
+        final int id = binaryEncoder.find(hash);
+        if (id >= 0) {
+            return id;
+        }
+        final ByteBuffer head = ByteBuffer.allocate(prefix.length + 3 * metricName.length() + 2);
+        putPrefix(metricName, head, deltaSign);
+        return binaryEncoder.intern(hash, Arrays.copyOf(head.array(), head.position()), encodeSuffix(metricType, sampleRate, tags));
+    }
+
+    private byte[] encodeSuffix(MetricType metricType, double sampleRate, Tag[] tags) {
+        final ByteBuffer tail = ByteBuffer.allocate(suffixLength(metricType, tags) + 2 + MAX_VALUE_LENGTH);
+        putSuffix(tail, metricType, sampleRate, tags);
+        return Arrays.copyOf(tail.array(), tail.position());
+    }
+
+    private void putValue(ByteBuffer buffer, long[] longs, double[] doubles, boolean nanos, int index) {
+        if (longs == null) {
+            putDouble(buffer, doubles[index], exactDoubles);
+        } else if (nanos) {
+            putNanos(buffer, longs[index]);
+        } else {
+            putLong(buffer, longs[index]);
+        }
+    }
+
+    /**
+     * copies the region of the buffer to its position.
+     */
+    private static void copy(ByteBuffer buffer, int from, int to) {
+        for (int i = from; i < to; i++) {
+            buffer.put(buffer.get(i));
+        }
+    }
+
+    /**
+     * sends the region of the buffer as a view starting at 0 - senders compare the written bytes with the limit
+     * and size events by the capacity - and positions the buffer to the region start.
+     */
+    private void sendRegion(ByteBuffer buffer, int from, int to) {
+        if (to > from) {
+            buffer.limit(to).position(from);
+            sender.send(buffer.slice());
+            buffer.limit(buffer.capacity());
+        }
+        buffer.position(from);
+    }
+
+    private void putPrefix(byte[] metricName, ByteBuffer buffer, char deltaSign) {
+        buffer.put(prefix);
+        if (sanitizer == null) {
+            buffer.put(metricName);
+        } else {
+            sanitizer.putName(metricName, buffer);
+        }
+        buffer.put((byte) ':');
+        if (deltaSign != NO_DELTA_SIGN) {
+            buffer.put((byte) deltaSign);
+        }
+    }
+
+    private void putPrefix(CharSequence metricName, ByteBuffer buffer, char deltaSign) {
+        buffer.put(prefix);
+        final int nameStart = buffer.position();
+        Utf8.put(metricName, buffer);
+        if (sanitizer != null) {
+            sanitizer.sanitizeName(buffer, nameStart);
+        }
+        buffer.put((byte) ':');
+        if (deltaSign != NO_DELTA_SIGN) {
+            buffer.put((byte) deltaSign);
+        }
+    }
+
+    private void putSuffix(ByteBuffer buffer, MetricType metricType, double sampleRate, Tag[] tags) {
+        buffer.put((byte) '|');
+        buffer.put(metricType.key);
+        if (sampleRate != NO_SAMPLE_RATE) {
+            buffer.put((byte) '|');
+            buffer.put((byte) '@');
+            putDouble(buffer, sampleRate, exactDoubles);
+        }
+        putTagsSection(buffer, tags);
+    }
+
+    /**
+     * Puts the sanitized metric name (with prefix) and the tags section ({@code |#tags}, if any) to the buffer.
+     * Used to identify series - the line is {@code name:value|type} followed by the tags section.
+     *
+     * @return length of the name
+     */
+    int putSeries(ByteBuffer buffer, byte[] metricName, Tag[] tags) {
+        final int start = buffer.position();
+        buffer.put(prefix);
+        if (sanitizer == null) {
+            buffer.put(metricName);
+        } else {
+            sanitizer.putName(metricName, buffer);
+        }
+        final int nameLength = buffer.position() - start;
+        putTagsSection(buffer, tags);
+        return nameLength;
+    }
+
+    private void putTagsSection(ByteBuffer buffer, Tag[] tags) {
+        final boolean hasTags = tags != null && tags.length > 0;
+        if (hasTags || constantTags.length > 0) {
+            buffer.put((byte) '|');
+            buffer.put((byte) '#');
+            if (hasTags) {
+                putTags(buffer, tags);
+                if (constantTags.length > 0) {
+                    buffer.put((byte) ',');
+                }
+            }
+            buffer.put(constantTags);
+        }
+    }
+
+    private void putTags(ByteBuffer buffer, Tag[] tags) {
+        for (int i = 0; i < tags.length; i++) {
+            Tag tag = tags[i];
+            if (sanitizer == null) {
+                buffer.put(tag.getName());
+                buffer.put((byte) ':');
+                buffer.put(tag.getValue());
+            } else {
+                sanitizer.putTag(tag, buffer);
+            }
+            if (i < tags.length - 1) {
+                buffer.put((byte) ',');
+            }
+        }
+    }
+
+    /**
+     * @return tags formatted as {@code name:value,name:value} to be appended to every message
+     */
+    private byte[] encodeTags(Tag[] tags) {
+        if (tags == null || tags.length == 0) {
+            return new byte[0];
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(tagsLength(tags));
+        putTags(buffer, tags);
+        return buffer.array();
+    }
+
+    private int suffixLength(MetricType metricType, Tag[] tags) {
+        int length = 1 + metricType.key.length;
+        final boolean hasTags = tags != null && tags.length > 0;
+        if (hasTags || constantTags.length > 0) {
+            length += 2 + constantTags.length;
+            if (hasTags) {
+                length += tagsLength(tags) + (constantTags.length > 0 ? 1 : 0);
+            }
+        }
+        return length;
+    }
+
+    private static int tagsLength(Tag[] tags) {
+        int length = tags.length - 1;
+        for (Tag tag : tags) {
+            length += tag.getName().length + 1 + tag.getValue().length;
+        }
+        return length;
+    }
+
     private static int newCapacity(final int currentCapacity) {
         if (currentCapacity >= MAX_BUFFER_LENGTH) {
             throw new IllegalArgumentException("Message too big. This is maximum : " + MAX_BUFFER_LENGTH);
@@ -288,11 +1165,15 @@ public final class FastStatsDClient implements StatsDClient {
     }
 
 
-    private static void putLong(ByteBuffer bb, long v) {
+    static void putLong(ByteBuffer bb, long v) {
         Numbers.putLongAsAsciiBytes(v, bb);
     }
 
-    private static void putDouble(ByteBuffer bb, double v, boolean exactDoubles) {
+    static void putNanos(ByteBuffer bb, long nanos) {
+        Numbers.putNanosAsMillisAsciiBytes(nanos, bb);
+    }
+
+    static void putDouble(ByteBuffer bb, double v, boolean exactDoubles) {
         Numbers.putDoubleAsAsciiBytes(v, bb, MESSAGE_CHARSET, exactDoubles);
     }
 
@@ -301,10 +1182,10 @@ public final class FastStatsDClient implements StatsDClient {
     }
 
     private static ByteBuffer createByteBuffer(int capacity) {
-        return ByteBuffer.allocateDirect(capacity);
+        return IOUtils.allocateDirect(capacity);
     }
 
-    enum MetricType {
+    public enum MetricType {
         GAUGE("g"), TIMER("ms"), COUNTER("c"), HISTOGRAM("h"), SET("s"), METER("m");
 
         MetricType(String key) {
@@ -312,6 +1193,167 @@ public final class FastStatsDClient implements StatsDClient {
         }
 
         private final byte[] key;
+
+        byte[] key() {
+            return key;
+        }
+    }
+
+    public static class Builder {
+
+        private String prefix;
+        private Sender sender;
+        private boolean exactDoubles = false;
+        private CardinalityLimiter cardinalityLimiter;
+        private NameCache nameCache;
+        private Sanitizer sanitizer;
+        private final List<Tag> constantTags = new ArrayList<>();
+        private int maxPacketSize = MessagePacker.DEFAULT_MAX_PACKET_SIZE;
+        private boolean multiValueLines = false;
+        private boolean binaryProtocol = false;
+        private int binaryMaxSeries;
+        private long binaryReannounceNanos;
+
+        public Builder withPrefix(String prefix) {
+            this.prefix = prefix;
+            return this;
+        }
+
+        public Builder withSender(Sender sender) {
+            this.sender = sender;
+            return this;
+        }
+
+        /**
+         * @param exactDoubles if false (default), doubles are formatted much faster but rounded to 9 decimal places
+         */
+        public Builder withExactDoubles(boolean exactDoubles) {
+            this.exactDoubles = exactDoubles;
+            return this;
+        }
+
+        /**
+         * Limits number of series (aspect + tags) per metric, see {@link CardinalityLimiter}.
+         * Pre-encoded metrics ({@link #prepare(MetricType, byte[], Tag...)}) are fixed series and are not limited.
+         */
+        public Builder withCardinalityLimiter(CardinalityLimiter cardinalityLimiter) {
+            this.cardinalityLimiter = cardinalityLimiter;
+            return this;
+        }
+
+        /**
+         * Caches UTF-8 encoding of {@link String} aspects passed to the {@link CharSequence} methods.
+         * Without the cache, the chars are encoded directly to the message buffer on every call.
+         */
+        public Builder withNameCache(NameCache nameCache) {
+            this.nameCache = nameCache;
+            return this;
+        }
+
+        /**
+         * Replaces or rejects separators in metric names and tags, see {@link Sanitizer}.
+         * Without it, the names and tags are sent as they are.
+         */
+        public Builder withSanitizer(Sanitizer sanitizer) {
+            this.sanitizer = sanitizer;
+            return this;
+        }
+
+        /**
+         * Tags added to every message. They are encoded once here and appended after the per-call tags.
+         */
+        public Builder withConstantTags(Tag... tags) {
+            this.constantTags.addAll(Arrays.asList(tags));
+            return this;
+        }
+
+        /**
+         * Adds constant tags from DataDog-style environment variables:
+         * {@code DD_TAGS} (comma or space separated {@code name:value}, tags without value are ignored), {@code DD_ENV}, {@code DD_SERVICE}, {@code DD_VERSION}
+         * and {@code DD_ENTITY_ID} (as {@code dd.internal.entity_id} tag).
+         */
+        public Builder withEnvironmentTags() {
+            return withEnvironmentTags(System::getenv);
+        }
+
+        Builder withEnvironmentTags(Function<String, String> environment) {
+            final String ddTags = environment.apply("DD_TAGS");
+            if (ddTags != null) {
+                for (String tag : ddTags.split("[,\\s]+")) {
+                    final int colon = tag.indexOf(':');
+                    if (colon > 0) {
+                        constantTags.add(tag(tag.substring(0, colon), tag.substring(colon + 1)));
+                    }
+                }
+            }
+            addEnvironmentTag(environment, "DD_ENV", "env");
+            addEnvironmentTag(environment, "DD_SERVICE", "service");
+            addEnvironmentTag(environment, "DD_VERSION", "version");
+            addEnvironmentTag(environment, "DD_ENTITY_ID", "dd.internal.entity_id");
+            return this;
+        }
+
+        private void addEnvironmentTag(Function<String, String> environment, String variable, String tagName) {
+            final String value = environment.apply(variable);
+            if (value != null && !value.isEmpty()) {
+                constantTags.add(tag(tagName, value));
+            }
+        }
+
+        private static Tag tag(String name, String value) {
+            return new TagImpl(name.getBytes(MESSAGE_CHARSET), value.getBytes(MESSAGE_CHARSET));
+        }
+
+        /**
+         * @param maxPacketSize max datagram size produced by the bulk methods, e.g. {@link #count(byte[], long[], int, int, Tag...)}
+         */
+        public Builder withMaxPacketSize(int maxPacketSize) {
+            this.maxPacketSize = maxPacketSize;
+            return this;
+        }
+
+        /**
+         * @param multiValueLines if true, the bulk methods send values of one metric in one line ({@code name:1:2:3|h}),
+         *                        which is supported by DogStatsD protocol v1.1 (agent 6.25+ / 7.25+)
+         */
+        public Builder withMultiValueLines(boolean multiValueLines) {
+            this.multiValueLines = multiValueLines;
+            return this;
+        }
+
+        /**
+         * Sends the metrics in compact binary records (see {@link BinaryDecoder}) - only for our own relay
+         * ({@link tech.energyit.statsd.relay.StatsDReceiver}), the agent does not understand them.
+         * Up to 64K series are kept in the dictionary, the definitions are announced again every 30 seconds.
+         */
+        public Builder withBinaryProtocol() {
+            return withBinaryProtocol(64 * 1024, 30, TimeUnit.SECONDS);
+        }
+
+        /**
+         * @param maxSeries  number of series with binary records, the others are sent as text lines
+         * @param reannounce interval of announcing the series definitions again, in case they were lost
+         *                   or the relay restarted. Records of a series are undecodable until its definition arrives.
+         * @see #withBinaryProtocol()
+         */
+        public Builder withBinaryProtocol(int maxSeries, long reannounce, TimeUnit unit) {
+            this.binaryProtocol = true;
+            this.binaryMaxSeries = maxSeries;
+            this.binaryReannounceNanos = unit.toNanos(reannounce);
+            return this;
+        }
+
+        public FastStatsDClient build() {
+            if (sender == null) {
+                throw new IllegalArgumentException("Sender must be set");
+            }
+            if (maxPacketSize <= 0) {
+                throw new IllegalArgumentException("Packet size must be positive : " + maxPacketSize);
+            }
+            return new FastStatsDClient(prefix, sender, exactDoubles, cardinalityLimiter, nameCache, sanitizer,
+                    constantTags.toArray(new Tag[0]), maxPacketSize, multiValueLines,
+                    binaryProtocol ? new BinaryEncoder(binaryMaxSeries, binaryReannounceNanos) : null);
+        }
     }
 
 }
@@ -0,0 +1,127 @@
+package tech.energyit.statsd;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Single timer thread shared by buffering senders and aggregators (e.g. {@link BulkSender}, {@link PolledMetrics}),
+ * which flushes each of them at least every {@code maxLatency} - so buffered metrics are never held back for long
+ * and the last partial packet is not lost.
+ *
+ * Size-based triggers stay with the registrants: they flush themselves when their buffers fill up,
+ * or ask for an early flush in the timer thread by {@link Registration#requestFlush()}.
+ * {@link #flushAll()} and {@link #close()} flush everything registered in the calling thread.
+ */
+public final class FlushScheduler implements Closeable {
+
+    private final ScheduledExecutorService executor;
+    private final StatsDClientErrorHandler errorHandler;
+    private final Set<Registration> registrations = ConcurrentHashMap.newKeySet();
+
+    public FlushScheduler() {
+        this(StatsDClientErrorHandler.NO_OP_HANDLER);
+    }
+
+    public FlushScheduler(StatsDClientErrorHandler errorHandler) {
+        this(errorHandler, "statsd-flush-scheduler");
+    }
+
+    FlushScheduler(StatsDClientErrorHandler errorHandler, String threadName) {
+        this.errorHandler = errorHandler;
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, threadName);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @param flushable  flushed in the timer thread, so it must be thread-safe
+     * @param maxLatency max time between two flushes
+     * @return registration to be closed when the flushable is closed
+     */
+    public Registration register(Flushable flushable, long maxLatency, TimeUnit unit) {
+        if (maxLatency <= 0) {
+            throw new IllegalArgumentException("Max latency must be positive : " + maxLatency);
+        }
+        final Registration registration = new Registration(flushable);
+        registrations.add(registration);
+        registration.future = executor.scheduleAtFixedRate(registration::flush, maxLatency, maxLatency, unit);
+        return registration;
+    }
+
+    /**
+     * Flushes all registered flushables in the calling thread.
+     */
+    public void flushAll() {
+        for (Registration registration : registrations) {
+            registration.flush();
+        }
+    }
+
+    /**
+     * Stops the timer and flushes all registered flushables. They are not closed.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+        flushAll();
+        registrations.clear();
+    }
+
+    /**
+     * Registered {@link Flushable}. Closing it stops the timed flushes, but does not flush.
+     */
+    public final class Registration implements Closeable {
+
+        private final Flushable flushable;
+        private final AtomicBoolean flushRequested = new AtomicBoolean();
+        private volatile ScheduledFuture<?> future;
+
+        private Registration(Flushable flushable) {
+            this.flushable = flushable;
+        }
+
+        /**
+         * Asks for a flush in the timer thread as soon as possible, e.g. when a buffer reached its threshold.
+         * Requests are coalesced until the flush runs.
+         */
+        public void requestFlush() {
+            if (flushRequested.compareAndSet(false, true)) {
+                try {
+                    executor.execute(this::flush);
+                } catch (RejectedExecutionException e) {
+                    // scheduler closed - everything was flushed by close()
+                    flushRequested.set(false);
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            registrations.remove(this);
+            final ScheduledFuture<?> scheduled = future;
+            if (scheduled != null) {
+                scheduled.cancel(false);
+            }
+        }
+
+        private void flush() {
+            flushRequested.set(false);
+            try {
+                flushable.flush();
+            } catch (IOException | RuntimeException e) {
+                errorHandler.handle(e);
+            }
+        }
+    }
+}
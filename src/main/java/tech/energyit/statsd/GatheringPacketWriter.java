@@ -0,0 +1,91 @@
+package tech.energyit.statsd;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+
+/**
+ * Writes all packets to a stream channel (e.g. TCP or unix stream socket) by a single gathering write (writev).
+ * As streams have no packet boundaries, each packet is terminated by a new line.
+ *
+ * On a non-blocking channel with a full send buffer the packets which do not fit are dropped and reported
+ * to the error handler, like partial writes of {@link SynchronousSender}. A packet cut in the middle
+ * is terminated by a new line before the next write, so it cannot merge with the following packet.
+ */
+public class GatheringPacketWriter implements PacketWriter {
+
+    private static final byte[] NEW_LINE = {'\n'};
+
+    private final GatheringByteChannel channel;
+    private final StatsDClientErrorHandler errorHandler;
+    private final ByteBuffer lineTerminator = ByteBuffer.wrap(NEW_LINE);
+    private ByteBuffer[] buffers = new ByteBuffer[0];
+    private int[] starts = new int[0];
+    private boolean brokenLine;
+
+    public GatheringPacketWriter(GatheringByteChannel channel, StatsDClientErrorHandler errorHandler) {
+        this.channel = channel;
+        this.errorHandler = errorHandler;
+    }
+
+    @Override
+    public void write(ByteBuffer[] packets, int count) {
+        final ByteBuffer[] gathered = prepare(packets, count);
+        final int length = 2 * count;
+        try {
+            if (brokenLine && !terminateBrokenLine()) {
+                errorHandler.handle("Could not write all packets : 0/%d packets written.", count);
+                return;
+            }
+            int offset = 0;
+            while (offset < length) {
+                if (channel.write(gathered, offset, length - offset) == 0) {
+                    // the send buffer is full - drop the rest rather than spin until it drains
+                    brokenLine = offset % 2 == 1 || gathered[offset].position() != starts[offset / 2];
+                    errorHandler.handle("Could not write all packets : %d/%d packets written.", offset / 2, count);
+                    return;
+                }
+                while (offset < length && !gathered[offset].hasRemaining()) {
+                    offset++;
+                }
+            }
+        } catch (IOException e) {
+            errorHandler.handle(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            errorHandler.handle(e);
+        }
+    }
+
+    private boolean terminateBrokenLine() throws IOException {
+        lineTerminator.clear();
+        brokenLine = channel.write(lineTerminator) == 0;
+        return !brokenLine;
+    }
+
+    /**
+     * Interleaves the packets with new lines, reusing the array and the new line buffers.
+     */
+    private ByteBuffer[] prepare(ByteBuffer[] packets, int count) {
+        if (buffers.length < 2 * count) {
+            ByteBuffer[] newBuffers = new ByteBuffer[2 * count];
+            for (int i = 1; i < newBuffers.length; i += 2) {
+                newBuffers[i] = ByteBuffer.wrap(NEW_LINE);
+            }
+            buffers = newBuffers;
+            starts = new int[count];
+        }
+        for (int i = 0; i < count; i++) {
+            buffers[2 * i] = packets[i];
+            starts[i] = packets[i].position();
+            buffers[2 * i + 1].clear();
+        }
+        return buffers;
+    }
+}
@@ -3,10 +3,14 @@ package tech.energyit.statsd;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.nio.channels.DatagramChannel;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class IOUtils {
 
+    private static final AtomicLong ALLOCATED_DIRECT_BYTES = new AtomicLong();
+
     public static InetAddress inetAddress(String hostname) {
         try {
             return InetAddress.getByName(hostname);
@@ -22,4 +26,23 @@ public class IOUtils {
             throw new IllegalStateException("Failed to open channel", e);
         }
     }
+
+    /**
+     * Allocates a direct buffer and counts its capacity to {@link #allocatedDirectBytes()}.
+     * All direct buffers of this library are allocated here.
+     */
+    public static ByteBuffer allocateDirect(int capacity) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(capacity);
+        ALLOCATED_DIRECT_BYTES.addAndGet(capacity);
+        return buffer;
+    }
+
+    /**
+     * @return total bytes of direct memory allocated by this library so far. It is never decremented -
+     * buffers replaced by bigger ones or owned by terminated threads are not subtracted when they are freed,
+     * so it is a cumulative count, not the memory the library holds.
+     */
+    public static long allocatedDirectBytes() {
+        return ALLOCATED_DIRECT_BYTES.get();
+    }
 }
@@ -0,0 +1,246 @@
+package tech.energyit.statsd;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Size-bounded, memory-mapped file of messages - the overflow path of the asynchronous senders while the agent is down
+ * or their ring is full (see {@code spoolWhenRingIsFull} of their builders), or the only {@link Sender} of batch jobs
+ * running without an agent, replayed later by {@link #main(String[])}.
+ *
+ * {@link #send(ByteBuffer)} appends {@code [int length][message]} - one sequential copy into the mapped segment,
+ * no system call. {@link #replay(Sender, int)} hands the messages to a sender in order; once all of them are replayed,
+ * the segment is reused from its start. Messages which do not fit are dropped and counted.
+ * The positions are kept in the file header, so the messages survive a restart of the process
+ * (and of the OS too, after {@link #flush()}). Thread-safe, replays are serialized.
+ */
+public final class MappedSpool implements Sender, Flushable, Closeable {
+
+    private static final int MAGIC = 0x53504c31; // SPL1
+    private static final int MAGIC_OFFSET = 0;
+    private static final int CAPACITY_OFFSET = 4;
+    private static final int WRITE_OFFSET = 8;
+    private static final int READ_OFFSET = 12;
+    static final int HEADER_SIZE = 16;
+    private static final int LENGTH_SIZE = 4;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer mapped;
+    private final ByteBuffer writeView;
+    private final ByteBuffer readView;
+    private final StatsDClientErrorHandler errorHandler;
+    private final Object replayLock = new Object();
+    private volatile int writePosition;
+    private volatile int readPosition;
+    private long droppedCount;
+    private boolean dropReported;
+
+    private MappedSpool(Path file, int capacity, StatsDClientErrorHandler errorHandler) {
+        if (capacity <= HEADER_SIZE + LENGTH_SIZE) {
+            throw new IllegalArgumentException("Capacity too small : " + capacity);
+        }
+        this.errorHandler = errorHandler;
+        try {
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                this.mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to map spool file " + file, e);
+        }
+        this.writeView = mapped.duplicate();
+        this.readView = mapped.duplicate();
+        final int write = mapped.getInt(WRITE_OFFSET);
+        final int read = mapped.getInt(READ_OFFSET);
+        if (mapped.getInt(MAGIC_OFFSET) == MAGIC && mapped.getInt(CAPACITY_OFFSET) == capacity
+                && HEADER_SIZE <= read && read <= write && write <= capacity) {
+            // messages left by the previous process
+            this.writePosition = write;
+            this.readPosition = read;
+        } else {
+            mapped.putInt(MAGIC_OFFSET, MAGIC);
+            mapped.putInt(CAPACITY_OFFSET, capacity);
+            reset();
+        }
+    }
+
+    /**
+     * Appends the message, or drops it if the spool is full.
+     */
+    @Override
+    public synchronized void send(ByteBuffer msg) {
+        final int length = msg.remaining();
+        final int position = writePosition;
+        if (length + LENGTH_SIZE > writeView.capacity() - position) {
+            droppedCount++;
+            if (!dropReported) {
+                dropReported = true;
+                errorHandler.handle("Spool full. Dropping...");
+            }
+            return;
+        }
+        writeView.putInt(position, length);
+        writeView.position(position + LENGTH_SIZE);
+        writeView.put(msg);
+        // the message is written before it is published by the header
+        writePosition = position + LENGTH_SIZE + length;
+        writeView.putInt(WRITE_OFFSET, writePosition);
+    }
+
+    /**
+     * Sends at most {@code maxMessages} of the spooled messages, oldest first.
+     * The target may append them back to this spool, e.g. if they failed again.
+     * The lock of {@link #send(ByteBuffer)} is not held while the target sends a message,
+     * so producers spooling at the same time are not blocked by the network I/O.
+     *
+     * @param target receives a view of the mapped segment (starting at 0), valid only during the call
+     * @return number of replayed messages
+     */
+    public int replay(Sender target, int maxMessages) {
+        synchronized (replayLock) {
+            int replayed = 0;
+            ByteBuffer message;
+            while (replayed < maxMessages && (message = next()) != null) {
+                // stays in place until the spool is reset below - only a replay resets it
+                target.send(message);
+                replayed++;
+            }
+            synchronized (this) {
+                if (readPosition == writePosition) {
+                    reset();
+                }
+            }
+            return replayed;
+        }
+    }
+
+    /**
+     * @return view of the oldest message, which is consumed, or null if there is none
+     */
+    private synchronized ByteBuffer next() {
+        final int position = readPosition;
+        if (position >= writePosition) {
+            return null;
+        }
+        final int length = readView.getInt(position);
+        readView.limit(position + LENGTH_SIZE + length).position(position + LENGTH_SIZE);
+        final ByteBuffer message = readView.slice();
+        readView.clear();
+        readPosition = position + LENGTH_SIZE + length;
+        readView.putInt(READ_OFFSET, readPosition);
+        return message;
+    }
+
+    public boolean isEmpty() {
+        return readPosition == writePosition;
+    }
+
+    /**
+     * @return bytes taken by the messages not replayed yet
+     */
+    public int spooledBytes() {
+        return writePosition - readPosition;
+    }
+
+    public synchronized long droppedCount() {
+        return droppedCount;
+    }
+
+    /**
+     * Forces the segment to the storage.
+     */
+    @Override
+    public void flush() {
+        mapped.force();
+    }
+
+    /**
+     * Flushes the segment and closes the file. Spooled messages are replayed by the next instance on the same file.
+     * The segment stays mapped until it is garbage collected.
+     */
+    @Override
+    public synchronized void close() {
+        flush();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            errorHandler.handle(e);
+        }
+    }
+
+    private void reset() {
+        writePosition = HEADER_SIZE;
+        readPosition = HEADER_SIZE;
+        writeView.putInt(WRITE_OFFSET, HEADER_SIZE);
+        writeView.putInt(READ_OFFSET, HEADER_SIZE);
+        dropReported = false;
+    }
+
+    public static Builder builder(Path file) {
+        return new Builder(file);
+    }
+
+    public static class Builder {
+
+        private final Path file;
+        private int capacity = 64 * 1024 * 1024;
+        private StatsDClientErrorHandler errorHandler = StatsDClientErrorHandler.NO_OP_HANDLER;
+
+        private Builder(Path file) {
+            this.file = file;
+        }
+
+        /**
+         * @param capacity size of the file in bytes (default 64MB), each message takes its length + 4 bytes
+         */
+        public Builder withCapacity(int capacity) {
+            this.capacity = capacity;
+            return this;
+        }
+
+        public Builder withErrorHandler(StatsDClientErrorHandler errorHandler) {
+            this.errorHandler = errorHandler;
+            return this;
+        }
+
+        public MappedSpool build() {
+            return new MappedSpool(file, capacity, errorHandler);
+        }
+    }
+
+    /**
+     * Standalone replay, e.g. of a batch job which ran without an agent:
+     * {@code MappedSpool <file> [host] [port]} sends all the spooled messages packed into datagrams.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: MappedSpool <file> [host] [port]");
+            System.exit(1);
+        }
+        final Path file = Paths.get(args[0]);
+        final String host = args.length > 1 ? args[1] : "localhost";
+        final int port = args.length > 2 ? Integer.parseInt(args[2]) : 8125;
+        try (MappedSpool spool = builder(file).withCapacity((int) Files.size(file)).build();
+             SynchronousSender sender = SynchronousSender.builder().withHostAndPort(host, port).build()) {
+            final MessagePacker packer = new MessagePacker(sender);
+            int replayed = 0;
+            int batch;
+            while ((batch = spool.replay(packer::append, 1024)) > 0) {
+                packer.flush();
+                replayed += batch;
+            }
+            System.out.println("Replayed " + replayed + " messages to " + host + ":" + port);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package tech.energyit.statsd;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Packs several statsd messages into one datagram (separated by new lines)
+ * and passes it to a {@link Sender} once the next message does not fit.
+ * Messages bigger than the packet are sent on their own.
+ *
+ * Not thread-safe, it is meant to be owned by a single (consumer) thread.
+ */
+public final class MessagePacker {
+
+    /**
+     * Safe payload size for most networks - derived from the Ethernet MTU with some headroom for IP options.
+     */
+    public static final int DEFAULT_MAX_PACKET_SIZE = 1432;
+
+    private static final byte SEPARATOR = '\n';
+
+    private final Sender sender;
+    private final ByteBuffer packet;
+
+    public MessagePacker(Sender sender) {
+        this(sender, DEFAULT_MAX_PACKET_SIZE);
+    }
+
+    public MessagePacker(Sender sender, int maxPacketSize) {
+        if (maxPacketSize <= 0) {
+            throw new IllegalArgumentException("Packet size must be positive : " + maxPacketSize);
+        }
+        this.sender = sender;
+        this.packet = IOUtils.allocateDirect(maxPacketSize);
+    }
+
+    /**
+     * Appends remaining bytes of the message. The position of the message is moved to its limit.
+     */
+    public void append(ByteBuffer msg) {
+        final int length = msg.remaining();
+        if (prepare(length)) {
+            packet.put(msg);
+        } else {
+            sender.send(msg);
+        }
+    }
+
+    /**
+     * Appends the region of the source buffer. The position of the source buffer is not changed.
+     */
+    public void append(ByteBuffer src, int offset, int length) {
+        if (prepare(length)) {
+            for (int i = offset, end = offset + length; i < end; i++) {
+                packet.put(src.get(i));
+            }
+        } else {
+            // oversized messages are exceptional so the view allocation is fine,
+            // the view starts at 0 as senders compare the written bytes with its limit
+            ByteBuffer view = src.duplicate();
+            view.limit(offset + length).position(offset);
+            sender.send(view.slice());
+        }
+    }
+
+    /**
+     * Sends the pending packet, if any.
+     */
+    public void flush() {
+        if (packet.position() > 0) {
+            packet.flip();
+            sender.send(packet);
+            packet.clear();
+        }
+    }
+
+    public boolean isEmpty() {
+        return packet.position() == 0;
+    }
+
+    public int getMaxPacketSize() {
+        return packet.capacity();
+    }
+
+    /**
+     * Makes room for a message of the given length.
+     *
+     * @return false if the message can never fit to the packet
+     */
+    private boolean prepare(int length) {
+        if (length > packet.capacity()) {
+            flush();
+            return false;
+        }
+        final int required = packet.position() == 0 ? length : length + 1;
+        if (required > packet.remaining()) {
+            flush();
+        } else if (packet.position() > 0) {
+            packet.put(SEPARATOR);
+        }
+        return true;
+    }
+}
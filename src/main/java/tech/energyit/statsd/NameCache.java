@@ -0,0 +1,52 @@
+package tech.energyit.statsd;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded cache of UTF-8 encoded {@link String}s, e.g. dynamic metric names or tag values.
+ * Direct-mapped by {@link String#hashCode()} (which strings cache), so a hit allocates nothing
+ * and colliding strings simply replace each other - the memory is bounded by the capacity.
+ * Thread-safe.
+ */
+public final class NameCache {
+
+    private final AtomicReferenceArray<Entry> entries;
+    private final int mask;
+
+    /**
+     * @param capacity max number of cached strings, rounded up to a power of 2
+     */
+    public NameCache(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive : " + capacity);
+        }
+        final int size = Integer.highestOneBit(capacity * 2 - 1);
+        this.entries = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    /**
+     * @return UTF-8 bytes of the string - must not be modified
+     */
+    public byte[] encode(String name) {
+        final int hash = name.hashCode();
+        final int index = (hash ^ (hash >>> 16)) & mask;
+        final Entry entry = entries.get(index);
+        if (entry != null && (entry.name == name || entry.name.equals(name))) {
+            return entry.encoded;
+        }
+        final byte[] encoded = name.getBytes(FastStatsDClient.MESSAGE_CHARSET);
+        entries.lazySet(index, new Entry(name, encoded));
+        return encoded;
+    }
+
+    private static final class Entry {
+        private final String name;
+        private final byte[] encoded;
+
+        Entry(String name, byte[] encoded) {
+            this.name = name;
+            this.encoded = encoded;
+        }
+    }
+}
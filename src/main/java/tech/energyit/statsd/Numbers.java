@@ -1,5 +1,6 @@
 package tech.energyit.statsd;
 
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 
@@ -11,6 +12,8 @@ import java.nio.charset.Charset;
 final class Numbers {
 
     private static final int ROUNDING_MULTIPLIER = 1000000000;
+    private static final int NANOS_PER_MILLI = 1000000;
+    private static final int NANOS_FRACTION_DIGITS = 6;
 
     private Numbers() { /* never to be called */}
 
@@ -67,6 +70,9 @@ final class Numbers {
      */
     static void putLongAsAsciiBytes(long i, ByteBuffer buf) {
         int numberOfChars = (i < 0) ? stringSize(-i) + 1 : stringSize(i);
+        if (buf.remaining() < numberOfChars) {
+            throw new BufferOverflowException();
+        }
         buf.position(buf.position() + numberOfChars);
 
         long q;
@@ -153,4 +159,32 @@ final class Numbers {
 
     }
 
+    /**
+     * Puts nanoseconds as (fractional) milliseconds, e.g. 1500000 as "1.5" or 123 as "0.000123".
+     * Exact - no doubles are involved, zeros at the end of fraction are omitted.
+     *
+     * @param nanos time in nanoseconds
+     * @param buf   buffer to be written to
+     */
+    static void putNanosAsMillisAsciiBytes(long nanos, ByteBuffer buf) {
+        long millis = nanos / NANOS_PER_MILLI;
+        long fraction = Math.abs(nanos % NANOS_PER_MILLI);
+        if (millis == 0 && nanos < 0) {
+            buf.put((byte) '-');
+        }
+        putLongAsAsciiBytes(millis, buf);
+        if (fraction != 0) {
+            buf.put((byte) '.');
+            int fractionDigits = NANOS_FRACTION_DIGITS;
+            while (fraction % 10 == 0) {
+                fraction /= 10;
+                fractionDigits--;
+            }
+            for (int i = stringSize(fraction); i < fractionDigits; i++) {
+                buf.put((byte) '0');
+            }
+            putLongAsAsciiBytes(fraction, buf);
+        }
+    }
+
 }
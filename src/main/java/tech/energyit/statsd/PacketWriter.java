@@ -0,0 +1,54 @@
+package tech.energyit.statsd;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Submits several ready-to-send packets at once, ideally in a single kernel call.
+ * Used by {@link BulkSender}, so native bulk paths (e.g. {@code sendmmsg} or io_uring) can be plugged in.
+ *
+ * Implementations shipped with the library:
+ * <ul>
+ *     <li>{@link #of(Sender)} - pure-Java fallback for datagrams, one {@link Sender#send(ByteBuffer)} per packet</li>
+ *     <li>{@link GatheringPacketWriter} - one gathering write for stream channels</li>
+ * </ul>
+ * Like {@link Sender}, errors should be passed to a {@link StatsDClientErrorHandler}, not thrown.
+ */
+public interface PacketWriter extends Closeable {
+
+    /**
+     * Writes the first {@code count} packets, each from its position to its limit.
+     */
+    void write(ByteBuffer[] packets, int count);
+
+    @Override
+    default void close() {
+        /* nothing to close by default */
+    }
+
+    /**
+     * @return writer passing the packets one by one to the sender. The sender is closed with the writer if it is {@link Closeable}.
+     */
+    static PacketWriter of(Sender sender) {
+        return new PacketWriter() {
+            @Override
+            public void write(ByteBuffer[] packets, int count) {
+                for (int i = 0; i < count; i++) {
+                    sender.send(packets[i]);
+                }
+            }
+
+            @Override
+            public void close() {
+                if (sender instanceof Closeable) {
+                    try {
+                        ((Closeable) sender).close();
+                    } catch (IOException e) {
+                        throw new IllegalStateException("Failed to close sender", e);
+                    }
+                }
+            }
+        };
+    }
+}
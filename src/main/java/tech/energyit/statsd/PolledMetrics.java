@@ -0,0 +1,310 @@
+package tech.energyit.statsd;
+
+import java.io.Closeable;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * Polls registered value suppliers by a single scheduler thread (own or shared {@link FlushScheduler}) and sends them as gauges.
+ * Metric names and tags are pre-encoded at registration ({@link PreparedMetric}),
+ * all values of one round are packed into as few datagrams as possible ({@link MessagePacker}).
+ *
+ * Gauges registered by {@code gaugeOnChange} are sent only when their value changes, or at least once per max silence
+ * ({@link Builder#withMaxSilence(long, TimeUnit)}) - mostly static gauges then cost almost no packets.
+ * Counters registered by {@code counter} read a cumulative total (e.g. {@link java.util.concurrent.atomic.LongAdder#sum()},
+ * {@link java.lang.management.GarbageCollectorMXBean#getCollectionCount()}) and send its increments since the last round.
+ *
+ * Suppliers are invoked in the scheduler thread, so they should be cheap and thread-safe.
+ * Each registration returns a {@link Registration} to stop polling the metric.
+ */
+public final class PolledMetrics implements Closeable {
+
+    private static final long DEFAULT_INTERVAL_MS = 10_000L;
+    private static final long DEFAULT_MAX_SILENCE_MS = 60_000L;
+
+    private final FastStatsDClient client;
+    private final List<PolledMetric> metrics = new CopyOnWriteArrayList<>();
+    private final MessagePacker packer;
+    private final StatsDClientErrorHandler errorHandler;
+    private final long maxSilenceNanos;
+    private final FlushScheduler ownScheduler;
+    private final FlushScheduler.Registration registration;
+    private ByteBuffer msgBuffer = IOUtils.allocateDirect(FastStatsDClient.INITIAL_BUFFER_SIZE);
+
+    private PolledMetrics(final FastStatsDClient client, final long intervalMs, final long maxSilenceMs, final int maxPacketSize,
+                          final StatsDClientErrorHandler errorHandler, final FlushScheduler sharedScheduler) {
+        this.client = client;
+        this.packer = new MessagePacker(client.getSender(), maxPacketSize);
+        this.errorHandler = errorHandler;
+        this.maxSilenceNanos = TimeUnit.MILLISECONDS.toNanos(maxSilenceMs);
+        this.ownScheduler = sharedScheduler == null ? new FlushScheduler(errorHandler, "statsd-polled-metrics") : null;
+        final FlushScheduler scheduler = sharedScheduler != null ? sharedScheduler : ownScheduler;
+        this.registration = scheduler.register(this::poll, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Registers a gauge polled every interval.
+     *
+     * @param aspect   the name of the gauge
+     * @param supplier provides the current reading of the gauge
+     * @param tags     array of tags to be added to the data
+     * @return handle to stop polling the gauge
+     */
+    public Registration gauge(final byte[] aspect, final LongSupplier supplier, final Tag... tags) {
+        final PreparedMetric metric = client.prepare(FastStatsDClient.MetricType.GAUGE, aspect, tags);
+        return register((buffer, now) -> {
+            metric.writeTo(buffer, supplier.getAsLong());
+            return true;
+        });
+    }
+
+    /**
+     * Registers a gauge polled every interval.
+     *
+     * @param aspect   the name of the gauge
+     * @param supplier provides the current reading of the gauge, NaN if there is none (nothing is sent then)
+     * @param tags     array of tags to be added to the data
+     * @return handle to stop polling the gauge
+     */
+    public Registration gauge(final byte[] aspect, final DoubleSupplier supplier, final Tag... tags) {
+        final PreparedMetric metric = client.prepare(FastStatsDClient.MetricType.GAUGE, aspect, tags);
+        return register((buffer, now) -> {
+            final double value = supplier.getAsDouble();
+            if (Double.isNaN(value)) {
+                return false;
+            }
+            metric.writeTo(buffer, value);
+            return true;
+        });
+    }
+
+    /**
+     * Registers a gauge polled every interval, but sent only when its value changes or the max silence elapses.
+     *
+     * @param aspect   the name of the gauge
+     * @param supplier provides the current reading of the gauge
+     * @param tags     array of tags to be added to the data
+     * @return handle to stop polling the gauge
+     */
+    public Registration gaugeOnChange(final byte[] aspect, final LongSupplier supplier, final Tag... tags) {
+        final PreparedMetric metric = client.prepare(FastStatsDClient.MetricType.GAUGE, aspect, tags);
+        final ChangeDetector detector = new ChangeDetector();
+        return register((buffer, now) -> {
+            final long value = supplier.getAsLong();
+            if (!detector.isDue(value, now)) {
+                return false;
+            }
+            metric.writeTo(buffer, value);
+            detector.sent(value, now);
+            return true;
+        });
+    }
+
+    /**
+     * Registers a gauge polled every interval, but sent only when its value changes or the max silence elapses.
+     *
+     * @param aspect   the name of the gauge
+     * @param supplier provides the current reading of the gauge, NaN if there is none (nothing is sent then)
+     * @param tags     array of tags to be added to the data
+     * @return handle to stop polling the gauge
+     */
+    public Registration gaugeOnChange(final byte[] aspect, final DoubleSupplier supplier, final Tag... tags) {
+        final PreparedMetric metric = client.prepare(FastStatsDClient.MetricType.GAUGE, aspect, tags);
+        final ChangeDetector detector = new ChangeDetector();
+        return register((buffer, now) -> {
+            final double value = supplier.getAsDouble();
+            final long bits = Double.doubleToLongBits(value);
+            if (Double.isNaN(value) || !detector.isDue(bits, now)) {
+                return false;
+            }
+            metric.writeTo(buffer, value);
+            detector.sent(bits, now);
+            return true;
+        });
+    }
+
+    /**
+     * Registers a counter fed by a monotonic cumulative source. Every interval the increment since the previous round
+     * is sent (nothing if it is 0). If the total decreases, the source is considered reset and the new total is sent.
+     *
+     * @param aspect     the name of the counter
+     * @param cumulative provides the total count so far - it is read for the first time at registration
+     * @param tags       array of tags to be added to the data
+     * @return handle to stop polling the counter
+     */
+    public Registration counter(final byte[] aspect, final LongSupplier cumulative, final Tag... tags) {
+        final PreparedMetric metric = client.prepare(FastStatsDClient.MetricType.COUNTER, aspect, tags);
+        final long[] previous = {cumulative.getAsLong()};
+        return register((buffer, now) -> {
+            final long total = cumulative.getAsLong();
+            final long delta = total >= previous[0] ? total - previous[0] : total;
+            if (delta == 0) {
+                previous[0] = total;
+                return false;
+            }
+            metric.writeTo(buffer, delta);
+            previous[0] = total;
+            return true;
+        });
+    }
+
+    /**
+     * Polls all registered metrics and sends them immediately. Invoked by the scheduler every interval.
+     */
+    public synchronized void poll() {
+        final long now = System.nanoTime();
+        for (PolledMetric metric : metrics) {
+            try {
+                write(metric, now);
+            } catch (RuntimeException e) {
+                errorHandler.handle(e);
+            }
+        }
+        packer.flush();
+    }
+
+    /**
+     * Stops polling. The client's sender (and shared scheduler) is not closed.
+     */
+    @Override
+    public void close() {
+        registration.close();
+        if (ownScheduler != null) {
+            ownScheduler.close();
+        }
+    }
+
+    private Registration register(PolledMetric metric) {
+        metrics.add(metric);
+        return new Registration(metric);
+    }
+
+    private void write(PolledMetric metric, long now) {
+        ByteBuffer buffer = msgBuffer;
+        while (true) {
+            try {
+                buffer.clear();
+                if (!metric.writeTo(buffer, now)) {
+                    return;
+                }
+                buffer.flip();
+                break;
+            } catch (BufferOverflowException e) {
+                buffer = IOUtils.allocateDirect(buffer.capacity() * 2);
+                msgBuffer = buffer;
+            }
+        }
+        packer.append(buffer);
+    }
+
+    public static Builder builder(FastStatsDClient client) {
+        return new Builder(client);
+    }
+
+    @FunctionalInterface
+    interface PolledMetric {
+        /**
+         * @return false if there is nothing to send this round
+         */
+        boolean writeTo(ByteBuffer buffer, long now);
+    }
+
+    /**
+     * Registered metric. Removing it stops the polling, e.g. when the metered object is disposed.
+     */
+    public final class Registration {
+
+        private final PolledMetric metric;
+
+        private Registration(PolledMetric metric) {
+            this.metric = metric;
+        }
+
+        /**
+         * Stops polling the metric. A round in progress may still send it once.
+         */
+        public void remove() {
+            metrics.remove(metric);
+        }
+    }
+
+    /**
+     * Last sent value (or raw bits of the double value) of a gauge, accessed by the polling thread only.
+     */
+    private final class ChangeDetector {
+        private boolean sent;
+        private long lastValue;
+        private long lastSentNanos;
+
+        boolean isDue(long value, long now) {
+            return !sent || value != lastValue || now - lastSentNanos >= maxSilenceNanos;
+        }
+
+        void sent(long value, long now) {
+            this.sent = true;
+            this.lastValue = value;
+            this.lastSentNanos = now;
+        }
+    }
+
+    public static class Builder {
+
+        private final FastStatsDClient client;
+        private long intervalMs = DEFAULT_INTERVAL_MS;
+        private long maxSilenceMs = DEFAULT_MAX_SILENCE_MS;
+        private int maxPacketSize = MessagePacker.DEFAULT_MAX_PACKET_SIZE;
+        private StatsDClientErrorHandler errorHandler = StatsDClientErrorHandler.NO_OP_HANDLER;
+        private FlushScheduler scheduler;
+
+        private Builder(FastStatsDClient client) {
+            this.client = client;
+        }
+
+        public Builder withInterval(long interval, TimeUnit unit) {
+            this.intervalMs = unit.toMillis(interval);
+            return this;
+        }
+
+        /**
+         * @param maxSilence the longest time an unchanged {@code gaugeOnChange} gauge is not sent (heartbeat),
+         *                   so it does not expire in the agent. Default is 1 minute.
+         */
+        public Builder withMaxSilence(long maxSilence, TimeUnit unit) {
+            this.maxSilenceMs = unit.toMillis(maxSilence);
+            return this;
+        }
+
+        public Builder withMaxPacketSize(int maxPacketSize) {
+            this.maxPacketSize = maxPacketSize;
+            return this;
+        }
+
+        public Builder withErrorHandler(StatsDClientErrorHandler errorHandler) {
+            this.errorHandler = errorHandler;
+            return this;
+        }
+
+        /**
+         * Polls in the thread of the shared scheduler instead of an own thread.
+         */
+        public Builder withScheduler(FlushScheduler scheduler) {
+            this.scheduler = scheduler;
+            return this;
+        }
+
+        public PolledMetrics build() {
+            if (intervalMs <= 0) {
+                throw new IllegalArgumentException("Interval must be positive : " + intervalMs + "ms");
+            }
+            if (maxSilenceMs <= 0) {
+                throw new IllegalArgumentException("Max silence must be positive : " + maxSilenceMs + "ms");
+            }
+            return new PolledMetrics(client, intervalMs, maxSilenceMs, maxPacketSize, errorHandler, scheduler);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package tech.energyit.statsd;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Handle of a metric with pre-encoded name, type and tags - only the value is formatted per call.
+ * Created by {@link FastStatsDClient#prepare(FastStatsDClient.MetricType, byte[], Tag...)}.
+ * Thread-safe, for long values it has ZERO allocations.
+ */
+public final class PreparedMetric {
+
+    private final FastStatsDClient client;
+    private final byte[] head;
+    private final byte[] tail;
+    private final int seriesId;
+
+    PreparedMetric(FastStatsDClient client, byte[] head, byte[] tail, int seriesId) {
+        this.client = client;
+        this.head = head;
+        this.tail = tail;
+        this.seriesId = seriesId;
+    }
+
+    /**
+     * Formats the metric with the given value and sends it via the client's {@link Sender}.
+     */
+    public void send(long value) {
+        client.send(this, value);
+    }
+
+    /**
+     * Formats the metric with the given value and sends it via the client's {@link Sender}.
+     */
+    public void send(double value) {
+        client.send(this, value);
+    }
+
+    /**
+     * Formats the metric with nanoseconds value as (fractional) milliseconds and sends it via the client's {@link Sender}.
+     * Meant for timers.
+     */
+    public void sendNanos(long nanos) {
+        client.sendNanos(this, nanos);
+    }
+
+    /**
+     * @return a stopwatch reporting elapsed time to this metric - create it once and reuse it
+     */
+    public Stopwatch stopwatch() {
+        return new Stopwatch(this);
+    }
+
+    /**
+     * Puts the formatted metric line to the buffer.
+     *
+     * @throws java.nio.BufferOverflowException if there is not enough space in the buffer
+     */
+    public void writeTo(ByteBuffer buffer, long value) {
+        buffer.put(head);
+        FastStatsDClient.putLong(buffer, value);
+        buffer.put(tail);
+    }
+
+    /**
+     * Puts the formatted metric line to the buffer.
+     *
+     * @throws java.nio.BufferOverflowException if there is not enough space in the buffer
+     */
+    public void writeTo(ByteBuffer buffer, double value) {
+        buffer.put(head);
+        FastStatsDClient.putDouble(buffer, value, client.isExactDoubles());
+        buffer.put(tail);
+    }
+
+    /**
+     * Puts the formatted metric line with nanoseconds value as (fractional) milliseconds to the buffer.
+     *
+     * @throws java.nio.BufferOverflowException if there is not enough space in the buffer
+     */
+    public void writeNanosTo(ByteBuffer buffer, long nanos) {
+        buffer.put(head);
+        FastStatsDClient.putNanos(buffer, nanos);
+        buffer.put(tail);
+    }
+
+    /**
+     * @return id in the client's binary dictionary, or -1 if the metric is sent as text
+     */
+    int seriesId() {
+        return seriesId;
+    }
+
+    @Override
+    public String toString() {
+        return new String(head, FastStatsDClient.MESSAGE_CHARSET) + "<value>" + new String(tail, FastStatsDClient.MESSAGE_CHARSET);
+    }
+}
@@ -0,0 +1,169 @@
+package tech.energyit.statsd;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Guards the line protocol against metric names and tags containing its separators
+ * ({@code : | # ,} or control characters like newline), which would corrupt the line or split it in two
+ * - and with packing, break the other metrics in the same packet. Tag values may contain {@code :}.
+ *
+ * Invalid bytes are either replaced (see {@link #replacingWith(char)}) or rejected by {@link IllegalArgumentException}
+ * (see {@link #rejecting()}). Bytes are checked by a 256-entry lookup table in a branch-free loop,
+ * so clean names (the usual case) cost one table load per byte. Multi-byte UTF-8 sequences are always valid.
+ *
+ * Set it up with {@link FastStatsDClient.Builder#withSanitizer(Sanitizer)} - pre-encoded metrics are then sanitized
+ * once by {@link FastStatsDClient#prepare(FastStatsDClient.MetricType, byte[], Tag...)}, dynamic names and tags per call.
+ * Tags created by {@link #tag(byte[], byte[])} are sanitized once and not scanned again.
+ */
+public final class Sanitizer {
+
+    private static final byte VALID = 0;
+    private static final byte INVALID = 1;
+    private static final byte[] NAME_TABLE = table(":|#,");
+    private static final byte[] VALUE_TABLE = table("|#,");
+
+    private final byte replacement;
+    private final boolean rejecting;
+
+    private Sanitizer(byte replacement, boolean rejecting) {
+        this.replacement = replacement;
+        this.rejecting = rejecting;
+    }
+
+    /**
+     * @param replacement ASCII character to replace invalid bytes with, e.g. '_'
+     */
+    public static Sanitizer replacingWith(char replacement) {
+        if (replacement >= 0x80 || NAME_TABLE[replacement] == INVALID) {
+            throw new IllegalArgumentException("Replacement must be valid ASCII character : " + replacement);
+        }
+        return new Sanitizer((byte) replacement, false);
+    }
+
+    public static Sanitizer rejecting() {
+        return new Sanitizer((byte) 0, true);
+    }
+
+    /**
+     * @return the name if it is valid, otherwise its sanitized copy
+     * @throws IllegalArgumentException if the name is invalid and this sanitizer is rejecting
+     */
+    public byte[] name(byte[] name) {
+        return sanitize(name, NAME_TABLE);
+    }
+
+    /**
+     * @return tag with sanitized name and value, which is not scanned again when sent by the client using this sanitizer
+     * @throws IllegalArgumentException if the name or value is invalid and this sanitizer is rejecting
+     */
+    public Tag tag(byte[] name, byte[] value) {
+        return new SanitizedTag(this, sanitize(name, NAME_TABLE), sanitize(value, VALUE_TABLE));
+    }
+
+    /**
+     * @see #tag(byte[], byte[])
+     */
+    public Tag tag(Tag tag) {
+        return isSanitizedBy(tag) ? tag : tag(tag.getName(), tag.getValue());
+    }
+
+    /**
+     * Puts the sanitized name to the buffer.
+     */
+    void putName(byte[] name, ByteBuffer buffer) {
+        put(name, NAME_TABLE, buffer);
+    }
+
+    /**
+     * Puts the sanitized {@code name:value} of the tag to the buffer.
+     */
+    void putTag(Tag tag, ByteBuffer buffer) {
+        if (isSanitizedBy(tag)) {
+            buffer.put(tag.getName());
+            buffer.put((byte) ':');
+            buffer.put(tag.getValue());
+        } else {
+            put(tag.getName(), NAME_TABLE, buffer);
+            buffer.put((byte) ':');
+            put(tag.getValue(), VALUE_TABLE, buffer);
+        }
+    }
+
+    /**
+     * Sanitizes the name already written to the buffer between {@code from} and its position.
+     */
+    void sanitizeName(ByteBuffer buffer, int from) {
+        final int to = buffer.position();
+        for (int i = from; i < to; i++) {
+            final byte b = buffer.get(i);
+            if (NAME_TABLE[b & 0xff] == INVALID) {
+                buffer.put(i, replace(b));
+            }
+        }
+    }
+
+    private void put(byte[] src, byte[] table, ByteBuffer buffer) {
+        if (isValid(src, table)) {
+            buffer.put(src);
+        } else {
+            for (byte b : src) {
+                buffer.put(table[b & 0xff] == INVALID ? replace(b) : b);
+            }
+        }
+    }
+
+    private byte[] sanitize(byte[] src, byte[] table) {
+        if (isValid(src, table)) {
+            return src;
+        }
+        final byte[] sanitized = new byte[src.length];
+        for (int i = 0; i < src.length; i++) {
+            final byte b = src[i];
+            sanitized[i] = table[b & 0xff] == INVALID ? replace(b) : b;
+        }
+        return sanitized;
+    }
+
+    private byte replace(byte b) {
+        if (rejecting) {
+            throw new IllegalArgumentException("Invalid character in metric name or tag : 0x" + Integer.toHexString(b & 0xff));
+        }
+        return replacement;
+    }
+
+    private boolean isSanitizedBy(Tag tag) {
+        return tag instanceof SanitizedTag && ((SanitizedTag) tag).sanitizer == this;
+    }
+
+    /**
+     * No early exit, so the loop stays branch-free and unrolled by JIT - invalid bytes are rare.
+     */
+    private static boolean isValid(byte[] src, byte[] table) {
+        int invalid = 0;
+        for (byte b : src) {
+            invalid |= table[b & 0xff];
+        }
+        return invalid == VALID;
+    }
+
+    private static byte[] table(String separators) {
+        final byte[] table = new byte[256];
+        for (int c = 0; c < 0x20; c++) {
+            table[c] = INVALID;
+        }
+        table[0x7f] = INVALID;
+        for (int i = 0; i < separators.length(); i++) {
+            table[separators.charAt(i)] = INVALID;
+        }
+        return table;
+    }
+
+    private static final class SanitizedTag extends TagImpl {
+        private final Sanitizer sanitizer;
+
+        SanitizedTag(Sanitizer sanitizer, byte[] name, byte[] value) {
+            super(name, value);
+            this.sanitizer = sanitizer;
+        }
+    }
+}
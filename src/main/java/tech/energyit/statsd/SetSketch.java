@@ -0,0 +1,153 @@
+package tech.energyit.statsd;
+
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * Unique values of one set series in one flush interval: kept exactly up to the threshold,
+ * then estimated by a HyperLogLog with {@code 2^precision} one-byte registers (standard error {@code 1.04 / sqrt(2^precision)}).
+ * The memory is reused after {@link #reset()}, the registers are allocated when the threshold is exceeded for the first time.
+ * Not thread-safe - guarded by its own monitor in {@link AggregationStore}.
+ */
+final class SetSketch {
+
+    static final int MIN_PRECISION = 4;
+    static final int MAX_PRECISION = 16;
+
+    private final int threshold;
+    private final int precision;
+    private final long[] members;
+    private final int mask;
+    private boolean hasZero;
+    private int size;
+    private boolean estimating;
+    private byte[] registers;
+
+    SetSketch(int threshold, int precision) {
+        this.threshold = threshold;
+        this.precision = precision;
+        final int capacity = Integer.highestOneBit(Math.max(2, (threshold + 1) * 2) - 1) << 1;
+        this.members = new long[capacity];
+        this.mask = capacity - 1;
+    }
+
+    void add(long value) {
+        if (estimating) {
+            addHash(mix(value));
+            return;
+        }
+        if (value == 0) {
+            if (!hasZero) {
+                hasZero = true;
+                size++;
+            }
+        } else {
+            int index = (int) mix(value) & mask;
+            while (members[index] != 0 && members[index] != value) {
+                index = (index + 1) & mask;
+            }
+            if (members[index] == 0) {
+                members[index] = value;
+                size++;
+            }
+        }
+        if (size > threshold) {
+            startEstimating();
+        }
+    }
+
+    boolean isEstimating() {
+        return estimating;
+    }
+
+    boolean isEmpty() {
+        return size == 0 && !estimating;
+    }
+
+    /**
+     * Passes the exact members to the consumer, only valid if not {@link #isEstimating()}.
+     */
+    void forEachMember(LongConsumer consumer) {
+        if (hasZero) {
+            consumer.accept(0);
+        }
+        for (long member : members) {
+            if (member != 0) {
+                consumer.accept(member);
+            }
+        }
+    }
+
+    /**
+     * @return HyperLogLog estimate of the number of unique values, with the linear counting correction for small ones
+     */
+    long estimate() {
+        if (!estimating) {
+            return size;
+        }
+        final int m = registers.length;
+        double sum = 0;
+        int zeros = 0;
+        for (byte register : registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0) {
+                zeros++;
+            }
+        }
+        final double alpha = 0.7213 / (1 + 1.079 / m);
+        final double estimate = alpha * m * m / sum;
+        if (estimate <= 2.5 * m && zeros > 0) {
+            return Math.round(m * Math.log((double) m / zeros));
+        }
+        return Math.round(estimate);
+    }
+
+    void reset() {
+        if (size > 0) {
+            Arrays.fill(members, 0);
+        }
+        if (estimating) {
+            Arrays.fill(registers, (byte) 0);
+        }
+        hasZero = false;
+        size = 0;
+        estimating = false;
+    }
+
+    /**
+     * @return bytes of the registers, 0 until they are allocated
+     */
+    int registerBytes() {
+        return registers == null ? 0 : registers.length;
+    }
+
+    private void startEstimating() {
+        if (registers == null) {
+            registers = new byte[1 << precision];
+        }
+        estimating = true;
+        forEachMember(value -> addHash(mix(value)));
+    }
+
+    private void addHash(long hash) {
+        final int index = (int) (hash >>> (Long.SIZE - precision));
+        // rank of the first 1 bit of the remaining bits, bounded by the guard bit
+        final byte rank = (byte) (Long.numberOfLeadingZeros((hash << precision) | (1L << (precision - 1))) + 1);
+        if (rank > registers[index]) {
+            registers[index] = rank;
+        }
+    }
+
+    /**
+     * MurmurHash3 finalizer - spreads close values (ids) over all bits.
+     */
+    static long mix(long value) {
+        long h = value;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
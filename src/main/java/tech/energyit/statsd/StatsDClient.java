@@ -1,5 +1,8 @@
 package tech.energyit.statsd;
 
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
 /**
  * Describes a client connection to a StatsD server, which may be used to post metrics
  * in the form of counters, timers, gauges, histograms or sets..
@@ -146,6 +149,40 @@ public interface StatsDClient {
      */
     void time(byte[] aspect, long timeInMs, double sampleRate, Tag... tags);
 
+    /**
+     * Records an execution time in nanoseconds for the specified named operation.
+     * It is sent as (fractional) milliseconds, e.g. 1500ns as 0.0015ms, so sub-millisecond timings keep their precision.
+     * The default implementation truncates the time to whole milliseconds via {@link #time(byte[], long, Tag...)}.
+     *
+     * @param aspect
+     *     the name of the timed operation
+     * @param timeInNanos
+     *     the time in nanoseconds, e.g. a difference of two {@link System#nanoTime()} calls
+     * @param tags
+     *     array of tags to be added to the data
+     */
+    default void timeNanos(byte[] aspect, long timeInNanos, Tag... tags) {
+        time(aspect, TimeUnit.NANOSECONDS.toMillis(timeInNanos), tags);
+    }
+
+    /**
+     * Records an execution time in nanoseconds for the specified named operation.
+     * It is sent as (fractional) milliseconds, e.g. 1500ns as 0.0015ms, so sub-millisecond timings keep their precision.
+     * The default implementation truncates the time to whole milliseconds via {@link #time(byte[], long, double, Tag...)}.
+     *
+     * @param aspect
+     *     the name of the timed operation
+     * @param timeInNanos
+     *     the time in nanoseconds, e.g. a difference of two {@link System#nanoTime()} calls
+     * @param sampleRate
+     *      percentage of time metric to be sent
+     * @param tags
+     *     array of tags to be added to the data
+     */
+    default void timeNanos(byte[] aspect, long timeInNanos, double sampleRate, Tag... tags) {
+        time(aspect, TimeUnit.NANOSECONDS.toMillis(timeInNanos), sampleRate, tags);
+    }
+
     /**
      * Records a value for the specified named histogram.
      *
@@ -239,4 +276,177 @@ public interface StatsDClient {
      * @param tags   array of tags to be added to the data
      */
     void meter(byte[] aspect, double value, Tag... tags);
+
+    /*
+     * Dynamic names - the default implementations encode the name to UTF-8 on each call and delegate
+     * to the byte[] methods, FastStatsDClient encodes it directly to its buffer or caches it.
+     */
+
+    /**
+     * Same as {@link #count(byte[], long, Tag...)} for names built at runtime.
+     */
+    default void count(CharSequence aspect, long delta, Tag... tags) {
+        count(aspect.toString().getBytes(StandardCharsets.UTF_8), delta, tags);
+    }
+
+    /**
+     * Same as {@link #count(byte[], long, double, Tag...)} for names built at runtime.
+     */
+    default void count(CharSequence aspect, long delta, double sampleRate, Tag... tags) {
+        count(aspect.toString().getBytes(StandardCharsets.UTF_8), delta, sampleRate, tags);
+    }
+
+    /**
+     * Same as {@link #count(byte[], double, Tag...)} for names built at runtime.
+     */
+    default void count(CharSequence aspect, double delta, Tag... tags) {
+        count(aspect.toString().getBytes(StandardCharsets.UTF_8), delta, tags);
+    }
+
+    /**
+     * Same as {@link #count(byte[], double, double, Tag...)} for names built at runtime.
+     */
+    default void count(CharSequence aspect, double delta, double sampleRate, Tag... tags) {
+        count(aspect.toString().getBytes(StandardCharsets.UTF_8), delta, sampleRate, tags);
+    }
+
+    /**
+     * Same as {@link #gauge(byte[], long, Tag...)} for names built at runtime.
+     */
+    default void gauge(CharSequence aspect, long value, Tag... tags) {
+        gauge(aspect.toString().getBytes(StandardCharsets.UTF_8), value, tags);
+    }
+
+    /**
+     * Same as {@link #gauge(byte[], char, long, Tag...)} for names built at runtime.
+     */
+    default void gauge(CharSequence aspect, char deltaSign, long value, Tag... tags) {
+        gauge(aspect.toString().getBytes(StandardCharsets.UTF_8), deltaSign, value, tags);
+    }
+
+    /**
+     * Same as {@link #gauge(byte[], long, double, Tag...)} for names built at runtime.
+     */
+    default void gauge(CharSequence aspect, long value, double sampleRate, Tag... tags) {
+        gauge(aspect.toString().getBytes(StandardCharsets.UTF_8), value, sampleRate, tags);
+    }
+
+    /**
+     * Same as {@link #gauge(byte[], double, Tag...)} for names built at runtime.
+     */
+    default void gauge(CharSequence aspect, double value, Tag... tags) {
+        gauge(aspect.toString().getBytes(StandardCharsets.UTF_8), value, tags);
+    }
+
+    /**
+     * Same as {@link #gauge(byte[], char, double, Tag...)} for names built at runtime.
+     */
+    default void gauge(CharSequence aspect, char deltaSign, double value, Tag... tags) {
+        gauge(aspect.toString().getBytes(StandardCharsets.UTF_8), deltaSign, value, tags);
+    }
+
+    /**
+     * Same as {@link #gauge(byte[], double, double, Tag...)} for names built at runtime.
+     */
+    default void gauge(CharSequence aspect, double value, double sampleRate, Tag... tags) {
+        gauge(aspect.toString().getBytes(StandardCharsets.UTF_8), value, sampleRate, tags);
+    }
+
+    /**
+     * Same as {@link #time(byte[], long, Tag...)} for names built at runtime.
+     */
+    default void time(CharSequence aspect, long timeInMs, Tag... tags) {
+        time(aspect.toString().getBytes(StandardCharsets.UTF_8), timeInMs, tags);
+    }
+
+    /**
+     * Same as {@link #time(byte[], long, double, Tag...)} for names built at runtime.
+     */
+    default void time(CharSequence aspect, long timeInMs, double sampleRate, Tag... tags) {
+        time(aspect.toString().getBytes(StandardCharsets.UTF_8), timeInMs, sampleRate, tags);
+    }
+
+    /**
+     * Same as {@link #timeNanos(byte[], long, Tag...)} for names built at runtime.
+     */
+    default void timeNanos(CharSequence aspect, long timeInNanos, Tag... tags) {
+        timeNanos(aspect.toString().getBytes(StandardCharsets.UTF_8), timeInNanos, tags);
+    }
+
+    /**
+     * Same as {@link #timeNanos(byte[], long, double, Tag...)} for names built at runtime.
+     */
+    default void timeNanos(CharSequence aspect, long timeInNanos, double sampleRate, Tag... tags) {
+        timeNanos(aspect.toString().getBytes(StandardCharsets.UTF_8), timeInNanos, sampleRate, tags);
+    }
+
+    /**
+     * Same as {@link #histogram(byte[], long, Tag...)} for names built at runtime.
+     */
+    default void histogram(CharSequence aspect, long value, Tag... tags) {
+        histogram(aspect.toString().getBytes(StandardCharsets.UTF_8), value, tags);
+    }
+
+    /**
+     * Same as {@link #histogram(byte[], long, double, Tag...)} for names built at runtime.
+     */
+    default void histogram(CharSequence aspect, long value, double sampleRate, Tag... tags) {
+        histogram(aspect.toString().getBytes(StandardCharsets.UTF_8), value, sampleRate, tags);
+    }
+
+    /**
+     * Same as {@link #histogram(byte[], double, Tag...)} for names built at runtime.
+     */
+    default void histogram(CharSequence aspect, double value, Tag... tags) {
+        histogram(aspect.toString().getBytes(StandardCharsets.UTF_8), value, tags);
+    }
+
+    /**
+     * Same as {@link #histogram(byte[], double, double, Tag...)} for names built at runtime.
+     */
+    default void histogram(CharSequence aspect, double value, double sampleRate, Tag... tags) {
+        histogram(aspect.toString().getBytes(StandardCharsets.UTF_8), value, sampleRate, tags);
+    }
+
+    /**
+     * Same as {@link #set(byte[], long, Tag...)} for names built at runtime.
+     */
+    default void set(CharSequence aspect, long value, Tag... tags) {
+        set(aspect.toString().getBytes(StandardCharsets.UTF_8), value, tags);
+    }
+
+    /**
+     * Same as {@link #set(byte[], long, double, Tag...)} for names built at runtime.
+     */
+    default void set(CharSequence aspect, long value, double sampleRate, Tag... tags) {
+        set(aspect.toString().getBytes(StandardCharsets.UTF_8), value, sampleRate, tags);
+    }
+
+    /**
+     * Same as {@link #set(byte[], double, Tag...)} for names built at runtime.
+     */
+    default void set(CharSequence aspect, double value, Tag... tags) {
+        set(aspect.toString().getBytes(StandardCharsets.UTF_8), value, tags);
+    }
+
+    /**
+     * Same as {@link #set(byte[], double, double, Tag...)} for names built at runtime.
+     */
+    default void set(CharSequence aspect, double value, double sampleRate, Tag... tags) {
+        set(aspect.toString().getBytes(StandardCharsets.UTF_8), value, sampleRate, tags);
+    }
+
+    /**
+     * Same as {@link #meter(byte[], long, Tag...)} for names built at runtime.
+     */
+    default void meter(CharSequence aspect, long value, Tag... tags) {
+        meter(aspect.toString().getBytes(StandardCharsets.UTF_8), value, tags);
+    }
+
+    /**
+     * Same as {@link #meter(byte[], double, Tag...)} for names built at runtime.
+     */
+    default void meter(CharSequence aspect, double value, Tag... tags) {
+        meter(aspect.toString().getBytes(StandardCharsets.UTF_8), value, tags);
+    }
 }
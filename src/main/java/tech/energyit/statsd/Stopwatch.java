@@ -0,0 +1,53 @@
+package tech.energyit.statsd;
+
+/**
+ * Reusable stopwatch reporting the elapsed time in nanoseconds precision to a {@link PreparedMetric}.
+ * Thread-safe - the start time is kept per thread, so one (static) instance can be shared.
+ * It allocates nothing per measurement:
+ * <pre>
+ * Stopwatch processingTime = client.prepare(MetricType.TIMER, PROCESSING_TIME).stopwatch();
+ * ...
+ * try (Stopwatch timer = processingTime.start()) {
+ *     process(order);
+ * }
+ * </pre>
+ * Nested measurements on the same stopwatch in one thread are not supported.
+ */
+public final class Stopwatch implements AutoCloseable {
+
+    private final PreparedMetric metric;
+    private final ThreadLocal<long[]> startNanos = ThreadLocal.withInitial(() -> new long[1]);
+
+    Stopwatch(PreparedMetric metric) {
+        this.metric = metric;
+    }
+
+    /**
+     * Starts measuring in the calling thread.
+     *
+     * @return this stopwatch, to be closed by try-with-resources
+     */
+    public Stopwatch start() {
+        startNanos.get()[0] = System.nanoTime();
+        return this;
+    }
+
+    /**
+     * Sends the time elapsed since {@link #start()} in the calling thread.
+     *
+     * @return the elapsed time in nanoseconds
+     */
+    public long stop() {
+        final long elapsed = System.nanoTime() - startNanos.get()[0];
+        metric.sendNanos(elapsed);
+        return elapsed;
+    }
+
+    /**
+     * Same as {@link #stop()}.
+     */
+    @Override
+    public void close() {
+        stop();
+    }
+}
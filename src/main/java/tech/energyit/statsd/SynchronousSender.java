@@ -6,28 +6,53 @@ import java.net.InetSocketAddress;
 import java.net.StandardSocketOptions;
 import java.nio.ByteBuffer;
 import java.nio.channels.DatagramChannel;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
 
 /**
  * Writes a message to a {@link DatagramChannel}.
+ *
+ * Optionally, the address is re-resolved periodically in a background thread (see {@link Builder#withAddressRefresh(long, TimeUnit)}).
+ * When it changes, a new channel is connected and swapped in, so senders are never blocked by DNS lookups.
  */
 public class SynchronousSender implements Sender, Closeable {
 
-    private final DatagramChannel clientChannel;
-
+    private final Supplier<DatagramChannel> socketSupplier;
+    private final Supplier<InetSocketAddress> addressLookup;
+    private final boolean blockingChannel;
     private final StatsDClientErrorHandler errorHandler;
+    private final ScheduledExecutorService addressRefresher;
+
+    private volatile DatagramChannel clientChannel;
+    private volatile boolean failing;
+    private InetSocketAddress address;
+    private DatagramChannel retiredChannel;
 
     private SynchronousSender(final Supplier<DatagramChannel> socketSupplier, final Supplier<InetSocketAddress> addressLookup,
-                              final StatsDClientErrorHandler errorHandler, final boolean blockingChannel) {
+                              final StatsDClientErrorHandler errorHandler, final boolean blockingChannel,
+                              final long addressRefreshMs) {
+        this.socketSupplier = socketSupplier;
+        this.addressLookup = addressLookup;
         this.errorHandler = errorHandler;
+        this.blockingChannel = blockingChannel;
         try {
-            this.clientChannel = socketSupplier.get();
-            this.clientChannel.setOption(StandardSocketOptions.SO_REUSEADDR, Boolean.TRUE);
-            this.clientChannel.configureBlocking(blockingChannel);
-            this.clientChannel.connect(addressLookup.get());
+            this.address = addressLookup.get();
+            this.clientChannel = connect(address);
         } catch (final Exception e) {
             throw new IllegalStateException("Failed to connect channel", e);
         }
+        if (addressRefreshMs > 0) {
+            this.addressRefresher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "statsd-address-refresher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.addressRefresher.scheduleWithFixedDelay(this::refreshAddress, addressRefreshMs, addressRefreshMs, TimeUnit.MILLISECONDS);
+        } else {
+            this.addressRefresher = null;
+        }
     }
 
     @Override
@@ -35,11 +60,46 @@ public class SynchronousSender implements Sender, Closeable {
         try {
             final int sizeOfBuffer = msg.limit();
             final int sentBytes = clientChannel.write(msg);
+            if (failing) {
+                failing = false;
+            }
             if (sizeOfBuffer != sentBytes) {
                 errorHandler.handle("Could not send complete message : %s. %d/%d bytes sent.",
                         msg.toString(), sentBytes, sizeOfBuffer);
             }
         } catch (IOException e) {
+            failing = true;
+            errorHandler.handle(e);
+        }
+    }
+
+    /**
+     * @return true if the last write failed, e.g. the agent is down - a connected UDP channel reports
+     * the ICMP port unreachable of a previous datagram on the next write
+     */
+    public boolean isFailing() {
+        return failing;
+    }
+
+    /**
+     * Resolves the address again and if it has changed, connects a new channel and swaps it in.
+     * The replaced channel is closed on the next refresh (or on {@link #close()}),
+     * so messages being written to it at the moment of the swap are not lost.
+     * Invoked by the background thread if address refresh is configured.
+     */
+    synchronized void refreshAddress() {
+        closeRetiredChannel();
+        try {
+            final InetSocketAddress newAddress = addressLookup.get();
+            if (newAddress == null || newAddress.equals(address)) {
+                return;
+            }
+            final DatagramChannel newChannel = connect(newAddress);
+            retiredChannel = clientChannel;
+            clientChannel = newChannel;
+            address = newAddress;
+        } catch (final Exception e) {
+            // keep sending to the last known address
             errorHandler.handle(e);
         }
     }
@@ -50,14 +110,43 @@ public class SynchronousSender implements Sender, Closeable {
      */
     @Override
     public void close() {
-        if (clientChannel != null) {
+        if (addressRefresher != null) {
+            addressRefresher.shutdownNow();
+        }
+        synchronized (this) {
+            closeRetiredChannel();
+            if (clientChannel != null) {
+                try {
+                    clientChannel.close();
+                } catch (final Exception e) {
+                    errorHandler.handle(e);
+                }
+            }
+        }
+    }
+
+    private DatagramChannel connect(InetSocketAddress target) throws IOException {
+        final DatagramChannel channel = socketSupplier.get();
+        try {
+            channel.setOption(StandardSocketOptions.SO_REUSEADDR, Boolean.TRUE);
+            channel.configureBlocking(blockingChannel);
+            channel.connect(target);
+            return channel;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private void closeRetiredChannel() {
+        if (retiredChannel != null) {
             try {
-                clientChannel.close();
+                retiredChannel.close();
             } catch (final Exception e) {
                 errorHandler.handle(e);
             }
+            retiredChannel = null;
         }
-
     }
 
     public static Builder builder() {
@@ -70,6 +159,7 @@ public class SynchronousSender implements Sender, Closeable {
         private Supplier<DatagramChannel> socketSupplier = IOUtils::newDatagramChannel;
         private Supplier<InetSocketAddress> addressLookup = () -> new InetSocketAddress(IOUtils.inetAddress("localhost"), 8125);
         private StatsDClientErrorHandler errorHandler = StatsDClientErrorHandler.NO_OP_HANDLER;
+        private long addressRefreshMs = 0;
 
         public Builder blockingChannel(boolean blockingChannel) {
             this.blockingChannel = blockingChannel;
@@ -96,9 +186,22 @@ public class SynchronousSender implements Sender, Closeable {
             return this;
         }
 
+        /**
+         * Re-resolves the address lookup in a background thread every {@code ttl} and reconnects if the address changes.
+         * Note that the JVM caches DNS lookups as well (see {@code networkaddress.cache.ttl} security property),
+         * the effective TTL is the longer of the two.
+         *
+         * @param ttl  time between lookups, 0 disables the refresh (default)
+         * @param unit unit of the ttl
+         */
+        public Builder withAddressRefresh(long ttl, TimeUnit unit) {
+            this.addressRefreshMs = unit.toMillis(ttl);
+            return this;
+        }
+
         public SynchronousSender build() {
-            return new SynchronousSender(socketSupplier, addressLookup, errorHandler, blockingChannel);
+            return new SynchronousSender(socketSupplier, addressLookup, errorHandler, blockingChannel, addressRefreshMs);
         }
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,88 @@
+package tech.energyit.statsd;
+
+import java.nio.ByteBuffer;
+
+/**
+ * UTF-8 encoding of {@link CharSequence}s directly to buffers, without intermediate arrays.
+ * Malformed surrogates are encoded as '?', the same way as {@link String#getBytes(java.nio.charset.Charset)} does.
+ */
+final class Utf8 {
+
+    private static final byte REPLACEMENT = '?';
+
+    private Utf8() { /* never to be called */}
+
+    /**
+     * @throws java.nio.BufferOverflowException if there is not enough space in the buffer
+     */
+    static void put(CharSequence cs, ByteBuffer buf) {
+        for (int i = 0, length = cs.length(); i < length; i++) {
+            final char c = cs.charAt(i);
+            if (c < 0x80) {
+                buf.put((byte) c);
+            } else if (c < 0x800) {
+                buf.put((byte) (0xc0 | (c >> 6)));
+                buf.put((byte) (0x80 | (c & 0x3f)));
+            } else if (Character.isSurrogate(c)) {
+                final int codePoint = codePointAt(cs, i, c);
+                if (codePoint < 0) {
+                    buf.put(REPLACEMENT);
+                } else {
+                    buf.put((byte) (0xf0 | (codePoint >> 18)));
+                    buf.put((byte) (0x80 | ((codePoint >> 12) & 0x3f)));
+                    buf.put((byte) (0x80 | ((codePoint >> 6) & 0x3f)));
+                    buf.put((byte) (0x80 | (codePoint & 0x3f)));
+                    i++;
+                }
+            } else {
+                buf.put((byte) (0xe0 | (c >> 12)));
+                buf.put((byte) (0x80 | ((c >> 6) & 0x3f)));
+                buf.put((byte) (0x80 | (c & 0x3f)));
+            }
+        }
+    }
+
+    /**
+     * FNV-1a of the UTF-8 bytes of the chars - equal to the hash of the encoded bytes.
+     */
+    static long hash(long h, CharSequence cs, long prime) {
+        for (int i = 0, length = cs.length(); i < length; i++) {
+            final char c = cs.charAt(i);
+            if (c < 0x80) {
+                h = (h ^ c) * prime;
+            } else if (c < 0x800) {
+                h = (h ^ (0xc0 | (c >> 6))) * prime;
+                h = (h ^ (0x80 | (c & 0x3f))) * prime;
+            } else if (Character.isSurrogate(c)) {
+                final int codePoint = codePointAt(cs, i, c);
+                if (codePoint < 0) {
+                    h = (h ^ REPLACEMENT) * prime;
+                } else {
+                    h = (h ^ (0xf0 | (codePoint >> 18))) * prime;
+                    h = (h ^ (0x80 | ((codePoint >> 12) & 0x3f))) * prime;
+                    h = (h ^ (0x80 | ((codePoint >> 6) & 0x3f))) * prime;
+                    h = (h ^ (0x80 | (codePoint & 0x3f))) * prime;
+                    i++;
+                }
+            } else {
+                h = (h ^ (0xe0 | (c >> 12))) * prime;
+                h = (h ^ (0x80 | ((c >> 6) & 0x3f))) * prime;
+                h = (h ^ (0x80 | (c & 0x3f))) * prime;
+            }
+        }
+        return h;
+    }
+
+    /**
+     * @return the supplementary code point starting at i, or -1 if the surrogate is malformed
+     */
+    private static int codePointAt(CharSequence cs, int i, char high) {
+        if (Character.isHighSurrogate(high) && i + 1 < cs.length()) {
+            final char low = cs.charAt(i + 1);
+            if (Character.isLowSurrogate(low)) {
+                return Character.toCodePoint(high, low);
+            }
+        }
+        return -1;
+    }
+}
@@ -1,10 +1,12 @@
 package tech.energyit.statsd.async;
 
 import com.lmax.disruptor.BlockingWaitStrategy;
+import com.lmax.disruptor.TimeoutBlockingWaitStrategy;
 import com.lmax.disruptor.dsl.Disruptor;
 import com.lmax.disruptor.dsl.ProducerType;
 import com.lmax.disruptor.util.DaemonThreadFactory;
 import tech.energyit.statsd.IOUtils;
+import tech.energyit.statsd.MappedSpool;
 import tech.energyit.statsd.Sender;
 import tech.energyit.statsd.StatsDClientErrorHandler;
 import tech.energyit.statsd.SynchronousSender;
@@ -13,6 +15,9 @@ import java.io.Closeable;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.DatagramChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
 import java.util.function.BiConsumer;
 import java.util.function.Supplier;
 
@@ -20,31 +25,56 @@ import java.util.function.Supplier;
  * Uses {@link Disruptor} to invoke the {@link SynchronousSender} in a dedicated thread.
  * If the ringbuffer is full, it either drops the message or uses {@link SynchronousSender}
  * to publish messages in the calling thread - configurable in builder.
+ *
+ * {@link #close(long, TimeUnit)} drains the queued messages within a deadline and reports the undelivered ones,
+ * the builder can register a JVM shutdown hook doing the same.
+ *
+ * With a {@link MappedSpool} (see {@link Builder#spoolWhenRingbufferIsFull(MappedSpool)}), messages are spooled
+ * when the ringbuffer is full or the agent is down, and replayed by the consumer thread once it catches up.
  */
 public class AsynchronousSender implements Sender, Closeable {
 
     private static final int RINGBUFFER_SIZE = 256;
+    private static final long DRAIN_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long SPOOL_REPLAY_INTERVAL_MS = 10;
 
     private final Disruptor<SenderEvent> disruptor;
     private final SynchronousSender sender;
     private final StatsDClientErrorHandler errorHandler;
     private final BiConsumer<AsynchronousSender, ByteBuffer> ringBufferFullHandler;
+    private final SenderEventHandler eventHandler;
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private final Thread shutdownHook;
+    private final MappedSpool spool;
 
     private AsynchronousSender(final Supplier<DatagramChannel> socketSupplier,
                                final Supplier<InetSocketAddress> addressLookup,
                                final StatsDClientErrorHandler errorHandler,
+                               final long addressRefreshMs,
                                final int ringbufferSize,
-                               final BiConsumer<AsynchronousSender, ByteBuffer> ringBufferFullHandler) {
-        this.disruptor = new Disruptor<>(new SenderEventFactory(), ringbufferSize, DaemonThreadFactory.INSTANCE, ProducerType.MULTI, new BlockingWaitStrategy());
+                               final BiConsumer<AsynchronousSender, ByteBuffer> ringBufferFullHandler,
+                               final long shutdownDrainMs,
+                               final MappedSpool spool) {
+        this.disruptor = new Disruptor<>(new SenderEventFactory(), ringbufferSize, DaemonThreadFactory.INSTANCE, ProducerType.MULTI,
+                spool == null ? new BlockingWaitStrategy() : new TimeoutBlockingWaitStrategy(SPOOL_REPLAY_INTERVAL_MS, TimeUnit.MILLISECONDS));
         this.sender = SynchronousSender.builder()
                 .withSocketSupplier(socketSupplier)
                 .withAddressLookup(addressLookup)
                 .withErrorHandler(errorHandler)
+                .withAddressRefresh(addressRefreshMs, TimeUnit.MILLISECONDS)
                 .build();
-        this.disruptor.handleEventsWith(new SenderEventHandler(sender));
+        this.spool = spool;
+        this.eventHandler = spool == null ? new SenderEventHandler(sender) : new SenderEventHandler(new SpoolingSender(sender, spool));
+        this.disruptor.handleEventsWith(eventHandler);
         this.disruptor.start();
         this.ringBufferFullHandler = ringBufferFullHandler;
         this.errorHandler = errorHandler;
+        if (shutdownDrainMs > 0) {
+            this.shutdownHook = new Thread(() -> close(shutdownDrainMs, TimeUnit.MILLISECONDS), "statsd-async-sender-shutdown");
+            Runtime.getRuntime().addShutdownHook(shutdownHook);
+        } else {
+            this.shutdownHook = null;
+        }
     }
 
     @Override
@@ -54,10 +84,53 @@ public class AsynchronousSender implements Sender, Closeable {
         }
     }
 
+    /**
+     * Waits until all queued messages are sent and closes the channel.
+     */
     @Override
     public void close() {
-        disruptor.shutdown();
+        close(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Waits at most the timeout for queued messages to be sent, then stops the consumer and closes the channel.
+     * Messages not sent in time are reported to the error handler.
+     *
+     * @return number of undelivered messages
+     */
+    public long close(long timeout, TimeUnit unit) {
+        if (!closed.compareAndSet(false, true)) {
+            return 0;
+        }
+        removeShutdownHook();
+        final long timeoutNanos = unit.toNanos(timeout);
+        final long start = System.nanoTime();
+        // unlike Disruptor.shutdown(), this also waits for the consumer which has not started yet
+        while (undelivered() > 0 && System.nanoTime() - start < timeoutNanos) {
+            LockSupport.parkNanos(DRAIN_PARK_NANOS);
+        }
+        disruptor.halt();
+        // stuck or too slow consumer - the backlog is given up
+        final long undelivered = undelivered();
+        if (undelivered > 0) {
+            errorHandler.handle("Closed with %d undelivered messages", undelivered);
+        }
         sender.close();
+        return undelivered;
+    }
+
+    private long undelivered() {
+        return Math.max(0, disruptor.getCursor() - disruptor.getSequenceValueFor(eventHandler));
+    }
+
+    private void removeShutdownHook() {
+        if (shutdownHook != null && Thread.currentThread() != shutdownHook) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException e) {
+                // JVM is shutting down already
+            }
+        }
     }
 
     public static Builder builder() {
@@ -70,8 +143,11 @@ public class AsynchronousSender implements Sender, Closeable {
         private Supplier<DatagramChannel> socketSupplier = IOUtils::newDatagramChannel;
         private Supplier<InetSocketAddress> addressLookup = () -> new InetSocketAddress(IOUtils.inetAddress("localhost"), 8125);
         private StatsDClientErrorHandler errorHandler = StatsDClientErrorHandler.NO_OP_HANDLER;
+        private long addressRefreshMs = 0;
         private int ringbufferSize = RINGBUFFER_SIZE;
         private BiConsumer<AsynchronousSender, ByteBuffer> ringBufferFullHandler = SKIPPING_HANDLER;
+        private long shutdownDrainMs = 0;
+        private MappedSpool spool;
 
         public Builder withHostAndPort(String hostname, int port) {
             addressLookup = () -> new InetSocketAddress(IOUtils.inetAddress(hostname), port);
@@ -93,6 +169,14 @@ public class AsynchronousSender implements Sender, Closeable {
             return this;
         }
 
+        /**
+         * @see SynchronousSender.Builder#withAddressRefresh(long, TimeUnit)
+         */
+        public Builder withAddressRefresh(long ttl, TimeUnit unit) {
+            this.addressRefreshMs = unit.toMillis(ttl);
+            return this;
+        }
+
         public Builder withRingbufferSize(int ringbufferSize) {
             this.ringbufferSize = ringbufferSize;
             return this;
@@ -100,16 +184,37 @@ public class AsynchronousSender implements Sender, Closeable {
 
         public Builder skipMessageWhenRingbufferIsFull() {
             this.ringBufferFullHandler = SKIPPING_HANDLER;
+            this.spool = null;
             return this;
         }
 
         public Builder publishSynchronouslyWhenRingbufferIsFull() {
             this.ringBufferFullHandler = (s, m) -> s.sender.send(m);
+            this.spool = null;
+            return this;
+        }
+
+        /**
+         * Appends messages to the spool when the ringbuffer is full or the agent is down,
+         * the consumer thread replays them once it is idle. The spool is not closed by the sender.
+         */
+        public Builder spoolWhenRingbufferIsFull(MappedSpool spool) {
+            this.ringBufferFullHandler = (s, m) -> s.spool.send(m);
+            this.spool = spool;
+            return this;
+        }
+
+        /**
+         * Registers JVM shutdown hook which closes the sender, waiting at most {@code drainTimeout} for queued messages.
+         */
+        public Builder withShutdownHook(long drainTimeout, TimeUnit unit) {
+            this.shutdownDrainMs = unit.toMillis(drainTimeout);
             return this;
         }
 
         public AsynchronousSender build() {
-            return new AsynchronousSender(socketSupplier, addressLookup, errorHandler, ringbufferSize, ringBufferFullHandler);
+            return new AsynchronousSender(socketSupplier, addressLookup, errorHandler, addressRefreshMs, ringbufferSize,
+                    ringBufferFullHandler, shutdownDrainMs, spool);
         }
     }
 
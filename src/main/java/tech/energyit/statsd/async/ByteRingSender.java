@@ -0,0 +1,214 @@
+package tech.energyit.statsd.async;
+
+import tech.energyit.statsd.IOUtils;
+import tech.energyit.statsd.MappedSpool;
+import tech.energyit.statsd.MessagePacker;
+import tech.energyit.statsd.Sender;
+import tech.energyit.statsd.StatsDClientErrorHandler;
+import tech.energyit.statsd.SynchronousSender;
+
+import java.io.Closeable;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Alternative to {@link AsynchronousSender} which queues messages in a single off-heap byte ring
+ * ({@link ManyToOneByteRingBuffer}) instead of fixed-size events, so the same memory holds many more small messages.
+ * A dedicated thread drains the ring and packs the messages into datagrams of at most {@code maxPacketSize} bytes,
+ * which are published by {@link SynchronousSender}.
+ * If the ring is full, it either drops the message, publishes it in the calling thread or appends it to a {@link MappedSpool}
+ * - configurable in builder. The spool also takes the packets which fail while the agent is down,
+ * and is replayed by the consumer thread when the ring is empty.
+ */
+public class ByteRingSender implements Sender, Closeable {
+
+    private static final int RING_CAPACITY = 64 * 1024;
+    private static final long MAX_IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final int IDLE_SPINS = 100;
+
+    private final ManyToOneByteRingBuffer ring;
+    private final SynchronousSender sender;
+    private final MessagePacker packer;
+    private final StatsDClientErrorHandler errorHandler;
+    private final BiConsumer<ByteRingSender, ByteBuffer> ringFullHandler;
+    private final Thread consumer;
+    private final MappedSpool spool;
+    private final SpoolingSender spoolingSender;
+    private volatile boolean running = true;
+
+    private ByteRingSender(final Supplier<DatagramChannel> socketSupplier,
+                           final Supplier<InetSocketAddress> addressLookup,
+                           final StatsDClientErrorHandler errorHandler,
+                           final long addressRefreshMs,
+                           final int capacity,
+                           final int maxPacketSize,
+                           final BiConsumer<ByteRingSender, ByteBuffer> ringFullHandler,
+                           final MappedSpool spool) {
+        this.ring = new ManyToOneByteRingBuffer(capacity);
+        this.sender = SynchronousSender.builder()
+                .withSocketSupplier(socketSupplier)
+                .withAddressLookup(addressLookup)
+                .withErrorHandler(errorHandler)
+                .withAddressRefresh(addressRefreshMs, TimeUnit.MILLISECONDS)
+                .build();
+        this.spool = spool;
+        this.spoolingSender = spool == null ? null : new SpoolingSender(sender, spool);
+        this.packer = new MessagePacker(spoolingSender == null ? sender : spoolingSender, maxPacketSize);
+        this.errorHandler = errorHandler;
+        this.ringFullHandler = ringFullHandler;
+        this.consumer = new Thread(this::consume, "statsd-byte-ring-sender");
+        this.consumer.setDaemon(true);
+        this.consumer.start();
+    }
+
+    @Override
+    public void send(final ByteBuffer msg) {
+        if (!ring.write(msg)) {
+            ringFullHandler.accept(this, msg);
+        }
+    }
+
+    /**
+     * @return free bytes in the ring - each message takes its length rounded up to 16 bytes
+     */
+    public int remainingCapacity() {
+        return ring.remainingCapacity();
+    }
+
+    /**
+     * Stops the consumer thread once all queued messages are sent and closes the channel.
+     */
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(consumer);
+        try {
+            consumer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        sender.close();
+    }
+
+    private void consume() {
+        final ManyToOneByteRingBuffer.MessageHandler handler = packer::append;
+        // spooled messages are packed again, failing packets go back to the spool
+        final Sender replayTarget = packer::append;
+        int idleCount = 0;
+        while (running || !ring.isEmpty()) {
+            try {
+                if (ring.read(handler) > 0) {
+                    idleCount = 0;
+                    // end of batch - do not hold the partial packet back
+                    packer.flush();
+                } else if (spoolingSender != null && spoolingSender.replay(replayTarget) > 0) {
+                    idleCount = 0;
+                    packer.flush();
+                } else {
+                    idle(++idleCount);
+                }
+            } catch (RuntimeException e) {
+                errorHandler.handle(e);
+            }
+        }
+        packer.flush();
+    }
+
+    private static void idle(int idleCount) {
+        if (idleCount < IDLE_SPINS) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(Math.min(MAX_IDLE_PARK_NANOS, 1000L * (idleCount - IDLE_SPINS + 1)));
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+
+        private static final BiConsumer<ByteRingSender, ByteBuffer> SKIPPING_HANDLER = (s, m) -> s.errorHandler.handle("Ring full. Skipping...");
+        private Supplier<DatagramChannel> socketSupplier = IOUtils::newDatagramChannel;
+        private Supplier<InetSocketAddress> addressLookup = () -> new InetSocketAddress(IOUtils.inetAddress("localhost"), 8125);
+        private StatsDClientErrorHandler errorHandler = StatsDClientErrorHandler.NO_OP_HANDLER;
+        private long addressRefreshMs = 0;
+        private int capacity = RING_CAPACITY;
+        private int maxPacketSize = MessagePacker.DEFAULT_MAX_PACKET_SIZE;
+        private BiConsumer<ByteRingSender, ByteBuffer> ringFullHandler = SKIPPING_HANDLER;
+        private MappedSpool spool;
+
+        public Builder withHostAndPort(String hostname, int port) {
+            addressLookup = () -> new InetSocketAddress(IOUtils.inetAddress(hostname), port);
+            return this;
+        }
+
+        public Builder withSocketSupplier(Supplier<DatagramChannel> socketSupplier) {
+            this.socketSupplier = socketSupplier;
+            return this;
+        }
+
+        public Builder withAddressLookup(Supplier<InetSocketAddress> addressLookup) {
+            this.addressLookup = addressLookup;
+            return this;
+        }
+
+        public Builder withErrorHandler(StatsDClientErrorHandler errorHandler) {
+            this.errorHandler = errorHandler;
+            return this;
+        }
+
+        /**
+         * @see SynchronousSender.Builder#withAddressRefresh(long, TimeUnit)
+         */
+        public Builder withAddressRefresh(long ttl, TimeUnit unit) {
+            this.addressRefreshMs = unit.toMillis(ttl);
+            return this;
+        }
+
+        /**
+         * @param capacity size of the ring in bytes, must be a power of 2. Single message can take at most 1/8 of it.
+         */
+        public Builder withCapacity(int capacity) {
+            this.capacity = capacity;
+            return this;
+        }
+
+        public Builder withMaxPacketSize(int maxPacketSize) {
+            this.maxPacketSize = maxPacketSize;
+            return this;
+        }
+
+        public Builder skipMessageWhenRingIsFull() {
+            this.ringFullHandler = SKIPPING_HANDLER;
+            this.spool = null;
+            return this;
+        }
+
+        public Builder publishSynchronouslyWhenRingIsFull() {
+            this.ringFullHandler = (s, m) -> s.sender.send(m);
+            this.spool = null;
+            return this;
+        }
+
+        /**
+         * Appends messages to the spool when the ring is full or the agent is down,
+         * the consumer thread replays them once the ring is empty. The spool is not closed by the sender.
+         */
+        public Builder spoolWhenRingIsFull(MappedSpool spool) {
+            this.ringFullHandler = (s, m) -> s.spool.send(m);
+            this.spool = spool;
+            return this;
+        }
+
+        public ByteRingSender build() {
+            return new ByteRingSender(socketSupplier, addressLookup, errorHandler, addressRefreshMs, capacity, maxPacketSize, ringFullHandler, spool);
+        }
+    }
+
+}
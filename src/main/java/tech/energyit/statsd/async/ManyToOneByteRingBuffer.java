@@ -0,0 +1,163 @@
+package tech.energyit.statsd.async;
+
+import tech.energyit.statsd.IOUtils;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Off-heap byte ring for variable-length messages with many producers and a single consumer.
+ * Producers claim only the (aligned) bytes they need, so small and big messages share the same memory.
+ *
+ * Records are aligned to {@value ALIGNMENT}B. Record lengths are not stored in the ring itself,
+ * but in an availability array with one slot per alignment unit (similar to Disruptor's availableBuffer)
+ * which gives us ordered publishing without {@code sun.misc.Unsafe}.
+ * Slot value 0 means free/unpublished, a positive value is the message length
+ * and a negative value marks padding at the end of the ring.
+ */
+final class ManyToOneByteRingBuffer {
+
+    static final int ALIGNMENT = 16;
+    private static final int ALIGNMENT_SHIFT = 4;
+
+    private final ByteBuffer buffer;
+    private final int capacity;
+    private final int mask;
+    private final int maxMessageLength;
+    private final AtomicIntegerArray lengths;
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long head;
+
+    /**
+     * @param capacity in bytes, must be a power of 2 and at least {@value ALIGNMENT}
+     */
+    ManyToOneByteRingBuffer(int capacity) {
+        if (capacity < ALIGNMENT || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of 2 and at least " + ALIGNMENT + " : " + capacity);
+        }
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.maxMessageLength = Math.max(capacity / 8, ALIGNMENT);
+        this.buffer = IOUtils.allocateDirect(capacity);
+        this.lengths = new AtomicIntegerArray(capacity >> ALIGNMENT_SHIFT);
+    }
+
+    /**
+     * Copies remaining bytes of the message to the ring and moves its position to the limit.
+     *
+     * @return false if there is not enough space in the ring (or the message is too big), the message is untouched then
+     */
+    boolean write(ByteBuffer msg) {
+        final int length = msg.remaining();
+        if (length == 0) {
+            return true;
+        }
+        if (length > maxMessageLength) {
+            return false;
+        }
+        final int required = align(length);
+        long h = head;
+        while (true) {
+            final long t = tail.get();
+            int index = (int) t & mask;
+            final int toEnd = capacity - index;
+            final int padding = required > toEnd ? toEnd : 0;
+            final long newTail = t + padding + required;
+            if (newTail - h > capacity) {
+                h = head;
+                if (newTail - h > capacity) {
+                    return false;
+                }
+            }
+            if (tail.compareAndSet(t, newTail)) {
+                if (padding != 0) {
+                    lengths.lazySet(index >> ALIGNMENT_SHIFT, -padding);
+                    index = 0;
+                }
+                copy(msg, index, length);
+                // publish - the ordered store makes the copied bytes visible before the length
+                lengths.lazySet(index >> ALIGNMENT_SHIFT, length);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Passes all published messages (up to the first unpublished one) to the handler and releases their space.
+     * Must be called by a single thread only.
+     *
+     * @return number of messages read
+     */
+    int read(MessageHandler handler) {
+        final long h = head;
+        final long limit = h + capacity;
+        long position = h;
+        int messages = 0;
+        try {
+            while (position < limit) {
+                final int index = (int) position & mask;
+                final int slot = index >> ALIGNMENT_SHIFT;
+                final int length = lengths.get(slot);
+                if (length == 0) {
+                    break;
+                }
+                lengths.set(slot, 0);
+                if (length < 0) {
+                    position -= length;
+                } else {
+                    position += align(length);
+                    messages++;
+                    handler.onMessage(buffer, index, length);
+                }
+            }
+        } finally {
+            if (position != h) {
+                head = position;
+            }
+        }
+        return messages;
+    }
+
+    boolean isEmpty() {
+        return tail.get() == head;
+    }
+
+    /**
+     * @return bytes that can still be claimed (padding and alignment not taken into account)
+     */
+    int remainingCapacity() {
+        return (int) (capacity - (tail.get() - head));
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    int maxMessageLength() {
+        return maxMessageLength;
+    }
+
+    private void copy(ByteBuffer msg, int index, int length) {
+        final int srcOffset = msg.position();
+        int i = 0;
+        for (; i + Long.BYTES <= length; i += Long.BYTES) {
+            buffer.putLong(index + i, msg.getLong(srcOffset + i));
+        }
+        for (; i < length; i++) {
+            buffer.put(index + i, msg.get(srcOffset + i));
+        }
+        msg.position(msg.limit());
+    }
+
+    private static int align(int length) {
+        return (length + ALIGNMENT - 1) & -ALIGNMENT;
+    }
+
+    /**
+     * Receives a message stored in the ring. The region is only valid during the call.
+     */
+    interface MessageHandler {
+        void onMessage(ByteBuffer buffer, int offset, int length);
+    }
+}
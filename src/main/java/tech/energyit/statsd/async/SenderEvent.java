@@ -4,7 +4,7 @@ import tech.energyit.statsd.FastStatsDClient;
 
 import java.nio.ByteBuffer;
 
-import static java.nio.ByteBuffer.allocateDirect;
+import static tech.energyit.statsd.IOUtils.allocateDirect;
 
 class SenderEvent {
 
@@ -1,18 +1,38 @@
 package tech.energyit.statsd.async;
 
 import com.lmax.disruptor.EventHandler;
+import com.lmax.disruptor.TimeoutHandler;
 import tech.energyit.statsd.Sender;
 
-class SenderEventHandler implements EventHandler<SenderEvent> {
+class SenderEventHandler implements EventHandler<SenderEvent>, TimeoutHandler {
 
-    private Sender sender;
+    private final Sender sender;
+    private final SpoolingSender spoolingSender;
 
     SenderEventHandler(Sender sender) {
         this.sender = sender;
+        this.spoolingSender = null;
+    }
+
+    /**
+     * Replays the spool at the end of each batch and when no event arrived within the wait strategy timeout.
+     */
+    SenderEventHandler(SpoolingSender spoolingSender) {
+        this.sender = spoolingSender;
+        this.spoolingSender = spoolingSender;
     }
 
     public void onEvent(SenderEvent event, long sequence, boolean endOfBatch) {
         sender.send(event.getMsg());
+        if (endOfBatch && spoolingSender != null) {
+            spoolingSender.replay();
+        }
     }
 
-}
\ No newline at end of file
+    @Override
+    public void onTimeout(long sequence) {
+        if (spoolingSender != null) {
+            spoolingSender.replay();
+        }
+    }
+}
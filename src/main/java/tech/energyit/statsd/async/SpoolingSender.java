@@ -0,0 +1,80 @@
+package tech.energyit.statsd.async;
+
+import tech.energyit.statsd.MappedSpool;
+import tech.energyit.statsd.Sender;
+import tech.energyit.statsd.SynchronousSender;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Consumer side of the asynchronous senders with a {@link MappedSpool}: messages which fail to be sent
+ * (or are sent while the agent is known to be down) go to the spool, which is replayed when the consumer is idle.
+ * While the agent is down, only one spooled message per probe interval is sent to find out whether it has recovered.
+ * Used only by the consumer thread.
+ */
+final class SpoolingSender implements Sender {
+
+    private static final int REPLAY_BATCH = 64;
+    private static final long PROBE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final SynchronousSender sender;
+    private final MappedSpool spool;
+    private long lastProbe = System.nanoTime() - PROBE_INTERVAL_NANOS;
+
+    SpoolingSender(SynchronousSender sender, MappedSpool spool) {
+        this.sender = sender;
+        this.spool = spool;
+    }
+
+    @Override
+    public void send(ByteBuffer msg) {
+        if (!sender.isFailing()) {
+            final int position = msg.position();
+            sender.send(msg);
+            if (!sender.isFailing()) {
+                return;
+            }
+            msg.position(position);
+        }
+        spool.send(msg);
+    }
+
+    /**
+     * @see #replay(Sender)
+     */
+    int replay() {
+        return replay(this);
+    }
+
+    /**
+     * Sends a batch of the spooled messages to the target, which should send them by {@link #send(ByteBuffer)},
+     * so they are spooled again if they fail.
+     *
+     * @return number of replayed messages
+     */
+    int replay(Sender target) {
+        if (spool.isEmpty()) {
+            return 0;
+        }
+        if (sender.isFailing()) {
+            final long now = System.nanoTime();
+            if (now - lastProbe < PROBE_INTERVAL_NANOS) {
+                return 0;
+            }
+            lastProbe = now;
+            // bypasses the failing check of send()
+            return spool.replay(this::probe, 1);
+        }
+        return spool.replay(target, REPLAY_BATCH);
+    }
+
+    private void probe(ByteBuffer msg) {
+        final int position = msg.position();
+        sender.send(msg);
+        if (sender.isFailing()) {
+            msg.position(position);
+            spool.send(msg);
+        }
+    }
+}
@@ -0,0 +1,386 @@
+package tech.energyit.statsd.dropwizard;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metered;
+import com.codahale.metrics.MetricAttribute;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.ScheduledReporter;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import tech.energyit.statsd.FastStatsDClient;
+import tech.energyit.statsd.IOUtils;
+import tech.energyit.statsd.MessagePacker;
+import tech.energyit.statsd.PreparedMetric;
+import tech.energyit.statsd.StatsDClientErrorHandler;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dropwizard Metrics {@link ScheduledReporter} (optional dependency {@code io.dropwizard.metrics:metrics-core}).
+ * The lines of each metric are pre-encoded ({@link PreparedMetric}) when the metric is reported for the first time
+ * and cached by its name, so a report cycle only formats the values, packed into datagrams ({@link MessagePacker}):
+ * <ul>
+ * <li>gauges (numeric only) as gauges</li>
+ * <li>counts of counters, meters, histograms and timers as counters of their increments since the last report
+ * (negative if a counter has been decremented)</li>
+ * <li>rates and snapshot statistics ({@code name.m1_rate}, {@code name.p99}, ...) as gauges, in the rate and duration units</li>
+ * </ul>
+ * Unchanged values (and zero increments) are skipped, unchanged gauges are sent at least once per max silence.
+ * Metrics removed from the registry are dropped from the cache at the next report.
+ */
+public final class FastStatsDReporter extends ScheduledReporter {
+
+    private static final long DEFAULT_MAX_SILENCE_MS = 60_000L;
+    private static final MetricAttribute[] RATES = {
+            MetricAttribute.M1_RATE, MetricAttribute.M5_RATE, MetricAttribute.M15_RATE, MetricAttribute.MEAN_RATE};
+    private static final MetricAttribute[] SNAPSHOT = {
+            MetricAttribute.MIN, MetricAttribute.MAX, MetricAttribute.MEAN, MetricAttribute.STDDEV, MetricAttribute.P50,
+            MetricAttribute.P75, MetricAttribute.P95, MetricAttribute.P98, MetricAttribute.P99, MetricAttribute.P999};
+    // the gauge value has no attribute, the count is the first series of all other metrics
+    private static final MetricAttribute[] GAUGE_ATTRIBUTES = {null};
+    private static final MetricAttribute[] COUNTER_ATTRIBUTES = {MetricAttribute.COUNT};
+    private static final MetricAttribute[] HISTOGRAM_ATTRIBUTES = concat(COUNTER_ATTRIBUTES, SNAPSHOT);
+    private static final MetricAttribute[] METER_ATTRIBUTES = concat(COUNTER_ATTRIBUTES, RATES);
+    private static final MetricAttribute[] TIMER_ATTRIBUTES = concat(COUNTER_ATTRIBUTES, RATES, SNAPSHOT);
+
+    private final FastStatsDClient client;
+    private final MessagePacker packer;
+    private final StatsDClientErrorHandler errorHandler;
+    private final long maxSilenceNanos;
+    private final Map<String, ReportedMetric> metrics = new HashMap<>();
+    private ByteBuffer msgBuffer = IOUtils.allocateDirect(FastStatsDClient.INITIAL_BUFFER_SIZE);
+    private long round;
+    private long now;
+
+    private FastStatsDReporter(MetricRegistry registry, FastStatsDClient client, MetricFilter filter, TimeUnit rateUnit,
+                               TimeUnit durationUnit, Set<MetricAttribute> disabledAttributes, long maxSilenceMs,
+                               int maxPacketSize, StatsDClientErrorHandler errorHandler) {
+        super(registry, "statsd-reporter", filter, rateUnit, durationUnit, null, true, disabledAttributes);
+        this.client = client;
+        this.packer = new MessagePacker(client.getSender(), maxPacketSize);
+        this.errorHandler = errorHandler;
+        this.maxSilenceNanos = TimeUnit.MILLISECONDS.toNanos(maxSilenceMs);
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public synchronized void report(SortedMap<String, Gauge> gauges, SortedMap<String, Counter> counters,
+                                    SortedMap<String, Histogram> histograms, SortedMap<String, Meter> meters,
+                                    SortedMap<String, Timer> timers) {
+        round++;
+        now = System.nanoTime();
+        for (Map.Entry<String, Gauge> entry : gauges.entrySet()) {
+            try {
+                reportGauge(entry.getKey(), entry.getValue());
+            } catch (RuntimeException e) {
+                errorHandler.handle(e);
+            }
+        }
+        for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+            try {
+                // counters can be decremented - their increments are signed
+                reportCount(metric(entry.getKey(), COUNTER_ATTRIBUTES), entry.getValue().getCount(), false);
+            } catch (RuntimeException e) {
+                errorHandler.handle(e);
+            }
+        }
+        for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            try {
+                final ReportedMetric metric = metric(entry.getKey(), HISTOGRAM_ATTRIBUTES);
+                reportCount(metric, entry.getValue().getCount(), true);
+                reportSnapshot(metric, entry.getValue().getSnapshot(), 1, false);
+            } catch (RuntimeException e) {
+                errorHandler.handle(e);
+            }
+        }
+        for (Map.Entry<String, Meter> entry : meters.entrySet()) {
+            try {
+                final ReportedMetric metric = metric(entry.getKey(), METER_ATTRIBUTES);
+                reportCount(metric, entry.getValue().getCount(), true);
+                reportRates(metric, entry.getValue());
+            } catch (RuntimeException e) {
+                errorHandler.handle(e);
+            }
+        }
+        for (Map.Entry<String, Timer> entry : timers.entrySet()) {
+            try {
+                final ReportedMetric metric = metric(entry.getKey(), TIMER_ATTRIBUTES);
+                reportCount(metric, entry.getValue().getCount(), true);
+                reportRates(metric, entry.getValue());
+                reportSnapshot(metric, entry.getValue().getSnapshot(), 1 + RATES.length, true);
+            } catch (RuntimeException e) {
+                errorHandler.handle(e);
+            }
+        }
+        packer.flush();
+        evictRemoved();
+    }
+
+    @SuppressWarnings("rawtypes")
+    private void reportGauge(String name, Gauge gauge) {
+        final Object value = gauge.getValue();
+        if (!(value instanceof Number)) {
+            return;
+        }
+        final Series series = metric(name, GAUGE_ATTRIBUTES).series[0];
+        if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            final long longValue = ((Number) value).longValue();
+            if (series.isDue(longValue, now, maxSilenceNanos)) {
+                write(series, longValue, 0, true);
+            }
+        } else {
+            writeIfDue(series, ((Number) value).doubleValue());
+        }
+    }
+
+    /**
+     * @param monotonic if the count only grows, so a decrease means the metric has been reset and counts from 0
+     */
+    private void reportCount(ReportedMetric metric, long count, boolean monotonic) {
+        final long delta = !monotonic || count >= metric.previousCount ? count - metric.previousCount : count;
+        if (delta != 0) {
+            write(metric.series[0], delta, delta, true);
+        }
+        metric.previousCount = count;
+    }
+
+    private void reportRates(ReportedMetric metric, Metered metered) {
+        writeIfDue(metric.series[1], convertRate(metered.getOneMinuteRate()));
+        writeIfDue(metric.series[2], convertRate(metered.getFiveMinuteRate()));
+        writeIfDue(metric.series[3], convertRate(metered.getFifteenMinuteRate()));
+        writeIfDue(metric.series[4], convertRate(metered.getMeanRate()));
+    }
+
+    /**
+     * @param first     index of the first snapshot series, after the count (and rates)
+     * @param durations if the values are nanoseconds to be converted to the duration unit
+     */
+    private void reportSnapshot(ReportedMetric metric, Snapshot snapshot, int first, boolean durations) {
+        final Series[] series = metric.series;
+        writeIfDue(series[first], value(snapshot.getMin(), durations));
+        writeIfDue(series[first + 1], value(snapshot.getMax(), durations));
+        writeIfDue(series[first + 2], value(snapshot.getMean(), durations));
+        writeIfDue(series[first + 3], value(snapshot.getStdDev(), durations));
+        writeIfDue(series[first + 4], value(snapshot.getMedian(), durations));
+        writeIfDue(series[first + 5], value(snapshot.get75thPercentile(), durations));
+        writeIfDue(series[first + 6], value(snapshot.get95thPercentile(), durations));
+        writeIfDue(series[first + 7], value(snapshot.get98thPercentile(), durations));
+        writeIfDue(series[first + 8], value(snapshot.get99thPercentile(), durations));
+        writeIfDue(series[first + 9], value(snapshot.get999thPercentile(), durations));
+    }
+
+    private double value(double value, boolean duration) {
+        return duration ? convertDuration(value) : value;
+    }
+
+    private void writeIfDue(Series series, double value) {
+        if (series != null && !Double.isNaN(value) && series.isDue(Double.doubleToLongBits(value), now, maxSilenceNanos)) {
+            write(series, Double.doubleToLongBits(value), value, false);
+        }
+    }
+
+    /**
+     * Formats the line of the series with the long value (or the double value if {@code isLong} is false)
+     * and appends it to the packet.
+     */
+    private void write(Series series, long longValue, double doubleValue, boolean isLong) {
+        if (series == null) {
+            return;
+        }
+        ByteBuffer buffer = msgBuffer;
+        while (true) {
+            try {
+                buffer.clear();
+                if (isLong) {
+                    series.metric.writeTo(buffer, longValue);
+                } else {
+                    series.metric.writeTo(buffer, doubleValue);
+                }
+                buffer.flip();
+                break;
+            } catch (BufferOverflowException e) {
+                buffer = IOUtils.allocateDirect(buffer.capacity() * 2);
+                msgBuffer = buffer;
+            }
+        }
+        packer.append(buffer);
+        series.sent(longValue, now);
+    }
+
+    /**
+     * @return the cached metric, encoded now if it is reported for the first time
+     */
+    private ReportedMetric metric(String name, MetricAttribute[] attributes) {
+        ReportedMetric metric = metrics.get(name);
+        if (metric == null || metric.attributes != attributes) {
+            metric = new ReportedMetric(attributes, encode(name, attributes));
+            metrics.put(name, metric);
+        }
+        metric.round = round;
+        return metric;
+    }
+
+    private Series[] encode(String name, MetricAttribute[] attributes) {
+        final Set<MetricAttribute> disabled = getDisabledMetricAttributes();
+        final Series[] series = new Series[attributes.length];
+        for (int i = 0; i < attributes.length; i++) {
+            final MetricAttribute attribute = attributes[i];
+            if (attribute == null) {
+                series[i] = new Series(client.prepare(FastStatsDClient.MetricType.GAUGE, bytes(name)));
+            } else if (!disabled.contains(attribute)) {
+                final boolean count = attribute == MetricAttribute.COUNT;
+                series[i] = new Series(client.prepare(count ? FastStatsDClient.MetricType.COUNTER : FastStatsDClient.MetricType.GAUGE,
+                        bytes(count && attributes == COUNTER_ATTRIBUTES ? name : name + '.' + attribute.getCode())));
+            }
+        }
+        return series;
+    }
+
+    private void evictRemoved() {
+        final Iterator<ReportedMetric> it = metrics.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().round != round) {
+                it.remove();
+            }
+        }
+    }
+
+    private static byte[] bytes(String name) {
+        return name.getBytes(FastStatsDClient.MESSAGE_CHARSET);
+    }
+
+    private static MetricAttribute[] concat(MetricAttribute[]... parts) {
+        int length = 0;
+        for (MetricAttribute[] part : parts) {
+            length += part.length;
+        }
+        final MetricAttribute[] attributes = new MetricAttribute[length];
+        int i = 0;
+        for (MetricAttribute[] part : parts) {
+            System.arraycopy(part, 0, attributes, i, part.length);
+            i += part.length;
+        }
+        return attributes;
+    }
+
+    private static final class ReportedMetric {
+        private final MetricAttribute[] attributes;
+        private final Series[] series;
+        private long previousCount;
+        private long round;
+
+        ReportedMetric(MetricAttribute[] attributes, Series[] series) {
+            this.attributes = attributes;
+            this.series = series;
+        }
+    }
+
+    /**
+     * One pre-encoded line of a metric with its last sent value (raw bits of double values).
+     */
+    private static final class Series {
+        private final PreparedMetric metric;
+        private boolean sent;
+        private long lastValue;
+        private long lastSentNanos;
+
+        Series(PreparedMetric metric) {
+            this.metric = metric;
+        }
+
+        boolean isDue(long value, long now, long maxSilenceNanos) {
+            return !sent || value != lastValue || now - lastSentNanos >= maxSilenceNanos;
+        }
+
+        void sent(long value, long now) {
+            this.sent = true;
+            this.lastValue = value;
+            this.lastSentNanos = now;
+        }
+    }
+
+    public static Builder builder(MetricRegistry registry, FastStatsDClient client) {
+        return new Builder(registry, client);
+    }
+
+    public static class Builder {
+
+        private final MetricRegistry registry;
+        private final FastStatsDClient client;
+        private MetricFilter filter = MetricFilter.ALL;
+        private TimeUnit rateUnit = TimeUnit.SECONDS;
+        private TimeUnit durationUnit = TimeUnit.MILLISECONDS;
+        private Set<MetricAttribute> disabledAttributes = Collections.emptySet();
+        private long maxSilenceMs = DEFAULT_MAX_SILENCE_MS;
+        private int maxPacketSize = MessagePacker.DEFAULT_MAX_PACKET_SIZE;
+        private StatsDClientErrorHandler errorHandler = StatsDClientErrorHandler.NO_OP_HANDLER;
+
+        private Builder(MetricRegistry registry, FastStatsDClient client) {
+            this.registry = registry;
+            this.client = client;
+        }
+
+        public Builder withFilter(MetricFilter filter) {
+            this.filter = filter;
+            return this;
+        }
+
+        public Builder withRateUnit(TimeUnit rateUnit) {
+            this.rateUnit = rateUnit;
+            return this;
+        }
+
+        public Builder withDurationUnit(TimeUnit durationUnit) {
+            this.durationUnit = durationUnit;
+            return this;
+        }
+
+        /**
+         * @param disabledAttributes rates and statistics which are not reported, e.g. {@link MetricAttribute#M5_RATE}
+         */
+        public Builder withDisabledAttributes(Set<MetricAttribute> disabledAttributes) {
+            this.disabledAttributes = disabledAttributes.isEmpty()
+                    ? Collections.emptySet() : EnumSet.copyOf(disabledAttributes);
+            return this;
+        }
+
+        /**
+         * @param maxSilence the longest time an unchanged gauge (or statistic) is not sent. Default is 1 minute.
+         */
+        public Builder withMaxSilence(long maxSilence, TimeUnit unit) {
+            this.maxSilenceMs = unit.toMillis(maxSilence);
+            return this;
+        }
+
+        public Builder withMaxPacketSize(int maxPacketSize) {
+            this.maxPacketSize = maxPacketSize;
+            return this;
+        }
+
+        public Builder withErrorHandler(StatsDClientErrorHandler errorHandler) {
+            this.errorHandler = errorHandler;
+            return this;
+        }
+
+        public FastStatsDReporter build() {
+            if (registry == null || client == null) {
+                throw new IllegalArgumentException("Registry and client must be set");
+            }
+            return new FastStatsDReporter(registry, client, filter, rateUnit, durationUnit, disabledAttributes,
+                    maxSilenceMs, maxPacketSize, errorHandler);
+        }
+    }
+}
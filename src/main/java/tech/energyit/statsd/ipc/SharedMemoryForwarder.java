@@ -0,0 +1,240 @@
+package tech.energyit.statsd.ipc;
+
+import tech.energyit.statsd.MessagePacker;
+import tech.energyit.statsd.Sender;
+import tech.energyit.statsd.StatsDClientErrorHandler;
+import tech.energyit.statsd.SynchronousSender;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Reference consumer of {@link SharedMemorySender}s: a single thread drains all ring files in the shared directory
+ * and forwards the messages packed into datagrams of at most {@code maxPacketSize} bytes to the target sender
+ * (e.g. {@link SynchronousSender} to the agent).
+ *
+ * The directory is scanned for new rings periodically. Rings closed by their producers are deleted once drained.
+ * Producers lock their ring files while they are alive, so on each scan the rings whose lock can be acquired
+ * (the producer crashed or exited without closing) are drained and deleted as well.
+ * It can run in the agent's host process, or standalone by {@link #main(String[])}.
+ */
+public final class SharedMemoryForwarder implements Closeable {
+
+    private static final long MAX_IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final int IDLE_SPINS = 100;
+
+    private final Path directory;
+    private final MessagePacker packer;
+    private final long scanIntervalNanos;
+    private final StatsDClientErrorHandler errorHandler;
+    private final Map<Path, SharedRing> rings = new HashMap<>();
+    private final Set<Path> abandoned = new HashSet<>();
+    private final Thread consumer;
+    private volatile boolean running = true;
+    private long lastScan;
+
+    private SharedMemoryForwarder(Path directory, Sender target, int maxPacketSize, long scanIntervalNanos,
+                                  StatsDClientErrorHandler errorHandler) {
+        this.directory = directory;
+        this.packer = new MessagePacker(target, maxPacketSize);
+        this.scanIntervalNanos = scanIntervalNanos;
+        this.errorHandler = errorHandler;
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to create directory " + directory, e);
+        }
+        scan();
+        this.lastScan = System.nanoTime();
+        this.consumer = new Thread(this::consume, "statsd-shm-forwarder");
+        this.consumer.setDaemon(true);
+        this.consumer.start();
+    }
+
+    /**
+     * Stops the consumer thread once the rings are drained. The target sender is not closed.
+     */
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(consumer);
+        try {
+            consumer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void consume() {
+        final SharedRing.MessageHandler handler = packer::append;
+        int idleCount = 0;
+        while (running) {
+            try {
+                if (System.nanoTime() - lastScan >= scanIntervalNanos) {
+                    scan();
+                    lastScan = System.nanoTime();
+                }
+                if (drain(handler) > 0) {
+                    idleCount = 0;
+                } else {
+                    idle(++idleCount);
+                }
+            } catch (RuntimeException e) {
+                errorHandler.handle(e);
+            }
+        }
+        drain(handler);
+    }
+
+    private int drain(SharedRing.MessageHandler handler) {
+        int messages = 0;
+        final Iterator<Map.Entry<Path, SharedRing>> it = rings.entrySet().iterator();
+        while (it.hasNext()) {
+            final Map.Entry<Path, SharedRing> entry = it.next();
+            final SharedRing ring = entry.getValue();
+            // the closed flag is read first, so no message written before closing is missed
+            final boolean closed = ring.isClosed() || abandoned.contains(entry.getKey());
+            messages += ring.read(handler);
+            if (closed) {
+                it.remove();
+                abandoned.remove(entry.getKey());
+                delete(entry.getKey());
+            }
+        }
+        // end of batch - do not hold the partial packet back
+        packer.flush();
+        return messages;
+    }
+
+    private void scan() {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SharedMemorySender.RING_SUFFIX)) {
+            for (Path file : files) {
+                SharedRing ring = rings.get(file);
+                if (ring == null) {
+                    ring = SharedRing.open(file, Files.size(file));
+                    if (ring == null) {
+                        continue;
+                    }
+                    rings.put(file, ring);
+                }
+                if (!ring.isClosed() && isAbandoned(file)) {
+                    abandoned.add(file);
+                }
+            }
+        } catch (IOException e) {
+            errorHandler.handle(e);
+        }
+    }
+
+    /**
+     * @return true if the producer of the ring is gone - it holds a lock of the file while it is alive
+     */
+    private boolean isAbandoned(Path file) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+             FileLock lock = channel.tryLock()) {
+            return lock != null;
+        } catch (OverlappingFileLockException e) {
+            // locked by a producer in this JVM
+            return false;
+        } catch (IOException e) {
+            errorHandler.handle(e);
+            return false;
+        }
+    }
+
+    private void delete(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            errorHandler.handle(e);
+        }
+    }
+
+    private static void idle(int idleCount) {
+        if (idleCount < IDLE_SPINS) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(Math.min(MAX_IDLE_PARK_NANOS, 1000L * (idleCount - IDLE_SPINS + 1)));
+        }
+    }
+
+    public static Builder builder(Sender target) {
+        return new Builder(target);
+    }
+
+    public static class Builder {
+
+        private final Sender target;
+        private Path directory = SharedMemorySender.defaultDirectory();
+        private int maxPacketSize = MessagePacker.DEFAULT_MAX_PACKET_SIZE;
+        private long scanIntervalNanos = TimeUnit.SECONDS.toNanos(1);
+        private StatsDClientErrorHandler errorHandler = StatsDClientErrorHandler.NO_OP_HANDLER;
+
+        private Builder(Sender target) {
+            this.target = target;
+        }
+
+        /**
+         * @see SharedMemorySender.Builder#withDirectory(Path)
+         */
+        public Builder withDirectory(Path directory) {
+            this.directory = directory;
+            return this;
+        }
+
+        public Builder withMaxPacketSize(int maxPacketSize) {
+            this.maxPacketSize = maxPacketSize;
+            return this;
+        }
+
+        /**
+         * @param scanInterval how often the directory is checked for new rings
+         */
+        public Builder withScanInterval(long scanInterval, TimeUnit unit) {
+            this.scanIntervalNanos = unit.toNanos(scanInterval);
+            return this;
+        }
+
+        public Builder withErrorHandler(StatsDClientErrorHandler errorHandler) {
+            this.errorHandler = errorHandler;
+            return this;
+        }
+
+        public SharedMemoryForwarder build() {
+            return new SharedMemoryForwarder(directory, target, maxPacketSize, scanIntervalNanos, errorHandler);
+        }
+    }
+
+    /**
+     * Standalone forwarder: {@code SharedMemoryForwarder [directory] [host] [port]} forwards to the agent by UDP
+     * until the process is stopped.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        final Path directory = args.length > 0 ? Paths.get(args[0]) : SharedMemorySender.defaultDirectory();
+        final String host = args.length > 1 ? args[1] : "localhost";
+        final int port = args.length > 2 ? Integer.parseInt(args[2]) : 8125;
+        final SynchronousSender sender = SynchronousSender.builder().withHostAndPort(host, port).build();
+        final SharedMemoryForwarder forwarder = builder(sender).withDirectory(directory).build();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            forwarder.close();
+            sender.close();
+        }));
+        System.out.println("Forwarding " + directory + " to " + host + ":" + port);
+        Thread.currentThread().join();
+    }
+}
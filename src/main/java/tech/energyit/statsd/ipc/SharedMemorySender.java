@@ -0,0 +1,145 @@
+package tech.energyit.statsd.ipc;
+
+import tech.energyit.statsd.Sender;
+import tech.energyit.statsd.StatsDClientErrorHandler;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes messages into a memory-mapped ring file drained by a co-located {@link SharedMemoryForwarder},
+ * so sending a metric is a copy into shared memory - no system call and no kernel on the metrics path.
+ *
+ * Each sender owns its ring file in the shared directory, so any number of JVMs on the host feed one forwarder
+ * without sharing a write position: the producer and the forwarder only exchange the ring's tail and head sequences.
+ * Threads of one sender are serialized by its lock. Messages are dropped (and counted) when the ring is full.
+ * {@link #close()} marks the ring closed, the forwarder deletes its file once it is drained.
+ * The sender holds a lock of its ring file until it is closed, the OS releases it when the process exits,
+ * so the forwarder also drops rings of processes which exited without closing their sender.
+ */
+public final class SharedMemorySender implements Sender, Closeable {
+
+    static final String RING_SUFFIX = ".ring";
+
+    private final SharedRing ring;
+    private final Path file;
+    private final FileChannel lockChannel;
+    private final StatsDClientErrorHandler errorHandler;
+    private final AtomicLong droppedCount = new AtomicLong();
+    private boolean closed;
+
+    private SharedMemorySender(Path directory, int capacity, StatsDClientErrorHandler errorHandler) {
+        this.errorHandler = errorHandler;
+        try {
+            Files.createDirectories(directory);
+            // the ring is initialized under a temporary name, so the forwarder never maps a partial header
+            final Path tmp = Files.createTempFile(directory, "statsd-", ".tmp");
+            this.ring = SharedRing.create(tmp, capacity);
+            // locked after the ring is mapped - closing any other channel of the file would release the lock (POSIX)
+            this.lockChannel = FileChannel.open(tmp, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            lockChannel.lock();
+            final String name = tmp.getFileName().toString();
+            this.file = directory.resolve(name.substring(0, name.length() - ".tmp".length()) + RING_SUFFIX);
+            Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to create ring file in " + directory, e);
+        }
+    }
+
+    @Override
+    public synchronized void send(ByteBuffer msg) {
+        if (closed || !ring.write(msg)) {
+            if (droppedCount.getAndIncrement() == 0) {
+                errorHandler.handle(closed ? "Sender closed. Dropping..." : "Shared ring full. Dropping...");
+            }
+        }
+    }
+
+    /**
+     * @return number of messages dropped because the ring was full or the sender closed
+     */
+    public long droppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * @return free bytes in the ring - each message takes its length + 4 bytes, rounded up to 8 bytes
+     */
+    public int remainingCapacity() {
+        return ring.remainingCapacity();
+    }
+
+    /**
+     * @return the ring file
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Marks the ring closed - the messages already written are still forwarded.
+     */
+    @Override
+    public synchronized void close() {
+        if (!closed) {
+            closed = true;
+            ring.markClosed();
+            try {
+                lockChannel.close();
+            } catch (IOException e) {
+                errorHandler.handle(e);
+            }
+        }
+    }
+
+    /**
+     * @return directory shared with the forwarder by default - {@code statsd-shm} in the temp directory
+     */
+    public static Path defaultDirectory() {
+        return Paths.get(System.getProperty("java.io.tmpdir"), "statsd-shm");
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+
+        private Path directory = defaultDirectory();
+        private int capacity = 1024 * 1024;
+        private StatsDClientErrorHandler errorHandler = StatsDClientErrorHandler.NO_OP_HANDLER;
+
+        /**
+         * @param directory shared with the forwarder, ideally on tmpfs (e.g. {@code /dev/shm}) so the ring never hits the disk
+         */
+        public Builder withDirectory(Path directory) {
+            this.directory = directory;
+            return this;
+        }
+
+        /**
+         * @param capacity size of the ring in bytes, must be a power of 2. Single message can take at most half of it.
+         */
+        public Builder withCapacity(int capacity) {
+            this.capacity = capacity;
+            return this;
+        }
+
+        public Builder withErrorHandler(StatsDClientErrorHandler errorHandler) {
+            this.errorHandler = errorHandler;
+            return this;
+        }
+
+        public SharedMemorySender build() {
+            return new SharedMemorySender(directory, capacity, errorHandler);
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package tech.energyit.statsd.ipc;
+
+import sun.misc.Unsafe;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Single-producer, single-consumer byte ring in a memory-mapped file, shared by two processes.
+ *
+ * The file starts with a header: magic, capacity and closed flag, then the producer's tail and the consumer's head
+ * on their own cache lines. Records {@code [int length][message]} are aligned to {@value ALIGNMENT}B,
+ * a negative length marks padding at the end of the ring.
+ * The tail is published after the record is written and the head after the records are read, both behind a release fence,
+ * and they are read before an acquire fence. A volatile field gives no ordering to the other process, nor does it keep
+ * the following plain store of the tail before the record on weakly ordered CPUs (e.g. aarch64), and Java 8 has no
+ * public fence API - so the fences are {@code sun.misc.Unsafe#storeFence()} and {@code #loadFence()}, the only use
+ * of {@code Unsafe} in the library. The ring cannot be created or opened if it is not available.
+ */
+final class SharedRing {
+
+    static final int MAGIC = 0x53484d31; // SHM1
+    static final int ALIGNMENT = 8;
+    private static final int MAGIC_OFFSET = 0;
+    private static final int CAPACITY_OFFSET = 4;
+    private static final int CLOSED_OFFSET = 8;
+    private static final int TAIL_OFFSET = 64;
+    private static final int HEAD_OFFSET = 128;
+    static final int DATA_OFFSET = 192;
+    private static final int LENGTH_SIZE = 4;
+
+    private static final Unsafe UNSAFE = unsafe();
+
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private final int mask;
+    private long position;
+
+    private SharedRing(MappedByteBuffer buffer, int capacity, long position) {
+        this.buffer = buffer;
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.position = position;
+    }
+
+    /**
+     * Maps a new ring for the producer.
+     *
+     * @param capacity in bytes, must be a power of 2
+     */
+    static SharedRing create(Path file, int capacity) throws IOException {
+        if (capacity < ALIGNMENT * 2 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of 2 : " + capacity);
+        }
+        requireFences();
+        final MappedByteBuffer buffer = map(file, DATA_OFFSET + capacity, true);
+        buffer.putInt(CAPACITY_OFFSET, capacity);
+        buffer.putLong(TAIL_OFFSET, 0);
+        buffer.putLong(HEAD_OFFSET, 0);
+        buffer.putInt(CLOSED_OFFSET, 0);
+        storeFence();
+        buffer.putInt(MAGIC_OFFSET, MAGIC);
+        return new SharedRing(buffer, capacity, 0);
+    }
+
+    /**
+     * Maps an existing ring for the consumer, continuing from its head.
+     *
+     * @return null if the file is not a ring (yet)
+     */
+    static SharedRing open(Path file, long size) throws IOException {
+        if (size <= DATA_OFFSET) {
+            return null;
+        }
+        requireFences();
+        final MappedByteBuffer buffer = map(file, size, false);
+        final int capacity = buffer.getInt(CAPACITY_OFFSET);
+        if (buffer.getInt(MAGIC_OFFSET) != MAGIC || capacity != size - DATA_OFFSET || Integer.bitCount(capacity) != 1) {
+            return null;
+        }
+        loadFence();
+        return new SharedRing(buffer, capacity, buffer.getLong(HEAD_OFFSET));
+    }
+
+    /**
+     * Producer: copies the remaining bytes of the message into the ring.
+     *
+     * @return false if there is not enough space, the message is untouched then
+     */
+    boolean write(ByteBuffer msg) {
+        final int length = msg.remaining();
+        final int required = align(LENGTH_SIZE + length);
+        if (required > capacity / 2) {
+            return false;
+        }
+        final long tail = position;
+        int index = (int) tail & mask;
+        final int toEnd = capacity - index;
+        final int padding = required > toEnd ? toEnd : 0;
+        final long newTail = tail + padding + required;
+        final long head = buffer.getLong(HEAD_OFFSET);
+        loadFence();
+        if (newTail - head > capacity) {
+            return false;
+        }
+        if (padding != 0) {
+            buffer.putInt(DATA_OFFSET + index, -padding);
+            index = 0;
+        }
+        buffer.putInt(DATA_OFFSET + index, length);
+        final int from = DATA_OFFSET + index + LENGTH_SIZE;
+        final int srcOffset = msg.position();
+        int i = 0;
+        for (; i + Long.BYTES <= length; i += Long.BYTES) {
+            buffer.putLong(from + i, msg.getLong(srcOffset + i));
+        }
+        for (; i < length; i++) {
+            buffer.put(from + i, msg.get(srcOffset + i));
+        }
+        msg.position(msg.limit());
+        storeFence();
+        buffer.putLong(TAIL_OFFSET, newTail);
+        position = newTail;
+        return true;
+    }
+
+    /**
+     * Consumer: passes all published messages to the handler and releases their space.
+     *
+     * @return number of messages read
+     */
+    int read(MessageHandler handler) {
+        final long tail = buffer.getLong(TAIL_OFFSET);
+        loadFence();
+        long head = position;
+        int messages = 0;
+        while (head < tail) {
+            final int index = (int) head & mask;
+            final int length = buffer.getInt(DATA_OFFSET + index);
+            if (length < 0) {
+                head -= length;
+            } else {
+                handler.onMessage(buffer, DATA_OFFSET + index + LENGTH_SIZE, length);
+                head += align(LENGTH_SIZE + length);
+                messages++;
+            }
+        }
+        if (head != position) {
+            storeFence();
+            buffer.putLong(HEAD_OFFSET, head);
+            position = head;
+        }
+        return messages;
+    }
+
+    /**
+     * Producer: no more messages will be written, the consumer may drop the ring once it is empty.
+     */
+    void markClosed() {
+        storeFence();
+        buffer.putInt(CLOSED_OFFSET, 1);
+    }
+
+    boolean isClosed() {
+        final boolean closed = buffer.getInt(CLOSED_OFFSET) != 0;
+        loadFence();
+        return closed;
+    }
+
+    boolean isEmpty() {
+        return buffer.getLong(TAIL_OFFSET) == buffer.getLong(HEAD_OFFSET);
+    }
+
+    /**
+     * @return bytes that can still be written (padding and alignment not taken into account)
+     */
+    int remainingCapacity() {
+        return (int) (capacity - (buffer.getLong(TAIL_OFFSET) - buffer.getLong(HEAD_OFFSET)));
+    }
+
+    private static MappedByteBuffer map(Path file, long size, boolean create) throws IOException {
+        try (FileChannel channel = create
+                ? FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)
+                : FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // the mapping stays valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    /**
+     * Release fence - the loads and stores before it are not reordered with the stores after it.
+     */
+    private static void storeFence() {
+        UNSAFE.storeFence();
+    }
+
+    /**
+     * Acquire fence - the loads before it are not reordered with the loads and stores after it.
+     */
+    private static void loadFence() {
+        UNSAFE.loadFence();
+    }
+
+    private static void requireFences() {
+        if (UNSAFE == null) {
+            throw new UnsupportedOperationException("sun.misc.Unsafe is not available, shared ring cannot order its accesses");
+        }
+    }
+
+    private static Unsafe unsafe() {
+        try {
+            final Field field = Unsafe.class.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            return (Unsafe) field.get(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static int align(int length) {
+        return (length + ALIGNMENT - 1) & -ALIGNMENT;
+    }
+
+    /**
+     * Receives a message stored in the ring. The region is only valid during the call.
+     */
+    interface MessageHandler {
+        void onMessage(ByteBuffer buffer, int offset, int length);
+    }
+}
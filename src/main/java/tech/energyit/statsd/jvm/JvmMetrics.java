@@ -0,0 +1,173 @@
+package tech.energyit.statsd.jvm;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import tech.energyit.statsd.FastStatsDClient;
+import tech.energyit.statsd.IOUtils;
+import tech.energyit.statsd.PolledMetrics;
+import tech.energyit.statsd.PreparedMetric;
+import tech.energyit.statsd.StatsDClientErrorHandler;
+import tech.energyit.statsd.Tag;
+import tech.energyit.statsd.TagImpl;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.io.Closeable;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ClassLoadingMXBean;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Optional module reporting JVM runtime metrics via {@link FastStatsDClient}:
+ * <ul>
+ *     <li>heap and non-heap memory</li>
+ *     <li>GC pauses - a timer per collection, from {@link GarbageCollectorMXBean} notifications</li>
+ *     <li>threads and class loading</li>
+ *     <li>buffer pools (direct, mapped) and a counter of the direct memory allocated by this library</li>
+ * </ul>
+ * Gauges are registered to {@link PolledMetrics}, so they are sampled with its interval and the metric names are pre-encoded.
+ * Sampling allocates nothing except the {@link java.lang.management.MemoryUsage} of the non-heap memory,
+ * GC notifications are allocated by JMX itself.
+ *
+ * Safepoint statistics are not available via a supported management API, so they are not reported.
+ */
+public final class JvmMetrics implements Closeable {
+
+    private static final byte[] GC_PAUSE = "jvm.gc.pause".getBytes(FastStatsDClient.MESSAGE_CHARSET);
+    private static final byte[] GC_TAG = "gc".getBytes(FastStatsDClient.MESSAGE_CHARSET);
+    private static final byte[] ACTION_TAG = "action".getBytes(FastStatsDClient.MESSAGE_CHARSET);
+    private static final byte[] POOL_TAG = "pool".getBytes(FastStatsDClient.MESSAGE_CHARSET);
+
+    private final FastStatsDClient client;
+    private final StatsDClientErrorHandler errorHandler;
+    private final ConcurrentMap<String, PreparedMetric> gcPauses = new ConcurrentHashMap<>();
+    private final List<NotificationEmitter> gcEmitters = new ArrayList<>();
+    private final NotificationListener gcListener = this::onGcNotification;
+
+    private JvmMetrics(FastStatsDClient client, StatsDClientErrorHandler errorHandler) {
+        this.client = client;
+        this.errorHandler = errorHandler;
+    }
+
+    /**
+     * Registers JVM gauges to the polled metrics and starts listening to GC notifications.
+     *
+     * @param client        used to report GC pauses, should be the same as used by the polled metrics
+     * @param polledMetrics samples the gauges
+     * @param errorHandler  notified if a GC notification cannot be reported
+     * @return the module - close it to stop listening to GC notifications
+     */
+    public static JvmMetrics register(FastStatsDClient client, PolledMetrics polledMetrics, StatsDClientErrorHandler errorHandler) {
+        JvmMetrics jvmMetrics = new JvmMetrics(client, errorHandler);
+        registerMemory(polledMetrics);
+        registerThreads(polledMetrics);
+        registerClassLoading(polledMetrics);
+        registerBufferPools(polledMetrics);
+        jvmMetrics.listenToGc();
+        return jvmMetrics;
+    }
+
+    public static JvmMetrics register(FastStatsDClient client, PolledMetrics polledMetrics) {
+        return register(client, polledMetrics, StatsDClientErrorHandler.NO_OP_HANDLER);
+    }
+
+    /**
+     * Stops listening to GC notifications. Gauges are polled until the {@link PolledMetrics} is closed.
+     */
+    @Override
+    public void close() {
+        synchronized (gcEmitters) {
+            for (NotificationEmitter emitter : gcEmitters) {
+                try {
+                    emitter.removeNotificationListener(gcListener);
+                } catch (ListenerNotFoundException e) {
+                    errorHandler.handle(e);
+                }
+            }
+            gcEmitters.clear();
+        }
+    }
+
+    private static void registerMemory(PolledMetrics polledMetrics) {
+        // Runtime gives the heap figures without allocating MemoryUsage
+        final Runtime runtime = Runtime.getRuntime();
+        polledMetrics.gauge(bytes("jvm.memory.heap.used"), () -> runtime.totalMemory() - runtime.freeMemory());
+        polledMetrics.gauge(bytes("jvm.memory.heap.committed"), runtime::totalMemory);
+        polledMetrics.gauge(bytes("jvm.memory.heap.max"), runtime::maxMemory);
+        final MemoryMXBean memoryBean = ManagementFactory.getMemoryMXBean();
+        polledMetrics.gauge(bytes("jvm.memory.nonheap.used"), () -> memoryBean.getNonHeapMemoryUsage().getUsed());
+        polledMetrics.gauge(bytes("jvm.memory.nonheap.committed"), () -> memoryBean.getNonHeapMemoryUsage().getCommitted());
+    }
+
+    private static void registerThreads(PolledMetrics polledMetrics) {
+        final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        polledMetrics.gauge(bytes("jvm.threads.live"), () -> (long) threadBean.getThreadCount());
+        polledMetrics.gauge(bytes("jvm.threads.daemon"), () -> (long) threadBean.getDaemonThreadCount());
+        polledMetrics.gauge(bytes("jvm.threads.peak"), () -> (long) threadBean.getPeakThreadCount());
+    }
+
+    private static void registerClassLoading(PolledMetrics polledMetrics) {
+        final ClassLoadingMXBean classLoadingBean = ManagementFactory.getClassLoadingMXBean();
+        polledMetrics.gauge(bytes("jvm.classes.loaded"), () -> (long) classLoadingBean.getLoadedClassCount());
+        polledMetrics.gauge(bytes("jvm.classes.unloaded"), classLoadingBean::getUnloadedClassCount);
+    }
+
+    private static void registerBufferPools(PolledMetrics polledMetrics) {
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            final Tag poolTag = new TagImpl(POOL_TAG, sanitize(pool.getName()));
+            polledMetrics.gauge(bytes("jvm.buffer.count"), pool::getCount, poolTag);
+            polledMetrics.gauge(bytes("jvm.buffer.memory.used"), pool::getMemoryUsed, poolTag);
+            polledMetrics.gauge(bytes("jvm.buffer.total.capacity"), pool::getTotalCapacity, poolTag);
+        }
+        // cumulative - buffers freed by GC are not subtracted, so it is reported as a counter of allocated bytes
+        polledMetrics.counter(bytes("jvm.buffer.statsd.allocated"), IOUtils::allocatedDirectBytes);
+    }
+
+    private void listenToGc() {
+        synchronized (gcEmitters) {
+            for (GarbageCollectorMXBean gcBean : ManagementFactory.getGarbageCollectorMXBeans()) {
+                if (gcBean instanceof NotificationEmitter) {
+                    NotificationEmitter emitter = (NotificationEmitter) gcBean;
+                    emitter.addNotificationListener(gcListener, null, null);
+                    gcEmitters.add(emitter);
+                }
+            }
+        }
+    }
+
+    private void onGcNotification(Notification notification, Object handback) {
+        if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+            return;
+        }
+        try {
+            GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+            PreparedMetric pause = gcPauses.computeIfAbsent(info.getGcName() + '|' + info.getGcAction(),
+                    k -> client.prepare(FastStatsDClient.MetricType.TIMER, GC_PAUSE,
+                            new TagImpl(GC_TAG, sanitize(info.getGcName())),
+                            new TagImpl(ACTION_TAG, sanitize(info.getGcAction()))));
+            pause.send(info.getGcInfo().getDuration());
+        } catch (RuntimeException e) {
+            errorHandler.handle(e);
+        }
+    }
+
+    private static byte[] bytes(String name) {
+        return name.getBytes(FastStatsDClient.MESSAGE_CHARSET);
+    }
+
+    /**
+     * MXBean names contain spaces (e.g. "G1 Young Generation") - tag values should not.
+     */
+    private static byte[] sanitize(String value) {
+        return value.trim().replace(' ', '_').getBytes(FastStatsDClient.MESSAGE_CHARSET);
+    }
+}
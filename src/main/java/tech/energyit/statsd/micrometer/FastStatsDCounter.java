@@ -0,0 +1,37 @@
+package tech.energyit.statsd.micrometer;
+
+import io.micrometer.core.instrument.AbstractMeter;
+import io.micrometer.core.instrument.Counter;
+import tech.energyit.statsd.PreparedMetric;
+
+import java.util.concurrent.atomic.DoubleAdder;
+
+/**
+ * Counter sending each increment as a line of its pre-encoded metric. Whole increments are formatted as longs.
+ */
+final class FastStatsDCounter extends AbstractMeter implements Counter {
+
+    private final PreparedMetric metric;
+    private final DoubleAdder count = new DoubleAdder();
+
+    FastStatsDCounter(Id id, PreparedMetric metric) {
+        super(id);
+        this.metric = metric;
+    }
+
+    @Override
+    public void increment(double amount) {
+        count.add(amount);
+        final long whole = (long) amount;
+        if (whole == amount) {
+            metric.send(whole);
+        } else {
+            metric.send(amount);
+        }
+    }
+
+    @Override
+    public double count() {
+        return count.sum();
+    }
+}
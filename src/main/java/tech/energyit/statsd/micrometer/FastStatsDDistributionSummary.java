@@ -0,0 +1,57 @@
+package tech.energyit.statsd.micrometer;
+
+import io.micrometer.core.instrument.AbstractDistributionSummary;
+import io.micrometer.core.instrument.Clock;
+import io.micrometer.core.instrument.distribution.DistributionStatisticConfig;
+import io.micrometer.core.instrument.distribution.TimeWindowMax;
+import tech.energyit.statsd.PreparedMetric;
+
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Distribution summary sending each (scaled) recording as a histogram line of its pre-encoded metric.
+ * Whole amounts are formatted as longs.
+ */
+final class FastStatsDDistributionSummary extends AbstractDistributionSummary {
+
+    private final PreparedMetric metric;
+    private final LongAdder count = new LongAdder();
+    private final DoubleAdder total = new DoubleAdder();
+    private final TimeWindowMax max;
+
+    FastStatsDDistributionSummary(Id id, Clock clock, DistributionStatisticConfig distributionStatisticConfig, double scale,
+                                  PreparedMetric metric) {
+        super(id, clock, distributionStatisticConfig, scale, false);
+        this.metric = metric;
+        this.max = new TimeWindowMax(clock, distributionStatisticConfig);
+    }
+
+    @Override
+    protected void recordNonNegative(double amount) {
+        count.increment();
+        total.add(amount);
+        max.record(amount);
+        final long whole = (long) amount;
+        if (whole == amount) {
+            metric.send(whole);
+        } else {
+            metric.send(amount);
+        }
+    }
+
+    @Override
+    public long count() {
+        return count.sum();
+    }
+
+    @Override
+    public double totalAmount() {
+        return total.sum();
+    }
+
+    @Override
+    public double max() {
+        return max.poll();
+    }
+}
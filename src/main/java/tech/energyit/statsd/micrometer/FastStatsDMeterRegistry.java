@@ -0,0 +1,250 @@
+package tech.energyit.statsd.micrometer;
+
+import io.micrometer.core.instrument.Clock;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.LongTaskTimer;
+import io.micrometer.core.instrument.Measurement;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.config.NamingConvention;
+import io.micrometer.core.instrument.cumulative.CumulativeFunctionCounter;
+import io.micrometer.core.instrument.cumulative.CumulativeFunctionTimer;
+import io.micrometer.core.instrument.distribution.DistributionStatisticConfig;
+import io.micrometer.core.instrument.distribution.pause.PauseDetector;
+import io.micrometer.core.instrument.internal.DefaultGauge;
+import io.micrometer.core.instrument.internal.DefaultLongTaskTimer;
+import io.micrometer.core.instrument.internal.DefaultMeter;
+import tech.energyit.statsd.FastStatsDClient;
+import tech.energyit.statsd.FlushScheduler;
+import tech.energyit.statsd.PolledMetrics;
+import tech.energyit.statsd.PreparedMetric;
+import tech.energyit.statsd.StatsDClientErrorHandler;
+import tech.energyit.statsd.Tag;
+import tech.energyit.statsd.TagImpl;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * Micrometer {@link MeterRegistry} backed by {@link FastStatsDClient} (optional dependency {@code io.micrometer:micrometer-core}).
+ * Each meter is pre-encoded once at registration ({@link PreparedMetric}), so recording only formats the value
+ * and hands the line to the client's {@link tech.energyit.statsd.Sender} - no Strings and no intermediate sink per line:
+ * <ul>
+ * <li>counters, timers and distribution summaries send a line per call ({@code c}, {@code ms} and {@code h})</li>
+ * <li>gauges, long task timers and other meters are polled by {@link PolledMetrics} and sent as gauges
+ * (until they are removed from the registry)</li>
+ * <li>function counters and function timers are polled and their increments sent as counters</li>
+ * </ul>
+ * Percentiles and histograms are aggregated by the agent from the timer and histogram lines, not by the registry.
+ * Names follow the {@link NamingConvention#dot} convention by default. The client's prefix and constant tags are applied.
+ */
+public final class FastStatsDMeterRegistry extends MeterRegistry {
+
+    private final FastStatsDClient client;
+    private final PolledMetrics polledMetrics;
+    private final long pollIntervalMs;
+    private final Map<Meter.Id, List<PolledMetrics.Registration>> polled = new ConcurrentHashMap<>();
+
+    private FastStatsDMeterRegistry(FastStatsDClient client, Clock clock, long pollIntervalMs, FlushScheduler scheduler,
+                                    StatsDClientErrorHandler errorHandler) {
+        super(clock);
+        this.client = client;
+        this.pollIntervalMs = pollIntervalMs;
+        final PolledMetrics.Builder polled = PolledMetrics.builder(client)
+                .withInterval(pollIntervalMs, TimeUnit.MILLISECONDS)
+                .withErrorHandler(errorHandler);
+        if (scheduler != null) {
+            polled.withScheduler(scheduler);
+        }
+        this.polledMetrics = polled.build();
+        config().namingConvention(NamingConvention.dot);
+        config().onMeterRemoved(this::stopPolling);
+    }
+
+    /**
+     * Polls the gauges and function meters now, e.g. before shutdown. Invoked by the scheduler every poll interval.
+     */
+    public void poll() {
+        polledMetrics.poll();
+    }
+
+    /**
+     * Stops polling. The client's sender (and shared scheduler) is not closed.
+     */
+    @Override
+    public void close() {
+        polledMetrics.close();
+        super.close();
+    }
+
+    @Override
+    protected <T> Gauge newGauge(Meter.Id id, T obj, ToDoubleFunction<T> valueFunction) {
+        final DefaultGauge<T> gauge = new DefaultGauge<>(id, obj, valueFunction);
+        poll(id, polledMetrics.gauge(name(id), gauge::value, tags(id)));
+        return gauge;
+    }
+
+    @Override
+    protected Counter newCounter(Meter.Id id) {
+        return new FastStatsDCounter(id, prepare(FastStatsDClient.MetricType.COUNTER, id, null));
+    }
+
+    @Override
+    protected LongTaskTimer newLongTaskTimer(Meter.Id id, DistributionStatisticConfig distributionStatisticConfig) {
+        final DefaultLongTaskTimer timer = new DefaultLongTaskTimer(id, clock, getBaseTimeUnit(), distributionStatisticConfig, false);
+        poll(id, polledMetrics.gauge(name(id, "active"), () -> (long) timer.activeTasks(), tags(id)));
+        poll(id, polledMetrics.gauge(name(id, "duration"), () -> timer.duration(getBaseTimeUnit()), tags(id)));
+        return timer;
+    }
+
+    @Override
+    protected Timer newTimer(Meter.Id id, DistributionStatisticConfig distributionStatisticConfig, PauseDetector pauseDetector) {
+        return new FastStatsDTimer(id, clock, distributionStatisticConfig, pauseDetector, getBaseTimeUnit(),
+                prepare(FastStatsDClient.MetricType.TIMER, id, null));
+    }
+
+    @Override
+    protected DistributionSummary newDistributionSummary(Meter.Id id, DistributionStatisticConfig distributionStatisticConfig,
+                                                         double scale) {
+        return new FastStatsDDistributionSummary(id, clock, distributionStatisticConfig, scale,
+                prepare(FastStatsDClient.MetricType.HISTOGRAM, id, null));
+    }
+
+    @Override
+    protected Meter newMeter(Meter.Id id, Meter.Type type, Iterable<Measurement> measurements) {
+        for (Measurement measurement : measurements) {
+            poll(id, polledMetrics.gauge(name(id, measurement.getStatistic().getTagValueRepresentation()),
+                    measurement::getValue, tags(id)));
+        }
+        return new DefaultMeter(id, type, measurements);
+    }
+
+    @Override
+    protected <T> FunctionTimer newFunctionTimer(Meter.Id id, T obj, ToLongFunction<T> countFunction,
+                                                 ToDoubleFunction<T> totalTimeFunction, TimeUnit totalTimeFunctionUnit) {
+        final CumulativeFunctionTimer<T> timer = new CumulativeFunctionTimer<>(id, obj, countFunction, totalTimeFunction,
+                totalTimeFunctionUnit, getBaseTimeUnit());
+        poll(id, polledMetrics.counter(name(id, "count"), () -> (long) timer.count(), tags(id)));
+        poll(id, polledMetrics.counter(name(id, "sum"), () -> (long) timer.totalTime(getBaseTimeUnit()), tags(id)));
+        return timer;
+    }
+
+    /**
+     * The cumulative count is truncated to whole numbers.
+     */
+    @Override
+    protected <T> FunctionCounter newFunctionCounter(Meter.Id id, T obj, ToDoubleFunction<T> countFunction) {
+        final CumulativeFunctionCounter<T> counter = new CumulativeFunctionCounter<>(id, obj, countFunction);
+        poll(id, polledMetrics.counter(name(id), () -> (long) counter.count(), tags(id)));
+        return counter;
+    }
+
+    @Override
+    protected TimeUnit getBaseTimeUnit() {
+        return TimeUnit.MILLISECONDS;
+    }
+
+    @Override
+    protected DistributionStatisticConfig defaultHistogramConfig() {
+        return DistributionStatisticConfig.builder()
+                .expiry(Duration.ofMillis(pollIntervalMs))
+                .build()
+                .merge(DistributionStatisticConfig.DEFAULT);
+    }
+
+    private void poll(Meter.Id id, PolledMetrics.Registration registration) {
+        polled.computeIfAbsent(id, key -> new CopyOnWriteArrayList<>()).add(registration);
+    }
+
+    private void stopPolling(Meter meter) {
+        final List<PolledMetrics.Registration> registrations = polled.remove(meter.getId());
+        if (registrations != null) {
+            registrations.forEach(PolledMetrics.Registration::remove);
+        }
+    }
+
+    private PreparedMetric prepare(FastStatsDClient.MetricType metricType, Meter.Id id, String suffix) {
+        return client.prepare(metricType, name(id, suffix), tags(id));
+    }
+
+    private byte[] name(Meter.Id id) {
+        return name(id, null);
+    }
+
+    private byte[] name(Meter.Id id, String suffix) {
+        final String name = getConventionName(id);
+        return (suffix == null ? name : name + '.' + suffix).getBytes(FastStatsDClient.MESSAGE_CHARSET);
+    }
+
+    private Tag[] tags(Meter.Id id) {
+        final List<io.micrometer.core.instrument.Tag> conventionTags = getConventionTags(id);
+        final Tag[] tags = new Tag[conventionTags.size()];
+        for (int i = 0; i < tags.length; i++) {
+            final io.micrometer.core.instrument.Tag tag = conventionTags.get(i);
+            tags[i] = new TagImpl(tag.getKey().getBytes(FastStatsDClient.MESSAGE_CHARSET),
+                    tag.getValue().getBytes(FastStatsDClient.MESSAGE_CHARSET));
+        }
+        return tags;
+    }
+
+    public static Builder builder(FastStatsDClient client) {
+        return new Builder(client);
+    }
+
+    public static class Builder {
+
+        private final FastStatsDClient client;
+        private Clock clock = Clock.SYSTEM;
+        private long pollIntervalMs = 10_000L;
+        private FlushScheduler scheduler;
+        private StatsDClientErrorHandler errorHandler = StatsDClientErrorHandler.NO_OP_HANDLER;
+
+        private Builder(FastStatsDClient client) {
+            this.client = client;
+        }
+
+        public Builder withClock(Clock clock) {
+            this.clock = clock;
+            return this;
+        }
+
+        /**
+         * @param pollInterval how often the gauges and function meters are polled
+         */
+        public Builder withPollInterval(long pollInterval, TimeUnit unit) {
+            this.pollIntervalMs = unit.toMillis(pollInterval);
+            return this;
+        }
+
+        /**
+         * Polls in the thread of the shared scheduler instead of an own thread.
+         */
+        public Builder withScheduler(FlushScheduler scheduler) {
+            this.scheduler = scheduler;
+            return this;
+        }
+
+        public Builder withErrorHandler(StatsDClientErrorHandler errorHandler) {
+            this.errorHandler = errorHandler;
+            return this;
+        }
+
+        public FastStatsDMeterRegistry build() {
+            if (client == null) {
+                throw new IllegalArgumentException("Client must be set");
+            }
+            return new FastStatsDMeterRegistry(client, clock, pollIntervalMs, scheduler, errorHandler);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package tech.energyit.statsd.micrometer;
+
+import io.micrometer.core.instrument.AbstractTimer;
+import io.micrometer.core.instrument.Clock;
+import io.micrometer.core.instrument.distribution.DistributionStatisticConfig;
+import io.micrometer.core.instrument.distribution.TimeWindowMax;
+import io.micrometer.core.instrument.distribution.pause.PauseDetector;
+import io.micrometer.core.instrument.util.TimeUtils;
+import tech.energyit.statsd.PreparedMetric;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Timer sending each recording as a line of its pre-encoded metric, in (fractional) milliseconds.
+ */
+final class FastStatsDTimer extends AbstractTimer {
+
+    private final PreparedMetric metric;
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final TimeWindowMax max;
+
+    FastStatsDTimer(Id id, Clock clock, DistributionStatisticConfig distributionStatisticConfig, PauseDetector pauseDetector,
+                    TimeUnit baseTimeUnit, PreparedMetric metric) {
+        super(id, clock, distributionStatisticConfig, pauseDetector, baseTimeUnit, false);
+        this.metric = metric;
+        this.max = new TimeWindowMax(clock, distributionStatisticConfig);
+    }
+
+    @Override
+    protected void recordNonNegative(long amount, TimeUnit unit) {
+        final long nanos = unit.toNanos(amount);
+        count.increment();
+        totalNanos.add(nanos);
+        max.record(nanos, TimeUnit.NANOSECONDS);
+        metric.sendNanos(nanos);
+    }
+
+    @Override
+    public long count() {
+        return count.sum();
+    }
+
+    @Override
+    public double totalTime(TimeUnit unit) {
+        return TimeUtils.nanosToUnit(totalNanos.sum(), unit);
+    }
+
+    @Override
+    public double max(TimeUnit unit) {
+        return max.poll(unit);
+    }
+}
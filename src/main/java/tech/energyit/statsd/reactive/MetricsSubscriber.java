@@ -0,0 +1,186 @@
+package tech.energyit.statsd.reactive;
+
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import tech.energyit.statsd.FastStatsDClient;
+import tech.energyit.statsd.IOUtils;
+import tech.energyit.statsd.MessagePacker;
+import tech.energyit.statsd.Sender;
+import tech.energyit.statsd.StatsDClientErrorHandler;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.IntSupplier;
+
+/**
+ * Reactive Streams sink which reports stream elements as metrics.
+ * Elements are requested in batches, formatted by a {@link RecordWriter} and packed into datagrams ({@link MessagePacker}),
+ * which are flushed at the end of each batch.
+ *
+ * With {@link Builder#withBackPressure(IntSupplier, int)} the next batch is requested only once the sender
+ * has enough free capacity (e.g. {@link tech.energyit.statsd.async.ByteRingSender#remainingCapacity()}),
+ * so a slow sender slows down the publisher instead of dropping messages - the signalling thread waits meanwhile.
+ *
+ * {@code java.util.concurrent.Flow} publishers can use it via {@code org.reactivestreams.FlowAdapters}.
+ * Can be subscribed only once.
+ *
+ * @param <T> type of the stream elements
+ */
+public final class MetricsSubscriber<T> implements Subscriber<T> {
+
+    private static final int BATCH_SIZE = 256;
+    private static final int IDLE_SPINS = 100;
+    private static final long MAX_IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final RecordWriter<? super T> writer;
+    private final MessagePacker packer;
+    private final int batchSize;
+    private final IntSupplier senderCapacity;
+    private final int minSenderCapacity;
+    private final StatsDClientErrorHandler errorHandler;
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+    private ByteBuffer msgBuffer = IOUtils.allocateDirect(FastStatsDClient.INITIAL_BUFFER_SIZE);
+    private Subscription subscription;
+    private long pending;
+
+    private MetricsSubscriber(Sender sender, RecordWriter<? super T> writer, int batchSize, int maxPacketSize,
+                              IntSupplier senderCapacity, int minSenderCapacity, StatsDClientErrorHandler errorHandler) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive : " + batchSize);
+        }
+        this.writer = writer;
+        this.packer = new MessagePacker(sender, maxPacketSize);
+        this.batchSize = batchSize;
+        this.senderCapacity = senderCapacity;
+        this.minSenderCapacity = minSenderCapacity;
+        this.errorHandler = errorHandler;
+    }
+
+    @Override
+    public void onSubscribe(Subscription subscription) {
+        Objects.requireNonNull(subscription, "subscription");
+        if (!subscribed.compareAndSet(false, true)) {
+            subscription.cancel();
+            return;
+        }
+        this.subscription = subscription;
+        requestBatch();
+    }
+
+    @Override
+    public void onNext(T record) {
+        Objects.requireNonNull(record, "record");
+        try {
+            write(record);
+        } catch (RuntimeException e) {
+            errorHandler.handle(e);
+        }
+        if (--pending == 0) {
+            packer.flush();
+            requestBatch();
+        }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        packer.flush();
+        errorHandler.handle(throwable instanceof Exception ? (Exception) throwable : new IllegalStateException(throwable));
+    }
+
+    @Override
+    public void onComplete() {
+        packer.flush();
+    }
+
+    private void requestBatch() {
+        awaitSenderCapacity();
+        pending = batchSize;
+        subscription.request(batchSize);
+    }
+
+    private void awaitSenderCapacity() {
+        if (senderCapacity == null) {
+            return;
+        }
+        int idleCount = 0;
+        while (senderCapacity.getAsInt() < minSenderCapacity) {
+            if (++idleCount < IDLE_SPINS) {
+                Thread.yield();
+            } else {
+                LockSupport.parkNanos(Math.min(MAX_IDLE_PARK_NANOS, 1000L * (idleCount - IDLE_SPINS + 1)));
+            }
+        }
+    }
+
+    private void write(T record) {
+        ByteBuffer buffer = msgBuffer;
+        while (true) {
+            try {
+                buffer.clear();
+                writer.writeTo(record, buffer);
+                buffer.flip();
+                break;
+            } catch (BufferOverflowException e) {
+                buffer = IOUtils.allocateDirect(buffer.capacity() * 2);
+                msgBuffer = buffer;
+            }
+        }
+        packer.append(buffer);
+    }
+
+    public static <T> Builder<T> builder(Sender sender, RecordWriter<? super T> writer) {
+        return new Builder<>(sender, writer);
+    }
+
+    public static class Builder<T> {
+
+        private final Sender sender;
+        private final RecordWriter<? super T> writer;
+        private int batchSize = BATCH_SIZE;
+        private int maxPacketSize = MessagePacker.DEFAULT_MAX_PACKET_SIZE;
+        private IntSupplier senderCapacity;
+        private int minSenderCapacity;
+        private StatsDClientErrorHandler errorHandler = StatsDClientErrorHandler.NO_OP_HANDLER;
+
+        private Builder(Sender sender, RecordWriter<? super T> writer) {
+            this.sender = sender;
+            this.writer = writer;
+        }
+
+        /**
+         * @param batchSize number of elements requested at once, packets are flushed after each batch
+         */
+        public Builder<T> withBatchSize(int batchSize) {
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        public Builder<T> withMaxPacketSize(int maxPacketSize) {
+            this.maxPacketSize = maxPacketSize;
+            return this;
+        }
+
+        /**
+         * @param senderCapacity    free capacity of the sender, e.g. {@code byteRingSender::remainingCapacity}
+         * @param minSenderCapacity capacity needed to request the next batch, should fit the whole batch
+         */
+        public Builder<T> withBackPressure(IntSupplier senderCapacity, int minSenderCapacity) {
+            this.senderCapacity = senderCapacity;
+            this.minSenderCapacity = minSenderCapacity;
+            return this;
+        }
+
+        public Builder<T> withErrorHandler(StatsDClientErrorHandler errorHandler) {
+            this.errorHandler = errorHandler;
+            return this;
+        }
+
+        public MetricsSubscriber<T> build() {
+            return new MetricsSubscriber<>(sender, writer, batchSize, maxPacketSize, senderCapacity, minSenderCapacity, errorHandler);
+        }
+    }
+}
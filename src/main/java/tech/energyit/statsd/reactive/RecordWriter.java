@@ -0,0 +1,17 @@
+package tech.energyit.statsd.reactive;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Formats a stream element as a metric line, typically by {@link tech.energyit.statsd.PreparedMetric#writeTo(ByteBuffer, long)}.
+ *
+ * @param <T> type of the stream elements
+ */
+@FunctionalInterface
+public interface RecordWriter<T> {
+
+    /**
+     * @throws java.nio.BufferOverflowException if there is not enough space in the buffer - it is retried with a bigger one
+     */
+    void writeTo(T record, ByteBuffer buffer);
+}
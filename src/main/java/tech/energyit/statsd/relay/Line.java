@@ -0,0 +1,139 @@
+package tech.energyit.statsd.relay;
+
+import tech.energyit.statsd.FastStatsDClient;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Flyweight view of one statsd line ({@code name:value|type[|@rate][|#tags]}) in a received packet.
+ * It only holds offsets into the buffer, so parsing does not allocate.
+ */
+public final class Line {
+
+    ByteBuffer buffer;
+    int start;
+    int end;
+    int nameEnd;
+    int valueEnd;
+    FastStatsDClient.MetricType type;
+    boolean sampled;
+    boolean extensions;
+    int tagsStart;
+    int tagsEnd;
+
+    public ByteBuffer buffer() {
+        return buffer;
+    }
+
+    public int offset() {
+        return start;
+    }
+
+    public int length() {
+        return end - start;
+    }
+
+    public int nameOffset() {
+        return start;
+    }
+
+    public int nameLength() {
+        return nameEnd - start;
+    }
+
+    public int valueOffset() {
+        return nameEnd + 1;
+    }
+
+    public int valueLength() {
+        return valueEnd - nameEnd - 1;
+    }
+
+    /**
+     * @return type of the metric, null if it is not known (e.g. DogStatsD distribution)
+     */
+    public FastStatsDClient.MetricType type() {
+        return type;
+    }
+
+    /**
+     * @return true if the line has a sample rate
+     */
+    public boolean isSampled() {
+        return sampled;
+    }
+
+    /**
+     * @return true if the line has other sections than sample rate and tags (e.g. DogStatsD container id)
+     */
+    public boolean hasExtensions() {
+        return extensions;
+    }
+
+    /**
+     * @return offset of the tags ({@code name:value,name:value}), the section header {@code |#} excluded
+     */
+    public int tagsOffset() {
+        return tagsStart;
+    }
+
+    /**
+     * @return length of the tags, 0 if there are none
+     */
+    public int tagsLength() {
+        return tagsEnd - tagsStart;
+    }
+
+    /**
+     * @return true if the value is a single integer (optionally signed) which fits to long
+     */
+    public boolean isLongValue() {
+        int i = valueOffset();
+        if (i < valueEnd && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+            i++;
+        }
+        if (i == valueEnd || valueEnd - i > 18) {
+            return false;
+        }
+        for (; i < valueEnd; i++) {
+            final byte b = buffer.get(i);
+            if (b < '0' || b > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the value starts with a sign - relative change of a gauge
+     */
+    public boolean isSigned() {
+        final byte first = buffer.get(valueOffset());
+        return first == '-' || first == '+';
+    }
+
+    /**
+     * @return the value, valid only if {@link #isLongValue()}
+     */
+    public long longValue() {
+        int i = valueOffset();
+        final boolean negative = buffer.get(i) == '-';
+        if (negative || buffer.get(i) == '+') {
+            i++;
+        }
+        long value = 0;
+        for (; i < valueEnd; i++) {
+            value = value * 10 + (buffer.get(i) - '0');
+        }
+        return negative ? -value : value;
+    }
+
+    @Override
+    public String toString() {
+        final byte[] bytes = new byte[length()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(start + i);
+        }
+        return new String(bytes, FastStatsDClient.MESSAGE_CHARSET);
+    }
+}
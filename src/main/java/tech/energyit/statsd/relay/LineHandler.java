@@ -0,0 +1,28 @@
+package tech.energyit.statsd.relay;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Receives lines parsed by {@link LineParser}. Each receiving thread has its own handler.
+ */
+public interface LineHandler {
+
+    /**
+     * @param line valid only during the call - it is reused for the next line
+     */
+    void onLine(Line line);
+
+    /**
+     * Line without name, value or type.
+     */
+    default void onInvalidLine(ByteBuffer buffer, int offset, int length) {
+        // ignored by default
+    }
+
+    /**
+     * No more packets are available right now - a good time to flush buffered data.
+     */
+    default void endOfBatch() {
+        // nothing buffered by default
+    }
+}
@@ -0,0 +1,115 @@
+package tech.energyit.statsd.relay;
+
+import tech.energyit.statsd.FastStatsDClient;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Allocation-free parser of statsd packets - splits them to lines and finds the sections of each line.
+ */
+public final class LineParser {
+
+    private LineParser() { /* never to be called */}
+
+    /**
+     * Parses the lines between position and limit of the packet, the buffer positions are not changed.
+     *
+     * @param line reused flyweight passed to the handler
+     * @return number of valid lines
+     */
+    public static int parse(ByteBuffer packet, Line line, LineHandler handler) {
+        int valid = 0;
+        int start = packet.position();
+        final int limit = packet.limit();
+        while (start < limit) {
+            int end = start;
+            while (end < limit && packet.get(end) != '\n') {
+                end++;
+            }
+            int lineEnd = end;
+            if (lineEnd > start && packet.get(lineEnd - 1) == '\r') {
+                lineEnd--;
+            }
+            if (lineEnd > start) {
+                if (parseLine(packet, start, lineEnd, line)) {
+                    valid++;
+                    handler.onLine(line);
+                } else {
+                    handler.onInvalidLine(packet, start, lineEnd - start);
+                }
+            }
+            start = end + 1;
+        }
+        return valid;
+    }
+
+    static boolean parseLine(ByteBuffer buffer, int start, int end, Line line) {
+        int colon = start;
+        while (colon < end && buffer.get(colon) != ':') {
+            colon++;
+        }
+        int pipe = colon;
+        while (pipe < end && buffer.get(pipe) != '|') {
+            pipe++;
+        }
+        if (colon == start || colon >= pipe - 1 || pipe >= end - 1) {
+            return false;
+        }
+        int sectionEnd = pipe + 1;
+        while (sectionEnd < end && buffer.get(sectionEnd) != '|') {
+            sectionEnd++;
+        }
+        line.buffer = buffer;
+        line.start = start;
+        line.end = end;
+        line.nameEnd = colon;
+        line.valueEnd = pipe;
+        line.type = type(buffer, pipe + 1, sectionEnd);
+        line.sampled = false;
+        line.extensions = false;
+        line.tagsStart = end;
+        line.tagsEnd = end;
+        while (sectionEnd < end) {
+            final int sectionStart = sectionEnd + 1;
+            sectionEnd = sectionStart;
+            while (sectionEnd < end && buffer.get(sectionEnd) != '|') {
+                sectionEnd++;
+            }
+            final byte header = sectionStart < end ? buffer.get(sectionStart) : 0;
+            if (header == '@') {
+                line.sampled = true;
+            } else if (header == '#') {
+                line.tagsStart = sectionStart + 1;
+                line.tagsEnd = sectionEnd;
+            } else {
+                line.extensions = true;
+            }
+        }
+        return true;
+    }
+
+    private static FastStatsDClient.MetricType type(ByteBuffer buffer, int start, int end) {
+        final int length = end - start;
+        final byte first = buffer.get(start);
+        if (length == 1) {
+            switch (first) {
+                case 'c':
+                    return FastStatsDClient.MetricType.COUNTER;
+                case 'g':
+                    return FastStatsDClient.MetricType.GAUGE;
+                case 'h':
+                    return FastStatsDClient.MetricType.HISTOGRAM;
+                case 's':
+                    return FastStatsDClient.MetricType.SET;
+                case 'm':
+                    return FastStatsDClient.MetricType.METER;
+                default:
+                    return null;
+            }
+        }
+        if (length == 2 && first == 'm' && buffer.get(start + 1) == 's') {
+            return FastStatsDClient.MetricType.TIMER;
+        }
+        return null;
+    }
+}
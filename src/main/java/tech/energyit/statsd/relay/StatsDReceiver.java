@@ -0,0 +1,252 @@
+package tech.energyit.statsd.relay;
+
+import tech.energyit.statsd.BinaryDecoder;
+import tech.energyit.statsd.IOUtils;
+import tech.energyit.statsd.Sender;
+import tech.energyit.statsd.StatsDClientErrorHandler;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.function.Supplier;
+
+/**
+ * NIO statsd server. Each of the sockets has its own thread, packet buffer and {@link LineHandler},
+ * packets are parsed without allocation by {@link LineParser}.
+ *
+ * More sockets share the port by {@code SO_REUSEPORT} (the kernel balances the senders between them),
+ * which is available since Java 9 - on Java 8 only one socket is opened.
+ * Packets of the binary protocol ({@link tech.energyit.statsd.FastStatsDClient.Builder#withBinaryProtocol()})
+ * are transcoded to text lines first if a {@link BinaryDecoder} is set ({@link Builder#withBinaryDecoder(BinaryDecoder)}).
+ */
+public final class StatsDReceiver implements Closeable {
+
+    private static final long SELECT_TIMEOUT_MS = 100;
+    private static final SocketOption<Boolean> SO_REUSEPORT = reusePortOption();
+
+    private final DatagramChannel[] channels;
+    private final Thread[] threads;
+    private final StatsDClientErrorHandler errorHandler;
+    private final BinaryDecoder binaryDecoder;
+    private final int port;
+    private volatile boolean running = true;
+
+    private StatsDReceiver(String host, int port, int sockets, int receiveBufferSize, int maxPacketSize,
+                           Supplier<LineHandler> handlers, BinaryDecoder binaryDecoder,
+                           StatsDClientErrorHandler errorHandler) {
+        if (sockets <= 0 || maxPacketSize <= 0) {
+            throw new IllegalArgumentException("Sockets and packet size must be positive : " + sockets + ", " + maxPacketSize);
+        }
+        if (sockets > 1 && SO_REUSEPORT == null) {
+            errorHandler.handle("SO_REUSEPORT is not supported, only one socket is opened");
+            sockets = 1;
+        }
+        this.errorHandler = errorHandler;
+        this.binaryDecoder = binaryDecoder;
+        this.channels = new DatagramChannel[sockets];
+        this.threads = new Thread[sockets];
+        try {
+            int boundPort = port;
+            for (int i = 0; i < sockets; i++) {
+                channels[i] = open(host, boundPort, sockets > 1, receiveBufferSize);
+                boundPort = ((InetSocketAddress) channels[i].getLocalAddress()).getPort();
+            }
+            this.port = boundPort;
+        } catch (IOException e) {
+            closeChannels();
+            throw new IllegalStateException("Failed to bind " + host + ":" + port, e);
+        }
+        for (int i = 0; i < sockets; i++) {
+            final DatagramChannel channel = channels[i];
+            final LineHandler handler = handlers.get();
+            threads[i] = new Thread(() -> receive(channel, handler, maxPacketSize), "statsd-receiver-" + i);
+            threads[i].setDaemon(true);
+            threads[i].start();
+        }
+    }
+
+    /**
+     * @return the bound port (useful if it was 0)
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Stops the receiving threads and closes the sockets.
+     */
+    @Override
+    public void close() {
+        running = false;
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        closeChannels();
+    }
+
+    private void receive(DatagramChannel channel, LineHandler handler, int maxPacketSize) {
+        final ByteBuffer packet = IOUtils.allocateDirect(maxPacketSize);
+        final Line line = new Line();
+        // decoded lines are longer than the binary records, they are parsed whenever the buffer is full
+        final ByteBuffer text = IOUtils.allocateDirect(maxPacketSize + 64);
+        final Sender decodedLines = lines -> LineParser.parse(lines, line, handler);
+        try (Selector selector = Selector.open()) {
+            channel.register(selector, SelectionKey.OP_READ);
+            while (running) {
+                if (selector.select(SELECT_TIMEOUT_MS) > 0) {
+                    selector.selectedKeys().clear();
+                }
+                boolean received = false;
+                packet.clear();
+                while (running && channel.receive(packet) != null) {
+                    packet.flip();
+                    try {
+                        if (binaryDecoder != null && BinaryDecoder.isBinary(packet)) {
+                            binaryDecoder.decode(packet, text, decodedLines);
+                        } else {
+                            LineParser.parse(packet, line, handler);
+                        }
+                    } catch (RuntimeException e) {
+                        errorHandler.handle(e);
+                    }
+                    received = true;
+                    packet.clear();
+                }
+                if (received) {
+                    handler.endOfBatch();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            if (running) {
+                errorHandler.handle(e);
+            }
+        }
+    }
+
+    private static DatagramChannel open(String host, int port, boolean reusePort, int receiveBufferSize) throws IOException {
+        final DatagramChannel channel = DatagramChannel.open();
+        try {
+            channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            if (reusePort) {
+                channel.setOption(SO_REUSEPORT, true);
+            }
+            if (receiveBufferSize > 0) {
+                channel.setOption(StandardSocketOptions.SO_RCVBUF, receiveBufferSize);
+            }
+            channel.bind(new InetSocketAddress(IOUtils.inetAddress(host), port));
+            channel.configureBlocking(false);
+            return channel;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private void closeChannels() {
+        for (DatagramChannel channel : channels) {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    errorHandler.handle(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * {@code StandardSocketOptions.SO_REUSEPORT} exists since Java 9.
+     */
+    @SuppressWarnings("unchecked")
+    private static SocketOption<Boolean> reusePortOption() {
+        try {
+            return (SocketOption<Boolean>) StandardSocketOptions.class.getField("SO_REUSEPORT").get(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+
+        private String host = "0.0.0.0";
+        private int port = 8125;
+        private int sockets = 1;
+        private int receiveBufferSize = 0;
+        private int maxPacketSize = 64 * 1024;
+        private Supplier<LineHandler> handlers;
+        private BinaryDecoder binaryDecoder;
+        private StatsDClientErrorHandler errorHandler = StatsDClientErrorHandler.NO_OP_HANDLER;
+
+        public Builder withHostAndPort(String host, int port) {
+            this.host = host;
+            this.port = port;
+            return this;
+        }
+
+        /**
+         * @param sockets number of sockets (and threads) sharing the port by {@code SO_REUSEPORT}
+         */
+        public Builder withSockets(int sockets) {
+            this.sockets = sockets;
+            return this;
+        }
+
+        /**
+         * @param receiveBufferSize {@code SO_RCVBUF} of the sockets, OS default if 0
+         */
+        public Builder withReceiveBufferSize(int receiveBufferSize) {
+            this.receiveBufferSize = receiveBufferSize;
+            return this;
+        }
+
+        public Builder withMaxPacketSize(int maxPacketSize) {
+            this.maxPacketSize = maxPacketSize;
+            return this;
+        }
+
+        /**
+         * @param handlers creates handler for each receiving thread
+         */
+        public Builder withLineHandlers(Supplier<LineHandler> handlers) {
+            this.handlers = handlers;
+            return this;
+        }
+
+        /**
+         * Enables the binary protocol - it keeps the definitions of every client session, so it is opt-in
+         * like {@link tech.energyit.statsd.FastStatsDClient.Builder#withBinaryProtocol()}. Without it all packets are text.
+         *
+         * @param binaryDecoder decoder of the binary packets (shared by the sockets)
+         */
+        public Builder withBinaryDecoder(BinaryDecoder binaryDecoder) {
+            this.binaryDecoder = binaryDecoder;
+            return this;
+        }
+
+        public Builder withErrorHandler(StatsDClientErrorHandler errorHandler) {
+            this.errorHandler = errorHandler;
+            return this;
+        }
+
+        public StatsDReceiver build() {
+            if (handlers == null) {
+                throw new IllegalArgumentException("Line handlers must be set");
+            }
+            return new StatsDReceiver(host, port, sockets, receiveBufferSize, maxPacketSize, handlers, binaryDecoder, errorHandler);
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package tech.energyit.statsd.relay;
+
+import tech.energyit.statsd.AggregationStore;
+import tech.energyit.statsd.BinaryDecoder;
+import tech.energyit.statsd.FastStatsDClient;
+import tech.energyit.statsd.FlushScheduler;
+import tech.energyit.statsd.MessagePacker;
+import tech.energyit.statsd.Sender;
+import tech.energyit.statsd.StatsDClientErrorHandler;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Aggregating statsd relay, e.g. a sidecar next to the applications which takes load off the central statsd server.
+ * Lines are received by {@link StatsDReceiver}; unsampled integer counters, meters and (absolute) gauges
+ * are aggregated per series in an {@link AggregationStore} flushed upstream every interval,
+ * all other lines (timers, histograms, sets, sampled or unknown lines) are forwarded as they are, packed into datagrams.
+ */
+public final class StatsDRelay implements Closeable {
+
+    private final StatsDReceiver receiver;
+    private final AggregationStore store;
+    private final FlushScheduler scheduler;
+
+    private StatsDRelay(Sender upstream, String host, int port, int sockets, int receiveBufferSize, long flushIntervalMs,
+                        int maxSeries, int keyArenaBytes, int maxPacketSize, BinaryDecoder binaryDecoder,
+                        StatsDClientErrorHandler errorHandler) {
+        this.scheduler = new FlushScheduler(errorHandler);
+        this.store = AggregationStore.builder(new FastStatsDClient(upstream))
+                .withMaxSeries(maxSeries)
+                .withKeyArenaBytes(keyArenaBytes)
+                .withMaxPacketSize(maxPacketSize)
+                .withErrorHandler(errorHandler)
+                .withFlushScheduler(scheduler, flushIntervalMs, TimeUnit.MILLISECONDS)
+                .build();
+        this.receiver = StatsDReceiver.builder()
+                .withHostAndPort(host, port)
+                .withSockets(sockets)
+                .withReceiveBufferSize(receiveBufferSize)
+                .withBinaryDecoder(binaryDecoder)
+                .withErrorHandler(errorHandler)
+                .withLineHandlers(() -> new RelayLineHandler(store, new MessagePacker(upstream, maxPacketSize)))
+                .build();
+    }
+
+    /**
+     * @return the bound port (useful if it was 0)
+     */
+    public int getPort() {
+        return receiver.getPort();
+    }
+
+    /**
+     * @return number of received values which were forwarded unaggregated, because the store was full
+     */
+    public long overflowCount() {
+        return store.droppedCount();
+    }
+
+    /**
+     * Stops receiving and flushes the aggregates. The upstream sender is not closed.
+     */
+    @Override
+    public void close() {
+        receiver.close();
+        store.close();
+        scheduler.close();
+    }
+
+    /**
+     * Owned by one receiving thread.
+     */
+    private static final class RelayLineHandler implements LineHandler {
+
+        private final AggregationStore store;
+        private final MessagePacker packer;
+
+        RelayLineHandler(AggregationStore store, MessagePacker packer) {
+            this.store = store;
+            this.packer = packer;
+        }
+
+        @Override
+        public void onLine(Line line) {
+            if (!isAggregated(line) || !store.record(line.type(), line.buffer(), line.nameOffset(), line.nameLength(),
+                    line.tagsOffset(), line.tagsLength(), line.longValue())) {
+                packer.append(line.buffer(), line.offset(), line.length());
+            }
+        }
+
+        @Override
+        public void onInvalidLine(ByteBuffer buffer, int offset, int length) {
+            // let the upstream server decide
+            packer.append(buffer, offset, length);
+        }
+
+        @Override
+        public void endOfBatch() {
+            packer.flush();
+        }
+
+        private static boolean isAggregated(Line line) {
+            final FastStatsDClient.MetricType type = line.type();
+            if (type != FastStatsDClient.MetricType.COUNTER && type != FastStatsDClient.MetricType.METER
+                    && type != FastStatsDClient.MetricType.GAUGE) {
+                return false;
+            }
+            return !line.isSampled() && !line.hasExtensions() && line.isLongValue()
+                    && !(type == FastStatsDClient.MetricType.GAUGE && line.isSigned());
+        }
+    }
+
+    /**
+     * @param upstream thread-safe sender to the statsd server, e.g. {@link tech.energyit.statsd.SynchronousSender}
+     */
+    public static Builder builder(Sender upstream) {
+        return new Builder(upstream);
+    }
+
+    public static class Builder {
+
+        private final Sender upstream;
+        private String host = "0.0.0.0";
+        private int port = 8125;
+        private int sockets = 1;
+        private int receiveBufferSize = 0;
+        private long flushIntervalMs = 10_000L;
+        private int maxSeries = 64 * 1024;
+        private int keyArenaBytes = 8 * 1024 * 1024;
+        private int maxPacketSize = MessagePacker.DEFAULT_MAX_PACKET_SIZE;
+        private BinaryDecoder binaryDecoder;
+        private StatsDClientErrorHandler errorHandler = StatsDClientErrorHandler.NO_OP_HANDLER;
+
+        private Builder(Sender upstream) {
+            this.upstream = upstream;
+        }
+
+        public Builder withHostAndPort(String host, int port) {
+            this.host = host;
+            this.port = port;
+            return this;
+        }
+
+        /**
+         * @see StatsDReceiver.Builder#withSockets(int)
+         */
+        public Builder withSockets(int sockets) {
+            this.sockets = sockets;
+            return this;
+        }
+
+        public Builder withReceiveBufferSize(int receiveBufferSize) {
+            this.receiveBufferSize = receiveBufferSize;
+            return this;
+        }
+
+        public Builder withFlushInterval(long interval, TimeUnit unit) {
+            this.flushIntervalMs = unit.toMillis(interval);
+            return this;
+        }
+
+        /**
+         * @see AggregationStore.Builder#withMaxSeries(int)
+         */
+        public Builder withMaxSeries(int maxSeries) {
+            this.maxSeries = maxSeries;
+            return this;
+        }
+
+        /**
+         * @see AggregationStore.Builder#withKeyArenaBytes(int)
+         */
+        public Builder withKeyArenaBytes(int keyArenaBytes) {
+            this.keyArenaBytes = keyArenaBytes;
+            return this;
+        }
+
+        /**
+         * @param maxPacketSize max size of the datagrams sent upstream
+         */
+        public Builder withMaxPacketSize(int maxPacketSize) {
+            this.maxPacketSize = maxPacketSize;
+            return this;
+        }
+
+        /**
+         * @see StatsDReceiver.Builder#withBinaryDecoder(BinaryDecoder)
+         */
+        public Builder withBinaryDecoder(BinaryDecoder binaryDecoder) {
+            this.binaryDecoder = binaryDecoder;
+            return this;
+        }
+
+        public Builder withErrorHandler(StatsDClientErrorHandler errorHandler) {
+            this.errorHandler = errorHandler;
+            return this;
+        }
+
+        public StatsDRelay build() {
+            return new StatsDRelay(upstream, host, port, sockets, receiveBufferSize, flushIntervalMs, maxSeries,
+                    keyArenaBytes, maxPacketSize, binaryDecoder, errorHandler);
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package tech.energyit.statsd;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import tech.energyit.statsd.utils.LoggingSender;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(JUnit4.class)
+public class AggregationStoreTest {
+
+    private static final byte[] METRIC = "requests".getBytes();
+
+    private LoggingSender sender;
+    private FastStatsDClient client;
+
+    @Before
+    public void setUp() {
+        sender = new LoggingSender();
+        client = new FastStatsDClient("my.prefix", sender);
+    }
+
+    @Test
+    public void valuesShouldBeAggregatedPerSeries() {
+        AggregationStore store = AggregationStore.builder(client).build();
+        store.record(FastStatsDClient.MetricType.COUNTER, METRIC, 1, tag("a"));
+        store.record(FastStatsDClient.MetricType.COUNTER, METRIC, 2, tag("a"));
+        store.record(FastStatsDClient.MetricType.COUNTER, METRIC, 5, tag("b"));
+        store.record(FastStatsDClient.MetricType.GAUGE, METRIC, 7);
+        store.record(FastStatsDClient.MetricType.GAUGE, METRIC, 8);
+
+        store.flush();
+
+        assertThat(String.join("\n", sender.getMessages()).split("\n")).containsExactlyInAnyOrder(
+                "my.prefix.requests:3|c|#id:a",
+                "my.prefix.requests:5|c|#id:b",
+                "my.prefix.requests:8|g");
+        assertThat(store.size()).isEqualTo(3);
+    }
+
+    @Test
+    public void timersShouldBeSummarized() {
+        AggregationStore store = AggregationStore.builder(client).build();
+        store.record(FastStatsDClient.MetricType.TIMER, METRIC, 10, tag("a"));
+        store.record(FastStatsDClient.MetricType.TIMER, METRIC, 30, tag("a"));
+        store.record(FastStatsDClient.MetricType.TIMER, METRIC, 20, tag("a"));
+
+        store.flush();
+
+        assertThat(sender.getMessages()).containsExactly(
+                "my.prefix.requests.count:3|c|#id:a\n"
+                        + "my.prefix.requests.sum:60|g|#id:a\n"
+                        + "my.prefix.requests.min:10|g|#id:a\n"
+                        + "my.prefix.requests.max:30|g|#id:a");
+    }
+
+    @Test
+    public void flushShouldResetAggregatesAndSkipIdleSeries() {
+        AggregationStore store = AggregationStore.builder(client).build();
+        store.record(FastStatsDClient.MetricType.COUNTER, METRIC, 1, tag("a"));
+        store.flush();
+        store.record(FastStatsDClient.MetricType.COUNTER, METRIC, 4, tag("a"));
+        store.flush();
+        store.flush();
+
+        assertThat(sender.getMessages()).containsExactly("my.prefix.requests:1|c|#id:a", "my.prefix.requests:4|c|#id:a");
+    }
+
+    @Test
+    public void newSeriesShouldBeDroppedWhenStoreIsFull() {
+        AggregationStore store = AggregationStore.builder(client).withMaxSeries(2).build();
+        assertThat(store.record(FastStatsDClient.MetricType.COUNTER, METRIC, 1, tag("a"))).isTrue();
+        assertThat(store.record(FastStatsDClient.MetricType.COUNTER, METRIC, 1, tag("b"))).isTrue();
+        assertThat(store.record(FastStatsDClient.MetricType.COUNTER, METRIC, 1, tag("c"))).isFalse();
+        assertThat(store.record(FastStatsDClient.MetricType.COUNTER, METRIC, 1, tag("a"))).isTrue();
+        assertThat(store.droppedCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void newSeriesShouldBeDroppedWhenKeyArenaIsFull() {
+        AggregationStore store = AggregationStore.builder(client).withKeyArenaBytes(40).build();
+        assertThat(store.record(FastStatsDClient.MetricType.COUNTER, METRIC, 1, tag("a"))).isTrue();
+        assertThat(store.record(FastStatsDClient.MetricType.COUNTER, METRIC, 1, tag("b"))).isFalse();
+        assertThat(store.record(FastStatsDClient.MetricType.COUNTER, METRIC, 1, tag("b"))).isFalse();
+        assertThat(store.usedKeyBytes()).isLessThanOrEqualTo(40);
+        assertThat(store.droppedCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void seriesOverFullKeyArenaShouldNotClaimSlots() {
+        AggregationStore store = AggregationStore.builder(client).withMaxSeries(16).withKeyArenaBytes(40).build();
+        store.record(FastStatsDClient.MetricType.COUNTER, METRIC, 1, tag("a"));
+        for (int i = 0; i < 1000; i++) {
+            assertThat(store.record(FastStatsDClient.MetricType.COUNTER, METRIC, 1, tag("series-" + i))).isFalse();
+        }
+
+        // the dropped series left the table and the rest of the arena free
+        assertThat(store.record(FastStatsDClient.MetricType.COUNTER, ByteBuffer.wrap("x".getBytes()), 0, 1, 0, 0, 1)).isTrue();
+        store.record(FastStatsDClient.MetricType.COUNTER, METRIC, 2, tag("a"));
+        store.flush();
+
+        assertThat(String.join("\n", sender.getMessages()).split("\n")).containsExactlyInAnyOrder(
+                "my.prefix.requests:3|c|#id:a",
+                "x:1|c");
+        assertThat(store.size()).isEqualTo(2);
+        assertThat(store.droppedCount()).isEqualTo(1000);
+    }
+
+    @Test
+    public void smallSetsShouldBeSentAsUniqueMembers() {
+        AggregationStore store = AggregationStore.builder(client).withSetThreshold(3).build();
+        store.record(FastStatsDClient.MetricType.SET, METRIC, 7, tag("a"));
+        store.record(FastStatsDClient.MetricType.SET, METRIC, 0, tag("a"));
+        store.record(FastStatsDClient.MetricType.SET, METRIC, 7, tag("a"));
+        store.record(FastStatsDClient.MetricType.SET, METRIC, -2, tag("a"));
+
+        store.flush();
+        store.flush();
+
+        assertThat(String.join("\n", sender.getMessages()).split("\n")).containsExactlyInAnyOrder(
+                "my.prefix.requests:7|s|#id:a",
+                "my.prefix.requests:0|s|#id:a",
+                "my.prefix.requests:-2|s|#id:a");
+    }
+
+    @Test
+    public void largeSetsShouldBeSentAsEstimatedCardinality() {
+        AggregationStore store = AggregationStore.builder(client).withSetThreshold(100).build();
+        for (int round = 0; round < 2; round++) {
+            for (long user = 0; user < 100_000; user++) {
+                store.record(FastStatsDClient.MetricType.SET, METRIC, user * 31 + round);
+                store.record(FastStatsDClient.MetricType.SET, METRIC, user * 31 + round);
+            }
+            store.flush();
+        }
+
+        assertThat(sender.getMessages()).hasSize(2).allSatisfy(message -> {
+            assertThat(message).startsWith("my.prefix.requests.cardinality:").endsWith("|g");
+            final long estimate = Long.parseLong(message.substring(message.indexOf(':') + 1, message.indexOf('|')));
+            assertThat(estimate).isBetween(95_000L, 105_000L);
+        });
+    }
+
+    @Test
+    public void setEstimateShouldBeAccurateForSmallCardinalities() {
+        SetSketch sketch = new SetSketch(0, 12);
+        for (long i = 1; i <= 500; i++) {
+            sketch.add(i);
+        }
+        assertThat(sketch.isEstimating()).isTrue();
+        assertThat(sketch.estimate()).isBetween(490L, 510L);
+
+        sketch.reset();
+        sketch.add(1);
+        assertThat(sketch.estimate()).isEqualTo(1);
+    }
+
+    @Test
+    public void concurrentUpdatesShouldNotBeLost() throws InterruptedException {
+        AggregationStore store = AggregationStore.builder(client).build();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        for (int t = 0; t < 4; t++) {
+            executor.execute(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    store.record(FastStatsDClient.MetricType.COUNTER, METRIC, 1, tag(String.valueOf(i % 10)));
+                }
+            });
+        }
+        executor.shutdown();
+        assertThat(executor.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+
+        store.flush();
+
+        assertThat(store.size()).isEqualTo(10);
+        long total = 0;
+        for (String line : String.join("\n", sender.getMessages()).split("\n")) {
+            total += Long.parseLong(line.substring(line.indexOf(':') + 1, line.indexOf('|')));
+        }
+        assertThat(total).isEqualTo(40_000);
+    }
+
+    @Test
+    public void recordsRacingWithFlushShouldNotSendMissingValues() throws InterruptedException {
+        AggregationStore store = AggregationStore.builder(client).withMaxSeries(2).build();
+        AtomicBoolean running = new AtomicBoolean(true);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        for (FastStatsDClient.MetricType metricType : new FastStatsDClient.MetricType[]{
+                FastStatsDClient.MetricType.TIMER, FastStatsDClient.MetricType.GAUGE}) {
+            executor.execute(() -> {
+                for (long i = 0; running.get(); i++) {
+                    store.record(metricType, METRIC, 1 + i % 100);
+                    // sparse records, so that a flush often sees a single one
+                    LockSupport.parkNanos(1_000);
+                }
+            });
+        }
+        for (int i = 0; i < 200_000; i++) {
+            store.flush();
+        }
+        running.set(false);
+        executor.shutdown();
+        assertThat(executor.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+
+        for (String line : String.join("\n", sender.getMessages()).split("\n")) {
+            if (!line.contains(".count:")) {
+                long value = Long.parseLong(line.substring(line.indexOf(':') + 1, line.indexOf('|')));
+                // no sentinels of min and max, no gauge without a value
+                assertThat(value).as(line).isStrictlyBetween(0L, Long.MAX_VALUE);
+            }
+        }
+    }
+
+    private static Tag tag(String id) {
+        return new TagImpl("id".getBytes(), id.getBytes());
+    }
+}
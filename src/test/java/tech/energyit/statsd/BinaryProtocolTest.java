@@ -0,0 +1,177 @@
+package tech.energyit.statsd;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import tech.energyit.statsd.utils.LoggingSender;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(JUnit4.class)
+public class BinaryProtocolTest {
+
+    private static final byte[] NAME = "requests".getBytes(FastStatsDClient.MESSAGE_CHARSET);
+    private static final Tag[] TAGS = {new TagImpl("env".getBytes(), "prod".getBytes())};
+
+    private final CapturingSender binary = new CapturingSender();
+    private final LoggingSender text = new LoggingSender();
+    private final BinaryDecoder decoder = new BinaryDecoder();
+
+    @Test
+    public void decodedLinesShouldEqualTextProtocol() {
+        sendAll(client(binary));
+        sendAll(FastStatsDClient.builder().withPrefix("app").withSender(text).build());
+
+        assertThat(binary.messages).allSatisfy(message -> assertThat(BinaryDecoder.isBinary(ByteBuffer.wrap(message))).isTrue());
+        assertThat(decodeAll(binary.messages)).containsExactlyElementsOf(lines(text.getMessages()));
+        assertThat(decoder.undecodableCount()).isZero();
+    }
+
+    @Test
+    public void recordsShouldBeSmallerThanTextLines() {
+        final FastStatsDClient client = client(binary);
+        client.count(NAME, 1, TAGS);
+        client.count(NAME, 100, TAGS);
+
+        // header + record once the series is defined
+        assertThat(binary.messages.get(1)).hasSize(BinaryEncoder.HEADER_SIZE + 4);
+        assertThat(decodeAll(binary.messages)).containsExactly("app.requests:1|c|#env:prod", "app.requests:100|c|#env:prod");
+    }
+
+    @Test
+    public void recordsOfUnknownSeriesShouldBeCountedUntilDefinitionIsAnnouncedAgain() throws InterruptedException {
+        final FastStatsDClient client = FastStatsDClient.builder().withSender(binary)
+                .withBinaryProtocol(16, 1, TimeUnit.MILLISECONDS).build();
+        client.gauge(NAME, 1);
+        binary.messages.clear(); // definition lost
+
+        client.gauge(NAME, 2);
+        assertThat(decodeAll(binary.messages)).isEmpty();
+        assertThat(decoder.undecodableCount()).isEqualTo(1);
+
+        Thread.sleep(2);
+        binary.messages.clear();
+        // the epoch is checked every 256 sends
+        for (int i = 0; i < 256; i++) {
+            client.gauge(NAME, 3);
+        }
+        assertThat(decodeAll(binary.messages)).contains("requests:3|g");
+    }
+
+    @Test
+    public void seriesOverDictionaryShouldBeSentAsText() {
+        final FastStatsDClient client = FastStatsDClient.builder().withSender(binary)
+                .withBinaryProtocol(1, 30, TimeUnit.SECONDS).build();
+        client.count("first", 1);
+        client.count("second", 2);
+
+        assertThat(BinaryDecoder.isBinary(ByteBuffer.wrap(binary.messages.get(0)))).isTrue();
+        assertThat(new String(binary.messages.get(1), FastStatsDClient.MESSAGE_CHARSET)).isEqualTo("second:2|c");
+        assertThat(decodeAll(binary.messages)).containsExactly("first:1|c", "second:2|c");
+    }
+
+    @Test
+    public void packedMessagesShouldBeDecoded() {
+        final MessagePacker packer = new MessagePacker(binary, 1432);
+        final FastStatsDClient client = FastStatsDClient.builder().withSender(packer::append)
+                .withBinaryProtocol().build();
+        client.count(NAME, 10, TAGS);
+        packer.append(ByteBuffer.wrap("plain:1|c".getBytes()));
+        client.time(NAME, 5);
+        client.count(NAME, -10, TAGS);
+        packer.flush();
+
+        assertThat(binary.messages).hasSize(1);
+        assertThat(decodeAll(binary.messages))
+                .containsExactly("requests:10|c|#env:prod", "plain:1|c", "requests:5|ms", "requests:-10|c|#env:prod");
+    }
+
+    @Test
+    public void bulkValuesShouldBeSplitToPackets() {
+        final FastStatsDClient client = FastStatsDClient.builder().withSender(binary).withMaxPacketSize(64)
+                .withBinaryProtocol().build();
+        final long[] values = new long[100];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = i * 1000L;
+        }
+        client.histogram(NAME, values, 0, values.length);
+
+        assertThat(binary.messages).hasSizeGreaterThan(1).allSatisfy(message -> assertThat(message.length).isLessThanOrEqualTo(64));
+        final List<String> lines = decodeAll(binary.messages);
+        assertThat(lines).hasSize(values.length);
+        assertThat(lines.get(99)).isEqualTo("requests:99000|h");
+    }
+
+    @Test
+    public void truncatedPacketShouldBeCounted() {
+        client(binary).count(NAME, 1, TAGS);
+        final byte[] message = binary.messages.get(0);
+
+        decoder.decode(ByteBuffer.wrap(Arrays.copyOf(message, message.length - 5)), ByteBuffer.allocate(256), text);
+
+        assertThat(decoder.undecodableCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void definitionLengthsBeyondPacketShouldBeCounted() {
+        // marker, session, define frame of series 0 with a head of 0x7ffffff0 bytes, then a negative length
+        byte[] huge = {BinaryEncoder.MARKER, 0, 0, 0, 1, BinaryEncoder.DEFINE, 0, (byte) 0xf0, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x07};
+        byte[] negative = {BinaryEncoder.MARKER, 0, 0, 0, 1, BinaryEncoder.DEFINE, 0, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x0f};
+
+        assertThat(decoder.decode(ByteBuffer.wrap(huge), ByteBuffer.allocate(256), text)).isZero();
+        assertThat(decoder.decode(ByteBuffer.wrap(negative), ByteBuffer.allocate(256), text)).isZero();
+
+        assertThat(decoder.undecodableCount()).isEqualTo(2);
+    }
+
+    private static FastStatsDClient client(Sender sender) {
+        return FastStatsDClient.builder().withPrefix("app").withSender(sender).withBinaryProtocol().build();
+    }
+
+    private static void sendAll(FastStatsDClient client) {
+        client.count(NAME, 1, TAGS);
+        client.count(NAME, 2.5, 0.5, TAGS);
+        client.gauge(NAME, '+', 7);
+        client.gauge("temperature", -3.25);
+        client.timeNanos(NAME, 1_234_567);
+        client.histogram("size", 42L, TAGS);
+        client.count(NAME, 1, TAGS);
+        final PreparedMetric prepared = client.prepare(FastStatsDClient.MetricType.TIMER, NAME, TAGS);
+        prepared.send(15);
+        prepared.sendNanos(2_500_000);
+        client.count(NAME, new long[]{1, 2, 3}, 0, 3, TAGS);
+    }
+
+    private List<String> decodeAll(List<byte[]> messages) {
+        final LoggingSender decoded = new LoggingSender();
+        for (byte[] message : messages) {
+            decoder.decode(ByteBuffer.wrap(message), ByteBuffer.allocate(256), decoded);
+        }
+        return lines(decoded.getMessages());
+    }
+
+    private static List<String> lines(List<String> messages) {
+        final List<String> lines = new ArrayList<>();
+        for (String message : messages) {
+            lines.addAll(Arrays.asList(message.split("\n")));
+        }
+        return lines;
+    }
+
+    private static final class CapturingSender implements Sender {
+        private final List<byte[]> messages = new ArrayList<>();
+
+        @Override
+        public void send(ByteBuffer msg) {
+            final byte[] bytes = new byte[msg.remaining()];
+            msg.get(bytes);
+            messages.add(bytes);
+        }
+    }
+}
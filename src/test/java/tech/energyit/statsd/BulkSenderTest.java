@@ -0,0 +1,98 @@
+package tech.energyit.statsd;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(JUnit4.class)
+public class BulkSenderTest {
+
+    private final List<List<String>> writes = new ArrayList<>();
+    private boolean closed;
+    private BulkSender sender;
+
+    @Before
+    public void setUp() {
+        sender = BulkSender.builder()
+                .withPacketWriter(new PacketWriter() {
+                    @Override
+                    public void write(ByteBuffer[] packets, int count) {
+                        List<String> write = new ArrayList<>();
+                        for (int i = 0; i < count; i++) {
+                            byte[] bytes = new byte[packets[i].remaining()];
+                            packets[i].get(bytes);
+                            write.add(new String(bytes));
+                        }
+                        writes.add(write);
+                    }
+
+                    @Override
+                    public void close() {
+                        closed = true;
+                    }
+                })
+                .withPacketsPerWrite(2)
+                .withMaxPacketSize(12)
+                .build();
+    }
+
+    @Test
+    public void messagesShouldBeBufferedUntilFlush() {
+        sender.send(wrap("a:1|c"));
+        sender.send(wrap("b:2|c"));
+        assertThat(writes).isEmpty();
+
+        sender.flush();
+        assertThat(writes).containsExactly(list("a:1|c\nb:2|c"));
+    }
+
+    @Test
+    public void allPacketsShouldBeWrittenAtOnceWhenLastPacketIsFull() {
+        for (int i = 0; i < 5; i++) {
+            sender.send(wrap("m:" + i + "|c"));
+        }
+        assertThat(writes).containsExactly(list("m:0|c\nm:1|c", "m:2|c\nm:3|c"));
+
+        sender.flush();
+        assertThat(writes).containsExactly(list("m:0|c\nm:1|c", "m:2|c\nm:3|c"), list("m:4|c"));
+    }
+
+    @Test
+    public void oversizedMessageShouldBeWrittenAloneAfterBufferedOnes() {
+        sender.send(wrap("a:1|c"));
+        sender.send(wrap("some.long.metric:1|c"));
+        assertThat(writes).containsExactly(list("a:1|c"), list("some.long.metric:1|c"));
+    }
+
+    @Test
+    public void closeShouldFlushAndCloseTheWriter() {
+        sender.send(wrap("a:1|c"));
+        sender.close();
+        assertThat(writes).containsExactly(list("a:1|c"));
+        assertThat(closed).isTrue();
+    }
+
+    @Test
+    public void flushWithoutMessagesShouldWriteNothing() {
+        sender.flush();
+        assertThat(writes).isEmpty();
+    }
+
+    private static List<String> list(String... packets) {
+        List<String> list = new ArrayList<>();
+        Collections.addAll(list, packets);
+        return list;
+    }
+
+    private static ByteBuffer wrap(String msg) {
+        return ByteBuffer.wrap(msg.getBytes());
+    }
+}
@@ -0,0 +1,186 @@
+package tech.energyit.statsd;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import tech.energyit.statsd.utils.LoggingSender;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@RunWith(MockitoJUnitRunner.class)
+public class CardinalityLimiterTest {
+
+    private static final byte[] METRIC = "requests".getBytes();
+    private static final byte[] ID = "id".getBytes();
+
+    @Mock
+    private StatsDClientErrorHandler errorHandler;
+
+    private LoggingSender sender;
+
+    @Before
+    public void setUp() {
+        sender = new LoggingSender();
+    }
+
+    @Test
+    public void seriesOverLimitShouldBeRewrittenToOverflowTag() {
+        CardinalityLimiter limiter = CardinalityLimiter.builder()
+                .withMaxSeriesPerMetric(2)
+                .withErrorHandler(errorHandler)
+                .build();
+        FastStatsDClient client = client(limiter);
+
+        client.count(METRIC, 1, tag("a"));
+        client.count(METRIC, 1, tag("b"));
+        client.count(METRIC, 1, tag("c"));
+        client.count(METRIC, 1, tag("a"));
+        client.count(METRIC, 1, tag("d"));
+
+        assertThat(sender.getMessages()).containsExactly(
+                "requests:1|c|#id:a",
+                "requests:1|c|#id:b",
+                "requests:1|c|#cardinality:overflow",
+                "requests:1|c|#id:a",
+                "requests:1|c|#cardinality:overflow");
+        assertThat(limiter.overflowCount()).isEqualTo(2);
+        verify(errorHandler, times(1)).handle(anyString(), any());
+    }
+
+    @Test
+    public void seriesOverLimitShouldBeDroppedIfConfigured() {
+        CardinalityLimiter limiter = CardinalityLimiter.builder()
+                .withMaxSeriesPerMetric(1)
+                .dropOverLimit()
+                .build();
+        FastStatsDClient client = client(limiter);
+
+        client.gauge(METRIC, 1.5, tag("a"));
+        client.gauge(METRIC, 2.5, tag("b"));
+
+        assertThat(sender.getMessages()).containsExactly("requests:1.5|g|#id:a");
+        assertThat(limiter.overflowCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void limitShouldBeAppliedPerMetric() {
+        CardinalityLimiter limiter = CardinalityLimiter.builder()
+                .withMaxSeriesPerMetric(1)
+                .dropOverLimit()
+                .build();
+        FastStatsDClient client = client(limiter);
+
+        client.count(METRIC, 1, tag("a"));
+        client.count("other".getBytes(), 1, tag("b"));
+        client.count("other".getBytes(), 1);
+
+        assertThat(sender.getMessages()).containsExactly("requests:1|c|#id:a", "other:1|c|#id:b");
+    }
+
+    @Test
+    public void seriesShouldBeForgottenAfterWindow() throws InterruptedException {
+        CardinalityLimiter limiter = CardinalityLimiter.builder()
+                .withMaxSeriesPerMetric(1)
+                .withWindow(20, TimeUnit.MILLISECONDS)
+                .dropOverLimit()
+                .build();
+        FastStatsDClient client = client(limiter);
+
+        client.count(METRIC, 1, tag("a"));
+        client.count(METRIC, 1, tag("b"));
+        TimeUnit.MILLISECONDS.sleep(30);
+        client.count(METRIC, 1, tag("b"));
+
+        assertThat(sender.getMessages()).containsExactly("requests:1|c|#id:a", "requests:1|c|#id:b");
+    }
+
+    @Test
+    public void resetShouldForgetAllSeries() {
+        CardinalityLimiter limiter = CardinalityLimiter.builder()
+                .withMaxSeriesPerMetric(1)
+                .dropOverLimit()
+                .build();
+        FastStatsDClient client = client(limiter);
+
+        client.count(METRIC, 1, tag("a"));
+        limiter.reset();
+        client.count(METRIC, 1, tag("b"));
+
+        assertThat(sender.getMessages()).containsExactly("requests:1|c|#id:a", "requests:1|c|#id:b");
+    }
+
+    @Test
+    public void metricsOverMaxMetricsShouldOverflow() {
+        CardinalityLimiter limiter = CardinalityLimiter.builder()
+                .withMaxMetrics(1)
+                .dropOverLimit()
+                .build();
+        FastStatsDClient client = client(limiter);
+
+        for (int i = 0; i < 10; i++) {
+            client.count(("metric" + i).getBytes(), 1);
+        }
+
+        assertThat(sender.getMessages()).containsExactly("metric0:1|c");
+        assertThat(limiter.overflowCount()).isEqualTo(9);
+    }
+
+    @Test
+    public void metricsShouldBeAdmittedAgainAfterBurstAndWindow() throws InterruptedException {
+        CardinalityLimiter limiter = CardinalityLimiter.builder()
+                .withMaxMetrics(2)
+                .withWindow(20, TimeUnit.MILLISECONDS)
+                .dropOverLimit()
+                .build();
+        FastStatsDClient client = client(limiter);
+
+        for (int i = 0; i < 100; i++) {
+            client.count(("burst" + i).getBytes(), 1);
+        }
+        client.count(METRIC, 1);
+        TimeUnit.MILLISECONDS.sleep(30);
+        client.count(METRIC, 2);
+        client.count("other".getBytes(), 3);
+        limiter.reset();
+        client.count("last".getBytes(), 4);
+
+        assertThat(sender.getMessages()).containsExactly(
+                "burst0:1|c", "burst1:1|c", "requests:2|c", "other:3|c", "last:4|c");
+        assertThat(limiter.overflowCount()).isEqualTo(99);
+    }
+
+    @Test
+    public void charSequenceAndBytesAspectsShouldShareSeries() {
+        CardinalityLimiter limiter = CardinalityLimiter.builder()
+                .withMaxSeriesPerMetric(1)
+                .dropOverLimit()
+                .build();
+        FastStatsDClient client = client(limiter);
+
+        client.count(METRIC, 1, tag("a"));
+        client.count("requests", 2, tag("a"));
+        client.count(new StringBuilder("requests"), 3, tag("b"));
+
+        assertThat(sender.getMessages()).containsExactly("requests:1|c|#id:a", "requests:2|c|#id:a");
+        assertThat(limiter.overflowCount()).isEqualTo(1);
+    }
+
+    private FastStatsDClient client(CardinalityLimiter limiter) {
+        return FastStatsDClient.builder()
+                .withSender(sender)
+                .withCardinalityLimiter(limiter)
+                .build();
+    }
+
+    private static Tag tag(String id) {
+        return new TagImpl(ID, id.getBytes());
+    }
+}
@@ -7,6 +7,9 @@ import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 import tech.energyit.statsd.utils.LoggingSender;
 
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -376,4 +379,196 @@ public class FastStatsDClientTest {
         statsDClient.set("my.metric".getBytes(), 10.4567, tag1, tag2);
         assertThat(sender.getMessages()).containsExactly("my.prefix.my.metric:10.4567|s|#" + tag1 + ',' + tag2);
     }
+
+    @Test
+    public void preparedMetricShouldBeSendCorrectly() {
+        Tag tag1 = new TagImpl("tag1".getBytes(), "val1".getBytes());
+        Tag tag2 = new TagImpl("tag2".getBytes(), "val2".getBytes());
+        PreparedMetric metric = statsDClient.prepare(FastStatsDClient.MetricType.HISTOGRAM, "my.metric".getBytes(), tag1, tag2);
+        metric.send(10);
+        metric.send(-10.25);
+        assertThat(sender.getMessages()).containsExactly(
+                "my.prefix.my.metric:10|h|#" + tag1 + ',' + tag2,
+                "my.prefix.my.metric:-10.25|h|#" + tag1 + ',' + tag2);
+    }
+
+    @Test
+    public void preparedMetricWithoutTagsShouldBeSendCorrectly() {
+        statsDClient.prepare(FastStatsDClient.MetricType.COUNTER, "my.metric".getBytes()).send(1);
+        assertThat(sender.getMessages()).containsExactly("my.prefix.my.metric:1|c");
+    }
+
+    @Test
+    public void preparedMetricBiggerThanInitialBufferShouldBeSendCorrectly() {
+        String tagValue = String.join("", Collections.nCopies(FastStatsDClient.INITIAL_BUFFER_SIZE, "v"));
+        Tag tag1 = new TagImpl("tag1".getBytes(), tagValue.getBytes());
+        statsDClient.prepare(FastStatsDClient.MetricType.GAUGE, "my.metric".getBytes(), tag1).send(123456789L);
+        assertThat(sender.getMessages()).containsExactly("my.prefix.my.metric:123456789|g|#" + tag1);
+    }
+
+    @Test
+    public void timeInNanosShouldBeSendAsFractionalMillis() {
+        statsDClient.timeNanos("my.metric".getBytes(), 1_234_500L);
+        assertThat(sender.getMessages()).containsExactly("my.prefix.my.metric:1.2345|ms");
+    }
+
+    @Test
+    public void timeInNanosWithRateAndTagShouldBeSendCorrectly() {
+        Tag tag1 = new TagImpl("tag1".getBytes(), "val1".getBytes());
+        statsDClient.timeNanos("my.metric".getBytes(), 750L, 0.5, tag1);
+        assertThat(sender.getMessages()).containsExactly("my.prefix.my.metric:0.00075|ms|@0.5|#" + tag1);
+    }
+
+    @Test
+    public void timeInNanosWithNegativeRateShouldMakeTheMessageIgnored() {
+        statsDClient.timeNanos("my.metric".getBytes(), 750L, -5);
+        assertThat(sender.getMessages()).isEmpty();
+    }
+
+    @Test
+    public void charSequenceMetricsShouldBeSendCorrectly() {
+        Tag tag1 = new TagImpl("tag1".getBytes(), "val1".getBytes());
+        statsDClient.count(new StringBuilder("my.metric"), 10, tag1);
+        statsDClient.gauge("my.gauge", 10.25);
+        statsDClient.timeNanos("my.timer", 1_500_000L);
+        statsDClient.set("my.set", 42L);
+        assertThat(sender.getMessages()).containsExactly(
+                "my.prefix.my.metric:10|c|#" + tag1,
+                "my.prefix.my.gauge:10.25|g",
+                "my.prefix.my.timer:1.5|ms",
+                "my.prefix.my.set:42|s");
+    }
+
+    @Test
+    public void charSequenceMetricsWithRateAndDeltaSignShouldBeSendCorrectly() {
+        statsDClient.count("my.metric", 10, 0.1);
+        statsDClient.gauge("my.gauge", '-', 3L);
+        statsDClient.gauge("my.gauge", 2.5, 0.5);
+        statsDClient.timeNanos("my.timer", 1_500_000L, 0.25);
+        statsDClient.set("my.set", 1.5);
+        statsDClient.meter("my.meter", 0.5);
+        statsDClient.histogram("my.histogram", 7L, -5);
+        assertThat(sender.getMessages()).containsExactly(
+                "my.prefix.my.metric:10|c|@0.1",
+                "my.prefix.my.gauge:-3|g",
+                "my.prefix.my.gauge:2.5|g|@0.5",
+                "my.prefix.my.timer:1.5|ms|@0.25",
+                "my.prefix.my.set:1.5|s",
+                "my.prefix.my.meter:0.5|m");
+    }
+
+    @Test
+    public void charSequenceMetricShouldBeEncodedAsUtf8() {
+        statsDClient.histogram("m\u00e9trique.\u20ac.\ud83d\ude00", 1L);
+        assertThat(sender.getMessages()).containsExactly("my.prefix.m\u00e9trique.\u20ac.\ud83d\ude00:1|h");
+    }
+
+    @Test
+    public void charSequenceMetricBiggerThanInitialBufferShouldBeSendCorrectly() {
+        String name = String.join("", Collections.nCopies(FastStatsDClient.INITIAL_BUFFER_SIZE, "n"));
+        statsDClient.meter(name, 7L);
+        assertThat(sender.getMessages()).containsExactly("my.prefix." + name + ":7|m");
+    }
+
+    @Test
+    public void charSequenceMetricsShouldBeSendCorrectlyViaNameCache() {
+        FastStatsDClient client = FastStatsDClient.builder()
+                .withPrefix("my.prefix")
+                .withSender(sender)
+                .withNameCache(new NameCache(16))
+                .build();
+        client.time("my.metric", 5L);
+        client.time("my.metric", 6L);
+        client.count(new StringBuilder("my.other"), 1.5);
+        assertThat(sender.getMessages()).containsExactly(
+                "my.prefix.my.metric:5|ms",
+                "my.prefix.my.metric:6|ms",
+                "my.prefix.my.other:1.5|c");
+    }
+
+    @Test
+    public void constantTagsShouldBeAppendedToEveryMessage() {
+        Tag tag1 = new TagImpl("tag1".getBytes(), "val1".getBytes());
+        FastStatsDClient client = FastStatsDClient.builder()
+                .withPrefix("my.prefix")
+                .withSender(sender)
+                .withConstantTags(new TagImpl("env".getBytes(), "prod".getBytes()), new TagImpl("host".getBytes(), "h1".getBytes()))
+                .build();
+        client.count("my.metric".getBytes(), 10, tag1);
+        client.gauge("my.metric".getBytes(), 1.5);
+        client.prepare(FastStatsDClient.MetricType.TIMER, "my.metric".getBytes(), tag1).send(3L);
+        client.prepare(FastStatsDClient.MetricType.TIMER, "my.metric".getBytes()).send(4L);
+        assertThat(sender.getMessages()).containsExactly(
+                "my.prefix.my.metric:10|c|#" + tag1 + ",env:prod,host:h1",
+                "my.prefix.my.metric:1.5|g|#env:prod,host:h1",
+                "my.prefix.my.metric:3|ms|#" + tag1 + ",env:prod,host:h1",
+                "my.prefix.my.metric:4|ms|#env:prod,host:h1");
+    }
+
+    @Test
+    public void environmentTagsShouldBeReadFromDataDogVariables() {
+        Map<String, String> environment = new HashMap<>();
+        environment.put("DD_TAGS", "team:core, region:eu valueless");
+        environment.put("DD_ENV", "prod");
+        environment.put("DD_ENTITY_ID", "pod-1");
+        FastStatsDClient client = FastStatsDClient.builder()
+                .withSender(sender)
+                .withEnvironmentTags(environment::get)
+                .build();
+        client.count("my.metric".getBytes(), 1);
+        assertThat(sender.getMessages()).containsExactly(
+                "my.metric:1|c|#team:core,region:eu,env:prod,dd.internal.entity_id:pod-1");
+    }
+
+    @Test
+    public void bulkValuesShouldBePackedToDatagrams() {
+        Tag tag1 = new TagImpl("tag1".getBytes(), "val1".getBytes());
+        FastStatsDClient client = FastStatsDClient.builder()
+                .withSender(sender)
+                .withMaxPacketSize(52)
+                .build();
+        client.histogram("my.metric".getBytes(), new long[]{-1, 10, 200, 3000}, 1, 3, tag1);
+        assertThat(sender.getMessages()).containsExactly(
+                "my.metric:10|h|#" + tag1 + "\n" + "my.metric:200|h|#" + tag1,
+                "my.metric:3000|h|#" + tag1);
+    }
+
+    @Test
+    public void bulkDoublesAndNanosShouldBeSendCorrectly() {
+        statsDClient.count("my.metric".getBytes(), new double[]{1.5, -0.25}, 0, 2);
+        statsDClient.timeNanos("my.timer".getBytes(), new long[]{1_500_000L}, 0, 1);
+        assertThat(sender.getMessages()).containsExactly(
+                "my.prefix.my.metric:1.5|c\nmy.prefix.my.metric:-0.25|c",
+                "my.prefix.my.timer:1.5|ms");
+    }
+
+    @Test
+    public void bulkValuesShouldBeSendAsMultiValueLinesIfConfigured() {
+        FastStatsDClient client = FastStatsDClient.builder()
+                .withSender(sender)
+                .withMaxPacketSize(21)
+                .withMultiValueLines(true)
+                .build();
+        client.time("my.metric".getBytes(), new long[]{1, 22, 333, 4444}, 0, 4);
+        assertThat(sender.getMessages()).containsExactly(
+                "my.metric:1:22:333|ms",
+                "my.metric:4444|ms");
+    }
+
+    @Test
+    public void bulkLineBiggerThanPacketShouldBeSendAlone() {
+        String tagValue = String.join("", Collections.nCopies(FastStatsDClient.INITIAL_BUFFER_SIZE, "v"));
+        Tag tag1 = new TagImpl("tag1".getBytes(), tagValue.getBytes());
+        FastStatsDClient client = FastStatsDClient.builder()
+                .withSender(sender)
+                .withMaxPacketSize(50)
+                .build();
+        client.histogram("m".getBytes(), new long[]{1, 2}, 0, 2, tag1);
+        assertThat(sender.getMessages()).containsExactly("m:1|h|#" + tag1, "m:2|h|#" + tag1);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void bulkValuesOutOfRangeShouldBeRejected() {
+        statsDClient.histogram("my.metric".getBytes(), new long[2], 1, 2);
+    }
 }
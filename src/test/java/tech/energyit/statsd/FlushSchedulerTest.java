@@ -0,0 +1,95 @@
+package tech.energyit.statsd;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import tech.energyit.statsd.utils.LoggingSender;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.verify;
+
+@RunWith(MockitoJUnitRunner.class)
+public class FlushSchedulerTest {
+
+    @Mock
+    private StatsDClientErrorHandler errorHandler;
+
+    private FlushScheduler scheduler;
+
+    @After
+    public void teardown() {
+        scheduler.close();
+    }
+
+    @Test
+    public void registeredFlushableShouldBeFlushedPeriodically() {
+        scheduler = new FlushScheduler();
+        AtomicInteger flushes = new AtomicInteger();
+        scheduler.register(flushes::incrementAndGet, 10, TimeUnit.MILLISECONDS);
+        await().atMost(1, TimeUnit.SECONDS).until(() -> flushes.get() >= 3);
+    }
+
+    @Test
+    public void requestedFlushShouldRunBeforeDeadline() {
+        scheduler = new FlushScheduler();
+        AtomicInteger flushes = new AtomicInteger();
+        FlushScheduler.Registration registration = scheduler.register(flushes::incrementAndGet, 1, TimeUnit.HOURS);
+        registration.requestFlush();
+        await().atMost(1, TimeUnit.SECONDS).until(() -> flushes.get() == 1);
+    }
+
+    @Test
+    public void closedRegistrationShouldNotBeFlushed() {
+        scheduler = new FlushScheduler();
+        AtomicInteger flushes = new AtomicInteger();
+        scheduler.register(flushes::incrementAndGet, 1, TimeUnit.HOURS).close();
+        scheduler.flushAll();
+        assertThat(flushes).hasValue(0);
+    }
+
+    @Test
+    public void closeShouldFlushEverything() {
+        scheduler = new FlushScheduler();
+        LoggingSender target = new LoggingSender();
+        BulkSender sender = BulkSender.builder()
+                .withSender(target)
+                .withFlushScheduler(scheduler, 1, TimeUnit.HOURS)
+                .build();
+        sender.send(ByteBuffer.wrap("a:1|c".getBytes()));
+        assertThat(target.getMessages()).isEmpty();
+
+        scheduler.close();
+        assertThat(target.getMessages()).containsExactly("a:1|c");
+    }
+
+    @Test
+    public void bulkSenderShouldBeFlushedAfterMaxLatency() {
+        scheduler = new FlushScheduler();
+        LoggingSender target = new LoggingSender();
+        BulkSender sender = BulkSender.builder()
+                .withSender(target)
+                .withFlushScheduler(scheduler, 10, TimeUnit.MILLISECONDS)
+                .build();
+        sender.send(ByteBuffer.wrap("a:1|c".getBytes()));
+        await().atMost(1, TimeUnit.SECONDS).until(() -> target.getMessages().size() == 1);
+    }
+
+    @Test
+    public void flushErrorShouldBeHandled() {
+        scheduler = new FlushScheduler(errorHandler);
+        scheduler.register(() -> {
+            throw new IOException("test");
+        }, 1, TimeUnit.HOURS);
+        scheduler.flushAll();
+        verify(errorHandler).handle(any(IOException.class));
+    }
+}
@@ -0,0 +1,108 @@
+package tech.energyit.statsd;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.Pipe;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+@RunWith(JUnit4.class)
+public class GatheringPacketWriterTest {
+
+    @Test
+    public void packetsShouldBeWrittenAsNewLineTerminatedStream() throws IOException {
+        Pipe pipe = Pipe.open();
+        GatheringPacketWriter writer = new GatheringPacketWriter(pipe.sink(), StatsDClientErrorHandler.NO_OP_HANDLER);
+
+        writer.write(new ByteBuffer[]{wrap("a:1|c\nb:2|c"), wrap("c:3|c"), wrap("ignored")}, 2);
+        writer.write(new ByteBuffer[]{wrap("d:4|c")}, 1);
+        writer.close();
+
+        ByteBuffer received = ByteBuffer.allocate(64);
+        while (pipe.source().read(received) >= 0) {
+            // read until the sink is closed
+        }
+        received.flip();
+        byte[] bytes = new byte[received.remaining()];
+        received.get(bytes);
+        assertThat(new String(bytes)).isEqualTo("a:1|c\nb:2|c\nc:3|c\nd:4|c\n");
+    }
+
+    @Test
+    public void packetsShouldBeDroppedWhenChannelIsFull() {
+        BoundedChannel channel = new BoundedChannel(8);
+        StatsDClientErrorHandler errorHandler = mock(StatsDClientErrorHandler.class);
+        GatheringPacketWriter writer = new GatheringPacketWriter(channel, errorHandler);
+
+        writer.write(new ByteBuffer[]{wrap("a:1|c"), wrap("b:2|c")}, 2);
+        verify(errorHandler).handle(anyString(), eq(1), eq(2));
+
+        channel.capacity = 64;
+        writer.write(new ByteBuffer[]{wrap("c:3|c")}, 1);
+        // the cut packet is terminated, so the receiver drops only the malformed line
+        assertThat(channel.written()).isEqualTo("a:1|c\nb:\nc:3|c\n");
+    }
+
+    private static ByteBuffer wrap(String msg) {
+        return ByteBuffer.wrap(msg.getBytes());
+    }
+
+    /**
+     * Non-blocking channel accepting up to {@code capacity} bytes in total, then writing nothing.
+     */
+    private static final class BoundedChannel implements GatheringByteChannel {
+        private final ByteBuffer content = ByteBuffer.allocate(256);
+        private int capacity;
+
+        BoundedChannel(int capacity) {
+            this.capacity = capacity;
+        }
+
+        String written() {
+            return new String(content.array(), 0, content.position());
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) {
+            long written = 0;
+            for (int i = offset; i < offset + length; i++) {
+                written += write(srcs[i]);
+            }
+            return written;
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs) {
+            return write(srcs, 0, srcs.length);
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            int written = 0;
+            while (src.hasRemaining() && content.position() < capacity) {
+                content.put(src.get());
+                written++;
+            }
+            return written;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+            /* nothing to close */
+        }
+    }
+}
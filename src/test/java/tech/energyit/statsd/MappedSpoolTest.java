@@ -0,0 +1,139 @@
+package tech.energyit.statsd;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import tech.energyit.statsd.utils.LoggingSender;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(JUnit4.class)
+public class MappedSpoolTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void messagesShouldBeReplayedInOrderAndSpaceReused() throws IOException {
+        try (MappedSpool spool = MappedSpool.builder(file()).withCapacity(1024).build()) {
+            spool.send(message("a:1|c"));
+            spool.send(message("b:2|g"));
+            spool.send(message("c:3|ms"));
+            assertThat(spool.spooledBytes()).isEqualTo(3 * 4 + 16);
+
+            LoggingSender target = new LoggingSender();
+            assertThat(spool.replay(target, 2)).isEqualTo(2);
+            assertThat(target.getMessages()).containsExactly("a:1|c", "b:2|g");
+            assertThat(spool.replay(target, 10)).isEqualTo(1);
+            assertThat(target.getMessages()).containsExactly("a:1|c", "b:2|g", "c:3|ms");
+
+            assertThat(spool.isEmpty()).isTrue();
+            assertThat(spool.spooledBytes()).isZero();
+            assertThat(spool.replay(target, 10)).isZero();
+        }
+    }
+
+    @Test(timeout = 5000L)
+    public void sendShouldNotWaitForReplayedMessageToBeSent() throws Exception {
+        try (MappedSpool spool = MappedSpool.builder(file()).withCapacity(1024).build()) {
+            spool.send(message("a:1|c"));
+            CountDownLatch replaying = new CountDownLatch(1);
+            CountDownLatch appended = new CountDownLatch(1);
+            AtomicInteger replayedPosition = new AtomicInteger(-1);
+            Thread replayer = new Thread(() -> spool.replay(msg -> {
+                replayedPosition.set(msg.position());
+                replaying.countDown();
+                try {
+                    appended.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, 1));
+            replayer.start();
+
+            replaying.await();
+            spool.send(message("b:2|g"));
+            appended.countDown();
+            replayer.join();
+
+            assertThat(replayedPosition.get()).isZero();
+            LoggingSender target = new LoggingSender();
+            assertThat(spool.replay(target, 10)).isEqualTo(1);
+            assertThat(target.getMessages()).containsExactly("b:2|g");
+        }
+    }
+
+    @Test
+    public void fullSpoolShouldDropAndReportOnce() throws IOException {
+        AtomicInteger reported = new AtomicInteger();
+        try (MappedSpool spool = MappedSpool.builder(file())
+                .withCapacity(MappedSpool.HEADER_SIZE + 2 * (4 + 5))
+                .withErrorHandler(new StatsDClientErrorHandler() {
+                    @Override
+                    public void handle(Exception exception) {
+                    }
+
+                    @Override
+                    public void handle(String errorFormat, Object... args) {
+                        reported.incrementAndGet();
+                    }
+                })
+                .build()) {
+            for (int i = 0; i < 5; i++) {
+                spool.send(message("a:1|c"));
+            }
+
+            assertThat(spool.droppedCount()).isEqualTo(3);
+            assertThat(reported).hasValue(1);
+            LoggingSender target = new LoggingSender();
+            spool.replay(target, 10);
+            assertThat(target.getMessages()).hasSize(2);
+        }
+    }
+
+    @Test
+    public void spooledMessagesShouldSurviveReopening() throws IOException {
+        Path file = file();
+        try (MappedSpool spool = MappedSpool.builder(file).withCapacity(1024).build()) {
+            spool.send(message("a:1|c"));
+            spool.send(message("b:2|c"));
+            spool.replay(new LoggingSender(), 1);
+        }
+
+        try (MappedSpool spool = MappedSpool.builder(file).withCapacity(1024).build()) {
+            LoggingSender target = new LoggingSender();
+            spool.replay(target, 10);
+            assertThat(target.getMessages()).containsExactly("b:2|c");
+        }
+    }
+
+    @Test
+    public void replayedMessagesMayBeSpooledAgain() throws IOException {
+        try (MappedSpool spool = MappedSpool.builder(file()).withCapacity(1024).build()) {
+            spool.send(message("a:1|c"));
+            spool.send(message("b:2|c"));
+
+            assertThat(spool.replay(spool, 10)).isEqualTo(10);
+
+            LoggingSender target = new LoggingSender();
+            spool.replay(target, 10);
+            assertThat(target.getMessages()).containsExactly("a:1|c", "b:2|c");
+        }
+    }
+
+    private Path file() throws IOException {
+        return folder.newFile().toPath();
+    }
+
+    private static ByteBuffer message(String message) {
+        return ByteBuffer.wrap(message.getBytes(FastStatsDClient.MESSAGE_CHARSET));
+    }
+}
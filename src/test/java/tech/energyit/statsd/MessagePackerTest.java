@@ -0,0 +1,84 @@
+package tech.energyit.statsd;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import tech.energyit.statsd.utils.LoggingSender;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(JUnit4.class)
+public class MessagePackerTest {
+
+    private LoggingSender sender;
+    private MessagePacker packer;
+
+    @Before
+    public void setUp() {
+        sender = new LoggingSender();
+        packer = new MessagePacker(sender, 16);
+    }
+
+    @Test
+    public void messagesShouldBePackedUntilFlush() {
+        packer.append(wrap("a:1|c"));
+        packer.append(wrap("b:2|c"));
+        assertThat(sender.getMessages()).isEmpty();
+
+        packer.flush();
+        assertThat(sender.getMessages()).containsExactly("a:1|c\nb:2|c");
+        assertThat(packer.isEmpty()).isTrue();
+    }
+
+    @Test
+    public void packetShouldBeSentWhenNextMessageDoesNotFit() {
+        packer.append(wrap("a:1|c"));
+        packer.append(wrap("b:2|c"));
+        packer.append(wrap("c:3|c"));
+        packer.flush();
+        assertThat(sender.getMessages()).containsExactly("a:1|c\nb:2|c", "c:3|c");
+    }
+
+    @Test
+    public void regionOfBufferShouldBeAppendedWithoutMovingPosition() {
+        ByteBuffer src = wrap("xxa:1|cxx");
+        packer.append(src, 2, 5);
+        packer.flush();
+        assertThat(sender.getMessages()).containsExactly("a:1|c");
+        assertThat(src.position()).isZero();
+    }
+
+    @Test
+    public void oversizedMessageShouldBeSentAlone() {
+        packer.append(wrap("a:1|c"));
+        packer.append(wrap("some.very.long.metric:1|c"));
+        packer.flush();
+        assertThat(sender.getMessages()).containsExactly("a:1|c", "some.very.long.metric:1|c");
+    }
+
+    @Test
+    public void oversizedRegionShouldBeSentAsViewStartingAtZero() {
+        List<ByteBuffer> sent = new ArrayList<>();
+        MessagePacker packer = new MessagePacker(sent::add, 16);
+        packer.append(wrap("xxsome.very.long.metric:1|cxx"), 2, 25);
+
+        assertThat(sent).hasSize(1);
+        assertThat(sent.get(0).position()).isZero();
+        assertThat(sent.get(0).limit()).isEqualTo(25);
+    }
+
+    @Test
+    public void flushOfEmptyPackerShouldSendNothing() {
+        packer.flush();
+        assertThat(sender.getMessages()).isEmpty();
+    }
+
+    private static ByteBuffer wrap(String msg) {
+        return ByteBuffer.wrap(msg.getBytes());
+    }
+}
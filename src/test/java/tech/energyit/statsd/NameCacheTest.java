@@ -0,0 +1,33 @@
+package tech.energyit.statsd;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@RunWith(JUnit4.class)
+public class NameCacheTest {
+
+    @Test
+    public void encodedNameShouldBeCached() {
+        NameCache cache = new NameCache(4);
+        byte[] encoded = cache.encode("my.metric");
+        assertThat(encoded).isEqualTo("my.metric".getBytes(FastStatsDClient.MESSAGE_CHARSET));
+        assertThat(cache.encode(new String("my.metric"))).isSameAs(encoded);
+    }
+
+    @Test
+    public void collidingNamesShouldBeEncodedCorrectly() {
+        NameCache cache = new NameCache(1);
+        for (int i = 0; i < 100; i++) {
+            assertThat(cache.encode("metric." + i)).isEqualTo(("metric." + i).getBytes(FastStatsDClient.MESSAGE_CHARSET));
+        }
+    }
+
+    @Test
+    public void nonPositiveCapacityShouldBeRejected() {
+        assertThatThrownBy(() -> new NameCache(0)).isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -95,6 +95,34 @@ public class NumbersTest {
         assertThatDoubleIsEncoded(-1.2e-3, "-0.0012", true);
     }
 
+    @Test
+    public void wholeMillisAreEncodedWithoutFraction() {
+        assertThatNanosAreEncoded(12_000_000L, "12");
+        assertThatNanosAreEncoded(0L, "0");
+    }
+
+    @Test
+    public void nanosAreEncodedAsFractionalMillis() {
+        assertThatNanosAreEncoded(1_500_000L, "1.5");
+        assertThatNanosAreEncoded(123L, "0.000123");
+        assertThatNanosAreEncoded(12_345_678L, "12.345678");
+        assertThatNanosAreEncoded(10_010_000L, "10.01");
+    }
+
+    @Test
+    public void negativeNanosAreEncodedAsFractionalMillis() {
+        assertThatNanosAreEncoded(-1_500_000L, "-1.5");
+        assertThatNanosAreEncoded(-500L, "-0.0005");
+    }
+
+    private void assertThatNanosAreEncoded(long nanos, String expected) {
+        ByteBuffer bb = ByteBuffer.allocate(expected.length());
+        Numbers.putNanosAsMillisAsciiBytes(nanos, bb);
+        byte[] msg = new byte[expected.length()];
+        ((ByteBuffer) bb.flip()).get(msg);
+        Assertions.assertThat(new String(msg)).isEqualTo(expected);
+    }
+
     private void assertThatLongIsEncoded(long value, String expected) {
         ByteBuffer bb = ByteBuffer.allocate(expected.length());
         Numbers.putLongAsAsciiBytes(value, bb);
@@ -0,0 +1,173 @@
+package tech.energyit.statsd;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import tech.energyit.statsd.utils.LoggingSender;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+@RunWith(JUnit4.class)
+public class PolledMetricsTest {
+
+    private LoggingSender sender;
+    private FastStatsDClient client;
+    private PolledMetrics polledMetrics;
+
+    @Before
+    public void setUp() {
+        sender = new LoggingSender();
+        client = new FastStatsDClient("my.prefix", sender);
+        polledMetrics = PolledMetrics.builder(client)
+                .withInterval(1, TimeUnit.HOURS)
+                .build();
+    }
+
+    @After
+    public void teardown() {
+        polledMetrics.close();
+    }
+
+    @Test
+    public void registeredGaugesShouldBePolledAndPackedToOneDatagram() {
+        Tag tag1 = new TagImpl("tag1".getBytes(), "val1".getBytes());
+        AtomicLong queueDepth = new AtomicLong(5);
+        polledMetrics.gauge("queue.depth".getBytes(), queueDepth::get, tag1);
+        polledMetrics.gauge("load".getBytes(), () -> 0.75);
+
+        polledMetrics.poll();
+        queueDepth.set(7);
+        polledMetrics.poll();
+
+        assertThat(sender.getMessages()).containsExactly(
+                "my.prefix.queue.depth:5|g|#tag1:val1\nmy.prefix.load:0.75|g",
+                "my.prefix.queue.depth:7|g|#tag1:val1\nmy.prefix.load:0.75|g");
+    }
+
+    @Test
+    public void failingSupplierShouldNotStopOtherGauges() {
+        polledMetrics.gauge("broken".getBytes(), () -> {
+            throw new IllegalStateException("broken gauge");
+        });
+        polledMetrics.gauge("ok".getBytes(), () -> 1L);
+
+        polledMetrics.poll();
+
+        assertThat(sender.getMessages()).containsExactly("my.prefix.ok:1|g");
+    }
+
+    @Test
+    public void removedMetricsShouldNotBePolled() {
+        PolledMetrics.Registration gauge = polledMetrics.gauge("gauge".getBytes(), () -> 1L);
+        polledMetrics.counter("counter".getBytes(), () -> 0L).remove();
+        polledMetrics.gauge("kept".getBytes(), () -> 2L);
+
+        polledMetrics.poll();
+        gauge.remove();
+        polledMetrics.poll();
+
+        assertThat(sender.getMessages()).containsExactly(
+                "my.prefix.gauge:1|g\nmy.prefix.kept:2|g",
+                "my.prefix.kept:2|g");
+    }
+
+    @Test
+    public void gaugesShouldBePolledBySchedulerEveryInterval() {
+        PolledMetrics scheduled = PolledMetrics.builder(client)
+                .withInterval(10, TimeUnit.MILLISECONDS)
+                .build();
+        try {
+            scheduled.gauge("scheduled".getBytes(), () -> 1L);
+            await().atMost(1, TimeUnit.SECONDS).until(() -> sender.getMessages().size() >= 2);
+        } finally {
+            scheduled.close();
+        }
+    }
+
+    @Test
+    public void gaugesShouldBePolledBySharedScheduler() {
+        FlushScheduler scheduler = new FlushScheduler();
+        PolledMetrics scheduled = PolledMetrics.builder(client)
+                .withInterval(10, TimeUnit.MILLISECONDS)
+                .withScheduler(scheduler)
+                .build();
+        try {
+            scheduled.gauge("scheduled".getBytes(), () -> 1L);
+            await().atMost(1, TimeUnit.SECONDS).until(() -> sender.getMessages().size() >= 2);
+        } finally {
+            scheduled.close();
+            scheduler.close();
+        }
+    }
+
+    @Test
+    public void unchangedGaugesShouldBeSuppressedUntilMaxSilence() throws InterruptedException {
+        PolledMetrics onChange = PolledMetrics.builder(client)
+                .withInterval(1, TimeUnit.HOURS)
+                .withMaxSilence(50, TimeUnit.MILLISECONDS)
+                .build();
+        try {
+            AtomicLong poolSize = new AtomicLong(10);
+            onChange.gaugeOnChange("pool.size".getBytes(), poolSize::get);
+            onChange.gaugeOnChange("ratio".getBytes(), () -> 0.5);
+
+            onChange.poll();
+            onChange.poll();
+            poolSize.set(12);
+            onChange.poll();
+            Thread.sleep(60);
+            onChange.poll();
+        } finally {
+            onChange.close();
+        }
+        assertThat(sender.getMessages()).containsExactly(
+                "my.prefix.pool.size:10|g\nmy.prefix.ratio:0.5|g",
+                "my.prefix.pool.size:12|g",
+                "my.prefix.pool.size:12|g\nmy.prefix.ratio:0.5|g");
+    }
+
+    @Test
+    public void cumulativeCountersShouldSendDeltas() {
+        AtomicLong requests = new AtomicLong(100);
+        AtomicLong errors = new AtomicLong(3);
+        polledMetrics.counter("requests".getBytes(), requests::get);
+        polledMetrics.counter("errors".getBytes(), errors::get);
+
+        requests.set(150);
+        errors.set(5);
+        polledMetrics.poll();
+        requests.set(160);
+        polledMetrics.poll();
+        polledMetrics.poll();
+        // the source was reset, e.g. by a restart
+        requests.set(7);
+        polledMetrics.poll();
+
+        assertThat(sender.getMessages()).containsExactly(
+                "my.prefix.requests:50|c\nmy.prefix.errors:2|c",
+                "my.prefix.requests:10|c",
+                "my.prefix.requests:7|c");
+    }
+
+    @Test
+    public void packetsShouldNotExceedMaxPacketSize() {
+        PolledMetrics smallPackets = PolledMetrics.builder(client)
+                .withInterval(1, TimeUnit.HOURS)
+                .withMaxPacketSize(30)
+                .build();
+        try {
+            smallPackets.gauge("first".getBytes(), () -> 1L);
+            smallPackets.gauge("second".getBytes(), () -> 2L);
+            smallPackets.poll();
+        } finally {
+            smallPackets.close();
+        }
+        assertThat(sender.getMessages()).containsExactly("my.prefix.first:1|g", "my.prefix.second:2|g");
+    }
+}
@@ -0,0 +1,85 @@
+package tech.energyit.statsd;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import tech.energyit.statsd.utils.LoggingSender;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@RunWith(JUnit4.class)
+public class SanitizerTest {
+
+    private LoggingSender sender;
+
+    @Before
+    public void setUp() {
+        sender = new LoggingSender();
+    }
+
+    @Test
+    public void validNameShouldBeReturnedAsItIs() {
+        byte[] name = "my.metric-1_é".getBytes(FastStatsDClient.MESSAGE_CHARSET);
+        assertThat(Sanitizer.replacingWith('_').name(name)).isSameAs(name);
+    }
+
+    @Test
+    public void invalidNameShouldBeReplaced() {
+        assertThat(new String(Sanitizer.replacingWith('_').name("a:b|c#d,e\nf".getBytes())))
+                .isEqualTo("a_b_c_d_e_f");
+    }
+
+    @Test
+    public void tagValueMayContainColon() {
+        Tag tag = Sanitizer.replacingWith('_').tag("url:x".getBytes(), "http://host,1".getBytes());
+        assertThat(tag).hasToString("url_x:http://host_1");
+    }
+
+    @Test
+    public void invalidNameShouldBeRejectedIfConfigured() {
+        assertThatThrownBy(() -> Sanitizer.rejecting().name("a|b".getBytes()))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void invalidReplacementShouldBeRejected() {
+        assertThatThrownBy(() -> Sanitizer.replacingWith('|')).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void clientShouldSanitizeDynamicNamesAndTags() {
+        FastStatsDClient client = client(Sanitizer.replacingWith('_'));
+        client.count("my|metric".getBytes(), 1, new TagImpl("env".getBytes(), "prod\nbad:1|c".getBytes()));
+        client.gauge(new StringBuilder("my#gauge"), 2L);
+        assertThat(sender.getMessages()).containsExactly(
+                "my.prefix.my_metric:1|c|#env:prod_bad:1_c",
+                "my.prefix.my_gauge:2|g");
+    }
+
+    @Test
+    public void clientShouldSanitizePreparedMetricOnce() {
+        Sanitizer sanitizer = Sanitizer.replacingWith('_');
+        FastStatsDClient client = client(sanitizer);
+        PreparedMetric metric = client.prepare(FastStatsDClient.MetricType.TIMER, "my,timer".getBytes(),
+                sanitizer.tag("env".getBytes(), "a#b".getBytes()));
+        metric.send(5L);
+        assertThat(sender.getMessages()).containsExactly("my.prefix.my_timer:5|ms|#env:a_b");
+    }
+
+    @Test
+    public void clientShouldRejectInvalidNameIfConfigured() {
+        FastStatsDClient client = client(Sanitizer.rejecting());
+        assertThatThrownBy(() -> client.time("my:metric".getBytes(), 1L)).isInstanceOf(IllegalArgumentException.class);
+        assertThat(sender.getMessages()).isEmpty();
+    }
+
+    private FastStatsDClient client(Sanitizer sanitizer) {
+        return FastStatsDClient.builder()
+                .withPrefix("my.prefix")
+                .withSender(sender)
+                .withSanitizer(sanitizer)
+                .build();
+    }
+}
@@ -11,6 +11,11 @@ import tech.energyit.statsd.utils.DummyStatsDServer;
 import java.net.SocketException;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 
 /**
  * @author gregmil
@@ -61,6 +66,27 @@ public class StatsdIntegrationTest {
         assertThat(server.messagesReceived()).containsExactly("my.prefix.my.metric:10|c|#" + tag1);
     }
 
+    @Test(timeout = 5000L)
+    public void bulkValuesShouldBeSentAsCompleteMessages() {
+        StatsDClientErrorHandler errorHandler = mock(StatsDClientErrorHandler.class);
+        try (SynchronousSender sender = SynchronousSender.builder()
+                .withHostAndPort("localhost", STATSD_SERVER_PORT)
+                .withErrorHandler(errorHandler)
+                .build()) {
+            FastStatsDClient client = FastStatsDClient.builder().withPrefix("my.prefix").withSender(sender)
+                    .withMaxPacketSize(64).build();
+            long[] values = new long[20];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = i;
+            }
+            client.histogram("my.histogram".getBytes(), values, 0, values.length);
+            server.waitForMessage(values.length);
+        }
+        assertThat(server.messagesReceived()).hasSize(20).endsWith("my.prefix.my.histogram:19|h");
+        verify(errorHandler, never()).handle(anyString(), any());
+        verify(errorHandler, never()).handle(any(Exception.class));
+    }
+
     @Test(timeout = 5000L)
     public void sendingWithNoServerListeningShouldNotBlock() {
         try (SynchronousSender sender = SynchronousSender.builder()
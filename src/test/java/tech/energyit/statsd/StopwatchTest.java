@@ -0,0 +1,59 @@
+package tech.energyit.statsd;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import tech.energyit.statsd.utils.LoggingSender;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(JUnit4.class)
+public class StopwatchTest {
+
+    private LoggingSender sender;
+    private Stopwatch stopwatch;
+
+    @Before
+    public void setUp() {
+        sender = new LoggingSender();
+        FastStatsDClient client = new FastStatsDClient("my.prefix", sender);
+        stopwatch = client.prepare(FastStatsDClient.MetricType.TIMER, "my.timer".getBytes()).stopwatch();
+    }
+
+    @Test
+    public void closingStartedStopwatchShouldSendElapsedTime() throws InterruptedException {
+        try (Stopwatch timer = stopwatch.start()) {
+            TimeUnit.MILLISECONDS.sleep(2);
+        }
+        assertThat(sender.getMessages()).hasSize(1);
+        assertThat(sender.getMessages().get(0)).matches("my\\.prefix\\.my\\.timer:\\d+(\\.\\d+)?\\|ms");
+        assertThat(Double.parseDouble(sender.getMessages().get(0).replaceAll(".*:(.*)\\|ms", "$1"))).isGreaterThanOrEqualTo(2.0);
+    }
+
+    @Test
+    public void stopShouldReturnTheSentTime() {
+        long elapsed = stopwatch.start().stop();
+        assertThat(elapsed).isNotNegative();
+        assertThat(sender.getMessages()).hasSize(1);
+    }
+
+    @Test
+    public void stopwatchShouldBeSharedByThreads() throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        for (int i = 0; i < 100; i++) {
+            executor.execute(() -> {
+                try (Stopwatch timer = stopwatch.start()) {
+                    Thread.yield();
+                }
+            });
+        }
+        executor.shutdown();
+        assertThat(executor.awaitTermination(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(sender.getMessages()).hasSize(100).allMatch(m -> !m.contains(":-"));
+    }
+}
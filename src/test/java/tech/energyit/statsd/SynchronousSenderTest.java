@@ -8,9 +8,13 @@ import org.mockito.junit.MockitoJUnitRunner;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
 import java.nio.ByteBuffer;
 import java.nio.channels.DatagramChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.*;
 import static org.mockito.Mockito.*;
 
@@ -83,9 +87,97 @@ public class SynchronousSenderTest {
         verify(errorHandler).handle(any(IOException.class));
     }
 
+    @Test
+    public void failingWriteShouldMarkSenderFailingUntilNextSuccessfulWrite() throws IOException {
+        ByteBuffer msgAsBuffer = ByteBuffer.wrap("test-message-1".getBytes());
+        when(datagramChannel.write(same(msgAsBuffer)))
+                .thenThrow(new PortUnreachableException())
+                .thenReturn(msgAsBuffer.limit());
+
+        sender.send(msgAsBuffer);
+        assertThat(sender.isFailing()).isTrue();
+
+        sender.send(msgAsBuffer);
+        assertThat(sender.isFailing()).isFalse();
+    }
+
     @Test(expected = IllegalStateException.class)
     public void ifConnectingToChannelThrowsErrorExcecptionMustBeThrown() throws IOException {
         when(datagramChannel.connect(same(socketAddress))).thenThrow(new IOException("some io error"));
         newSender();
     }
+
+    @Test
+    public void changedAddressShouldSwapToNewlyConnectedChannel() throws IOException {
+        InetSocketAddress newAddress = mock(InetSocketAddress.class);
+        DatagramChannel newChannel = mock(DatagramChannel.class);
+        AtomicReference<InetSocketAddress> currentAddress = new AtomicReference<>(socketAddress);
+        AtomicReference<DatagramChannel> nextChannel = new AtomicReference<>(datagramChannel);
+        SynchronousSender refreshingSender = SynchronousSender.builder()
+                .withSocketSupplier(nextChannel::get)
+                .withAddressLookup(currentAddress::get)
+                .withErrorHandler(errorHandler)
+                .build();
+
+        currentAddress.set(newAddress);
+        nextChannel.set(newChannel);
+        refreshingSender.refreshAddress();
+        verify(newChannel).connect(same(newAddress));
+        verify(datagramChannel, never()).close();
+
+        ByteBuffer msgAsBuffer = ByteBuffer.wrap("test-message-1".getBytes());
+        when(newChannel.write(same(msgAsBuffer))).thenReturn(msgAsBuffer.limit());
+        refreshingSender.send(msgAsBuffer);
+        verify(newChannel).write(same(msgAsBuffer));
+
+        // the retired channel is closed on the next refresh
+        refreshingSender.refreshAddress();
+        verify(datagramChannel).close();
+    }
+
+    @Test
+    public void unchangedAddressShouldKeepTheChannel() throws IOException {
+        sender.refreshAddress();
+        verify(datagramChannel, times(1)).connect(any());
+        verify(datagramChannel, never()).close();
+    }
+
+    @Test
+    public void failingLookupShouldKeepTheChannelAndNotifyErrorHandler() throws IOException {
+        AtomicReference<InetSocketAddress> currentAddress = new AtomicReference<>(socketAddress);
+        SynchronousSender refreshingSender = SynchronousSender.builder()
+                .withSocketSupplier(() -> datagramChannel)
+                .withAddressLookup(() -> {
+                    if (currentAddress.get() == null) {
+                        throw new IllegalArgumentException("Cannot create address");
+                    }
+                    return currentAddress.get();
+                })
+                .withErrorHandler(errorHandler)
+                .build();
+        currentAddress.set(null);
+
+        refreshingSender.refreshAddress();
+
+        verify(errorHandler).handle(any(IllegalArgumentException.class));
+        verify(datagramChannel, never()).close();
+    }
+
+    @Test
+    public void addressShouldBeRefreshedInBackground() throws IOException {
+        InetSocketAddress newAddress = mock(InetSocketAddress.class);
+        AtomicReference<InetSocketAddress> currentAddress = new AtomicReference<>(socketAddress);
+        SynchronousSender refreshingSender = SynchronousSender.builder()
+                .withSocketSupplier(() -> datagramChannel)
+                .withAddressLookup(currentAddress::get)
+                .withErrorHandler(errorHandler)
+                .withAddressRefresh(10, TimeUnit.MILLISECONDS)
+                .build();
+        try {
+            currentAddress.set(newAddress);
+            verify(datagramChannel, timeout(1000)).connect(same(newAddress));
+        } finally {
+            refreshingSender.close();
+        }
+    }
 }
@@ -0,0 +1,39 @@
+package tech.energyit.statsd;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.nio.ByteBuffer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(JUnit4.class)
+public class Utf8Test {
+
+    private static final String[] SAMPLES = {"", "my.metric", "métrique", "€中", "😀.smile",
+            "broken\ud83d", "\ude00broken", "a\ud83db"};
+
+    @Test
+    public void encodingShouldMatchStringGetBytes() {
+        for (String sample : SAMPLES) {
+            ByteBuffer buffer = ByteBuffer.allocate(64);
+            Utf8.put(sample, buffer);
+            buffer.flip();
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            assertThat(bytes).as(sample).isEqualTo(sample.getBytes(FastStatsDClient.MESSAGE_CHARSET));
+        }
+    }
+
+    @Test
+    public void hashShouldMatchHashOfEncodedBytes() {
+        for (String sample : SAMPLES) {
+            long expected = 0xcbf29ce484222325L;
+            for (byte b : sample.getBytes(FastStatsDClient.MESSAGE_CHARSET)) {
+                expected = (expected ^ (b & 0xff)) * 0x100000001b3L;
+            }
+            assertThat(Utf8.hash(0xcbf29ce484222325L, sample, 0x100000001b3L)).as(sample).isEqualTo(expected);
+        }
+    }
+}
@@ -4,12 +4,15 @@ import org.assertj.core.api.Assertions;
 import org.awaitility.Awaitility;
 import org.junit.After;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
 import tech.energyit.statsd.FastStatsDClient;
+import tech.energyit.statsd.MappedSpool;
 import tech.energyit.statsd.StatsDClientErrorHandler;
 
 import java.io.IOException;
@@ -17,8 +20,12 @@ import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.DatagramChannel;
 import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.ArgumentMatchers.same;
 import static org.mockito.Mockito.*;
 
@@ -32,6 +39,9 @@ public class AsynchronousSenderTest {
     @Mock
     private DatagramChannel datagramChannel;
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     private AsynchronousSender sender;
 
     @Before
@@ -129,4 +139,68 @@ public class AsynchronousSenderTest {
         verify(datagramChannel, atLeast(ringbufferSize)).write(any(ByteBuffer.class));
     }
 
+    @Test
+    public void messagesOverflowingRingbufferShouldBeSpooledAndReplayed() throws IOException {
+        CountDownLatch stuck = new CountDownLatch(1);
+        when(datagramChannel.write(any(ByteBuffer.class))).thenAnswer(invocation -> {
+            stuck.await();
+            return ((ByteBuffer) invocation.getArgument(0)).remaining();
+        });
+        try (MappedSpool spool = MappedSpool.builder(folder.newFile().toPath()).withCapacity(4096).build()) {
+            sender.close();
+            sender = AsynchronousSender.builder()
+                    .withSocketSupplier(() -> datagramChannel)
+                    .withAddressLookup(() -> socketAddress)
+                    .withErrorHandler(errorHandler)
+                    .withRingbufferSize(4)
+                    .spoolWhenRingbufferIsFull(spool)
+                    .build();
+
+            int messages = 20;
+            for (int i = 0; i < messages; i++) {
+                sender.send(ByteBuffer.wrap("test-message".getBytes()));
+            }
+            Assertions.assertThat(spool.isEmpty()).isFalse();
+
+            stuck.countDown();
+            Awaitility.await().atMost(Duration.ofSeconds(2)).until(spool::isEmpty);
+            verify(datagramChannel, timeout(1000).times(messages)).write(any(ByteBuffer.class));
+            // replayed messages are views starting at 0, so they are not reported as partially sent
+            verify(errorHandler, never()).handle(anyString(), any());
+        } finally {
+            stuck.countDown();
+        }
+    }
+
+    @Test
+    public void closeWithTimeoutShouldDrainQueuedMessages() throws IOException {
+        for (int i = 0; i < 3; i++) {
+            sender.send(ByteBuffer.wrap("test-message".getBytes()));
+        }
+
+        Assertions.assertThat(sender.close(1, TimeUnit.SECONDS)).isZero();
+        verify(datagramChannel, times(3)).write(any(ByteBuffer.class));
+        verify(datagramChannel).close();
+    }
+
+    @Test
+    public void closeWithTimeoutShouldReportUndeliveredMessagesOfStuckConsumer() throws IOException {
+        CountDownLatch stuck = new CountDownLatch(1);
+        when(datagramChannel.write(any(ByteBuffer.class))).thenAnswer(invocation -> {
+            stuck.await();
+            return 0;
+        });
+        try {
+            for (int i = 0; i < 3; i++) {
+                sender.send(ByteBuffer.wrap("test-message".getBytes()));
+            }
+
+            Assertions.assertThat(sender.close(50, TimeUnit.MILLISECONDS)).isEqualTo(3);
+            verify(errorHandler).handle(anyString(), eq(3L));
+            verify(datagramChannel).close();
+        } finally {
+            stuck.countDown();
+        }
+    }
+
 }
@@ -0,0 +1,131 @@
+package tech.energyit.statsd.async;
+
+import org.awaitility.Awaitility;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import tech.energyit.statsd.MappedSpool;
+import tech.energyit.statsd.StatsDClientErrorHandler;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.same;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ByteRingSenderTest {
+
+    @Mock
+    private StatsDClientErrorHandler errorHandler;
+    @Mock
+    private InetSocketAddress socketAddress;
+    @Mock
+    private DatagramChannel datagramChannel;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<String> packets = new CopyOnWriteArrayList<>();
+    private volatile boolean agentDown;
+
+    private ByteRingSender sender;
+
+    @Before
+    public void setup() throws IOException {
+        when(datagramChannel.write(any(ByteBuffer.class))).thenAnswer(invocation -> {
+            if (agentDown) {
+                throw new PortUnreachableException();
+            }
+            ByteBuffer packet = invocation.getArgument(0);
+            byte[] bytes = new byte[packet.remaining()];
+            packet.get(bytes);
+            packets.add(new String(bytes));
+            return bytes.length;
+        });
+        sender = ByteRingSender.builder()
+                .withSocketSupplier(() -> datagramChannel)
+                .withAddressLookup(() -> socketAddress)
+                .withErrorHandler(errorHandler)
+                .withCapacity(1024)
+                .withMaxPacketSize(64)
+                .publishSynchronouslyWhenRingIsFull()
+                .build();
+        verify(datagramChannel).connect(same(socketAddress));
+    }
+
+    @After
+    public void teardown() {
+        sender.close();
+    }
+
+    @Test
+    public void sendShouldWriteTheMessageToChannel() {
+        ByteBuffer msg = ByteBuffer.wrap("test-message-1".getBytes());
+        sender.send(msg);
+
+        Awaitility.await().atMost(Duration.ofMillis(500)).until(() -> !packets.isEmpty());
+        assertThat(packets).containsExactly("test-message-1");
+        assertThat(msg.hasRemaining()).isFalse();
+    }
+
+    @Test
+    public void allMessagesShouldBeDeliveredInPacketsNotBiggerThanMaxPacketSize() {
+        int messages = 200;
+        for (int i = 0; i < messages; i++) {
+            sender.send(ByteBuffer.wrap(("metric." + i + ":1|c").getBytes()));
+        }
+        sender.close();
+
+        assertThat(packets).allSatisfy(p -> assertThat(p.length()).isLessThanOrEqualTo(64));
+        assertThat(packets.stream().mapToInt(p -> p.split("\n").length).sum()).isEqualTo(messages);
+    }
+
+    @Test
+    public void messagesFailingWhileAgentIsDownShouldBeSpooledAndReplayedAfterRecovery() throws IOException {
+        try (MappedSpool spool = MappedSpool.builder(folder.newFile().toPath()).withCapacity(64 * 1024).build()) {
+            sender.close();
+            sender = ByteRingSender.builder()
+                    .withSocketSupplier(() -> datagramChannel)
+                    .withAddressLookup(() -> socketAddress)
+                    .withErrorHandler(errorHandler)
+                    .withCapacity(1024)
+                    .withMaxPacketSize(64)
+                    .spoolWhenRingIsFull(spool)
+                    .build();
+            agentDown = true;
+
+            int messages = 50;
+            for (int i = 0; i < messages; i++) {
+                sender.send(ByteBuffer.wrap(("metric." + i + ":1|c").getBytes()));
+            }
+            Awaitility.await().atMost(Duration.ofSeconds(2)).until(() -> sender.remainingCapacity() == 1024 && !spool.isEmpty());
+            assertThat(packets).isEmpty();
+
+            agentDown = false;
+            Awaitility.await().atMost(Duration.ofSeconds(5))
+                    .until(() -> packets.stream().mapToInt(p -> p.split("\n").length).sum() == messages);
+            assertThat(spool.isEmpty()).isTrue();
+        }
+    }
+
+    @Test
+    public void closeShouldCloseChannel() throws IOException {
+        sender.close();
+        verify(datagramChannel).close();
+    }
+}
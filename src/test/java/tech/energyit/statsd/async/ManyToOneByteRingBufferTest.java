@@ -0,0 +1,112 @@
+package tech.energyit.statsd.async;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(JUnit4.class)
+public class ManyToOneByteRingBufferTest {
+
+    private final List<String> received = new ArrayList<>();
+    private final ManyToOneByteRingBuffer.MessageHandler collector = (buffer, offset, length) -> {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(offset + i);
+        }
+        received.add(new String(bytes));
+    };
+
+    @Test
+    public void writtenMessagesShouldBeReadInOrder() {
+        ManyToOneByteRingBuffer ring = new ManyToOneByteRingBuffer(1024);
+        assertThat(ring.write(wrap("first:1|c"))).isTrue();
+        assertThat(ring.write(wrap("second.longer.than.alignment:2|c"))).isTrue();
+
+        assertThat(ring.read(collector)).isEqualTo(2);
+        assertThat(received).containsExactly("first:1|c", "second.longer.than.alignment:2|c");
+        assertThat(ring.isEmpty()).isTrue();
+    }
+
+    @Test
+    public void writeShouldConsumeTheMessage() {
+        ManyToOneByteRingBuffer ring = new ManyToOneByteRingBuffer(1024);
+        ByteBuffer msg = wrap("first:1|c");
+        ring.write(msg);
+        assertThat(msg.hasRemaining()).isFalse();
+    }
+
+    @Test
+    public void fullRingShouldRejectMessages() {
+        ManyToOneByteRingBuffer ring = new ManyToOneByteRingBuffer(128);
+        for (int i = 0; i < 8; i++) {
+            assertThat(ring.write(wrap("msg:" + i))).isTrue();
+        }
+        ByteBuffer rejected = wrap("msg:8");
+        assertThat(ring.write(rejected)).isFalse();
+        assertThat(rejected.position()).isZero();
+
+        assertThat(ring.read(collector)).isEqualTo(8);
+        assertThat(ring.write(wrap("msg:8"))).isTrue();
+    }
+
+    @Test
+    public void tooBigMessageShouldBeRejected() {
+        ManyToOneByteRingBuffer ring = new ManyToOneByteRingBuffer(128);
+        assertThat(ring.write(ByteBuffer.allocate(ring.maxMessageLength() + 1))).isFalse();
+    }
+
+    @Test
+    public void messagesShouldWrapAroundTheEndOfRing() {
+        ManyToOneByteRingBuffer ring = new ManyToOneByteRingBuffer(256);
+        for (int round = 0; round < 20; round++) {
+            assertThat(ring.write(wrap("round:" + round + "|twelve-bytes"))).isTrue();
+            assertThat(ring.write(wrap("r" + round))).isTrue();
+            ring.read(collector);
+        }
+        assertThat(received).hasSize(40);
+        assertThat(received.get(38)).isEqualTo("round:19|twelve-bytes");
+        assertThat(received.get(39)).isEqualTo("r19");
+    }
+
+    @Test
+    public void concurrentProducersShouldNotLoseMessages() throws InterruptedException {
+        ManyToOneByteRingBuffer ring = new ManyToOneByteRingBuffer(4096);
+        int producers = 4;
+        int messagesPerProducer = 10_000;
+        ExecutorService executor = Executors.newFixedThreadPool(producers);
+        CountDownLatch done = new CountDownLatch(producers);
+        for (int p = 0; p < producers; p++) {
+            final int producer = p;
+            executor.execute(() -> {
+                for (int i = 0; i < messagesPerProducer; i++) {
+                    ByteBuffer msg = wrap("p" + producer + ":" + i);
+                    while (!ring.write(msg)) {
+                        Thread.yield();
+                    }
+                }
+                done.countDown();
+            });
+        }
+        int read = 0;
+        while (done.getCount() > 0 || !ring.isEmpty()) {
+            read += ring.read((buffer, offset, length) -> { /* count only */ });
+        }
+        executor.shutdown();
+        assertThat(executor.awaitTermination(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(read).isEqualTo(producers * messagesPerProducer);
+    }
+
+    private static ByteBuffer wrap(String msg) {
+        return ByteBuffer.wrap(msg.getBytes());
+    }
+}
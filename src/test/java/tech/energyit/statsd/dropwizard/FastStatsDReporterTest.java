@@ -0,0 +1,133 @@
+package tech.energyit.statsd.dropwizard;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricAttribute;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import tech.energyit.statsd.FastStatsDClient;
+import tech.energyit.statsd.utils.LoggingSender;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(JUnit4.class)
+public class FastStatsDReporterTest {
+
+    private LoggingSender sender;
+    private MetricRegistry registry;
+    private FastStatsDReporter reporter;
+
+    @Before
+    public void setUp() {
+        sender = new LoggingSender();
+        registry = new MetricRegistry();
+        // only the count, max and p99 are reported
+        EnumSet<MetricAttribute> disabled = EnumSet.allOf(MetricAttribute.class);
+        disabled.removeAll(Arrays.asList(MetricAttribute.COUNT, MetricAttribute.MAX, MetricAttribute.P99));
+        reporter = FastStatsDReporter.builder(registry, new FastStatsDClient("app", sender))
+                .withDisabledAttributes(disabled)
+                .build();
+    }
+
+    @After
+    public void teardown() {
+        reporter.close();
+    }
+
+    @Test
+    public void metricsShouldBeReportedInOnePacket() {
+        AtomicLong connections = new AtomicLong(4);
+        registry.register("pool.connections", (Gauge<Long>) connections::get);
+        registry.register("pool.usage", (Gauge<Double>) () -> 0.25);
+        registry.counter("requests").inc(3);
+        Histogram sizes = registry.histogram("sizes");
+        sizes.update(10);
+        sizes.update(30);
+        registry.timer("db.query").update(1500, TimeUnit.MICROSECONDS);
+
+        reporter.report();
+
+        assertThat(sender.getMessages()).hasSize(1);
+        assertThat(lines()).containsExactly(
+                "app.pool.connections:4|g",
+                "app.pool.usage:0.25|g",
+                "app.requests:3|c",
+                "app.sizes.count:2|c",
+                "app.sizes.max:30.0|g",
+                "app.sizes.p99:30.0|g",
+                "app.db.query.count:1|c",
+                "app.db.query.max:1.5|g",
+                "app.db.query.p99:1.5|g");
+    }
+
+    @Test
+    public void unchangedValuesShouldBeSkipped() {
+        AtomicLong connections = new AtomicLong(4);
+        registry.register("pool.connections", (Gauge<Long>) connections::get);
+        Counter requests = registry.counter("requests");
+        requests.inc(3);
+        reporter.report();
+
+        reporter.report();
+        requests.inc(2);
+        connections.set(5);
+        reporter.report();
+
+        assertThat(sender.getMessages()).containsExactly(
+                "app.pool.connections:4|g\napp.requests:3|c",
+                "app.pool.connections:5|g\napp.requests:2|c");
+    }
+
+    @Test
+    public void decrementedCountersShouldSendNegativeIncrements() {
+        Counter connections = registry.counter("connections");
+        connections.inc(10);
+        reporter.report();
+        connections.dec(2);
+        reporter.report();
+        connections.dec(8);
+        connections.inc(1);
+        reporter.report();
+
+        assertThat(sender.getMessages()).containsExactly(
+                "app.connections:10|c",
+                "app.connections:-2|c",
+                "app.connections:-7|c");
+    }
+
+    @Test
+    public void removedMetricsShouldBeReportedFromScratchWhenAddedAgain() {
+        registry.counter("requests").inc(3);
+        reporter.report();
+        registry.remove("requests");
+        reporter.report();
+        Timer timer = registry.timer("requests");
+        timer.update(2, TimeUnit.MILLISECONDS);
+        reporter.report();
+
+        assertThat(sender.getMessages()).containsExactly(
+                "app.requests:3|c",
+                "app.requests.count:1|c\napp.requests.max:2.0|g\napp.requests.p99:2.0|g");
+    }
+
+    private List<String> lines() {
+        List<String> lines = new ArrayList<>();
+        for (String message : sender.getMessages()) {
+            lines.addAll(Arrays.asList(message.split("\n")));
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,116 @@
+package tech.energyit.statsd.ipc;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import tech.energyit.statsd.utils.LoggingSender;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+@RunWith(JUnit4.class)
+public class SharedMemorySenderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final LoggingSender target = new LoggingSender();
+    private Path directory;
+    private SharedMemoryForwarder forwarder;
+
+    @Before
+    public void setUp() {
+        directory = folder.getRoot().toPath();
+        forwarder = SharedMemoryForwarder.builder(target)
+                .withDirectory(directory)
+                .withScanInterval(10, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    @After
+    public void teardown() {
+        forwarder.close();
+    }
+
+    @Test
+    public void messagesOfAllSendersShouldBeForwardedInOrder() {
+        List<SharedMemorySender> senders = new ArrayList<>();
+        for (int s = 0; s < 3; s++) {
+            senders.add(SharedMemorySender.builder().withDirectory(directory).withCapacity(4096).build());
+        }
+        for (int i = 0; i < 100; i++) {
+            for (int s = 0; s < senders.size(); s++) {
+                senders.get(s).send(ByteBuffer.wrap(("sender" + s + ":" + i + "|c").getBytes()));
+            }
+        }
+
+        await().atMost(2, TimeUnit.SECONDS).until(() -> lines().size() == 300);
+        for (int s = 0; s < senders.size(); s++) {
+            String prefix = "sender" + s + ":";
+            List<String> lines = lines().stream().filter(l -> l.startsWith(prefix)).collect(Collectors.toList());
+            for (int i = 0; i < 100; i++) {
+                assertThat(lines.get(i)).isEqualTo(prefix + i + "|c");
+            }
+        }
+        senders.forEach(SharedMemorySender::close);
+    }
+
+    @Test
+    public void ringOfExitedProducerShouldBeDeletedOnceDrained() throws IOException {
+        // a producer which exited without closing - the ring is not closed and its file is not locked
+        Path tmp = directory.resolve("exited.tmp");
+        SharedRing ring = SharedRing.create(tmp, 4096);
+        ring.write(ByteBuffer.wrap("a:1|c".getBytes()));
+        Path file = Files.move(tmp, directory.resolve("exited" + SharedMemorySender.RING_SUFFIX));
+
+        await().atMost(2, TimeUnit.SECONDS).until(() -> !Files.exists(file));
+        assertThat(lines()).containsExactly("a:1|c");
+    }
+
+    @Test
+    public void closedRingShouldBeDeletedOnceDrained() {
+        SharedMemorySender sender = SharedMemorySender.builder().withDirectory(directory).withCapacity(4096).build();
+        sender.send(ByteBuffer.wrap("a:1|c".getBytes()));
+        sender.close();
+        sender.send(ByteBuffer.wrap("b:1|c".getBytes()));
+
+        await().atMost(2, TimeUnit.SECONDS).until(() -> !Files.exists(sender.getFile()));
+        assertThat(lines()).containsExactly("a:1|c");
+        assertThat(sender.droppedCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void messagesShouldBeDroppedWhenRingIsFull() throws IOException {
+        forwarder.close();
+        SharedMemorySender sender = SharedMemorySender.builder().withDirectory(folder.newFolder().toPath()).withCapacity(64).build();
+        for (int i = 0; i < 5; i++) {
+            sender.send(ByteBuffer.wrap("0123456789abcdefghijklmn".getBytes()));
+        }
+
+        assertThat(sender.droppedCount()).isEqualTo(3);
+        sender.close();
+    }
+
+    private List<String> lines() {
+        List<String> lines = new ArrayList<>();
+        for (String packet : target.getMessages()) {
+            for (String line : packet.split("\n")) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,91 @@
+package tech.energyit.statsd.ipc;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(JUnit4.class)
+public class SharedRingTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void messagesShouldPassThroughSeparateMappingsAcrossWrapAround() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("test.ring");
+        SharedRing producer = SharedRing.create(file, 256);
+        SharedRing consumer = SharedRing.open(file, Files.size(file));
+        List<String> received = new ArrayList<>();
+
+        for (int i = 0; i < 500; i++) {
+            String message = "metric." + i + ":" + i + "|c";
+            assertThat(producer.write(ByteBuffer.wrap(message.getBytes()))).isTrue();
+            if (i % 3 == 0) {
+                consumer.read((buffer, offset, length) -> received.add(text(buffer, offset, length)));
+            }
+        }
+        consumer.read((buffer, offset, length) -> received.add(text(buffer, offset, length)));
+
+        assertThat(received).hasSize(500);
+        for (int i = 0; i < 500; i++) {
+            assertThat(received.get(i)).isEqualTo("metric." + i + ":" + i + "|c");
+        }
+        assertThat(producer.isEmpty()).isTrue();
+    }
+
+    @Test
+    public void fullRingShouldRejectMessage() throws IOException {
+        SharedRing ring = SharedRing.create(folder.getRoot().toPath().resolve("test.ring"), 64);
+        ByteBuffer message = ByteBuffer.wrap("0123456789abcdefghijklmn".getBytes());
+
+        assertThat(ring.write(message)).isTrue();
+        message.rewind();
+        assertThat(ring.write(message)).isTrue();
+        message.rewind();
+        assertThat(ring.write(message)).isFalse();
+        assertThat(message.remaining()).isEqualTo(24);
+    }
+
+    @Test
+    public void consumerShouldContinueFromPublishedHead() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("test.ring");
+        SharedRing producer = SharedRing.create(file, 256);
+        producer.write(ByteBuffer.wrap("a:1|c".getBytes()));
+        producer.write(ByteBuffer.wrap("b:1|c".getBytes()));
+        SharedRing.open(file, Files.size(file)).read((buffer, offset, length) -> {
+        });
+        producer.write(ByteBuffer.wrap("c:1|c".getBytes()));
+
+        List<String> received = new ArrayList<>();
+        SharedRing.open(file, Files.size(file)).read((buffer, offset, length) -> received.add(text(buffer, offset, length)));
+
+        assertThat(received).containsExactly("c:1|c");
+    }
+
+    @Test
+    public void fileWithoutHeaderShouldNotBeOpened() throws IOException {
+        Path file = folder.newFile().toPath();
+        Files.write(file, new byte[SharedRing.DATA_OFFSET + 64]);
+
+        assertThat(SharedRing.open(file, Files.size(file))).isNull();
+    }
+
+    private static String text(ByteBuffer buffer, int offset, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(offset + i);
+        }
+        return new String(bytes);
+    }
+}
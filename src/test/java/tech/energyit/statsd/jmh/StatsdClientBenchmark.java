@@ -8,6 +8,7 @@ import org.openjdk.jmh.runner.Runner;
 import org.openjdk.jmh.runner.RunnerException;
 import org.openjdk.jmh.runner.options.Options;
 import org.openjdk.jmh.runner.options.OptionsBuilder;
+import tech.energyit.statsd.CardinalityLimiter;
 import tech.energyit.statsd.FastStatsDClient;
 import tech.energyit.statsd.SynchronousSender;
 import tech.energyit.statsd.Tag;
@@ -16,6 +17,7 @@ import tech.energyit.statsd.async.AsynchronousSender;
 import tech.energyit.statsd.utils.DummyStatsDServer;
 
 import java.util.concurrent.TimeUnit;
+import java.util.stream.LongStream;
 
 @Fork(1)
 @Warmup(iterations = 1)
@@ -37,10 +39,12 @@ public class StatsdClientBenchmark {
     private static final Tag[] THE_TWO_TAGS = {TAG1, TAG2};
     private static final String METRIC = "my.metric";
     private static final byte[] METRIC_RAW = METRIC.getBytes();
+    private static final long[] BULK_VALUES = LongStream.range(0, 100).map(i -> i * 997).toArray();
 
     private SynchronousSender syncSender;
     private FastStatsDClient statsDClient;
     private FastStatsDClient statsDClientWithExactDoubles;
+    private FastStatsDClient statsDClientWithCardinalityLimiter;
     private AsynchronousSender asyncSender;
     private FastStatsDClient asyncStatsDClient;
     private AsynchronousSender asyncSenderWithFallback;
@@ -65,6 +69,11 @@ public class StatsdClientBenchmark {
                 .build();
         statsDClient = new FastStatsDClient(PREFIX, syncSender, false);
         statsDClientWithExactDoubles = new FastStatsDClient(PREFIX, syncSender, true);
+        statsDClientWithCardinalityLimiter = FastStatsDClient.builder()
+                .withPrefix(PREFIX)
+                .withSender(syncSender)
+                .withCardinalityLimiter(CardinalityLimiter.builder().build())
+                .build();
         asyncStatsDClient = new FastStatsDClient(PREFIX, asyncSender, false);
         asyncStatsDClient2 = new FastStatsDClient(PREFIX, asyncSenderWithFallback, false);
         dataDogClient = new NonBlockingStatsDClient(PREFIX, LOCALHOST, STATSD_SERVER_PORT);
@@ -84,6 +93,19 @@ public class StatsdClientBenchmark {
         statsDClient.count(METRIC_RAW, bh.i1, THE_TWO_TAGS);
     }
 
+    @Benchmark
+    public void countLongsViaSyncFastClientWithCardinalityLimiter(Blackhole bh) {
+        statsDClientWithCardinalityLimiter.count(METRIC_RAW, bh.i1, THE_TWO_TAGS);
+    }
+
+    /**
+     * 100 histogram values per op - compare with 100 x {@link #countLongsViaSyncFastClient(Blackhole)}.
+     */
+    @Benchmark
+    public void histogramOf100LongsViaSyncFastClientBulk() {
+        statsDClient.histogram(METRIC_RAW, BULK_VALUES, 0, BULK_VALUES.length, THE_TWO_TAGS);
+    }
+
     @Benchmark
     public void countDoublesViaSyncFastClientUsingExactDoubles(Blackhole bh) {
         statsDClientWithExactDoubles.count(METRIC_RAW, bh.d1, THE_TWO_TAGS);
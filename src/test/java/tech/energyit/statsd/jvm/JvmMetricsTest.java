@@ -0,0 +1,77 @@
+package tech.energyit.statsd.jvm;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import tech.energyit.statsd.FastStatsDClient;
+import tech.energyit.statsd.IOUtils;
+import tech.energyit.statsd.PolledMetrics;
+import tech.energyit.statsd.utils.LoggingSender;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+@RunWith(JUnit4.class)
+public class JvmMetricsTest {
+
+    private LoggingSender sender;
+    private PolledMetrics polledMetrics;
+    private JvmMetrics jvmMetrics;
+
+    @Before
+    public void setUp() {
+        sender = new LoggingSender();
+        FastStatsDClient client = new FastStatsDClient("app", sender);
+        polledMetrics = PolledMetrics.builder(client)
+                .withInterval(1, TimeUnit.HOURS)
+                .build();
+        jvmMetrics = JvmMetrics.register(client, polledMetrics);
+    }
+
+    @After
+    public void teardown() {
+        jvmMetrics.close();
+        polledMetrics.close();
+    }
+
+    @Test
+    public void memoryThreadsClassesAndBuffersShouldBePolled() {
+        polledMetrics.poll();
+
+        List<String> lines = lines();
+        assertThat(lines).anyMatch(l -> l.matches("app\\.jvm\\.memory\\.heap\\.used:\\d+\\|g"));
+        assertThat(lines).anyMatch(l -> l.matches("app\\.jvm\\.memory\\.nonheap\\.committed:\\d+\\|g"));
+        assertThat(lines).anyMatch(l -> l.matches("app\\.jvm\\.threads\\.live:\\d+\\|g"));
+        assertThat(lines).anyMatch(l -> l.matches("app\\.jvm\\.classes\\.loaded:\\d+\\|g"));
+        assertThat(lines).anyMatch(l -> l.matches("app\\.jvm\\.buffer\\.memory\\.used:\\d+\\|g\\|#pool:direct"));
+    }
+
+    @Test
+    public void directMemoryAllocatedByLibraryShouldBeCounted() {
+        IOUtils.allocateDirect(64);
+        polledMetrics.poll();
+
+        assertThat(lines()).anyMatch(l -> l.matches("app\\.jvm\\.buffer\\.statsd\\.allocated:[1-9]\\d*\\|c"));
+    }
+
+    @Test
+    public void gcPauseShouldBeReportedAsTimer() {
+        System.gc();
+
+        await().atMost(5, TimeUnit.SECONDS).until(() -> lines().stream().anyMatch(l -> l.startsWith("app.jvm.gc.pause:")));
+        assertThat(lines()).anyMatch(l -> l.matches("app\\.jvm\\.gc\\.pause:\\d+\\|ms\\|#gc:[^ ]+,action:[^ ]+"));
+    }
+
+    private List<String> lines() {
+        return sender.getMessages().stream()
+                .flatMap(m -> Arrays.stream(m.split("\n")))
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,63 @@
+package tech.energyit.statsd.load;
+
+/**
+ * Log-linear histogram of non-negative values - 16 buckets per power of two, so percentiles are off by at most 6 %.
+ * Single-writer, merged after the writers stopped.
+ */
+final class LatencyHistogram {
+
+    private static final int SUB_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    private final long[] counts = new long[(64 - SUB_BITS) * SUB_BUCKETS];
+    private long total;
+
+    void record(long value) {
+        counts[index(Math.max(0, value))]++;
+        total++;
+    }
+
+    void add(LatencyHistogram other) {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        total += other.total;
+    }
+
+    long count() {
+        return total;
+    }
+
+    /**
+     * @param percentile e.g. 99.9
+     * @return lower bound of the bucket holding the percentile, 0 if empty
+     */
+    long percentile(double percentile) {
+        final long rank = (long) Math.ceil(total * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank && seen > 0) {
+                return lowerBound(i);
+            }
+        }
+        return 0;
+    }
+
+    static int index(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        final int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    static long lowerBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        final int exponent = index / SUB_BUCKETS + SUB_BITS - 1;
+        return (long) (SUB_BUCKETS + index % SUB_BUCKETS) << (exponent - SUB_BITS);
+    }
+}
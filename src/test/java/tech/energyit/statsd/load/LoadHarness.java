@@ -0,0 +1,535 @@
+package tech.energyit.statsd.load;
+
+import tech.energyit.statsd.BulkSender;
+import tech.energyit.statsd.FastStatsDClient;
+import tech.energyit.statsd.FlushScheduler;
+import tech.energyit.statsd.Sender;
+import tech.energyit.statsd.StatsDClientErrorHandler;
+import tech.energyit.statsd.SynchronousSender;
+import tech.energyit.statsd.Tag;
+import tech.energyit.statsd.TagImpl;
+import tech.energyit.statsd.async.AsynchronousSender;
+import tech.energyit.statsd.async.ByteRingSender;
+import tech.energyit.statsd.relay.Line;
+import tech.energyit.statsd.relay.LineHandler;
+import tech.energyit.statsd.relay.StatsDReceiver;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * End-to-end load generator: drives {@link FastStatsDClient} by several threads through each {@link Sender}
+ * to a {@link StatsDReceiver} on loopback and reports throughput, loss, latency-to-receive and CPU per metric.
+ *
+ * Every metric carries its send timestamp (nanos since the harness start) as the value, so the receiver measures
+ * the latency of each line - including the time spent queued or buffered in the sender.
+ * The metric mix, tag cardinality and an optional rate per thread are fixed by the builder,
+ * so runs of different releases with the same settings are comparable.
+ *
+ * Run it by {@link #main(String[])}, configured by system properties, e.g.
+ * {@code -Dsenders=SYNC,BYTE_RING -Dthreads=4 -Dduration=10 -Dmix=60,20,10,10 -Dcardinality=100}.
+ */
+public final class LoadHarness {
+
+    public enum SenderType {SYNC, ASYNC, BYTE_RING, BULK}
+
+    public enum MetricKind {COUNT, GAUGE, HISTOGRAM, TIMER}
+
+    private static final String LOCALHOST = "127.0.0.1";
+    private static final int MIX_PATTERN_SIZE = 100;
+    private static final long QUIET_PERIOD_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+
+    private final List<SenderType> senders;
+    private final int threads;
+    private final long durationNanos;
+    private final MetricKind[] mixPattern;
+    private final Tag[] tags;
+    private final long ratePerThread;
+    private final int receiverSockets;
+    private final int receiveBufferSize;
+    private final long startNanos = System.nanoTime();
+
+    private LoadHarness(List<SenderType> senders, int threads, long durationNanos, int[] mix, int tagCardinality,
+                        long ratePerThread, int receiverSockets, int receiveBufferSize) {
+        if (threads <= 0 || durationNanos <= 0 || tagCardinality <= 0 || ratePerThread < 0) {
+            throw new IllegalArgumentException("Threads, duration and cardinality must be positive");
+        }
+        this.senders = senders;
+        this.threads = threads;
+        this.durationNanos = durationNanos;
+        this.mixPattern = mixPattern(mix);
+        this.tags = new Tag[tagCardinality];
+        for (int i = 0; i < tagCardinality; i++) {
+            tags[i] = new TagImpl("series".getBytes(FastStatsDClient.MESSAGE_CHARSET),
+                    Integer.toString(i).getBytes(FastStatsDClient.MESSAGE_CHARSET));
+        }
+        this.ratePerThread = ratePerThread;
+        this.receiverSockets = receiverSockets;
+        this.receiveBufferSize = receiveBufferSize;
+    }
+
+    /**
+     * Runs the load through all configured senders one after another.
+     */
+    public List<Result> run() throws InterruptedException {
+        final List<Result> results = new ArrayList<>();
+        for (SenderType sender : senders) {
+            results.add(run(sender));
+        }
+        return results;
+    }
+
+    public Result run(SenderType senderType) throws InterruptedException {
+        final AtomicLong received = new AtomicLong();
+        final List<CountingHandler> handlers = new ArrayList<>();
+        final AtomicLong clientErrors = new AtomicLong();
+        final StatsDReceiver receiver = StatsDReceiver.builder()
+                .withHostAndPort(LOCALHOST, 0)
+                .withSockets(receiverSockets)
+                .withReceiveBufferSize(receiveBufferSize)
+                .withLineHandlers(() -> {
+                    final CountingHandler handler = new CountingHandler(received);
+                    synchronized (handlers) {
+                        handlers.add(handler);
+                    }
+                    return handler;
+                })
+                .build();
+        final long[] producerCpu = new long[threads];
+        final long[] sent = new long[threads];
+        final long processCpuStart = processCpuNanos();
+        final long start;
+        final long end;
+        try (Closeable sender = sender(senderType, receiver.getPort(), countingErrorHandler(clientErrors))) {
+            final FastStatsDClient client = FastStatsDClient.builder()
+                    .withPrefix("load")
+                    .withSender((Sender) sender)
+                    .build();
+            final CountDownLatch ready = new CountDownLatch(threads);
+            final CountDownLatch go = new CountDownLatch(1);
+            final Thread[] producers = new Thread[threads];
+            for (int i = 0; i < threads; i++) {
+                final int id = i;
+                producers[i] = new Thread(() -> {
+                    ready.countDown();
+                    try {
+                        go.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    final long cpuStart = threadCpuNanos();
+                    sent[id] = produce(client, id);
+                    producerCpu[id] = threadCpuNanos() - cpuStart;
+                }, "load-producer-" + i);
+                producers[i].start();
+            }
+            ready.await();
+            start = System.nanoTime();
+            go.countDown();
+            for (Thread producer : producers) {
+                producer.join();
+            }
+            end = System.nanoTime();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            // the sender is closed (drained) here, wait until the receiver is idle
+            awaitQuiet(received, Arrays.stream(sent).sum());
+            receiver.close();
+        }
+        final LatencyHistogram latency = new LatencyHistogram();
+        for (CountingHandler handler : handlers) {
+            latency.add(handler.latency);
+        }
+        return new Result(senderType, threads, Arrays.stream(sent).sum(), received.get(), clientErrors.get(), end - start,
+                Arrays.stream(producerCpu).sum(), processCpuNanos() - processCpuStart, latency);
+    }
+
+    private long produce(FastStatsDClient client, int id) {
+        final byte[][] names = {
+                "load.count".getBytes(FastStatsDClient.MESSAGE_CHARSET),
+                "load.gauge".getBytes(FastStatsDClient.MESSAGE_CHARSET),
+                "load.histogram".getBytes(FastStatsDClient.MESSAGE_CHARSET),
+                "load.timer".getBytes(FastStatsDClient.MESSAGE_CHARSET)};
+        final long intervalNanos = ratePerThread > 0 ? TimeUnit.SECONDS.toNanos(1) / ratePerThread : 0;
+        final long start = System.nanoTime();
+        final long deadline = start + durationNanos;
+        final Tag[] tag = new Tag[1];
+        long count = 0;
+        int series = id % tags.length;
+        for (long now = start; now < deadline; now = System.nanoTime()) {
+            if (intervalNanos > 0 && now - start < count * intervalNanos) {
+                continue;
+            }
+            final MetricKind kind = mixPattern[(int) (count % MIX_PATTERN_SIZE)];
+            tag[0] = tags[series];
+            series = series + 1 == tags.length ? 0 : series + 1;
+            final long timestamp = now - startNanos;
+            switch (kind) {
+                case COUNT:
+                    client.count(names[0], timestamp, tag);
+                    break;
+                case GAUGE:
+                    client.gauge(names[1], timestamp, tag);
+                    break;
+                case HISTOGRAM:
+                    client.histogram(names[2], timestamp, tag);
+                    break;
+                default:
+                    client.time(names[3], timestamp, tag);
+            }
+            count++;
+        }
+        return count;
+    }
+
+    private void awaitQuiet(AtomicLong received, long sent) {
+        long last = -1;
+        long lastChange = System.nanoTime();
+        while (received.get() < sent && System.nanoTime() - lastChange < QUIET_PERIOD_NANOS) {
+            final long current = received.get();
+            if (current != last) {
+                last = current;
+                lastChange = System.nanoTime();
+            }
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private static Closeable sender(SenderType type, int port, StatsDClientErrorHandler errorHandler) {
+        switch (type) {
+            case SYNC:
+                return SynchronousSender.builder()
+                        .withHostAndPort(LOCALHOST, port)
+                        .withErrorHandler(errorHandler)
+                        .build();
+            case ASYNC:
+                return AsynchronousSender.builder()
+                        .withHostAndPort(LOCALHOST, port)
+                        .withErrorHandler(errorHandler)
+                        .withRingbufferSize(16 * 1024)
+                        .skipMessageWhenRingbufferIsFull()
+                        .build();
+            case BYTE_RING:
+                return ByteRingSender.builder()
+                        .withHostAndPort(LOCALHOST, port)
+                        .withErrorHandler(errorHandler)
+                        .withCapacity(1024 * 1024)
+                        .build();
+            case BULK:
+                return new ScheduledBulkSender(port, errorHandler);
+            default:
+                throw new IllegalArgumentException("Unknown sender " + type);
+        }
+    }
+
+    private static StatsDClientErrorHandler countingErrorHandler(AtomicLong errors) {
+        return new StatsDClientErrorHandler() {
+            @Override
+            public void handle(Exception exception) {
+                errors.incrementAndGet();
+            }
+
+            @Override
+            public void handle(String errorFormat, Object... args) {
+                errors.incrementAndGet();
+            }
+        };
+    }
+
+    private static MetricKind[] mixPattern(int[] mix) {
+        if (mix.length != MetricKind.values().length) {
+            throw new IllegalArgumentException("Mix must have a weight for each of " + Arrays.toString(MetricKind.values()));
+        }
+        final int total = Arrays.stream(mix).sum();
+        if (total <= 0) {
+            throw new IllegalArgumentException("Mix must have a positive weight");
+        }
+        // the kinds are interleaved evenly, so any window of the pattern has about the same mix
+        final MetricKind[] pattern = new MetricKind[MIX_PATTERN_SIZE];
+        final double[] credit = new double[mix.length];
+        for (int i = 0; i < MIX_PATTERN_SIZE; i++) {
+            int best = 0;
+            for (int k = 0; k < mix.length; k++) {
+                credit[k] += (double) mix[k] / total;
+                if (credit[k] > credit[best]) {
+                    best = k;
+                }
+            }
+            credit[best] -= 1;
+            pattern[i] = MetricKind.values()[best];
+        }
+        return pattern;
+    }
+
+    private static long threadCpuNanos() {
+        final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        return threadBean.isCurrentThreadCpuTimeSupported() ? threadBean.getCurrentThreadCpuTime() : 0;
+    }
+
+    private static long processCpuNanos() {
+        final OperatingSystemMXBean osBean = ManagementFactory.getOperatingSystemMXBean();
+        return osBean instanceof com.sun.management.OperatingSystemMXBean
+                ? ((com.sun.management.OperatingSystemMXBean) osBean).getProcessCpuTime() : 0;
+    }
+
+    /**
+     * Counts the received lines and records their latency. Used only by its receiving thread.
+     */
+    private final class CountingHandler implements LineHandler {
+        private final AtomicLong received;
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private long batch;
+
+        CountingHandler(AtomicLong received) {
+            this.received = received;
+        }
+
+        @Override
+        public void onLine(Line line) {
+            if (line.isLongValue()) {
+                latency.record(System.nanoTime() - startNanos - line.longValue());
+            }
+            batch++;
+        }
+
+        @Override
+        public void endOfBatch() {
+            received.addAndGet(batch);
+            batch = 0;
+        }
+    }
+
+    /**
+     * {@link BulkSender} flushed every millisecond, so its latency stays comparable.
+     */
+    private static final class ScheduledBulkSender implements Sender, Closeable {
+        private final FlushScheduler scheduler;
+        private final BulkSender sender;
+
+        ScheduledBulkSender(int port, StatsDClientErrorHandler errorHandler) {
+            this.scheduler = new FlushScheduler(errorHandler);
+            this.sender = BulkSender.builder()
+                    .withSender(SynchronousSender.builder()
+                            .withHostAndPort(LOCALHOST, port)
+                            .withErrorHandler(errorHandler)
+                            .build())
+                    .withFlushScheduler(scheduler, 1, TimeUnit.MILLISECONDS)
+                    .build();
+        }
+
+        @Override
+        public void send(ByteBuffer msg) {
+            sender.send(msg);
+        }
+
+        @Override
+        public void close() {
+            sender.close();
+            scheduler.close();
+        }
+    }
+
+    /**
+     * Outcome of one run, formatted as a single {@code key=value} line to be diffed between releases.
+     */
+    public static final class Result {
+        private final SenderType sender;
+        private final int threads;
+        private final long sent;
+        private final long received;
+        private final long clientErrors;
+        private final long elapsedNanos;
+        private final long producerCpuNanos;
+        private final long processCpuNanos;
+        private final LatencyHistogram latency;
+
+        Result(SenderType sender, int threads, long sent, long received, long clientErrors, long elapsedNanos,
+               long producerCpuNanos, long processCpuNanos, LatencyHistogram latency) {
+            this.sender = sender;
+            this.threads = threads;
+            this.sent = sent;
+            this.received = received;
+            this.clientErrors = clientErrors;
+            this.elapsedNanos = elapsedNanos;
+            this.producerCpuNanos = producerCpuNanos;
+            this.processCpuNanos = processCpuNanos;
+            this.latency = latency;
+        }
+
+        public long sent() {
+            return sent;
+        }
+
+        public long received() {
+            return received;
+        }
+
+        public long clientErrors() {
+            return clientErrors;
+        }
+
+        /**
+         * @return metrics sent per second
+         */
+        public double throughput() {
+            return sent * 1e9 / elapsedNanos;
+        }
+
+        /**
+         * @return ratio of the metrics sent but not received
+         */
+        public double lossRate() {
+            return sent == 0 ? 0 : Math.max(0, sent - received) / (double) sent;
+        }
+
+        /**
+         * @return latency-to-receive percentile in nanos
+         */
+        public long latencyPercentile(double percentile) {
+            return latency.percentile(percentile);
+        }
+
+        /**
+         * @return CPU of the producing threads per metric sent
+         */
+        public double producerCpuPerMetric() {
+            return sent == 0 ? 0 : producerCpuNanos / (double) sent;
+        }
+
+        /**
+         * @return CPU of the whole process (including the sender threads and the receiver) per metric sent
+         */
+        public double processCpuPerMetric() {
+            return sent == 0 ? 0 : processCpuNanos / (double) sent;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT,
+                    "sender=%s threads=%d sent=%d received=%d loss=%.4f%% clientErrors=%d throughput=%.0f/s"
+                            + " latencyP50=%dus latencyP99=%dus latencyP999=%dus cpuProducer=%.0fns/metric cpuProcess=%.0fns/metric",
+                    sender, threads, sent, received, lossRate() * 100, clientErrors, throughput(),
+                    TimeUnit.NANOSECONDS.toMicros(latencyPercentile(50)),
+                    TimeUnit.NANOSECONDS.toMicros(latencyPercentile(99)),
+                    TimeUnit.NANOSECONDS.toMicros(latencyPercentile(99.9)),
+                    producerCpuPerMetric(), processCpuPerMetric());
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+
+        private List<SenderType> senders = Arrays.asList(SenderType.values());
+        private int threads = 4;
+        private long durationNanos = TimeUnit.SECONDS.toNanos(10);
+        private int[] mix = {60, 20, 10, 10};
+        private int tagCardinality = 100;
+        private long ratePerThread = 0;
+        private int receiverSockets = 1;
+        private int receiveBufferSize = 8 * 1024 * 1024;
+
+        public Builder withSenders(SenderType... senders) {
+            this.senders = Arrays.asList(senders);
+            return this;
+        }
+
+        public Builder withThreads(int threads) {
+            this.threads = threads;
+            return this;
+        }
+
+        public Builder withDuration(long duration, TimeUnit unit) {
+            this.durationNanos = unit.toNanos(duration);
+            return this;
+        }
+
+        /**
+         * @param weights relative weights of {@link MetricKind#COUNT}, {@link MetricKind#GAUGE},
+         *                {@link MetricKind#HISTOGRAM} and {@link MetricKind#TIMER}
+         */
+        public Builder withMix(int... weights) {
+            this.mix = weights;
+            return this;
+        }
+
+        /**
+         * @param tagCardinality number of distinct tag values the metrics cycle through
+         */
+        public Builder withTagCardinality(int tagCardinality) {
+            this.tagCardinality = tagCardinality;
+            return this;
+        }
+
+        /**
+         * @param ratePerThread metrics per second sent by each thread, unbounded if 0
+         */
+        public Builder withRatePerThread(long ratePerThread) {
+            this.ratePerThread = ratePerThread;
+            return this;
+        }
+
+        /**
+         * @see StatsDReceiver.Builder#withSockets(int)
+         */
+        public Builder withReceiverSockets(int receiverSockets) {
+            this.receiverSockets = receiverSockets;
+            return this;
+        }
+
+        /**
+         * @see StatsDReceiver.Builder#withReceiveBufferSize(int)
+         */
+        public Builder withReceiveBufferSize(int receiveBufferSize) {
+            this.receiveBufferSize = receiveBufferSize;
+            return this;
+        }
+
+        public LoadHarness build() {
+            return new LoadHarness(senders, threads, durationNanos, mix, tagCardinality, ratePerThread,
+                    receiverSockets, receiveBufferSize);
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        final Builder builder = builder()
+                .withThreads(Integer.getInteger("threads", 4))
+                .withDuration(Long.getLong("duration", 10), TimeUnit.SECONDS)
+                .withTagCardinality(Integer.getInteger("cardinality", 100))
+                .withRatePerThread(Long.getLong("rate", 0))
+                .withReceiverSockets(Integer.getInteger("receiverSockets", 1))
+                .withReceiveBufferSize(Integer.getInteger("receiveBufferSize", 8 * 1024 * 1024));
+        final String senders = System.getProperty("senders");
+        if (senders != null) {
+            builder.withSenders(Arrays.stream(senders.split(",")).map(String::trim).map(SenderType::valueOf).toArray(SenderType[]::new));
+        }
+        final String mix = System.getProperty("mix");
+        if (mix != null) {
+            builder.withMix(Arrays.stream(mix.split(",")).map(String::trim).mapToInt(Integer::parseInt).toArray());
+        }
+        System.out.format("java=%s os=%s cpus=%d%n", System.getProperty("java.version"), System.getProperty("os.name"),
+                Runtime.getRuntime().availableProcessors());
+        for (Result result : builder.build().run()) {
+            System.out.println(result);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package tech.energyit.statsd.load;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(JUnit4.class)
+public class LoadHarnessTest {
+
+    @Test
+    public void everySenderShouldDeliverModerateLoadWithoutLoss() throws InterruptedException {
+        List<LoadHarness.Result> results = LoadHarness.builder()
+                .withThreads(2)
+                .withDuration(200, TimeUnit.MILLISECONDS)
+                .withRatePerThread(5_000)
+                .withTagCardinality(10)
+                .build()
+                .run();
+
+        assertThat(results).hasSize(LoadHarness.SenderType.values().length);
+        for (LoadHarness.Result result : results) {
+            assertThat(result.sent()).as(result.toString()).isPositive();
+            assertThat(result.received()).as(result.toString()).isEqualTo(result.sent());
+            assertThat(result.clientErrors()).as(result.toString()).isZero();
+            assertThat(result.latencyPercentile(50)).as(result.toString()).isPositive();
+            assertThat(result.throughput()).as(result.toString()).isPositive();
+        }
+    }
+
+    @Test
+    public void histogramPercentilesShouldBeWithinBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+
+        assertThat(histogram.count()).isEqualTo(1000);
+        assertThat(histogram.percentile(50)).isBetween(470_000L, 500_000L);
+        assertThat(histogram.percentile(99)).isBetween(930_000L, 990_000L);
+        assertThat(histogram.percentile(100)).isBetween(940_000L, 1_000_000L);
+    }
+
+    @Test
+    public void bucketsShouldBeContiguous() {
+        for (int index = 0; index < 900; index++) {
+            long lowerBound = LatencyHistogram.lowerBound(index);
+            assertThat(LatencyHistogram.index(lowerBound)).isEqualTo(index);
+            assertThat(LatencyHistogram.index(LatencyHistogram.lowerBound(index + 1) - 1)).isEqualTo(index);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package tech.energyit.statsd.micrometer;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.LongTaskTimer;
+import io.micrometer.core.instrument.Timer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import tech.energyit.statsd.FastStatsDClient;
+import tech.energyit.statsd.utils.LoggingSender;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(JUnit4.class)
+public class FastStatsDMeterRegistryTest {
+
+    private LoggingSender sender;
+    private FastStatsDMeterRegistry registry;
+
+    @Before
+    public void setUp() {
+        sender = new LoggingSender();
+        registry = FastStatsDMeterRegistry.builder(new FastStatsDClient("app", sender))
+                .withPollInterval(1, TimeUnit.HOURS)
+                .build();
+    }
+
+    @After
+    public void teardown() {
+        registry.close();
+    }
+
+    @Test
+    public void countersTimersAndSummariesShouldSendLinePerRecording() {
+        Counter counter = Counter.builder("http.requests").tag("method", "GET").register(registry);
+        counter.increment();
+        counter.increment(2.5);
+        Timer timer = registry.timer("db.query");
+        timer.record(1500, TimeUnit.MICROSECONDS);
+        DistributionSummary summary = registry.summary("payload.size");
+        summary.record(512);
+
+        assertThat(sender.getMessages()).containsExactly(
+                "app.http.requests:1|c|#method:GET",
+                "app.http.requests:2.5|c|#method:GET",
+                "app.db.query:1.5|ms",
+                "app.payload.size:512|h");
+        assertThat(counter.count()).isEqualTo(3.5);
+        assertThat(timer.count()).isEqualTo(1);
+        assertThat(timer.totalTime(TimeUnit.MILLISECONDS)).isEqualTo(1.5);
+        assertThat(summary.max()).isEqualTo(512);
+    }
+
+    @Test
+    public void gaugesShouldBePolled() {
+        AtomicLong queue = new AtomicLong(3);
+        Gauge.builder("queue.size", queue, AtomicLong::get).tag("name", "orders").register(registry);
+        LongTaskTimer.builder("batch").register(registry).start();
+
+        registry.poll();
+
+        assertThat(lines()).containsExactly(
+                "app.queue.size:3.0|g|#name:orders",
+                "app.batch.active:1|g");
+    }
+
+    @Test
+    public void functionCountersShouldSendIncrements() {
+        AtomicLong total = new AtomicLong(10);
+        FunctionCounter.builder("cache.evictions", total, AtomicLong::get).register(registry);
+
+        total.set(25);
+        registry.poll();
+        registry.poll();
+
+        assertThat(sender.getMessages()).containsExactly("app.cache.evictions:15|c");
+    }
+
+    @Test
+    public void removedMetersShouldNotBePolled() {
+        AtomicLong queue = new AtomicLong(3);
+        Gauge gauge = Gauge.builder("queue.size", queue, AtomicLong::get).register(registry);
+        FunctionCounter counter = FunctionCounter.builder("cache.evictions", queue, AtomicLong::get).register(registry);
+        Gauge.builder("pool.size", queue, AtomicLong::get).register(registry);
+
+        registry.remove(gauge);
+        registry.remove(counter);
+        queue.set(5);
+        registry.poll();
+
+        assertThat(sender.getMessages()).containsExactly("app.pool.size:5.0|g");
+    }
+
+    private List<String> lines() {
+        List<String> lines = new ArrayList<>();
+        for (String message : sender.getMessages()) {
+            for (String line : message.split("\n")) {
+                if (!line.startsWith("app.batch.duration")) {
+                    lines.add(line);
+                }
+            }
+        }
+        return lines;
+    }
+}
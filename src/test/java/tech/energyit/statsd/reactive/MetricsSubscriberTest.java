@@ -0,0 +1,119 @@
+package tech.energyit.statsd.reactive;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import tech.energyit.statsd.FastStatsDClient;
+import tech.energyit.statsd.PreparedMetric;
+import tech.energyit.statsd.utils.LoggingSender;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(JUnit4.class)
+public class MetricsSubscriberTest {
+
+    private LoggingSender sender;
+    private PreparedMetric latency;
+
+    @Before
+    public void setUp() {
+        sender = new LoggingSender();
+        latency = new FastStatsDClient(sender).prepare(FastStatsDClient.MetricType.TIMER, "latency".getBytes());
+    }
+
+    @Test
+    public void elementsShouldBeRequestedInBatchesAndPacked() {
+        MetricsSubscriber<Long> subscriber = MetricsSubscriber.<Long>builder(sender, (value, buffer) -> latency.writeTo(buffer, value))
+                .withBatchSize(2)
+                .build();
+        TestPublisher publisher = new TestPublisher(5);
+
+        publisher.subscribe(subscriber);
+
+        assertThat(publisher.requests).containsExactly(2L, 2L, 2L);
+        assertThat(sender.getMessages()).containsExactly(
+                "latency:0|ms\nlatency:1|ms",
+                "latency:2|ms\nlatency:3|ms",
+                "latency:4|ms");
+    }
+
+    @Test
+    public void nextBatchShouldWaitForSenderCapacity() {
+        AtomicInteger capacityChecks = new AtomicInteger();
+        MetricsSubscriber<Long> subscriber = MetricsSubscriber.<Long>builder(sender, (value, buffer) -> latency.writeTo(buffer, value))
+                .withBatchSize(2)
+                .withBackPressure(() -> capacityChecks.incrementAndGet() % 3 == 0 ? 100 : 0, 100)
+                .build();
+        TestPublisher publisher = new TestPublisher(4);
+
+        publisher.subscribe(subscriber);
+
+        assertThat(publisher.requests).containsExactly(2L, 2L, 2L);
+        assertThat(capacityChecks).hasValue(9);
+        assertThat(sender.getMessages()).hasSize(2);
+    }
+
+    @Test
+    public void secondSubscriptionShouldBeCancelled() {
+        MetricsSubscriber<Long> subscriber = MetricsSubscriber.<Long>builder(sender, (value, buffer) -> latency.writeTo(buffer, value)).build();
+        TestPublisher first = new TestPublisher(0);
+        TestPublisher second = new TestPublisher(0);
+
+        first.subscribe(subscriber);
+        second.subscribe(subscriber);
+
+        assertThat(first.cancelled).isFalse();
+        assertThat(second.cancelled).isTrue();
+    }
+
+    /**
+     * Emits 0..count-1 synchronously on request, then completes.
+     */
+    private static class TestPublisher {
+        private final long count;
+        private final List<Long> requests = new ArrayList<>();
+        private boolean cancelled;
+        private long next;
+        private boolean emitting;
+        private long demand;
+
+        TestPublisher(long count) {
+            this.count = count;
+        }
+
+        void subscribe(Subscriber<? super Long> subscriber) {
+            subscriber.onSubscribe(new Subscription() {
+                @Override
+                public void request(long n) {
+                    requests.add(n);
+                    demand += n;
+                    if (emitting) {
+                        return;
+                    }
+                    emitting = true;
+                    while (demand > 0 && next < count) {
+                        demand--;
+                        subscriber.onNext(next++);
+                    }
+                    emitting = false;
+                    if (next == count && demand > 0) {
+                        demand = 0;
+                        subscriber.onComplete();
+                    }
+                }
+
+                @Override
+                public void cancel() {
+                    cancelled = true;
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package tech.energyit.statsd.relay;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import tech.energyit.statsd.FastStatsDClient;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(JUnit4.class)
+public class LineParserTest {
+
+    private final List<String> lines = new ArrayList<>();
+    private final List<String> invalid = new ArrayList<>();
+
+    @Test
+    public void packetShouldBeSplitToLines() {
+        int valid = parse("a:1|c\nb:2|g\r\n\nc:3|ms\n");
+        assertThat(valid).isEqualTo(3);
+        assertThat(lines).containsExactly("a:1|c", "b:2|g", "c:3|ms");
+    }
+
+    @Test
+    public void sectionsShouldBeFound() {
+        Line line = parseOne("my.metric:-42|c|@0.5|#env:prod,host:h1");
+        assertThat(line.nameLength()).isEqualTo("my.metric".length());
+        assertThat(line.type()).isEqualTo(FastStatsDClient.MetricType.COUNTER);
+        assertThat(line.isSampled()).isTrue();
+        assertThat(line.hasExtensions()).isFalse();
+        assertThat(line.isLongValue()).isTrue();
+        assertThat(line.longValue()).isEqualTo(-42);
+        assertThat(text(line.buffer(), line.tagsOffset(), line.tagsLength())).isEqualTo("env:prod,host:h1");
+    }
+
+    @Test
+    public void nonIntegerAndUnknownTypesShouldBeRecognized() {
+        Line line = parseOne("my.metric:1.5|d|c:container");
+        assertThat(line.type()).isNull();
+        assertThat(line.hasExtensions()).isTrue();
+        assertThat(line.isLongValue()).isFalse();
+        assertThat(line.tagsLength()).isZero();
+
+        assertThat(parseOne("multi:1:2:3|h").isLongValue()).isFalse();
+        assertThat(parseOne("gauge:+3|g").isSigned()).isTrue();
+    }
+
+    @Test
+    public void invalidLinesShouldBeReported() {
+        int valid = parse("no-value|c\n:1|c\nno-type:1|\nok:1|s");
+        assertThat(valid).isEqualTo(1);
+        assertThat(invalid).containsExactly("no-value|c", ":1|c", "no-type:1|");
+    }
+
+    private Line parseOne(String text) {
+        Line line = new Line();
+        assertThat(LineParser.parseLine(ByteBuffer.wrap(text.getBytes()), 0, text.length(), line)).isTrue();
+        return line;
+    }
+
+    private int parse(String packet) {
+        return LineParser.parse(ByteBuffer.wrap(packet.getBytes()), new Line(), new LineHandler() {
+            @Override
+            public void onLine(Line line) {
+                lines.add(line.toString());
+            }
+
+            @Override
+            public void onInvalidLine(ByteBuffer buffer, int offset, int length) {
+                invalid.add(text(buffer, offset, length));
+            }
+        });
+    }
+
+    private static String text(ByteBuffer buffer, int offset, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(offset + i);
+        }
+        return new String(bytes);
+    }
+}
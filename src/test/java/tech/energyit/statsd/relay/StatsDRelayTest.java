@@ -0,0 +1,120 @@
+package tech.energyit.statsd.relay;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import tech.energyit.statsd.BinaryDecoder;
+import tech.energyit.statsd.FastStatsDClient;
+import tech.energyit.statsd.SynchronousSender;
+import tech.energyit.statsd.utils.LoggingSender;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+@RunWith(JUnit4.class)
+public class StatsDRelayTest {
+
+    private LoggingSender upstream;
+    private StatsDRelay relay;
+    private SynchronousSender sender;
+
+    @Before
+    public void setUp() {
+        upstream = new LoggingSender();
+        relay = StatsDRelay.builder(upstream)
+                .withHostAndPort("localhost", 0)
+                .withFlushInterval(1, TimeUnit.HOURS)
+                .build();
+        sender = SynchronousSender.builder()
+                .withHostAndPort("localhost", relay.getPort())
+                .build();
+    }
+
+    @After
+    public void teardown() {
+        sender.close();
+        relay.close();
+    }
+
+    @Test
+    public void countersAndGaugesShouldBeAggregatedAndOtherLinesForwarded() {
+        send("hits:1|c|#env:prod\nhits:2|c|#env:prod\nlatency:5|ms");
+        send("temp:20|g\ntemp:21|g\nhits:1|c|@0.5");
+        await().atMost(2, TimeUnit.SECONDS).until(() -> lines().size() == 2);
+
+        relay.close();
+
+        assertThat(lines()).containsExactlyInAnyOrder(
+                "latency:5|ms",
+                "hits:1|c|@0.5",
+                "hits:3|c|#env:prod",
+                "temp:21|g");
+    }
+
+    @Test
+    public void receiverShouldDeliverEveryLineToHandler() {
+        List<String> received = new ArrayList<>();
+        try (StatsDReceiver receiver = StatsDReceiver.builder()
+                .withHostAndPort("localhost", 0)
+                .withLineHandlers(() -> line -> {
+                    synchronized (received) {
+                        received.add(line.toString());
+                    }
+                })
+                .build();
+             SynchronousSender direct = SynchronousSender.builder().withHostAndPort("localhost", receiver.getPort()).build()) {
+            for (int i = 0; i < 100; i++) {
+                direct.send(ByteBuffer.wrap(("m:" + i + "|c").getBytes()));
+            }
+            await().atMost(2, TimeUnit.SECONDS).until(() -> {
+                synchronized (received) {
+                    return received.size() == 100;
+                }
+            });
+        }
+    }
+
+    @Test
+    public void binaryPacketsShouldBeDecoded() {
+        relay.close();
+        relay = StatsDRelay.builder(upstream)
+                .withHostAndPort("localhost", 0)
+                .withFlushInterval(1, TimeUnit.HOURS)
+                .withBinaryDecoder(new BinaryDecoder())
+                .build();
+        sender.close();
+        sender = SynchronousSender.builder()
+                .withHostAndPort("localhost", relay.getPort())
+                .build();
+        final FastStatsDClient client = FastStatsDClient.builder().withSender(sender).withBinaryProtocol().build();
+        client.count("hits", 1);
+        client.count("hits", 2);
+        client.time("latency", 5);
+        await().atMost(2, TimeUnit.SECONDS).until(() -> lines().size() == 1);
+
+        relay.close();
+
+        assertThat(lines()).containsExactlyInAnyOrder("latency:5|ms", "hits:3|c");
+    }
+
+    private void send(String packet) {
+        sender.send(ByteBuffer.wrap(packet.getBytes()));
+    }
+
+    private List<String> lines() {
+        List<String> lines = new ArrayList<>();
+        for (String message : upstream.getMessages()) {
+            for (String line : message.split("\n")) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+}
@@ -3,6 +3,7 @@ package tech.energyit.statsd.utils;
 import tech.energyit.statsd.Sender;
 
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -14,7 +15,7 @@ public class LoggingSender implements Sender {
     public synchronized void send(ByteBuffer msg) {
         byte[] bytes = new byte[msg.remaining()];
         msg.get(bytes);
-        messages.add(new String(bytes));
+        messages.add(new String(bytes, StandardCharsets.UTF_8));
     }
 
     public synchronized List<String> getMessages() {